@@ -16,18 +16,19 @@
 package org.araqne.logparser.krsyslog.ahnlab;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.araqne.log.api.CompiledDateParser;
 import org.araqne.log.api.V1LogParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class TrusGuardLogParser extends V1LogParser {
 	private final Logger logger = LoggerFactory.getLogger(TrusGuardLogParser.class.getName());
+	private final CompiledDateParser dateFormat = new CompiledDateParser("yyyyMMdd HH:mm:ss");
 
 	@Override
 	public Map<String, Object> parse(Map<String, Object> params) {
@@ -58,11 +59,10 @@ public class TrusGuardLogParser extends V1LogParser {
 				Integer moduleFlag = Integer.valueOf(tokenizedLine[index++]);
 				m.put("module_flag", moduleFlag);
 				// log data
-				SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd HH:mm:ss");
 				String dateToken = tokenizedLine[index++];
 				String timeToken = tokenizedLine[index++];
 				try {
-					m.put("date", dateFormat.parse(dateToken + " " + timeToken));
+					m.put("date", dateFormat.parseDate(dateToken + " " + timeToken));
 				} catch (ParseException e) {
 				}
 
@@ -483,11 +483,10 @@ public class TrusGuardLogParser extends V1LogParser {
 	private void parseFirewallLogV1(String[] tokenizedLine, Map<String, Object> m) {
 		int index = 5;
 		// log data
-		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd HH:mm:ss");
 		String dateToken = tokenizedLine[index++];
 		String timeToken = tokenizedLine[index++];
 		try {
-			m.put("date", dateFormat.parse(dateToken + " " + timeToken));
+			m.put("date", dateFormat.parseDate(dateToken + " " + timeToken));
 		} catch (ParseException e) {
 		}
 
@@ -530,11 +529,10 @@ public class TrusGuardLogParser extends V1LogParser {
 		m.put("module_flag", moduleFlag);
 
 		// log data
-		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd HH:mm:ss");
 		String dateToken = tokenizedLine[index++];
 		String timeToken = tokenizedLine[index++];
 		try {
-			m.put("date", dateFormat.parse(dateToken + " " + timeToken));
+			m.put("date", dateFormat.parseDate(dateToken + " " + timeToken));
 		} catch (ParseException e) {
 		}
 
@@ -15,11 +15,11 @@
  */
 package org.araqne.logparser.krsyslog.infosec;
 
-import java.text.SimpleDateFormat;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 
+import org.araqne.log.api.CompiledDateParser;
 import org.araqne.log.api.V1LogParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,7 +36,7 @@ public class AntiWebShellLogParser extends V1LogParser {
 		String, Integer, Date
 	};
 
-	private SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.ENGLISH);
+	private final CompiledDateParser format = new CompiledDateParser("yyyy-MM-dd HH:mm:ss", Locale.ENGLISH);
 
 	private static final String[] Keys = new String[] { "그룹명", "hostname", "type", "domain", "ip주소", "점검일", "생성", "변경", "탐지문자",
 			"권한변경", "이상탐지", "난독화", "위치", "탐지테이블pk", "웹쉘탐지상태", "조치상태", "진단명", "검색시작디렉토리", "탐지디렉토리", "탐지파일명", "탐지해쉬값", "담당자이메일주소",
@@ -81,7 +81,7 @@ public class AntiWebShellLogParser extends V1LogParser {
 					if (type == FieldType.Integer)
 						m.put(key, Integer.valueOf(token));
 					else if (type == FieldType.Date)
-						m.put(key, format.parse(token));
+						m.put(key, format.parseDate(token));
 					else
 						m.put(key, token);
 				}
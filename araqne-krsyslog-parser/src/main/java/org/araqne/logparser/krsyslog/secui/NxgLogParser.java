@@ -16,17 +16,18 @@
 package org.araqne.logparser.krsyslog.secui;
 
 import java.text.ParsePosition;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.araqne.log.api.CompiledDateParser;
 import org.araqne.log.api.DelimiterParser;
 import org.araqne.log.api.V1LogParser;
 
 public class NxgLogParser extends V1LogParser {
 
 	private DelimiterParser p = new DelimiterParser(",", null);
+	private final CompiledDateParser df = new CompiledDateParser("yyyy-MM-dd HH:mm:ss");
 
 	@Override
 	public Map<String, Object> parse(Map<String, Object> params) {
@@ -42,7 +43,6 @@ public class NxgLogParser extends V1LogParser {
 		HashMap<String, Object> m = new HashMap<String, Object>();
 		int e = line.indexOf(' ');
 
-		SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 		String type = line.substring(b, e);
 		if (type.equals("[LOG_ADMITTED]")) {
 			m.put("type", "allow");
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.log.api;
+
+/**
+ * Parser which can parse multiple inputs at once. Use
+ * {@link BatchLogParserAdapter#wrap(LogParser)} to get batch interface of any
+ * parser.
+ * 
+ * @since 3.4.13
+ */
+public interface BatchLogParser extends LogParser {
+	/**
+	 * Parse all inputs of the batch and append rows in input order. Parse
+	 * failure of each input should be reported using
+	 * {@link LogParserBatch#setFailure(int, Throwable)} instead of throwing
+	 * exception.
+	 * 
+	 * For version 1 parser, input data is passed as parse(Map) parameter, and
+	 * at most one row is appended per input. No row means null result.
+	 */
+	void parse(LogParserBatch batch);
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.log.api;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Default batch adapter for legacy parsers. Calls per-record parse method for
+ * each input.
+ * 
+ * @since 3.4.13
+ */
+public class BatchLogParserAdapter implements BatchLogParser {
+	private final LogParser parser;
+
+	public static BatchLogParser wrap(LogParser parser) {
+		if (parser == null)
+			return null;
+		if (parser instanceof BatchLogParser)
+			return (BatchLogParser) parser;
+		return new BatchLogParserAdapter(parser);
+	}
+
+	public BatchLogParserAdapter(LogParser parser) {
+		this.parser = parser;
+	}
+
+	public LogParser getParser() {
+		return parser;
+	}
+
+	@Override
+	public int getVersion() {
+		return parser.getVersion();
+	}
+
+	@Override
+	public Map<String, Object> parse(Map<String, Object> params) {
+		return parser.parse(params);
+	}
+
+	@Override
+	public LogParserOutput parse(LogParserInput input) {
+		return parser.parse(input);
+	}
+
+	@Override
+	public List<FieldDefinition> getFieldDefinitions() {
+		return parser.getFieldDefinitions();
+	}
+
+	@Override
+	public void parse(LogParserBatch batch) {
+		boolean v2 = parser.getVersion() == 2;
+		int count = batch.getInputCount();
+		for (int i = 0; i < count; i++) {
+			LogParserInput input = batch.getInput(i);
+			try {
+				if (v2) {
+					LogParserOutput output = parser.parse(input);
+					if (output != null)
+						for (Map<String, Object> row : output.getRows())
+							batch.addRow(i, row);
+				} else {
+					Map<String, Object> row = parser.parse(input.getData());
+					if (row != null)
+						batch.addRow(i, row);
+				}
+			} catch (Throwable t) {
+				batch.setFailure(i, t);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return parser.toString();
+	}
+}
@@ -0,0 +1,584 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.log.api;
+
+import java.text.DateFormatSymbols;
+import java.text.ParseException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Thread-safe date parser which compiles {@link SimpleDateFormat} pattern into
+ * field scanner once. Parsed fields except milliseconds are memoized, so
+ * repeated timestamps in same second do not pay calendar calculation again.
+ * 
+ * Parse result is same with {@link SimpleDateFormat#parse(String)}: text is
+ * parsed from the beginning and trailing text is ignored. Pattern letters
+ * y, M, L, d, H, k, K, h, m, s, S, a, E, Z and X are supported, others throw
+ * IllegalArgumentException at construction.
+ * 
+ * @since 3.4.13
+ */
+public class CompiledDateParser implements DateParser {
+	private static final int LITERAL = 0;
+	private static final int YEAR = 1;
+	private static final int MONTH = 2;
+	private static final int MONTH_TEXT = 3;
+	private static final int DAY = 4;
+	private static final int HOUR_OF_DAY = 5;
+	private static final int HOUR_OF_DAY1 = 6;
+	private static final int HOUR = 7;
+	private static final int HOUR1 = 8;
+	private static final int MINUTE = 9;
+	private static final int SECOND = 10;
+	private static final int MILLISECOND = 11;
+	private static final int AM_PM = 12;
+	private static final int DAY_OF_WEEK = 13;
+	private static final int ZONE = 14;
+	private static final int ISO_ZONE = 15;
+
+	private static final int NO_ZONE = Integer.MIN_VALUE;
+	private static final long FAILED = Long.MIN_VALUE;
+
+	private final String pattern;
+
+	// compiled fields
+	private final int[] kinds;
+	private final int[] counts;
+	private final boolean[] fixed;
+	private final String[] literals;
+
+	private final String[] months;
+	private final String[] shortMonths;
+	private final String[] weekdays;
+	private final String[] shortWeekdays;
+	private final String[] ampms;
+
+	// template calendar, cloned for each cache miss
+	private final Calendar calendar;
+	private final int centuryStartYear;
+	private final boolean currentYear;
+
+	// direct mapped cache, entries are immutable
+	private final Entry[] cache;
+	private volatile YearRange yearRange;
+
+	public CompiledDateParser(String pattern) {
+		this(new SimpleDateFormat(pattern));
+	}
+
+	public CompiledDateParser(String pattern, Locale locale) {
+		this(new SimpleDateFormat(pattern, locale));
+	}
+
+	public CompiledDateParser(SimpleDateFormat format) {
+		this(format, false, 64);
+	}
+
+	/**
+	 * @param format
+	 *            pattern, date format symbols, time zone and leniency are
+	 *            copied. later changes of the format are not applied.
+	 * @param currentYear
+	 *            replace year with current year, for the log formats which
+	 *            have no year
+	 * @param cacheSize
+	 *            max number of memoized timestamps (rounded up to power of 2)
+	 */
+	public CompiledDateParser(SimpleDateFormat format, boolean currentYear, int cacheSize) {
+		this.pattern = format.toPattern();
+		this.currentYear = currentYear;
+		this.calendar = (Calendar) format.getCalendar().clone();
+
+		DateFormatSymbols symbols = format.getDateFormatSymbols();
+		this.months = symbols.getMonths();
+		this.shortMonths = symbols.getShortMonths();
+		this.weekdays = symbols.getWeekdays();
+		this.shortWeekdays = symbols.getShortWeekdays();
+		this.ampms = symbols.getAmPmStrings();
+
+		Calendar c = (Calendar) calendar.clone();
+		c.setTime(format.get2DigitYearStart());
+		this.centuryStartYear = c.get(Calendar.YEAR);
+
+		int size = 1;
+		while (size < cacheSize)
+			size <<= 1;
+		this.cache = new Entry[size];
+
+		List<Integer> kindList = new ArrayList<Integer>();
+		List<Integer> countList = new ArrayList<Integer>();
+		List<String> literalList = new ArrayList<String>();
+		compile(pattern, kindList, countList, literalList);
+
+		int n = kindList.size();
+		this.kinds = new int[n];
+		this.counts = new int[n];
+		this.fixed = new boolean[n];
+		this.literals = literalList.toArray(new String[n]);
+		for (int i = 0; i < n; i++) {
+			kinds[i] = kindList.get(i);
+			counts[i] = countList.get(i);
+		}
+
+		// abutting numeric fields should consume exact digits
+		for (int i = 0; i + 1 < n; i++)
+			fixed[i] = isNumeric(kinds[i]) && isNumeric(kinds[i + 1]);
+	}
+
+	public String getPattern() {
+		return pattern;
+	}
+
+	/**
+	 * @return parsed date, or null if line does not start with the date
+	 */
+	@Override
+	public Date parse(String line) {
+		long t = parseMillis(line, 0, null);
+		return t == FAILED ? null : new Date(t);
+	}
+
+	/**
+	 * Same with {@link java.text.DateFormat#parse(String, ParsePosition)}.
+	 */
+	public Date parse(String text, ParsePosition pos) {
+		long t = parseMillis(text, pos.getIndex(), pos);
+		return t == FAILED ? null : new Date(t);
+	}
+
+	/**
+	 * Same with {@link java.text.DateFormat#parse(String)}.
+	 */
+	public Date parseDate(String text) throws ParseException {
+		ParsePosition pos = new ParsePosition(0);
+		Date d = parse(text, pos);
+		if (d == null)
+			throw new ParseException("Unparseable date: \"" + text + "\"", pos.getErrorIndex());
+		return d;
+	}
+
+	private long parseMillis(String s, int begin, ParsePosition pos) {
+		int len = s.length();
+		int p = begin;
+
+		int year = -1;
+		boolean twoDigitYear = false;
+		int month = 0;
+		int day = 1;
+		int hour = 0;
+		int hour12 = -1;
+		int ampm = -1;
+		int minute = 0;
+		int second = 0;
+		int millis = 0;
+		int offset = NO_ZONE;
+
+		for (int i = 0; i < kinds.length; i++) {
+			int kind = kinds[i];
+			if (kind == LITERAL) {
+				String literal = literals[i];
+				if (!s.startsWith(literal, p))
+					return fail(pos, p);
+				p += literal.length();
+				continue;
+			}
+
+			// SimpleDateFormat skips white spaces before each field
+			while (p < len && (s.charAt(p) == ' ' || s.charAt(p) == '\t'))
+				p++;
+
+			if (p >= len)
+				return fail(pos, p);
+
+			switch (kind) {
+			case MONTH_TEXT: {
+				int index = match(s, p, months);
+				if (index < 0) {
+					index = match(s, p, shortMonths);
+					if (index < 0)
+						return fail(pos, p);
+					p += shortMonths[index].length();
+				} else {
+					p += months[index].length();
+				}
+				month = index;
+				continue;
+			}
+			case DAY_OF_WEEK: {
+				int index = match(s, p, weekdays);
+				if (index < 0) {
+					index = match(s, p, shortWeekdays);
+					if (index < 0)
+						return fail(pos, p);
+					p += shortWeekdays[index].length();
+				} else {
+					p += weekdays[index].length();
+				}
+				continue;
+			}
+			case AM_PM: {
+				int index = match(s, p, ampms);
+				if (index < 0)
+					return fail(pos, p);
+				p += ampms[index].length();
+				ampm = index;
+				continue;
+			}
+			case ZONE:
+			case ISO_ZONE: {
+				char c = s.charAt(p);
+				if (c == 'Z' && kind == ISO_ZONE) {
+					// ISO 8601 UTC designator
+					offset = 0;
+					p++;
+					continue;
+				}
+
+				if (c != '+' && c != '-')
+					return fail(pos, p);
+
+				int hh = digits(s, p + 1, 2);
+				if (hh < 0)
+					return fail(pos, p);
+
+				int q = p + 3;
+				int mm = 0;
+				if (q < len && s.charAt(q) == ':')
+					q++;
+
+				int parsed = digits(s, q, 2);
+				if (parsed >= 0) {
+					mm = parsed;
+					q += 2;
+				} else {
+					q = p + 3;
+				}
+
+				offset = hh * 60 + mm;
+				if (c == '-')
+					offset = -offset;
+				p = q;
+				continue;
+			}
+			}
+
+			// numeric fields
+			int max = fixed[i] ? counts[i] : 9;
+			int value = 0;
+			int n = 0;
+			while (n < max && p < len) {
+				char c = s.charAt(p);
+				if (c < '0' || c > '9')
+					break;
+				value = value * 10 + (c - '0');
+				p++;
+				n++;
+			}
+
+			if (n == 0)
+				return fail(pos, p);
+
+			switch (kind) {
+			case YEAR:
+				year = value;
+				twoDigitYear = counts[i] <= 2 && n == 2;
+				break;
+			case MONTH:
+				month = value - 1;
+				break;
+			case DAY:
+				day = value;
+				break;
+			case HOUR_OF_DAY:
+				hour = value;
+				break;
+			case HOUR_OF_DAY1:
+				hour = value == 24 ? 0 : value;
+				break;
+			case HOUR:
+				hour12 = value;
+				break;
+			case HOUR1:
+				hour12 = value == 12 ? 0 : value;
+				break;
+			case MINUTE:
+				minute = value;
+				break;
+			case SECOND:
+				second = value;
+				break;
+			case MILLISECOND:
+				millis = value;
+				break;
+			}
+		}
+
+		if (hour12 >= 0)
+			hour = hour12 + (ampm == 1 ? 12 : 0);
+
+		if (currentYear) {
+			year = getCurrentYear();
+		} else if (year < 0) {
+			year = 1970;
+		} else if (twoDigitYear) {
+			int ambiguous = centuryStartYear % 100;
+			year += (centuryStartYear / 100) * 100 + (year < ambiguous ? 100 : 0);
+		}
+
+		long base = FAILED;
+		long key = pack(year, month, day, hour, minute, second, offset);
+		int slot = 0;
+		if (key >= 0) {
+			slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & (cache.length - 1);
+			Entry e = cache[slot];
+			if (e != null && e.key == key)
+				base = e.millis;
+		}
+
+		if (base == FAILED) {
+			base = toMillis(year, month, day, hour, minute, second, offset);
+			if (base == FAILED)
+				return fail(pos, begin);
+
+			if (key >= 0)
+				cache[slot] = new Entry(key, base);
+		}
+
+		if (pos != null)
+			pos.setIndex(p);
+
+		return base + millis;
+	}
+
+	private long toMillis(int year, int month, int day, int hour, int minute, int second, int offset) {
+		Calendar c = (Calendar) calendar.clone();
+		c.clear();
+		c.set(year, month, day, hour, minute, second);
+		if (offset != NO_ZONE) {
+			c.set(Calendar.ZONE_OFFSET, offset * 60000);
+			c.set(Calendar.DST_OFFSET, 0);
+		}
+
+		try {
+			return c.getTimeInMillis();
+		} catch (IllegalArgumentException e) {
+			// not lenient
+			return FAILED;
+		}
+	}
+
+	// returns -1 if any field is out of packable range
+	private static long pack(int year, int month, int day, int hour, int minute, int second, int offset) {
+		if (year < 0 || year > 0xffff || month < 0 || month > 15 || day < 0 || day > 31 || hour < 0 || hour > 31
+				|| minute < 0 || minute > 63 || second < 0 || second > 63)
+			return -1;
+
+		int zone = 0;
+		if (offset != NO_ZONE) {
+			if (offset < -1023 || offset > 1023)
+				return -1;
+			zone = offset + 1024;
+		}
+
+		long key = year;
+		key = (key << 4) | month;
+		key = (key << 5) | day;
+		key = (key << 5) | hour;
+		key = (key << 6) | minute;
+		key = (key << 6) | second;
+		key = (key << 11) | zone;
+		return key;
+	}
+
+	private int getCurrentYear() {
+		long now = System.currentTimeMillis();
+		YearRange r = yearRange;
+		if (r == null || now < r.begin || now >= r.end) {
+			Calendar c = (Calendar) calendar.clone();
+			c.setTimeInMillis(now);
+			int year = c.get(Calendar.YEAR);
+			c.clear();
+			c.set(year, 0, 1);
+			long begin = c.getTimeInMillis();
+			c.set(year + 1, 0, 1);
+			r = new YearRange(year, begin, c.getTimeInMillis());
+			yearRange = r;
+		}
+		return r.year;
+	}
+
+	private static long fail(ParsePosition pos, int p) {
+		if (pos != null)
+			pos.setErrorIndex(p);
+		return FAILED;
+	}
+
+	// case insensitive longest match like SimpleDateFormat
+	private static int match(String s, int p, String[] candidates) {
+		int found = -1;
+		int foundLength = 0;
+		for (int i = 0; i < candidates.length; i++) {
+			String c = candidates[i];
+			int l = c.length();
+			if (l > foundLength && s.regionMatches(true, p, c, 0, l)) {
+				found = i;
+				foundLength = l;
+			}
+		}
+		return found;
+	}
+
+	private static int digits(String s, int p, int n) {
+		if (p + n > s.length())
+			return -1;
+
+		int value = 0;
+		for (int i = p; i < p + n; i++) {
+			char c = s.charAt(i);
+			if (c < '0' || c > '9')
+				return -1;
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static void compile(String pattern, List<Integer> kinds, List<Integer> counts, List<String> literals) {
+		boolean quoted = false;
+		StringBuilder literal = new StringBuilder();
+		int len = pattern.length();
+		for (int i = 0; i < len; i++) {
+			char c = pattern.charAt(i);
+			if (c == '\'') {
+				if (i + 1 < len && pattern.charAt(i + 1) == '\'') {
+					i++;
+					literal.append(c);
+				} else {
+					quoted = !quoted;
+				}
+				continue;
+			}
+
+			if (quoted || !isLetter(c)) {
+				literal.append(c);
+				continue;
+			}
+
+			if (literal.length() > 0) {
+				kinds.add(LITERAL);
+				counts.add(0);
+				literals.add(literal.toString());
+				literal.setLength(0);
+			}
+
+			int count = 1;
+			while (i + 1 < len && pattern.charAt(i + 1) == c) {
+				count++;
+				i++;
+			}
+
+			kinds.add(toKind(c, count));
+			counts.add(count);
+			literals.add(null);
+		}
+
+		if (quoted)
+			throw new IllegalArgumentException("unterminated quote in date pattern: " + pattern);
+
+		if (literal.length() > 0) {
+			kinds.add(LITERAL);
+			counts.add(0);
+			literals.add(literal.toString());
+		}
+	}
+
+	private static int toKind(char c, int count) {
+		switch (c) {
+		case 'y':
+			return YEAR;
+		case 'M':
+		case 'L':
+			return count >= 3 ? MONTH_TEXT : MONTH;
+		case 'd':
+			return DAY;
+		case 'H':
+			return HOUR_OF_DAY;
+		case 'k':
+			return HOUR_OF_DAY1;
+		case 'K':
+			return HOUR;
+		case 'h':
+			return HOUR1;
+		case 'm':
+			return MINUTE;
+		case 's':
+			return SECOND;
+		case 'S':
+			return MILLISECOND;
+		case 'a':
+			return AM_PM;
+		case 'E':
+			return DAY_OF_WEEK;
+		case 'Z':
+			return ZONE;
+		case 'X':
+			return ISO_ZONE;
+		default:
+			throw new IllegalArgumentException("unsupported date pattern letter '" + c + "'");
+		}
+	}
+
+	private static boolean isNumeric(int kind) {
+		return kind != LITERAL && kind != MONTH_TEXT && kind != AM_PM && kind != DAY_OF_WEEK && kind != ZONE
+				&& kind != ISO_ZONE;
+	}
+
+	private static boolean isLetter(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	@Override
+	public String toString() {
+		return "compiled date parser [" + pattern + "]";
+	}
+
+	private static class Entry {
+		private final long key;
+		private final long millis;
+
+		private Entry(long key, long millis) {
+			this.key = key;
+			this.millis = millis;
+		}
+	}
+
+	private static class YearRange {
+		private final int year;
+		private final long begin;
+		private final long end;
+
+		private YearRange(int year, long begin, long end) {
+			this.year = year;
+			this.begin = begin;
+			this.end = end;
+		}
+	}
+}
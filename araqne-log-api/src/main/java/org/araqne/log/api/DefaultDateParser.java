@@ -9,16 +9,25 @@ import java.util.regex.Pattern;
 
 public class DefaultDateParser implements DateParser {
 	private SimpleDateFormat dateFormat;
+	// null if pattern is not supported
+	private CompiledDateParser compiled;
 	private Pattern p;
 	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(DefaultDateParser.class);
 
 	public DefaultDateParser(String simpleDateFormat) {
-		this.dateFormat = new SimpleDateFormat(simpleDateFormat);
-		this.p = Pattern.compile(dateFormatToRegex(simpleDateFormat));
+		this(new SimpleDateFormat(simpleDateFormat), dateFormatToRegex(simpleDateFormat));
 	}
+
 	public DefaultDateParser(SimpleDateFormat dateFormat, String dateExtractor) {
 		this.dateFormat = dateFormat;
 		this.p = Pattern.compile(dateExtractor);
+
+		try {
+			boolean noYear = dateFormat.toPattern().indexOf('y') < 0;
+			this.compiled = new CompiledDateParser(dateFormat, noYear, 64);
+		} catch (IllegalArgumentException e) {
+			logger.debug("araqne log api: use simple date format for [{}], {}", dateFormat.toPattern(), e.getMessage());
+		}
 	}
 
 	@Override
@@ -34,7 +43,18 @@ public class DefaultDateParser implements DateParser {
 			for (int group = 1; group <= m.groupCount(); group++) {
 				try {
 					String dateString = m.group(group);
-					Date date = dateFormat.parse(dateString);
+					if (compiled != null) {
+						Date date = compiled.parse(dateString);
+						if (date != null)
+							return date;
+						continue;
+					}
+
+					Date date;
+					synchronized (dateFormat) {
+						date = dateFormat.parse(dateString);
+					}
+
 					Calendar c = Calendar.getInstance();
 					int currentYear = c.get(Calendar.YEAR);
 					c.setTime(date);
@@ -20,7 +20,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-public class DelimiterParser extends V1LogParser {
+public class DelimiterParser extends V1LogParser implements BatchLogParser {
 	private final char delimiter;
 	private final String[] columnHeaders;
 	private final String targetField;
@@ -55,6 +55,31 @@ public class DelimiterParser extends V1LogParser {
 			return params;
 
 		HashMap<String, Object> m = new HashMap<String, Object>(40);
+		parseLine(line, m);
+		return m;
+	}
+
+	/**
+	 * @since 3.4.13
+	 */
+	@Override
+	public void parse(LogParserBatch batch) {
+		int count = batch.getInputCount();
+		for (int i = 0; i < count; i++) {
+			try {
+				Map<String, Object> params = batch.getInput(i).getData();
+				String line = (String) params.get(targetField);
+				if (line == null)
+					batch.addRow(i, params);
+				else
+					parseLine(line, batch.addRow(i, 40));
+			} catch (Throwable t) {
+				batch.setFailure(i, t);
+			}
+		}
+	}
+
+	private void parseLine(String line, Map<String, Object> m) {
 		if (includeTargetField)
 			m.put(targetField, line);
 
@@ -83,8 +108,6 @@ public class DelimiterParser extends V1LogParser {
 			last = p + 1;
 			i++;
 		}
-
-		return m;
 	}
 
 	/**
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.log.api;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reusable input and output buffer for {@link BatchLogParser}. Caller fills
+ * inputs using {@link #addInput()}, and parser appends rows of each input in
+ * input order. Call {@link #clear()} before next batch.
+ * 
+ * If row reuse is enabled, maps returned by {@link #addRow(int)} are cleared
+ * and returned again for next batch, so caller should copy rows before
+ * clear(). Row reuse is disabled by default, but rows released by
+ * {@link #releaseRow(int, int)} are always reused.
+ * 
+ * @since 3.4.13
+ */
+public class LogParserBatch {
+	private LogParserInput[] inputs;
+	private Throwable[] failures;
+
+	// rows of input i are rows[rowBegins[i]] ~ rows[rowBegins[i + 1] - 1]
+	private int[] rowBegins;
+	private Map<String, Object>[] rows;
+
+	// maps which can be reused after clear()
+	private Map<String, Object>[] pool;
+	// rows which are created by addRow(), others are owned by parser
+	private boolean[] owned;
+	// rows which are not used by caller anymore
+	private boolean[] released;
+
+	private int inputCount;
+	private int rowCount;
+	private int lastInput;
+	private boolean reuseRows;
+
+	public LogParserBatch() {
+		this(64);
+	}
+
+	@SuppressWarnings("unchecked")
+	public LogParserBatch(int capacity) {
+		capacity = Math.max(1, capacity);
+		inputs = new LogParserInput[capacity];
+		failures = new Throwable[capacity];
+		rowBegins = new int[capacity + 1];
+		rows = new Map[capacity];
+		pool = new Map[capacity];
+		owned = new boolean[capacity];
+		released = new boolean[capacity];
+	}
+
+	public boolean isReuseRows() {
+		return reuseRows;
+	}
+
+	public void setReuseRows(boolean reuseRows) {
+		this.reuseRows = reuseRows;
+	}
+
+	public void clear() {
+		Arrays.fill(failures, 0, inputCount, null);
+
+		// do not hold input data of previous batch
+		for (int i = 0; i < inputCount; i++)
+			inputs[i].setData(null);
+
+		for (int i = 0; i < rowCount; i++)
+			if (owned[i] && (reuseRows || released[i]))
+				pool[i] = rows[i];
+
+		Arrays.fill(rows, 0, rowCount, null);
+		Arrays.fill(released, 0, rowCount, false);
+		inputCount = 0;
+		rowCount = 0;
+		lastInput = 0;
+	}
+
+	/**
+	 * @return reused input instance, caller should set all fields
+	 */
+	public LogParserInput addInput() {
+		if (inputCount == inputs.length) {
+			int capacity = inputs.length * 2;
+			inputs = Arrays.copyOf(inputs, capacity);
+			failures = Arrays.copyOf(failures, capacity);
+			rowBegins = Arrays.copyOf(rowBegins, capacity + 1);
+		}
+
+		LogParserInput input = inputs[inputCount];
+		if (input == null) {
+			input = new LogParserInput();
+			inputs[inputCount] = input;
+		}
+
+		inputCount++;
+		return input;
+	}
+
+	public int getInputCount() {
+		return inputCount;
+	}
+
+	public LogParserInput getInput(int index) {
+		checkInput(index);
+		return inputs[index];
+	}
+
+	/**
+	 * Append new empty row of the input. Returned map can be reused if row
+	 * reuse is enabled.
+	 */
+	public Map<String, Object> addRow(int input) {
+		return addRow(input, 16);
+	}
+
+	/**
+	 * Append new empty row of the input with initial capacity of expected
+	 * field count. Returned map can be reused if row reuse is enabled.
+	 */
+	public Map<String, Object> addRow(int input, int initialCapacity) {
+		Map<String, Object> m = null;
+		if (rowCount < pool.length && pool[rowCount] != null) {
+			m = pool[rowCount];
+			pool[rowCount] = null;
+			m.clear();
+		} else {
+			m = new HashMap<String, Object>(initialCapacity);
+		}
+
+		addRow(input, m);
+		owned[rowCount - 1] = true;
+		return m;
+	}
+
+	/**
+	 * Append parsed row of the input. Rows should be added in input order.
+	 */
+	public void addRow(int input, Map<String, Object> row) {
+		checkInput(input);
+		if (input < lastInput)
+			throw new IllegalStateException("rows should be added in input order, last " + lastInput + ", input " + input);
+
+		// rows of skipped inputs are empty
+		for (int i = lastInput + 1; i <= input; i++)
+			rowBegins[i] = rowCount;
+		lastInput = input;
+
+		if (rowCount == rows.length) {
+			rows = Arrays.copyOf(rows, rows.length * 2);
+			pool = Arrays.copyOf(pool, pool.length * 2);
+			owned = Arrays.copyOf(owned, owned.length * 2);
+			released = Arrays.copyOf(released, released.length * 2);
+		}
+
+		owned[rowCount] = false;
+		rows[rowCount++] = row;
+	}
+
+	public int getRowCount(int input) {
+		checkInput(input);
+		return getRowEnd(input) - getRowBegin(input);
+	}
+
+	public Map<String, Object> getRow(int input, int index) {
+		int begin = getRowBegin(input);
+		if (index < 0 || begin + index >= getRowEnd(input))
+			throw new IndexOutOfBoundsException("input " + input + ", row " + index);
+		return rows[begin + index];
+	}
+
+	private int getRowBegin(int input) {
+		if (input > lastInput)
+			return rowCount;
+		return rowBegins[input];
+	}
+
+	private int getRowEnd(int input) {
+		if (input >= lastInput)
+			return rowCount;
+		return rowBegins[input + 1];
+	}
+
+	/**
+	 * Mark the row as unused by caller, e.g. rejected by filter. Row created
+	 * by {@link #addRow(int)} is reused after clear() even if row reuse is
+	 * disabled.
+	 */
+	public void releaseRow(int input, int index) {
+		int begin = getRowBegin(input);
+		if (index < 0 || begin + index >= getRowEnd(input))
+			throw new IndexOutOfBoundsException("input " + input + ", row " + index);
+		released[begin + index] = true;
+	}
+
+	public Throwable getFailure(int input) {
+		checkInput(input);
+		return failures[input];
+	}
+
+	/**
+	 * Mark the input as failed. Rows which are already added for the input are
+	 * ignored by caller.
+	 */
+	public void setFailure(int input, Throwable t) {
+		checkInput(input);
+		failures[input] = t;
+	}
+
+	private void checkInput(int input) {
+		if (input < 0 || input >= inputCount)
+			throw new IndexOutOfBoundsException("input " + input + ", count " + inputCount);
+	}
+}
@@ -48,6 +48,8 @@ public class MultilineLogExtractor {
 	private Matcher endMatcher;
 	private Matcher dateMatcher;
 	private SimpleDateFormat dateFormat;
+	// compiled from dateFormat, null if pattern is not supported
+	private CompiledDateParser dateParser;
 	private LogPipe pipe;
 
 	// XXX
@@ -165,11 +167,21 @@ public class MultilineLogExtractor {
 			dateFormat.setTimeZone(TimeZone.getTimeZone(timeZone));
 		}
 
-		if (dateFormat != null && !dateFormat.toPattern().contains("yyyy")) {
+		boolean noYear = dateFormat != null && !dateFormat.toPattern().contains("yyyy");
+		if (noYear) {
 			yearModifier = Calendar.getInstance();
 			if (timeZone != null)
 				yearModifier.setTimeZone(TimeZone.getTimeZone(timeZone));
 		}
+
+		dateParser = null;
+		if (dateFormat != null) {
+			try {
+				dateParser = new CompiledDateParser(dateFormat, noYear, 64);
+			} catch (IllegalArgumentException e) {
+				slog.debug("araqne log api: use simple date format for [{}], {}", dateFormat.toPattern(), e.getMessage());
+			}
+		}
 	}
 
 	public void extract(InputStream is, AtomicLong lastPosition) throws IOException {
@@ -370,6 +382,16 @@ public class MultilineLogExtractor {
 		if (s == null)
 			return new Date();
 
+		// compiled parser applies current year by itself
+		if (dateParser != null) {
+			Date d = dateParser.parse(s);
+			if (d == null) {
+				slog.debug("araqne log api: cannot parse date [{}] line [{}]", s, line);
+				return new Date();
+			}
+			return d;
+		}
+
 		Date d = null;
 		try {
 			d = dateFormat.parse(s, new ParsePosition(0));
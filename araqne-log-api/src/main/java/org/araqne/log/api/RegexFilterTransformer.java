@@ -27,6 +27,7 @@ import java.util.regex.Pattern;
 public class RegexFilterTransformer implements LogTransformer {
 	private final LogTransformerFactory factory;
 	private final Matcher matcher;
+	private final RegexPrefilter prefilter;
 
 	// inverse match
 	private final boolean inverse;
@@ -35,6 +36,7 @@ public class RegexFilterTransformer implements LogTransformer {
 		this.factory = factory;
 		Pattern p = Pattern.compile((String) config.get("pattern"));
 		this.matcher = p.matcher("");
+		this.prefilter = new RegexPrefilter(p);
 
 		String s = config.get("inverse");
 		inverse = s == null ? false : Boolean.parseBoolean(s);
@@ -48,9 +50,13 @@ public class RegexFilterTransformer implements LogTransformer {
 	@Override
 	public Log transform(Log log) {
 		String line = (String) log.getParams().get("line");
-		matcher.reset(line);
+		boolean found = false;
+		if (line == null || prefilter.mayMatch(line)) {
+			matcher.reset(line);
+			found = matcher.find();
+		}
 
-		if (matcher.find() ^ inverse)
+		if (found ^ inverse)
 			return log;
 
 		return null;
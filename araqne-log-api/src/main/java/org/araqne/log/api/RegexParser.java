@@ -22,12 +22,13 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-public class RegexParser extends V1LogParser {
+public class RegexParser extends V1LogParser implements BatchLogParser {
 	private final String field;
 	private final Pattern p;
 	private final String[] names;
 	private final boolean includeOriginalField;
 	private final Matcher matcher;
+	private final RegexPrefilter prefilter;
 	private final List<FieldDefinition> fieldDefs;
 
 	public RegexParser(String field, Pattern p, String[] names) {
@@ -40,6 +41,7 @@ public class RegexParser extends V1LogParser {
 		this.names = names;
 		this.includeOriginalField = includeOriginalField;
 		this.matcher = p.matcher("");
+		this.prefilter = new RegexPrefilter(p);
 
 		this.fieldDefs = new ArrayList<FieldDefinition>();
 		for (String name : names)
@@ -49,19 +51,38 @@ public class RegexParser extends V1LogParser {
 	@Override
 	public Map<String, Object> parse(Map<String, Object> params) {
 		Map<String, Object> m = new HashMap<String, Object>();
-		String s = (String) params.get(field);
+		parseLine((String) params.get(field), m);
+		return m;
+	}
 
-		matcher.reset(s);
-		while (matcher.find())
-			for (int i = 0; i < matcher.groupCount(); i++) {
-				if (m.get(names[i]) == null)
-					m.put(names[i], matcher.group(i + 1));
+	/**
+	 * @since 3.4.13
+	 */
+	@Override
+	public void parse(LogParserBatch batch) {
+		int count = batch.getInputCount();
+		for (int i = 0; i < count; i++) {
+			try {
+				parseLine((String) batch.getInput(i).getData().get(field), batch.addRow(i));
+			} catch (Throwable t) {
+				batch.setFailure(i, t);
 			}
+		}
+	}
+
+	private void parseLine(String s, Map<String, Object> m) {
+		// skip regex matching if required literals are missing
+		if (s == null || prefilter.mayMatch(s)) {
+			matcher.reset(s);
+			while (matcher.find())
+				for (int i = 0; i < matcher.groupCount(); i++) {
+					if (m.get(names[i]) == null)
+						m.put(names[i], matcher.group(i + 1));
+				}
+		}
 
 		if (includeOriginalField)
 			m.put(field, s);
-
-		return m;
 	}
 
 	/**
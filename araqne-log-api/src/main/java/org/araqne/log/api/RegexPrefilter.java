@@ -0,0 +1,466 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.log.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Rejects input lines which cannot match the regular expression without
+ * running the backtracking matcher. Literal substrings which every match must
+ * contain are extracted from the pattern, and the input is scanned for them in
+ * pattern order using plain substring search.
+ * 
+ * Extraction is conservative. If the pattern has top-level alternation, inline
+ * flags, or case insensitive matching, no literal is extracted and
+ * {@link #mayMatch(String)} always returns true.
+ * 
+ * @since 3.4.13
+ */
+public class RegexPrefilter {
+	// too short literal is not selective enough
+	private static final int MIN_LITERAL_LENGTH = 2;
+	private static final int MAX_LITERALS = 4;
+
+	private final String[] literals;
+
+	public RegexPrefilter(Pattern p) {
+		List<String> l = extractLiterals(p.pattern(), p.flags());
+		this.literals = select(l).toArray(new String[0]);
+	}
+
+	/**
+	 * @return required literals in pattern order, empty if prefilter is
+	 *         disabled
+	 */
+	public List<String> getLiterals() {
+		List<String> l = new ArrayList<String>(literals.length);
+		Collections.addAll(l, literals);
+		return l;
+	}
+
+	public boolean isEnabled() {
+		return literals.length > 0;
+	}
+
+	/**
+	 * @return false if the pattern can never be found in the input, true if
+	 *         the regex matcher should decide
+	 */
+	public boolean mayMatch(String s) {
+		int pos = 0;
+		for (String literal : literals) {
+			int p = s.indexOf(literal, pos);
+			if (p < 0)
+				return false;
+			pos = p + literal.length();
+		}
+		return true;
+	}
+
+	/**
+	 * Extracts literal substrings which any match of the pattern must contain,
+	 * in pattern order. Returns empty list if the pattern is not supported.
+	 */
+	public static List<String> extractLiterals(String regex, int flags) {
+		if ((flags & Pattern.LITERAL) != 0) {
+			List<String> l = new ArrayList<String>(1);
+			if ((flags & Pattern.CASE_INSENSITIVE) == 0 && !regex.isEmpty())
+				l.add(regex);
+			return l;
+		}
+
+		if ((flags & (Pattern.CASE_INSENSITIVE | Pattern.COMMENTS | Pattern.CANON_EQ)) != 0)
+			return new ArrayList<String>();
+
+		try {
+			List<String> l = new ArrayList<String>();
+			if (!new Extractor(regex).sequence(0, regex.length(), l))
+				return new ArrayList<String>();
+			return l;
+		} catch (UnsupportedPatternException e) {
+			return new ArrayList<String>();
+		}
+	}
+
+	// keep longest literals only, preserving pattern order for ordered search
+	private static List<String> select(List<String> l) {
+		List<String> candidates = new ArrayList<String>();
+		for (String s : l)
+			if (s.length() >= MIN_LITERAL_LENGTH)
+				candidates.add(s);
+
+		while (candidates.size() > MAX_LITERALS) {
+			int shortest = 0;
+			for (int i = 1; i < candidates.size(); i++)
+				if (candidates.get(i).length() < candidates.get(shortest).length())
+					shortest = i;
+			candidates.remove(shortest);
+		}
+
+		return candidates;
+	}
+
+	private static class UnsupportedPatternException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private static class Extractor {
+		private final String re;
+
+		public Extractor(String re) {
+			this.re = re;
+		}
+
+		/**
+		 * Collects required literals of sequence [begin, end).
+		 * 
+		 * @return false if sequence has alternation at its level
+		 */
+		public boolean sequence(int begin, int end, List<String> out) {
+			StringBuilder current = new StringBuilder();
+			int i = begin;
+			while (i < end) {
+				char c = re.charAt(i);
+				if (c == '|')
+					return false;
+
+				if (c == '(') {
+					int close = findGroupEnd(i, end);
+					int next = close + 1;
+					int q = quantifierEnd(next, end);
+					boolean optional = isOptional(next, q);
+					flush(current, out);
+
+					int bodyBegin = groupBodyBegin(i, close);
+					if (bodyBegin >= 0 && !optional) {
+						List<String> inner = new ArrayList<String>();
+						if (sequence(bodyBegin, close, inner))
+							out.addAll(inner);
+					}
+
+					i = q;
+					continue;
+				}
+
+				if (c == '\\' && i + 1 < end && re.charAt(i + 1) == 'Q') {
+					int e = re.indexOf("\\E", i + 2);
+					int quoteEnd = (e < 0 || e > end) ? end : e;
+					int next = (e < 0 || e > end) ? end : e + 2;
+					if (quoteEnd == i + 2) {
+						i = next;
+						continue;
+					}
+
+					// quantifier applies to last quoted code point only
+					int last = lastAtomBegin(i + 2, quoteEnd);
+					current.append(re, i + 2, last);
+					i = literal(re.substring(last, quoteEnd), next, end, current, out);
+					continue;
+				}
+
+				if (c == '\\') {
+					if (i + 1 >= end)
+						throw new UnsupportedPatternException();
+
+					char e = re.charAt(i + 1);
+					if (Character.isLetterOrDigit(e)) {
+						// character class, anchor, back reference or control
+						int next = escapeEnd(i, end);
+						flush(current, out);
+						i = quantifierEnd(next, end);
+						continue;
+					}
+
+					int atomEnd = atomEnd(i + 1, end);
+					i = literal(re.substring(i + 1, atomEnd), atomEnd, end, current, out);
+					continue;
+				}
+
+				if (c == '[') {
+					int next = classEnd(i, end);
+					flush(current, out);
+					i = quantifierEnd(next, end);
+					continue;
+				}
+
+				if (c == '.' || c == '^' || c == '$') {
+					flush(current, out);
+					i = quantifierEnd(i + 1, end);
+					continue;
+				}
+
+				if (c == '*' || c == '+' || c == '?' || c == '{' || c == ')')
+					throw new UnsupportedPatternException();
+
+				int atomEnd = atomEnd(i, end);
+				i = literal(re.substring(i, atomEnd), atomEnd, end, current, out);
+			}
+
+			flush(current, out);
+			return true;
+		}
+
+		/**
+		 * @param atom
+		 *            one code point, surrogate pair is quantified as a whole
+		 */
+		private int literal(String atom, int next, int end, StringBuilder current, List<String> out) {
+			int q = quantifierEnd(next, end);
+			if (q == next) {
+				current.append(atom);
+				return next;
+			}
+
+			// repeated char is required once, but breaks continuity
+			if (!isOptional(next, q))
+				current.append(atom);
+			flush(current, out);
+			return q;
+		}
+
+		/**
+		 * @return end offset of code point at i
+		 */
+		private int atomEnd(int i, int end) {
+			if (Character.isHighSurrogate(re.charAt(i)) && i + 1 < end && Character.isLowSurrogate(re.charAt(i + 1)))
+				return i + 2;
+			return i + 1;
+		}
+
+		/**
+		 * @return begin offset of last code point in [begin, end)
+		 */
+		private int lastAtomBegin(int begin, int end) {
+			if (end - 2 >= begin && Character.isLowSurrogate(re.charAt(end - 1))
+					&& Character.isHighSurrogate(re.charAt(end - 2)))
+				return end - 2;
+			return end - 1;
+		}
+
+		private void flush(StringBuilder current, List<String> out) {
+			if (current.length() > 0) {
+				out.add(current.toString());
+				current.setLength(0);
+			}
+		}
+
+		/**
+		 * @return body offset of group, or -1 if group does not consume its
+		 *         body (lookaround)
+		 */
+		private int groupBodyBegin(int open, int close) {
+			if (open + 1 >= close || re.charAt(open + 1) != '?')
+				return open + 1;
+
+			if (open + 2 >= close)
+				throw new UnsupportedPatternException();
+
+			char c = re.charAt(open + 2);
+			if (c == ':' || c == '>')
+				return open + 3;
+			if (c == '=' || c == '!')
+				return -1;
+
+			if (c == '<') {
+				if (open + 3 >= close)
+					throw new UnsupportedPatternException();
+
+				char d = re.charAt(open + 3);
+				if (d == '=' || d == '!')
+					return -1;
+
+				// named group
+				int gt = re.indexOf('>', open + 3);
+				if (gt < 0 || gt >= close)
+					throw new UnsupportedPatternException();
+				return gt + 1;
+			}
+
+			// inline flags
+			throw new UnsupportedPatternException();
+		}
+
+		private int findGroupEnd(int open, int end) {
+			int depth = 0;
+			int i = open;
+			while (i < end) {
+				char c = re.charAt(i);
+				if (c == '\\') {
+					if (i + 1 < end && re.charAt(i + 1) == 'Q') {
+						int e = re.indexOf("\\E", i + 2);
+						if (e < 0 || e >= end)
+							throw new UnsupportedPatternException();
+						i = e + 2;
+					} else {
+						i += 2;
+					}
+					continue;
+				}
+
+				if (c == '[') {
+					i = classEnd(i, end);
+					continue;
+				}
+
+				if (c == '(') {
+					depth++;
+				} else if (c == ')') {
+					depth--;
+					if (depth == 0)
+						return i;
+				}
+				i++;
+			}
+
+			throw new UnsupportedPatternException();
+		}
+
+		private int classEnd(int open, int end) {
+			int depth = 0;
+			int i = open;
+			while (i < end) {
+				char c = re.charAt(i);
+				if (c == '\\') {
+					if (i + 1 < end && re.charAt(i + 1) == 'Q') {
+						int e = re.indexOf("\\E", i + 2);
+						if (e < 0 || e >= end)
+							throw new UnsupportedPatternException();
+						i = e + 2;
+					} else {
+						i += 2;
+					}
+					continue;
+				}
+
+				if (c == '[') {
+					depth++;
+					i++;
+
+					// leading ] is literal
+					if (i < end && re.charAt(i) == '^')
+						i++;
+					if (i < end && re.charAt(i) == ']')
+						i++;
+					continue;
+				}
+
+				if (c == ']') {
+					depth--;
+					if (depth == 0)
+						return i + 1;
+				}
+				i++;
+			}
+
+			throw new UnsupportedPatternException();
+		}
+
+		private int escapeEnd(int backslash, int end) {
+			int i = backslash + 1;
+			char c = re.charAt(i++);
+			switch (c) {
+			case 'p':
+			case 'P':
+			case 'N':
+			case 'x':
+				if (i < end && re.charAt(i) == '{')
+					return closeBrace(i, '}', end);
+				if (c == 'x')
+					return checkEnd(i + 2, end);
+				if (c == 'N')
+					throw new UnsupportedPatternException();
+				return checkEnd(i + 1, end);
+			case 'u':
+				return checkEnd(i + 4, end);
+			case 'c':
+				return checkEnd(i + 1, end);
+			case 'k':
+				return closeBrace(i, '>', end);
+			case '0':
+				for (int n = 0; n < 3 && i < end && re.charAt(i) >= '0' && re.charAt(i) <= '7'; n++)
+					i++;
+				return i;
+			default:
+				// back reference number can be followed by digits
+				if (c >= '1' && c <= '9')
+					while (i < end && Character.isDigit(re.charAt(i)))
+						i++;
+				return i;
+			}
+		}
+
+		private int closeBrace(int from, char close, int end) {
+			int p = re.indexOf(close, from);
+			if (p < 0 || p >= end)
+				throw new UnsupportedPatternException();
+			return p + 1;
+		}
+
+		private int checkEnd(int i, int end) {
+			if (i > end)
+				throw new UnsupportedPatternException();
+			return i;
+		}
+
+		/**
+		 * @return offset after quantifier including lazy or possessive
+		 *         suffix, or the same offset if not quantified
+		 */
+		private int quantifierEnd(int i, int end) {
+			if (i >= end)
+				return i;
+
+			char c = re.charAt(i);
+			int next;
+			if (c == '?' || c == '*' || c == '+')
+				next = i + 1;
+			else if (c == '{')
+				next = closeBrace(i, '}', end);
+			else
+				return i;
+
+			if (next < end && (re.charAt(next) == '?' || re.charAt(next) == '+'))
+				next++;
+			return next;
+		}
+
+		private boolean isOptional(int begin, int quantifierEnd) {
+			if (begin == quantifierEnd)
+				return false;
+
+			char c = re.charAt(begin);
+			if (c == '?' || c == '*')
+				return true;
+			if (c == '+')
+				return false;
+
+			// {n}, {n,} or {n,m}
+			int i = begin + 1;
+			int min = 0;
+			boolean digit = false;
+			while (i < quantifierEnd && Character.isDigit(re.charAt(i))) {
+				min = Math.min(min * 10 + (re.charAt(i) - '0'), 1000);
+				digit = true;
+				i++;
+			}
+
+			return !digit || min == 0;
+		}
+	}
+}
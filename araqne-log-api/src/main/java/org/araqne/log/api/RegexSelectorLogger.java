@@ -40,6 +40,11 @@ public class RegexSelectorLogger extends AbstractLogger implements LoggerRegistr
 	 */
 	private ThreadLocal<Matcher> matchers = new ThreadLocal<Matcher>();
 
+	/**
+	 * required literal check, initialized with first matcher
+	 */
+	private volatile RegexPrefilter prefilter;
+
 	public RegexSelectorLogger(LoggerSpecification spec, LoggerFactory factory, LoggerRegistry loggerRegistry) {
 		super(spec, factory);
 		this.loggerRegistry = loggerRegistry;
@@ -112,13 +117,19 @@ public class RegexSelectorLogger extends AbstractLogger implements LoggerRegistr
 
 		Matcher matcher = matchers.get();
 		if (matcher == null) {
-			matcher = Pattern.compile(pattern).matcher(line);
+			Pattern p = Pattern.compile(pattern);
+			if (prefilter == null)
+				prefilter = new RegexPrefilter(p);
+
+			matcher = p.matcher("");
 			matchers.set(matcher);
-		} else {
-			matcher.reset(line);
 		}
 
-		boolean select = matcher.find();
+		boolean select = false;
+		if (prefilter.mayMatch(line)) {
+			matcher.reset(line);
+			select = matcher.find();
+		}
 		if (invert)
 			select = !select;
 
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.log.api;
+
+import static org.junit.Assert.*;
+
+import java.text.ParseException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class CompiledDateParserTest {
+	@Test
+	public void testSameWithSimpleDateFormat() throws ParseException {
+		assertSame("yyyy-MM-dd HH:mm:ss", "2014-07-15 13:05:09");
+		assertSame("yyyy-MM-dd HH:mm:ss", "2014-07-15 13:05:09 trailing text");
+		assertSame("yyyy-MM-dd HH:mm:ss,SSS", "2014-07-15 13:05:09,123");
+		assertSame("yyyyMMddHHmmss", "20140715130509");
+		assertSame("yyyy-M-d HH:mm:ss", "2014-7-5 03:05:09");
+		assertSame("dd/MMM/yyyy:HH:mm:ss Z", "15/Jul/2014:13:05:09 +0900");
+		assertSame("dd/MMM/yyyy:HH:mm:ss Z", "15/jul/2014:13:05:09 -0130");
+		assertSame("MM/dd/yy hh:mm a", "07/15/14 01:05 PM");
+		assertSame("MM/dd/yy hh:mm a", "07/15/14 12:05 AM");
+		assertSame("EEE, d MMMM yyyy HH:mm:ss", "Tue, 15 July 2014 13:05:09");
+		assertSame("'T'yyyy''MM", "T2014'07");
+
+		// lenient roll over
+		assertSame("yyyy-MM-dd", "2014-02-30");
+	}
+
+	@Test
+	public void testCache() throws ParseException {
+		SimpleDateFormat f = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		CompiledDateParser p = new CompiledDateParser(f, false, 2);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(f.parse("2014-07-15 13:05:09.100"), p.parse("2014-07-15 13:05:09.100"));
+			assertEquals(f.parse("2014-07-15 13:05:09.999"), p.parse("2014-07-15 13:05:09.999"));
+			assertEquals(f.parse("2014-07-15 13:05:10.000"), p.parse("2014-07-15 13:05:10.000"));
+			assertEquals(f.parse("2013-01-01 00:00:00.000"), p.parse("2013-01-01 00:00:00.000"));
+		}
+	}
+
+	@Test
+	public void testSyslogCurrentYear() {
+		SimpleDateFormat f = new SimpleDateFormat("MMM d HH:mm:ss", Locale.ENGLISH);
+		CompiledDateParser p = new CompiledDateParser(f, true, 64);
+
+		Date d = p.parse("Jul  5 13:05:09 host sshd[123]: message");
+		Calendar c = Calendar.getInstance();
+		int year = c.get(Calendar.YEAR);
+		c.setTime(d);
+		assertEquals(year, c.get(Calendar.YEAR));
+		assertEquals(Calendar.JULY, c.get(Calendar.MONTH));
+		assertEquals(5, c.get(Calendar.DAY_OF_MONTH));
+		assertEquals(13, c.get(Calendar.HOUR_OF_DAY));
+		assertEquals(9, c.get(Calendar.SECOND));
+	}
+
+	@Test
+	public void testTimeZone() throws ParseException {
+		SimpleDateFormat f = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX");
+		f.setTimeZone(TimeZone.getTimeZone("America/New_York"));
+		CompiledDateParser p = new CompiledDateParser(f);
+		assertEquals(f.parse("2014-07-15T13:05:09Z"), p.parse("2014-07-15T13:05:09Z"));
+		assertEquals(f.parse("2014-07-15T13:05:09+09:00"), p.parse("2014-07-15T13:05:09+09:00"));
+
+		f = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		f.setTimeZone(TimeZone.getTimeZone("America/New_York"));
+		p = new CompiledDateParser(f);
+		assertEquals(f.parse("2014-07-15 13:05:09"), p.parse("2014-07-15 13:05:09"));
+		assertEquals(f.parse("2014-01-15 13:05:09"), p.parse("2014-01-15 13:05:09"));
+	}
+
+	@Test
+	public void testParsePosition() {
+		CompiledDateParser p = new CompiledDateParser("yyyy-MM-dd");
+		ParsePosition pos = new ParsePosition(4);
+		assertNotNull(p.parse("log 2014-07-15 msg", pos));
+		assertEquals(14, pos.getIndex());
+
+		pos = new ParsePosition(0);
+		assertNull(p.parse("2014/07/15", pos));
+		assertEquals(4, pos.getErrorIndex());
+	}
+
+	@Test
+	public void testInvalid() {
+		assertNull(new CompiledDateParser("yyyy-MM-dd").parse("invalid"));
+
+		try {
+			new CompiledDateParser("yyyy-MM-dd zzz");
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+
+		try {
+			new CompiledDateParser("yyyy-MM-dd").parseDate("2014");
+			fail();
+		} catch (ParseException e) {
+		}
+	}
+
+	private void assertSame(String pattern, String text) throws ParseException {
+		SimpleDateFormat f = new SimpleDateFormat(pattern, Locale.ENGLISH);
+		CompiledDateParser p = new CompiledDateParser(pattern, Locale.ENGLISH);
+		assertEquals(pattern + " " + text, f.parse(text), p.parseDate(text));
+		// cached
+		assertEquals(pattern + " " + text, f.parse(text), p.parseDate(text));
+	}
+}
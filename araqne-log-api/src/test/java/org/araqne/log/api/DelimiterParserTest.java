@@ -52,4 +52,121 @@ public class DelimiterParserTest {
 		assertNull(parsed.get("d"));
 		assertNull(parsed.get("e"));
 	}
+
+	@Test
+	public void testBatchParse() {
+		DelimiterParser p = new DelimiterParser(";", new String[] { "a", "b" });
+		LogParserBatch batch = new LogParserBatch(1);
+		for (String line : new String[] { "1;2", null, "3;4" }) {
+			Map<String, Object> m = new HashMap<String, Object>();
+			m.put("line", line);
+			batch.addInput().setData(m);
+		}
+
+		p.parse(batch);
+
+		assertEquals(3, batch.getInputCount());
+		assertEquals(1, batch.getRowCount(0));
+		assertEquals("1", batch.getRow(0, 0).get("a"));
+		assertEquals("2", batch.getRow(0, 0).get("b"));
+		assertEquals(1, batch.getRowCount(1));
+		assertNull(batch.getRow(1, 0).get("a"));
+		assertEquals(1, batch.getRowCount(2));
+		assertEquals("3", batch.getRow(2, 0).get("a"));
+		assertEquals("4", batch.getRow(2, 0).get("b"));
+
+		// rows are reused after clear
+		batch.setReuseRows(true);
+		batch.clear();
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("line", "5;6");
+		batch.addInput().setData(m);
+		p.parse(batch);
+
+		assertEquals(1, batch.getInputCount());
+		assertEquals("5", batch.getRow(0, 0).get("a"));
+	}
+
+	@Test
+	public void testReuseRows() {
+		DelimiterParser p = new DelimiterParser(";", new String[] { "a", "b" });
+		LogParserBatch batch = new LogParserBatch();
+		batch.setReuseRows(true);
+
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("line", "1;2");
+		batch.addInput().setData(m);
+		p.parse(batch);
+		Map<String, Object> row = batch.getRow(0, 0);
+
+		batch.clear();
+		m = new HashMap<String, Object>();
+		m.put("line", "3");
+		batch.addInput().setData(m);
+		p.parse(batch);
+
+		// same map is cleared and filled again
+		assertSame(row, batch.getRow(0, 0));
+		assertEquals("3", row.get("a"));
+		assertFalse(row.containsKey("b"));
+	}
+
+	@Test
+	public void testReleaseRow() {
+		DelimiterParser p = new DelimiterParser(";", new String[] { "a", "b" });
+		LogParserBatch batch = new LogParserBatch();
+		addInputs(batch, "1;2", "3;4");
+		p.parse(batch);
+		Map<String, Object> kept = batch.getRow(0, 0);
+		Map<String, Object> released = batch.getRow(1, 0);
+		batch.releaseRow(1, 0);
+
+		batch.clear();
+		addInputs(batch, "5;6", "7;8");
+		p.parse(batch);
+
+		// only released row is reused
+		assertNotSame(kept, batch.getRow(0, 0));
+		assertEquals("1", kept.get("a"));
+		assertSame(released, batch.getRow(1, 0));
+		assertEquals("7", released.get("a"));
+	}
+
+	private void addInputs(LogParserBatch batch, String... lines) {
+		for (String line : lines) {
+			Map<String, Object> m = new HashMap<String, Object>();
+			m.put("line", line);
+			batch.addInput().setData(m);
+		}
+	}
+
+	@Test
+	public void testBatchAdapter() {
+		LogParser v1 = new V1LogParser() {
+			@Override
+			public Map<String, Object> parse(Map<String, Object> params) {
+				if (params.get("line") == null)
+					return null;
+				if (params.get("line").equals("bug"))
+					throw new IllegalStateException("bug");
+				return new HashMap<String, Object>(params);
+			}
+		};
+
+		BatchLogParser p = BatchLogParserAdapter.wrap(v1);
+		LogParserBatch batch = new LogParserBatch();
+		for (String line : new String[] { "a", null, "bug" }) {
+			Map<String, Object> m = new HashMap<String, Object>();
+			m.put("line", line);
+			batch.addInput().setData(m);
+		}
+
+		p.parse(batch);
+
+		assertEquals(1, batch.getRowCount(0));
+		assertEquals("a", batch.getRow(0, 0).get("line"));
+		assertEquals(0, batch.getRowCount(1));
+		assertNull(batch.getFailure(1));
+		assertTrue(batch.getFailure(2) instanceof IllegalStateException);
+	}
 }
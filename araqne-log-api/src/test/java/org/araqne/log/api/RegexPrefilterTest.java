@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.log.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class RegexPrefilterTest {
+	@Test
+	public void testExtract() {
+		assertLiterals("sshd\\[\\d+\\]: Failed password for (\\S+)", "sshd[", "]: Failed password for ");
+		assertLiterals("user=(\\w+) action=(?:allow|deny)", "user=", " action=");
+		assertLiterals("ab?cd*e", "a", "c", "e");
+		assertLiterals("(abc)+def", "abc", "def");
+		assertLiterals("(abc)?def", "def");
+		assertLiterals("x{0,3}yz{2}w", "yz", "w");
+		assertLiterals("\\Qa.b\\E+c", "a.b", "c");
+		assertLiterals("[]x]abc[^]]de", "abc", "de");
+		assertLiterals("\\x41BC\\u0044EF", "BC", "EF");
+		assertLiterals("(?=foo)bar(?!baz)", "bar");
+		assertLiterals("(?<id>\\d+) src=", " src=");
+
+		// unsupported
+		assertLiterals("foo|bar");
+		assertLiterals("(?i)foo");
+		assertEquals(0, new RegexPrefilter(Pattern.compile("foo", Pattern.CASE_INSENSITIVE)).getLiterals().size());
+	}
+
+	@Test
+	public void testMayMatch() {
+		RegexPrefilter f = new RegexPrefilter(Pattern.compile("src=(\\S+) dst=(\\S+)"));
+		assertTrue(f.isEnabled());
+		assertTrue(f.mayMatch("action=allow src=1.2.3.4 dst=5.6.7.8"));
+		assertFalse(f.mayMatch("action=allow dst=5.6.7.8 src=1.2.3.4"));
+		assertFalse(f.mayMatch("kernel: eth0 link up"));
+
+		RegexPrefilter disabled = new RegexPrefilter(Pattern.compile("a|b"));
+		assertFalse(disabled.isEnabled());
+		assertTrue(disabled.mayMatch(""));
+	}
+
+	// prefilter should never reject input which regex can find
+	@Test
+	public void testNoFalseNegative() {
+		String[] regexes = new String[] { "ab+c", "a(bc)*d", "(ab|cd)ef", "a.c", "[a-c]bc?a", "(?:a(b)c){1,2}b", "\\Qab\\E?c",
+				"a\\.b", "(a(b)?c)d", "ab{0}c", "a[]b]c", "(?<=a)bc", "^ab$", "a\\bb", "(a)\\1b", "ca+?b",
+				"ab\uD83D\uDE00?", "\\Qa\uD83D\uDE00\\E?b", "a\\\uD83D\uDE00+b" };
+
+		// surrogate halves can make pairs or lone surrogates
+		char[] alphabet = new char[] { 'a', 'b', 'c', 'd', 'e', 'f', '.', ']', '\uD83D', '\uDE00' };
+		Random r = new Random(1);
+
+		for (String regex : regexes) {
+			Pattern p = Pattern.compile(regex);
+			RegexPrefilter f = new RegexPrefilter(p);
+			for (int i = 0; i < 20000; i++) {
+				char[] s = new char[r.nextInt(10)];
+				for (int j = 0; j < s.length; j++)
+					s[j] = alphabet[r.nextInt(alphabet.length)];
+
+				String line = new String(s);
+				if (p.matcher(line).find())
+					assertTrue(regex + " rejects " + line, f.mayMatch(line));
+			}
+		}
+
+		// optional supplementary char should not leave its high surrogate
+		assertTrue(new RegexPrefilter(Pattern.compile("ab\uD83D\uDE00?")).mayMatch("ab"));
+	}
+
+	@Ignore
+	public void testSpeed() {
+		Pattern p = Pattern.compile("sshd\\[(\\d+)\\]: Failed password for (\\S+) from (\\S+) port (\\d+)");
+		RegexPrefilter f = new RegexPrefilter(p);
+
+		List<String> lines = new ArrayList<String>();
+		Random r = new Random(1);
+		for (int i = 0; i < 10000; i++) {
+			if (i % 100 == 0)
+				lines.add("Oct 18 12:00:00 host sshd[" + r.nextInt(65536) + "]: Failed password for root from 10.0.0."
+						+ r.nextInt(256) + " port " + r.nextInt(65536) + " ssh2");
+			else
+				lines.add("Oct 18 12:00:00 host kernel: [UFW BLOCK] IN=eth0 OUT= SRC=10.0.0." + r.nextInt(256)
+						+ " DST=10.0.0.1 PROTO=TCP SPT=" + r.nextInt(65536) + " DPT=22");
+		}
+
+		for (int round = 0; round < 5; round++) {
+			long begin = System.currentTimeMillis();
+			int found = 0;
+			for (int i = 0; i < 100; i++)
+				for (String line : lines)
+					if (p.matcher(line).find())
+						found++;
+			long regexOnly = System.currentTimeMillis() - begin;
+
+			begin = System.currentTimeMillis();
+			int found2 = 0;
+			for (int i = 0; i < 100; i++)
+				for (String line : lines)
+					if (f.mayMatch(line) && p.matcher(line).find())
+						found2++;
+			long prefiltered = System.currentTimeMillis() - begin;
+
+			System.out.println("regex " + regexOnly + "ms, prefiltered " + prefiltered + "ms, found " + found + "/" + found2);
+		}
+	}
+
+	private void assertLiterals(String regex, String... expected) {
+		assertEquals(Arrays.asList(expected), RegexPrefilter.extractLiterals(regex, 0));
+	}
+}
@@ -24,17 +24,21 @@ public class EventClock {
 	private final ExpireComparator expireComparator = new ExpireComparator();
 	private final EventContextStorage storage;
 	private final String host;
-	private final PriorityQueue<EventContext> timeoutQueue;
-	private final PriorityQueue<EventContext> expireQueue;
+	private final TimingWheel<EventContext> timeoutWheel;
+	private final TimingWheel<EventContext> expireWheel;
 
 	private AtomicLong lastTime = new AtomicLong();
 
+	/**
+	 * @param initialCapacity
+	 *            not used, timing wheel does not need preallocation
+	 */
 	public EventClock(EventContextStorage storage, String host, long lastTime, int initialCapacity) {
 		this.storage = storage;
 		this.host = host;
 		this.lastTime = new AtomicLong(lastTime);
-		this.timeoutQueue = new PriorityQueue<EventContext>(initialCapacity, timeoutComparator);
-		this.expireQueue = new PriorityQueue<EventContext>(initialCapacity, expireComparator);
+		this.timeoutWheel = new TimingWheel<EventContext>(lastTime);
+		this.expireWheel = new TimingWheel<EventContext>(lastTime);
 	}
 
 	public String getHost() {
@@ -46,28 +50,47 @@ public class EventClock {
 	}
 
 	public List<EventContext> getTimeoutContexts() {
-		List<EventContext> l = Arrays.asList(timeoutQueue.toArray(new EventContext[0]));
+		List<EventContext> l = null;
+		synchronized (timeoutWheel) {
+			l = timeoutWheel.items();
+		}
 		Collections.sort(l, timeoutComparator);
 		return l;
 	}
 
 	public List<EventContext> getExpireContexts() {
-		List<EventContext> l = Arrays.asList(expireQueue.toArray(new EventContext[0]));
+		List<EventContext> l = null;
+		synchronized (expireWheel) {
+			l = expireWheel.items();
+		}
 		Collections.sort(l, expireComparator);
 		return l;
 	}
 
 	public int getTimeoutQueueLength() {
-		return timeoutQueue.size();
+		synchronized (timeoutWheel) {
+			return timeoutWheel.size();
+		}
 	}
 
 	public int getExpireQueueLength() {
-		return expireQueue.size();
+		synchronized (expireWheel) {
+			return expireWheel.size();
+		}
 	}
 
 	public void setTime(long now, boolean force) {
 		if (force) {
 			lastTime.set(now);
+
+			// can move backward, rebuild wheels without eviction
+			synchronized (expireWheel) {
+				expireWheel.reset(now);
+			}
+
+			synchronized (timeoutWheel) {
+				timeoutWheel.reset(now);
+			}
 		} else {
 			while (now > lastTime.get()) {
 				long l = lastTime.get();
@@ -80,50 +103,61 @@ public class EventClock {
 	}
 
 	public void add(EventContext ctx) {
-		synchronized (expireQueue) {
+		synchronized (expireWheel) {
 			if (ctx.getExpireTime() != 0)
-				expireQueue.add(ctx);
+				ctx.expireNode = expireWheel.schedule(ctx, ctx.getExpireTime());
 		}
 
-		synchronized (timeoutQueue) {
+		synchronized (timeoutWheel) {
 			if (ctx.getTimeoutTime() != 0)
-				timeoutQueue.add(ctx);
+				ctx.timeoutNode = timeoutWheel.schedule(ctx, ctx.getTimeoutTime());
 		}
 	}
 
 	public void updateTimeout(EventContext ctx) {
-		synchronized (timeoutQueue) {
-			// reorder
-			timeoutQueue.remove(ctx);
-			timeoutQueue.add(ctx);
+		synchronized (timeoutWheel) {
+			TimingWheel.Node<EventContext> node = ctx.timeoutNode;
+			if (node != null && node.getWheel() != timeoutWheel)
+				return;
+
+			long timeout = ctx.getTimeoutTime();
+			if (node == null) {
+				if (timeout != 0)
+					ctx.timeoutNode = timeoutWheel.schedule(ctx, timeout);
+			} else if (timeout == 0) {
+				timeoutWheel.cancel(node);
+				ctx.timeoutNode = null;
+			} else if (node.isScheduled()) {
+				timeoutWheel.reschedule(node, timeout);
+			}
 		}
 	}
 
 	public void remove(EventContext ctx) {
-		synchronized (expireQueue) {
-			expireQueue.remove(ctx);
+		synchronized (expireWheel) {
+			TimingWheel.Node<EventContext> node = ctx.expireNode;
+			if (node != null && node.getWheel() == expireWheel)
+				expireWheel.cancel(node);
 		}
 
-		synchronized (timeoutQueue) {
-			timeoutQueue.remove(ctx);
+		synchronized (timeoutWheel) {
+			TimingWheel.Node<EventContext> node = ctx.timeoutNode;
+			if (node != null && node.getWheel() == timeoutWheel)
+				timeoutWheel.cancel(node);
 		}
 	}
 
 	private void evictContext(long now) {
 		HashMap<EventKey, EventContext> expiredEvictees = new HashMap<EventKey, EventContext>();
 
-		synchronized (expireQueue) {
-			while (true) {
-				EventContext ctx = expireQueue.peek();
-				if (ctx == null)
-					break;
-
-				if (ctx.getExpireTime() <= now) {
-					expireQueue.poll();
+		synchronized (expireWheel) {
+			for (EventContext ctx : expireWheel.advance(now)) {
+				// expire time can be changed after scheduled
+				long expire = ctx.getExpireTime();
+				if (expire > now)
+					expireWheel.reschedule(ctx.expireNode, expire);
+				else if (expire != 0)
 					expiredEvictees.put(ctx.getKey(), ctx);
-
-				} else
-					break;
 			}
 		}
 
@@ -134,18 +168,14 @@ public class EventClock {
 
 		HashMap<EventKey, EventContext> timeoutEvictees = new HashMap<EventKey, EventContext>();
 
-		synchronized (timeoutQueue) {
-			while (true) {
-				EventContext ctx = timeoutQueue.peek();
-				if (ctx == null)
-					break;
-
-				if (ctx.getTimeoutTime() <= now) {
-					timeoutQueue.poll();
+		synchronized (timeoutWheel) {
+			for (EventContext ctx : timeoutWheel.advance(now)) {
+				// real clock context is extended without update notification
+				long timeout = ctx.getTimeoutTime();
+				if (timeout > now)
+					timeoutWheel.reschedule(ctx.timeoutNode, timeout);
+				else if (timeout != 0)
 					timeoutEvictees.put(ctx.getKey(), ctx);
-
-				} else
-					break;
 			}
 		}
 
@@ -156,21 +186,25 @@ public class EventClock {
 	@Override
 	public String toString() {
 		SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
-		return host + " (timeout: " + timeoutQueue.size() + ", expire: " + expireQueue.size() + ") => "
+		return host + " (timeout: " + getTimeoutQueueLength() + ", expire: " + getExpireQueueLength() + ") => "
 				+ df.format(new Date(lastTime.get()));
 	}
 
 	private static class TimeoutComparator implements Comparator<EventContext> {
 		@Override
 		public int compare(EventContext o1, EventContext o2) {
-			return (int) (o1.getTimeoutTime() - o2.getTimeoutTime());
+			long t1 = o1.getTimeoutTime();
+			long t2 = o2.getTimeoutTime();
+			return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
 		}
 	}
 
 	private static class ExpireComparator implements Comparator<EventContext> {
 		@Override
 		public int compare(EventContext o1, EventContext o2) {
-			return (int) (o1.getExpireTime() - o2.getExpireTime());
+			long t1 = o1.getExpireTime();
+			long t2 = o2.getExpireTime();
+			return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
 		}
 	}
 }
@@ -50,6 +50,10 @@ public class EventContext {
 
 	private CopyOnWriteArraySet<EventContextListener> listeners = new CopyOnWriteArraySet<EventContextListener>();
 
+	// timer handles of owner clock, guarded by each wheel
+	TimingWheel.Node<EventContext> expireNode;
+	TimingWheel.Node<EventContext> timeoutNode;
+
 	public EventContext(EventKey key, long created, long expireTime, long timeoutTime, int maxRows, String host) {
 		this.key = key;
 		this.created = created;
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.cep;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hashed hierarchical timing wheel with 1ms tick. Each level has 64 slots, and
+ * an item is placed in the level of the highest 6 bit group where its deadline
+ * differs from current time. Schedule, reschedule and cancel are O(1), and
+ * advance visits at most 64 slots per level regardless of time jump, moving
+ * items to lower levels when their parent slot is reached.
+ * 
+ * Not thread-safe. Caller should synchronize on wheel instance.
+ */
+class TimingWheel<T> {
+	private static final int BITS = 6;
+	private static final int SLOTS = 1 << BITS;
+	private static final int MASK = SLOTS - 1;
+
+	// covers 2^42 ms (about 139 years)
+	private static final int LEVELS = 7;
+
+	// already passed deadline, returned by next advance
+	private static final int DUE = LEVELS * SLOTS;
+
+	// beyond top level span
+	private static final int OVERFLOW = DUE + 1;
+
+	@SuppressWarnings("unchecked")
+	private final Node<T>[] buckets = new Node[OVERFLOW + 1];
+	private long current;
+	private int size;
+
+	public TimingWheel(long now) {
+		this.current = now;
+	}
+
+	public long getTime() {
+		return current;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Node<T> schedule(T item, long deadline) {
+		Node<T> node = new Node<T>(this, item);
+		node.deadline = deadline;
+		link(node);
+		size++;
+		return node;
+	}
+
+	public void reschedule(Node<T> node, long deadline) {
+		checkOwner(node);
+		unlink(node);
+		node.deadline = deadline;
+		link(node);
+	}
+
+	/**
+	 * @return false if node is already fired or cancelled
+	 */
+	public boolean cancel(Node<T> node) {
+		if (node.wheel != this || node.bucket < 0)
+			return false;
+
+		unlink(node);
+		size--;
+		return true;
+	}
+
+	/**
+	 * Move current time forward and return items whose deadline is less than
+	 * or equal to now. Returned nodes are detached from wheel.
+	 */
+	public List<T> advance(long now) {
+		List<T> due = new ArrayList<T>();
+		drain(buckets[DUE], due);
+		buckets[DUE] = null;
+
+		if (now <= current)
+			return due;
+
+		long old = current;
+		current = now;
+
+		for (int level = 0; level < LEVELS; level++) {
+			int shift = level * BITS;
+			long oldIndex = old >>> shift;
+			long newIndex = now >>> shift;
+			if (oldIndex == newIndex)
+				break;
+
+			// all slots are passed if time jumped over whole wheel
+			long count = Math.min(newIndex - oldIndex, SLOTS);
+			for (long i = 1; i <= count; i++) {
+				int bucket = level * SLOTS + (int) ((oldIndex + i) & MASK);
+				Node<T> head = buckets[bucket];
+				buckets[bucket] = null;
+				cascade(head, due);
+			}
+		}
+
+		if (buckets[OVERFLOW] != null && (old >>> (LEVELS * BITS)) != (now >>> (LEVELS * BITS))) {
+			Node<T> head = buckets[OVERFLOW];
+			buckets[OVERFLOW] = null;
+			cascade(head, due);
+		}
+
+		return due;
+	}
+
+	/**
+	 * Set current time forcibly, even backward. All items are placed again.
+	 */
+	public void reset(long now) {
+		List<Node<T>> nodes = nodes();
+		for (int i = 0; i < buckets.length; i++)
+			buckets[i] = null;
+
+		current = now;
+		for (Node<T> node : nodes)
+			link(node);
+	}
+
+	public List<T> items() {
+		List<T> l = new ArrayList<T>(size);
+		for (Node<T> node : nodes())
+			l.add(node.item);
+		return l;
+	}
+
+	private List<Node<T>> nodes() {
+		List<Node<T>> l = new ArrayList<Node<T>>(size);
+		for (Node<T> head : buckets)
+			for (Node<T> n = head; n != null; n = n.next)
+				l.add(n);
+		return l;
+	}
+
+	private void drain(Node<T> head, List<T> due) {
+		Node<T> n = head;
+		while (n != null) {
+			Node<T> next = n.next;
+			n.prev = n.next = null;
+			n.bucket = -1;
+			size--;
+			due.add(n.item);
+			n = next;
+		}
+	}
+
+	private void cascade(Node<T> head, List<T> due) {
+		Node<T> n = head;
+		while (n != null) {
+			Node<T> next = n.next;
+			n.prev = n.next = null;
+			if (n.deadline <= current) {
+				n.bucket = -1;
+				size--;
+				due.add(n.item);
+			} else {
+				link(n);
+			}
+			n = next;
+		}
+	}
+
+	private void link(Node<T> node) {
+		int bucket;
+		if (node.deadline <= current) {
+			bucket = DUE;
+		} else {
+			int highBit = 63 - Long.numberOfLeadingZeros(node.deadline ^ current);
+			int level = highBit / BITS;
+			if (level >= LEVELS)
+				bucket = OVERFLOW;
+			else
+				bucket = level * SLOTS + (int) ((node.deadline >>> (level * BITS)) & MASK);
+		}
+
+		node.bucket = bucket;
+		node.prev = null;
+		node.next = buckets[bucket];
+		if (node.next != null)
+			node.next.prev = node;
+		buckets[bucket] = node;
+	}
+
+	private void unlink(Node<T> node) {
+		if (node.bucket < 0)
+			return;
+
+		if (node.prev != null)
+			node.prev.next = node.next;
+		else
+			buckets[node.bucket] = node.next;
+
+		if (node.next != null)
+			node.next.prev = node.prev;
+
+		node.prev = node.next = null;
+		node.bucket = -1;
+	}
+
+	private void checkOwner(Node<T> node) {
+		if (node.wheel != this)
+			throw new IllegalArgumentException("node belongs to other wheel");
+
+		// fired node is scheduled again
+		if (node.bucket < 0)
+			size++;
+	}
+
+	static class Node<T> {
+		private final TimingWheel<T> wheel;
+		private final T item;
+		private long deadline;
+		private int bucket = -1;
+		private Node<T> prev;
+		private Node<T> next;
+
+		private Node(TimingWheel<T> wheel, T item) {
+			this.wheel = wheel;
+			this.item = item;
+		}
+
+		public TimingWheel<T> getWheel() {
+			return wheel;
+		}
+
+		public boolean isScheduled() {
+			return bucket >= 0;
+		}
+	}
+}
@@ -107,6 +107,9 @@ public class LogDbClient implements TrapListener, Closeable {
 
 	private int insertBatchSize = 5000;
 
+	// retry count of insert batch rejected by server backpressure
+	private static final int MAX_INSERT_RETRY = 30;
+
 	// milliseconds
 	private int indexFlushInterval = 1000;
 
@@ -1807,6 +1810,53 @@ public class LogDbClient implements TrapListener, Closeable {
 		return new LogCursorImpl(id, 0L, total, true, fetchSize);
 	}
 
+	/**
+	 * 쿼리 실행이 끝나기를 기다리지 않고, 실행 중인 쿼리 결과를 페이징 조회하며 순회하는 커서를 반환합니다. 기본적으로 최대 4개의
+	 * 페이지를 미리 받아둡니다.
+	 * 
+	 * @param queryString
+	 *            쿼리 문자열 (NULL 허용 안 함)
+	 * @return 쿼리 결과를 조회할 수 있는 커서가 반환됩니다. 커서를 닫으면 쿼리가 삭제됩니다.
+	 * @since 1.1.2
+	 */
+	public LogCursor queryStreaming(String queryString) throws IOException {
+		return queryStreaming(queryString, 4);
+	}
+
+	/**
+	 * 쿼리 실행이 끝나기를 기다리지 않고, 실행 중인 쿼리 결과를 fetchSize 단위로 페이징 조회하며 순회하는 커서를 반환합니다.
+	 * 연속된 offset에 대해 최대 prefetchPages 개의 조회 요청을 동시에 보내므로 처리량이 왕복 지연 시간에 묶이지 않으며, 요청 중이거나
+	 * 받아둔 페이지가 prefetchPages 개에 도달하면 커서를 소비할 때까지 조회를 중단하므로 메모리 사용량이 제한됩니다. 쿼리가
+	 * 취소되거나 접속이 끊어진 경우 순회 마지막에 예외가 발생합니다.
+	 * 
+	 * @param queryString
+	 *            쿼리 문자열 (NULL 허용 안 함)
+	 * @param prefetchPages
+	 *            동시에 요청하거나 미리 받아둘 최대 페이지 갯수 (1 이상)
+	 * @return 쿼리 결과를 조회할 수 있는 커서가 반환됩니다. 커서를 닫으면 쿼리가 삭제됩니다.
+	 * @since 1.1.2
+	 */
+	public LogCursor queryStreaming(String queryString, int prefetchPages) throws IOException {
+		if (prefetchPages < 1)
+			throw new IllegalArgumentException("prefetch pages should be positive: " + prefetchPages);
+
+		int id = createQuery(queryString);
+		StreamingLogCursor cursor = new StreamingLogCursor(this, queries.get(id), queryString, fetchSize, prefetchPages);
+
+		try {
+			startQuery(id);
+		} catch (IOException e) {
+			cursor.close();
+			throw e;
+		} catch (RuntimeException e) {
+			cursor.close();
+			throw e;
+		}
+
+		cursor.start();
+		return cursor;
+	}
+
 	private class LogCursorImpl implements LogCursor {
 
 		private int id;
@@ -2452,7 +2502,7 @@ public class LogDbClient implements TrapListener, Closeable {
 				Map<String, Object> params = new HashMap<String, Object>();
 				params.put("table", entry.getKey());
 				params.put("bins", bins);
-				rpc("org.araqne.logdb.msgbus.LogQueryPlugin.insertBatch", params);
+				insertBatch(params);
 				for (QueuedRows rows : items) {
 					rows.setDone();
 				}
@@ -2474,6 +2524,26 @@ public class LogDbClient implements TrapListener, Closeable {
 		}
 	}
 
+	// retry while server ingest queue is full
+	private void insertBatch(Map<String, Object> params) throws IOException, InterruptedException {
+		for (int i = 0;; i++) {
+			try {
+				rpc("org.araqne.logdb.msgbus.LogQueryPlugin.insertBatch", params);
+				return;
+			} catch (MessageException e) {
+				if (!"ingest-busy".equals(e.getCode()) || i >= MAX_INSERT_RETRY)
+					throw e;
+
+				long retryAfter = 1000;
+				if (e.getParameters() != null && e.getParameters().get("retry_after") instanceof Number)
+					retryAfter = ((Number) e.getParameters().get("retry_after")).longValue();
+
+				logger.debug("araqne logdb client: server ingest queue is full, retry after [{}] ms", retryAfter);
+				Thread.sleep(retryAfter);
+			}
+		}
+	}
+
 	/**
 	 * 특정 쿼리에 대해서 주어진 쿼리 결과 갯수가 조회 가능할 때까지 현재 스레드를 대기(blocking) 합니다. 주어진 쿼리 결과
 	 * 갯수를 채우지 못하더라도 쿼리가 완료 혹은 취소되면 스레드 대기 상태가 풀립니다. 이 메소드를 이용하면 매번 getQuery()를
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 실행 중인 쿼리의 결과를 getResult()로 페이징 조회하면서 순회하는 커서입니다. 별도의 조회 스레드가 연속된 offset에 대해 최대
+ * prefetchPages 개의 getResult() 요청을 동시에 보내고, 응답 순서와 관계없이 offset 순서대로 페이지를 넘겨줍니다. 요청 중이거나
+ * 받아둔 페이지가 prefetchPages 개에 도달하면 조회 스레드만 대기하므로 메시지 수신 스레드는 차단되지 않습니다.
+ * 
+ * @since 1.1.2
+ */
+class StreamingLogCursor implements LogCursor {
+	private static final long POLL_INTERVAL = 100;
+
+	// end of stream marker, compared by identity
+	private static final List<Map<String, Object>> END = new ArrayList<Map<String, Object>>(0);
+
+	private final Logger logger = LoggerFactory.getLogger(StreamingLogCursor.class);
+	private final LogDbClient client;
+	private final LogQuery query;
+	private final String queryString;
+	private final int fetchSize;
+	private final BlockingQueue<List<Map<String, Object>>> pages;
+
+	// outstanding requests and pages not taken by consumer yet
+	private final Semaphore slots;
+	private final ThreadPoolExecutor requester;
+	private final Thread fetcher;
+	private volatile boolean closed;
+	private volatile Throwable failure;
+
+	// consumer thread only
+	private List<Map<String, Object>> page;
+	private int pos;
+	private boolean end;
+
+	public StreamingLogCursor(LogDbClient client, LogQuery query, String queryString, int fetchSize, int prefetchPages) {
+		this.client = client;
+		this.query = query;
+		this.queryString = queryString;
+		this.fetchSize = fetchSize;
+		this.pages = new ArrayBlockingQueue<List<Map<String, Object>>>(prefetchPages + 1);
+		this.slots = new Semaphore(prefetchPages);
+		this.requester = new ThreadPoolExecutor(prefetchPages, prefetchPages, 10, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new RequesterThreadFactory(query.getId()));
+		this.requester.allowCoreThreadTimeOut(true);
+		this.fetcher = new Thread(new Fetcher(), "LogDB Query Fetcher " + query.getId());
+		this.fetcher.setDaemon(true);
+	}
+
+	void start() {
+		fetcher.start();
+	}
+
+	private class Fetcher implements Runnable {
+		@Override
+		public void run() {
+			// in offset order
+			LinkedList<Request> requests = new LinkedList<Request>();
+			long next = 0;
+			try {
+				while (!closed) {
+					// read status first, loaded count is final after end
+					String status = query.getStatus();
+					boolean done = status.equals("Ended") || status.equals("Cancelled");
+					long loaded = query.getLoadedCount();
+
+					// keep requests outstanding at successive offsets
+					while (next < loaded && slots.tryAcquire()) {
+						int limit = (int) Math.min(fetchSize, loaded - next);
+						requests.add(new Request(next, limit));
+						next += limit;
+					}
+
+					if (!requests.isEmpty()) {
+						Request r = requests.removeFirst();
+						List<Map<String, Object>> rows = r.get();
+						if (rows.isEmpty())
+							slots.release();
+						else
+							put(rows);
+
+						// loaded count is ahead of readable result, following
+						// pages leave a gap
+						if (rows.size() < r.limit) {
+							discard(requests);
+							next = r.offset + rows.size();
+							Thread.sleep(POLL_INTERVAL);
+						}
+					} else if (next < loaded) {
+						// wait until consumer takes a page
+						if (slots.tryAcquire(POLL_INTERVAL, TimeUnit.MILLISECONDS))
+							slots.release();
+					} else {
+						// wait until next row is loaded, or query is ended or
+						// cancelled
+						if (!done)
+							query.waitUntil(next + 1);
+
+						if (client.isClosed())
+							throw new IOException("session closed");
+
+						if (done)
+							break;
+					}
+				}
+			} catch (Throwable t) {
+				if (!closed) {
+					logger.debug("araqne logdb client: cannot fetch query [{}] result, {}", query.getId(), t.getMessage());
+					failure = t;
+				}
+			} finally {
+				requester.shutdown();
+				try {
+					put(END);
+				} catch (InterruptedException e) {
+				}
+			}
+		}
+
+		private void discard(List<Request> requests) throws InterruptedException {
+			for (Request r : requests) {
+				try {
+					r.future.get();
+				} catch (ExecutionException e) {
+				}
+				slots.release();
+			}
+			requests.clear();
+		}
+
+		private void put(List<Map<String, Object>> rows) throws InterruptedException {
+			// only fetcher thread waits while consumer is slow
+			while (!closed) {
+				if (pages.offer(rows, POLL_INTERVAL, TimeUnit.MILLISECONDS))
+					return;
+			}
+		}
+	}
+
+	private class Request implements Callable<List<Map<String, Object>>> {
+		private final long offset;
+		private final int limit;
+		private final Future<List<Map<String, Object>>> future;
+
+		public Request(long offset, int limit) {
+			this.offset = offset;
+			this.limit = limit;
+			this.future = requester.submit(this);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public List<Map<String, Object>> call() throws Exception {
+			Map<String, Object> m = client.getResult(query.getId(), offset, limit);
+			return (List<Map<String, Object>>) m.get("result");
+		}
+
+		public List<Map<String, Object>> get() throws Exception {
+			try {
+				return future.get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof Exception)
+					throw (Exception) cause;
+				throw e;
+			}
+		}
+	}
+
+	private static class RequesterThreadFactory implements ThreadFactory {
+		private final int queryId;
+		private final AtomicInteger counter = new AtomicInteger();
+
+		public RequesterThreadFactory(int queryId) {
+			this.queryId = queryId;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "LogDB Query Fetcher " + queryId + "-" + counter.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (page == null || pos >= page.size()) {
+			if (end || closed)
+				return false;
+
+			page = take();
+			pos = 0;
+
+			if (page == END) {
+				end = true;
+				page = null;
+				checkFailure();
+				checkCancelled();
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private List<Map<String, Object>> take() {
+		try {
+			while (true) {
+				List<Map<String, Object>> l = pages.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+				if (l == END)
+					return l;
+
+				if (l != null) {
+					// allow next request
+					slots.release();
+					return l;
+				}
+
+				// fetcher is gone without end marker
+				if (!fetcher.isAlive() && pages.isEmpty())
+					return END;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while waiting query [" + query.getId() + "] result");
+		}
+	}
+
+	private void checkFailure() {
+		if (failure != null)
+			throw new IllegalStateException("cannot fetch query result, id [" + query.getId() + "] query string ["
+					+ queryString + "]", failure);
+	}
+
+	private void checkCancelled() {
+		if (query.getStatus().equals("Cancelled")) {
+			String errorMsg = "";
+			if (query.getErrorCode() != null)
+				errorMsg = String.format(", error LOGPRESSO-%05d [%s]", query.getErrorCode(), query.getErrorDetail());
+
+			throw new IllegalStateException("query cancelled, id [" + query.getId() + "] query string [" + queryString + "]"
+					+ errorMsg);
+		}
+	}
+
+	@Override
+	public Map<String, Object> next() {
+		if (!hasNext())
+			throw new NoSuchElementException("end of log cursor");
+
+		return page.get(pos++);
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+
+		closed = true;
+
+		// wake up fetcher thread waiting buffer space
+		pages.clear();
+		page = null;
+
+		if (client.isClosed())
+			return;
+
+		try {
+			client.removeQuery(query.getId());
+		} catch (MessageException e) {
+			logger.debug("araqne logdb client: cannot remove streaming query [{}], {}", query.getId(), e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class StreamingLogCursorTest {
+	private static final int FETCH_SIZE = 100;
+	private static final int PREFETCH_PAGES = 4;
+
+	@Test
+	public void testOverlappedFetch() throws IOException {
+		FakeClient client = new FakeClient(1000);
+		LogQuery query = new LogQuery(client, 1, "table t");
+		query.updateCount(1000, 0);
+		query.updateStatus("Ended", 0);
+
+		// earlier pages respond later than following pages
+		client.delays = new long[] { 200, 10, 10, 10 };
+
+		StreamingLogCursor cursor = new StreamingLogCursor(client, query, "table t", FETCH_SIZE, PREFETCH_PAGES);
+		try {
+			cursor.start();
+			assertRows(cursor, 1000);
+		} finally {
+			cursor.close();
+		}
+
+		assertEquals(PREFETCH_PAGES, client.maxRunning.get());
+		assertEquals(10, client.calls.get());
+	}
+
+	@Test
+	public void testRunningQuery() throws Exception {
+		final FakeClient client = new FakeClient(550);
+		final LogQuery query = new LogQuery(client, 1, "table t");
+		query.updateStatus("Running", 0);
+
+		// loaded count is ahead of readable result
+		query.updateCount(600, 0);
+
+		StreamingLogCursor cursor = new StreamingLogCursor(client, query, "table t", FETCH_SIZE, PREFETCH_PAGES);
+		try {
+			cursor.start();
+
+			Thread loader = new Thread() {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(300);
+						client.readable = 1000;
+						query.updateCount(1000, 0);
+						query.updateStatus("Ended", 0);
+					} catch (InterruptedException e) {
+					}
+				}
+			};
+			loader.start();
+
+			assertRows(cursor, 1000);
+			loader.join();
+		} finally {
+			cursor.close();
+		}
+
+		assertTrue(client.maxRunning.get() <= PREFETCH_PAGES);
+	}
+
+	private void assertRows(StreamingLogCursor cursor, int count) {
+		for (int i = 0; i < count; i++) {
+			assertTrue(cursor.hasNext());
+			assertEquals(i, cursor.next().get("n"));
+		}
+		assertFalse(cursor.hasNext());
+	}
+
+	private static class FakeClient extends LogDbClient {
+		private volatile long readable;
+		private volatile long[] delays = new long[] { 10 };
+		private AtomicInteger running = new AtomicInteger();
+		private AtomicInteger maxRunning = new AtomicInteger();
+		private AtomicInteger calls = new AtomicInteger();
+
+		public FakeClient(long readable) {
+			this.readable = readable;
+		}
+
+		@Override
+		public boolean isClosed() {
+			return false;
+		}
+
+		@Override
+		public void removeQuery(int id) throws IOException {
+		}
+
+		@Override
+		public Map<String, Object> getResult(int id, long offset, int limit) throws IOException {
+			int n = running.incrementAndGet();
+			calls.incrementAndGet();
+			while (true) {
+				int max = maxRunning.get();
+				if (n <= max || maxRunning.compareAndSet(max, n))
+					break;
+			}
+
+			try {
+				Thread.sleep(delays[(int) (offset / FETCH_SIZE % delays.length)]);
+			} catch (InterruptedException e) {
+			}
+
+			List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+			for (long i = offset; i < Math.min(offset + limit, readable); i++) {
+				Map<String, Object> row = new HashMap<String, Object>();
+				row.put("n", (int) i);
+				rows.add(row);
+			}
+
+			running.decrementAndGet();
+
+			Map<String, Object> m = new HashMap<String, Object>();
+			m.put("result", rows);
+			return m;
+		}
+	}
+}
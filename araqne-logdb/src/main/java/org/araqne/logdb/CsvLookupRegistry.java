@@ -26,4 +26,11 @@ public interface CsvLookupRegistry {
 	void loadCsvFile(File f) throws IOException;
 
 	void unloadCsvFile(File f);
+
+	/**
+	 * Compiles csv file again and replaces lookup handler atomically.
+	 * 
+	 * @since 2.6.15
+	 */
+	void reloadCsvFile(File f) throws IOException;
 }
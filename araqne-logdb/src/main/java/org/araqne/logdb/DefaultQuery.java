@@ -302,17 +302,15 @@ public class DefaultQuery implements Query {
 			if (rs == null)
 				return null;
 
-			long p = 0;
+			if (offset > 0)
+				rs.skip(offset);
+
 			long count = 0;
 			while (rs.hasNext()) {
 				if (count >= limit)
 					break;
 
-				Map<String, Object> m = rs.next();
-				if (p++ < offset)
-					continue;
-
-				l.add(m);
+				l.add(rs.next());
 				count++;
 			}
 		} finally {
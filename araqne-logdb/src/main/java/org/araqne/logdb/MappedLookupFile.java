@@ -0,0 +1,627 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.araqne.codec.EncodingRule;
+import org.araqne.codec.FastEncodingRule;
+
+/**
+ * Immutable lookup table file which is memory-mapped and probed in place.
+ * Lookup hashes and compares UTF-8 bytes of the key against mapped region,
+ * so entries are not materialized on heap. Only the returned value is
+ * decoded.
+ * 
+ * File consists of header, entries and open addressing slot table. Each
+ * entry has key length, key bytes, end offset of each column value and
+ * encoded values. Null value has zero length. Entry never crosses 1GB
+ * segment boundary, and each segment is mapped separately.
+ * 
+ * Replace the whole handler to reload. Mapped memory is released by GC after
+ * all running lookups finish, so close() only deletes the file.
+ * 
+ * @since 2.6.15
+ */
+public class MappedLookupFile {
+	private static final int MAGIC = 0x4c4b5031;
+	private static final int HEADER_SIZE = 48;
+	private static final long SEGMENT_SIZE = 1L << 30;
+	private static final int MAX_SLOTS = 1 << 27;
+	private static final Charset UTF8 = Charset.forName("utf-8");
+
+	private final File file;
+	private final List<String> columns;
+	private final Map<String, Integer> columnIndexes;
+	private final long size;
+	private final int slotMask;
+	private final long dataOffset;
+
+	// slot has (entry offset + 1), or zero if empty
+	private final ByteBuffer slots;
+	private final ByteBuffer[] segments;
+
+	public static MappedLookupFile open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			return new MappedLookupFile(file, raf);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private MappedLookupFile(File file, RandomAccessFile raf) throws IOException {
+		this.file = file;
+
+		if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC)
+			throw new IOException("invalid lookup file: " + file.getAbsolutePath());
+
+		raf.readInt(); // reserved
+		size = raf.readLong();
+		int slotCount = raf.readInt();
+		int columnCount = raf.readInt();
+		long slotOffset = raf.readLong();
+		dataOffset = raf.readLong();
+		long dataLength = raf.readLong();
+
+		List<String> names = new ArrayList<String>(columnCount);
+		Map<String, Integer> indexes = new HashMap<String, Integer>();
+		for (int i = 0; i < columnCount; i++) {
+			String name = raf.readUTF();
+			names.add(name);
+			indexes.put(name, i);
+		}
+
+		columns = Collections.unmodifiableList(names);
+		columnIndexes = indexes;
+		slotMask = slotCount - 1;
+
+		FileChannel channel = raf.getChannel();
+		slots = channel.map(MapMode.READ_ONLY, slotOffset, slotCount * 8L);
+
+		int segmentCount = (int) ((dataLength + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+		segments = new ByteBuffer[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			long offset = i * SEGMENT_SIZE;
+			long length = Math.min(SEGMENT_SIZE, dataLength - offset);
+			segments[i] = channel.map(MapMode.READ_ONLY, dataOffset + offset, length);
+		}
+	}
+
+	/**
+	 * Creates new empty file in lookup directory of data dir. close() deletes
+	 * the file, and files left by crash are removed by {@link #deleteFiles()}.
+	 */
+	public static File createFile(String prefix) throws IOException {
+		File dir = getLookupDir();
+		dir.mkdirs();
+
+		return File.createTempFile(prefix, ".lkp", dir);
+	}
+
+	/**
+	 * Deletes lookup files left by previous run. Call this before any lookup
+	 * file is created.
+	 * 
+	 * @return deleted file count
+	 */
+	public static int deleteFiles() {
+		File[] files = getLookupDir().listFiles();
+		if (files == null)
+			return 0;
+
+		int count = 0;
+		for (File f : files)
+			if (f.isFile() && f.getName().endsWith(".lkp") && f.delete())
+				count++;
+		return count;
+	}
+
+	private static File getLookupDir() {
+		return new File(System.getProperty("araqne.data.dir", "."), "araqne-logdb/lookup");
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public List<String> getColumns() {
+		return columns;
+	}
+
+	/**
+	 * @return column index, or -1 if not found
+	 */
+	public int getColumnIndex(String column) {
+		Integer i = columnIndexes.get(column);
+		return i == null ? -1 : i;
+	}
+
+	/**
+	 * @return unique key count
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * @return entry position, or -1 if not found
+	 */
+	public long find(String key) {
+		int keyLen = utf8Length(key);
+		int slot = mix(utf8Hash(key)) & slotMask;
+		while (true) {
+			long p = slots.getLong(slot * 8) - 1;
+			if (p < 0)
+				return -1;
+
+			ByteBuffer bb = segments[(int) (p / SEGMENT_SIZE)];
+			int offset = (int) (p % SEGMENT_SIZE);
+			if (bb.getInt(offset) == keyLen && utf8Equals(key, bb, offset + 4))
+				return p;
+
+			slot = (slot + 1) & slotMask;
+		}
+	}
+
+	public Object getValue(long entry, int column) {
+		ByteBuffer bb = segments[(int) (entry / SEGMENT_SIZE)];
+		int offset = (int) (entry % SEGMENT_SIZE);
+		int keyLen = bb.getInt(offset);
+		int ends = offset + 4 + keyLen;
+		int values = ends + columns.size() * 4;
+
+		int begin = column == 0 ? 0 : bb.getInt(ends + (column - 1) * 4);
+		int end = bb.getInt(ends + column * 4);
+		if (begin == end)
+			return null;
+
+		ByteBuffer dup = bb.duplicate();
+		dup.limit(values + end);
+		dup.position(values + begin);
+		return EncodingRule.decode(dup);
+	}
+
+	public String getKey(long entry) {
+		ByteBuffer bb = segments[(int) (entry / SEGMENT_SIZE)];
+		int offset = (int) (entry % SEGMENT_SIZE);
+		byte[] b = new byte[bb.getInt(offset)];
+		for (int i = 0; i < b.length; i++)
+			b[i] = bb.get(offset + 4 + i);
+		return new String(b, UTF8);
+	}
+
+	/**
+	 * Iterates unique entries in slot order.
+	 * 
+	 * @return next entry position, or -1 if no more entry
+	 */
+	public long nextEntry(long[] cursor) {
+		while (cursor[0] <= slotMask) {
+			long p = slots.getLong((int) (cursor[0]++) * 8) - 1;
+			if (p >= 0)
+				return p;
+		}
+		return -1;
+	}
+
+	public void close() {
+		// mapped file cannot be deleted on some platforms, it will be deleted
+		// by deleteFiles() at next start
+		file.delete();
+	}
+
+	@Override
+	public String toString() {
+		return "mapped lookup file " + file.getAbsolutePath() + ", size=" + size;
+	}
+
+	private static int mix(int h) {
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return h;
+	}
+
+	// FNV-1a over utf-8 encoded bytes, same as hash(String.getBytes("utf-8"))
+	private static int utf8Hash(String s) {
+		int h = 0x811c9dc5;
+		int len = s.length();
+		for (int i = 0; i < len; i++) {
+			int c = s.charAt(i);
+			if (c < 0x80) {
+				h = (h ^ c) * 0x01000193;
+			} else if (c < 0x800) {
+				h = (h ^ (0xc0 | (c >> 6))) * 0x01000193;
+				h = (h ^ (0x80 | (c & 0x3f))) * 0x01000193;
+			} else {
+				int cp = codePoint(s, i);
+				if (cp > 0xffff) {
+					i++;
+					h = (h ^ (0xf0 | (cp >> 18))) * 0x01000193;
+					h = (h ^ (0x80 | ((cp >> 12) & 0x3f))) * 0x01000193;
+					h = (h ^ (0x80 | ((cp >> 6) & 0x3f))) * 0x01000193;
+					h = (h ^ (0x80 | (cp & 0x3f))) * 0x01000193;
+				} else if (cp == '?') {
+					h = (h ^ '?') * 0x01000193;
+				} else {
+					h = (h ^ (0xe0 | (cp >> 12))) * 0x01000193;
+					h = (h ^ (0x80 | ((cp >> 6) & 0x3f))) * 0x01000193;
+					h = (h ^ (0x80 | (cp & 0x3f))) * 0x01000193;
+				}
+			}
+		}
+		return h;
+	}
+
+	private static int hash(ByteBuffer bb, int offset, int length) {
+		int h = 0x811c9dc5;
+		for (int i = 0; i < length; i++)
+			h = (h ^ (bb.get(offset + i) & 0xff)) * 0x01000193;
+		return h;
+	}
+
+	private static int utf8Length(String s) {
+		int n = 0;
+		int len = s.length();
+		for (int i = 0; i < len; i++) {
+			int c = s.charAt(i);
+			if (c < 0x80) {
+				n++;
+			} else if (c < 0x800) {
+				n += 2;
+			} else {
+				int cp = codePoint(s, i);
+				if (cp > 0xffff) {
+					i++;
+					n += 4;
+				} else if (cp == '?') {
+					n++;
+				} else {
+					n += 3;
+				}
+			}
+		}
+		return n;
+	}
+
+	private static boolean utf8Equals(String s, ByteBuffer bb, int p) {
+		int len = s.length();
+		for (int i = 0; i < len; i++) {
+			int c = s.charAt(i);
+			if (c < 0x80) {
+				if (bb.get(p++) != (byte) c)
+					return false;
+			} else if (c < 0x800) {
+				if (bb.get(p++) != (byte) (0xc0 | (c >> 6)) || bb.get(p++) != (byte) (0x80 | (c & 0x3f)))
+					return false;
+			} else {
+				int cp = codePoint(s, i);
+				if (cp > 0xffff) {
+					i++;
+					if (bb.get(p++) != (byte) (0xf0 | (cp >> 18)) || bb.get(p++) != (byte) (0x80 | ((cp >> 12) & 0x3f))
+							|| bb.get(p++) != (byte) (0x80 | ((cp >> 6) & 0x3f)) || bb.get(p++) != (byte) (0x80 | (cp & 0x3f)))
+						return false;
+				} else if (cp == '?') {
+					if (bb.get(p++) != '?')
+						return false;
+				} else {
+					if (bb.get(p++) != (byte) (0xe0 | (cp >> 12)) || bb.get(p++) != (byte) (0x80 | ((cp >> 6) & 0x3f))
+							|| bb.get(p++) != (byte) (0x80 | (cp & 0x3f)))
+						return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return code point of char at i (BMP char, or supplementary code point
+	 *         of valid surrogate pair), unpaired surrogate is '?' like
+	 *         String.getBytes()
+	 */
+	private static int codePoint(String s, int i) {
+		char c = s.charAt(i);
+		if (Character.isHighSurrogate(c)) {
+			if (i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1)))
+				return Character.toCodePoint(c, s.charAt(i + 1));
+			return '?';
+		}
+
+		if (Character.isLowSurrogate(c))
+			return '?';
+
+		return c;
+	}
+
+	/**
+	 * Writes entries sequentially and builds slot table at finish().
+	 */
+	public static class Builder {
+		private final File file;
+		private final RandomAccessFile raf;
+		private final FileChannel channel;
+		private final int columnCount;
+		private final boolean keepFirst;
+		private final long dataOffset;
+
+		private final FastEncodingRule enc = new FastEncodingRule();
+		private final ByteBuffer buf = ByteBuffer.allocate(1024 * 1024);
+		private byte[][] values;
+		private long position;
+		private long count;
+		private boolean finished;
+
+		/**
+		 * @param keepFirst
+		 *            keep first entry of duplicated keys if true, or last
+		 *            entry otherwise
+		 */
+		public Builder(File file, List<String> columns, boolean keepFirst) throws IOException {
+			this.file = file;
+			this.columnCount = columns.size();
+			this.keepFirst = keepFirst;
+			this.values = new byte[columnCount][];
+
+			raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(0);
+				raf.seek(HEADER_SIZE);
+				for (String column : columns)
+					raf.writeUTF(column);
+
+				// align data region to 8 bytes
+				dataOffset = (raf.getFilePointer() + 7) & ~7L;
+			} catch (IOException e) {
+				raf.close();
+				throw e;
+			}
+			channel = raf.getChannel();
+		}
+
+		/**
+		 * @return written entry count including duplicated keys
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @param row
+		 *            column values, null or missing column means null value
+		 */
+		public void add(String key, Object[] row) throws IOException {
+			if (finished)
+				throw new IllegalStateException("lookup file is already built: " + file.getAbsolutePath());
+
+			byte[] k = key.getBytes(UTF8);
+			int length = 4 + k.length + columnCount * 4;
+			for (int i = 0; i < columnCount; i++) {
+				Object value = i < row.length ? row[i] : null;
+				if (value == null) {
+					values[i] = null;
+					continue;
+				}
+
+				ByteBuffer bb = enc.encode(value);
+				values[i] = new byte[bb.remaining()];
+				bb.get(values[i]);
+				length += values[i].length;
+			}
+
+			if (length > SEGMENT_SIZE)
+				throw new IllegalArgumentException("too large lookup entry: " + key);
+
+			// entry should not cross segment boundary
+			long remain = SEGMENT_SIZE - (position % SEGMENT_SIZE);
+			if (remain < length) {
+				if (remain >= 4) {
+					putInt(-1);
+					remain -= 4;
+				}
+				skip(remain);
+			}
+
+			putInt(k.length);
+			put(k);
+
+			int end = 0;
+			for (int i = 0; i < columnCount; i++) {
+				if (values[i] != null)
+					end += values[i].length;
+				putInt(end);
+			}
+
+			for (int i = 0; i < columnCount; i++)
+				if (values[i] != null)
+					put(values[i]);
+
+			count++;
+		}
+
+		public MappedLookupFile finish() throws IOException {
+			if (finished)
+				throw new IllegalStateException("lookup file is already built: " + file.getAbsolutePath());
+
+			finished = true;
+			try {
+				flush();
+
+				long dataLength = position;
+				long slotOffset = (dataOffset + dataLength + 7) & ~7L;
+				int slotCount = 16;
+				while (slotCount < count * 2) {
+					if (slotCount >= MAX_SLOTS)
+						throw new IllegalStateException("too many lookup entries: " + count);
+					slotCount <<= 1;
+				}
+
+				raf.setLength(slotOffset + slotCount * 8L);
+				MappedByteBuffer slots = channel.map(MapMode.READ_WRITE, slotOffset, slotCount * 8L);
+				long unique = buildSlots(slots, slotCount - 1, dataLength);
+				slots.force();
+
+				raf.seek(0);
+				raf.writeInt(MAGIC);
+				raf.writeInt(0);
+				raf.writeLong(unique);
+				raf.writeInt(slotCount);
+				raf.writeInt(columnCount);
+				raf.writeLong(slotOffset);
+				raf.writeLong(dataOffset);
+				raf.writeLong(dataLength);
+				channel.force(true);
+			} catch (IOException e) {
+				abort();
+				throw e;
+			} catch (RuntimeException e) {
+				abort();
+				throw e;
+			}
+
+			raf.close();
+			return open(file);
+		}
+
+		/**
+		 * Closes and deletes incomplete file.
+		 */
+		public void abort() {
+			finished = true;
+			try {
+				raf.close();
+			} catch (IOException e) {
+			}
+			file.delete();
+		}
+
+		private long buildSlots(ByteBuffer slots, int slotMask, long dataLength) throws IOException {
+			long unique = 0;
+			long segmentBase = 0;
+			while (segmentBase < dataLength) {
+				long length = Math.min(SEGMENT_SIZE, dataLength - segmentBase);
+				MappedByteBuffer segment = channel.map(MapMode.READ_ONLY, dataOffset + segmentBase, length);
+
+				int p = 0;
+				while (p + 4 <= length) {
+					int keyLen = segment.getInt(p);
+					if (keyLen < 0)
+						break;
+
+					long entry = segmentBase + p;
+					int slot = mix(hash(segment, p + 4, keyLen)) & slotMask;
+					while (true) {
+						long other = slots.getLong(slot * 8) - 1;
+						if (other < 0) {
+							slots.putLong(slot * 8, entry + 1);
+							unique++;
+							break;
+						}
+
+						if (sameKey(segment, segmentBase, p, other, keyLen)) {
+							if (!keepFirst)
+								slots.putLong(slot * 8, entry + 1);
+							break;
+						}
+
+						slot = (slot + 1) & slotMask;
+					}
+
+					int ends = p + 4 + keyLen;
+					p = ends + columnCount * 4 + (columnCount == 0 ? 0 : segment.getInt(ends + (columnCount - 1) * 4));
+				}
+
+				segmentBase += SEGMENT_SIZE;
+			}
+			return unique;
+		}
+
+		private boolean sameKey(ByteBuffer segment, long segmentBase, int p, long other, int keyLen) throws IOException {
+			ByteBuffer bb = segment;
+			int offset = (int) (other - segmentBase);
+			if (other < segmentBase) {
+				// key of previous segment
+				byte[] b = new byte[4 + keyLen];
+				ByteBuffer read = ByteBuffer.wrap(b);
+				while (read.hasRemaining())
+					if (channel.read(read, dataOffset + other + read.position()) < 0)
+						return false;
+
+				if (read.getInt(0) != keyLen)
+					return false;
+
+				for (int i = 0; i < keyLen; i++)
+					if (b[4 + i] != segment.get(p + 4 + i))
+						return false;
+				return true;
+			}
+
+			if (bb.getInt(offset) != keyLen)
+				return false;
+
+			for (int i = 0; i < keyLen; i++)
+				if (bb.get(offset + 4 + i) != segment.get(p + 4 + i))
+					return false;
+			return true;
+		}
+
+		private void putInt(int v) throws IOException {
+			if (buf.remaining() < 4)
+				flush();
+			buf.putInt(v);
+			position += 4;
+		}
+
+		private void put(byte[] b) throws IOException {
+			int offset = 0;
+			while (offset < b.length) {
+				if (!buf.hasRemaining())
+					flush();
+
+				int len = Math.min(buf.remaining(), b.length - offset);
+				buf.put(b, offset, len);
+				offset += len;
+				position += len;
+			}
+		}
+
+		private void skip(long n) throws IOException {
+			flush();
+			position += n;
+		}
+
+		// buffered bytes are written at data offset + (position - buffered)
+		private void flush() throws IOException {
+			buf.flip();
+			long p = dataOffset + position - buf.remaining();
+			while (buf.hasRemaining())
+				p += channel.write(buf, p);
+			buf.clear();
+		}
+	}
+}
@@ -1,27 +1,100 @@
 package org.araqne.logdb;
 
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class MemLookupHandler implements LookupHandler2 {
 	private String keyField;
 	private Map<String, Map<String, Object>> mappings;
 
+	// off-heap mappings, used instead of mappings if not null
+	private MappedLookupFile file;
+
 	public MemLookupHandler(String keyField, Map<String, Map<String, Object>> mappings) {
 		this.keyField = keyField;
 		this.mappings = mappings;
 	}
 
+	/**
+	 * @since 2.6.15
+	 */
+	public MemLookupHandler(String keyField, MappedLookupFile file) {
+		this.keyField = keyField;
+		this.file = file;
+	}
+
 	public String getKeyField() {
 		return keyField;
 	}
 
+	/**
+	 * @since 2.6.15
+	 */
+	public long size() {
+		if (file != null)
+			return file.size();
+		return mappings.size();
+	}
+
+	/**
+	 * Off-heap mappings are copied to heap. Use size() or
+	 * getMappedLookupFile() for large lookup.
+	 */
 	public Map<String, Map<String, Object>> getMappings() {
-		return Collections.unmodifiableMap(mappings);
+		if (file == null)
+			return Collections.unmodifiableMap(mappings);
+
+		Map<String, Map<String, Object>> m = new HashMap<String, Map<String, Object>>();
+		List<String> columns = file.getColumns();
+		long[] cursor = new long[1];
+		long entry;
+		while ((entry = file.nextEntry(cursor)) >= 0) {
+			Map<String, Object> tuple = new HashMap<String, Object>(columns.size());
+			for (int i = 0; i < columns.size(); i++)
+				tuple.put(columns.get(i), file.getValue(entry, i));
+			m.put(file.getKey(entry), tuple);
+		}
+		return Collections.unmodifiableMap(m);
+	}
+
+	/**
+	 * @return null if mappings are on heap
+	 * @since 2.6.15
+	 */
+	public MappedLookupFile getMappedLookupFile() {
+		return file;
+	}
+
+	/**
+	 * Deletes off-heap mapping file. Running lookups are not affected.
+	 *
+	 * @since 2.6.15
+	 */
+	public void close() {
+		if (file != null)
+			file.close();
 	}
 
 	@Override
 	public Object lookup(String srcField, String dstField, Object value) {
+		if (file != null) {
+			// keys are string
+			if (!(value instanceof String))
+				return null;
+
+			int column = file.getColumnIndex(dstField);
+			if (column < 0)
+				return null;
+
+			long entry = file.find((String) value);
+			if (entry < 0)
+				return null;
+
+			return file.getValue(entry, column);
+		}
+
 		Map<String, Object> row = mappings.get(value);
 		if (row == null)
 			return null;
@@ -31,6 +104,8 @@ public class MemLookupHandler implements LookupHandler2 {
 
 	@Override
 	public LookupTable newTable(String keyField, Map<String, String> outputFields) {
+		if (file != null)
+			return new MappedLookupTable(keyField, outputFields);
 		return new MemLookupTable(keyField, outputFields);
 	}
 
@@ -80,4 +155,54 @@ public class MemLookupHandler implements LookupHandler2 {
 			}
 		}
 	}
+
+	private class MappedLookupTable implements LookupTable {
+		private String keyField;
+		private String[] renamed;
+
+		// column index of each output field, or -1 if not found
+		private int[] columns;
+
+		public MappedLookupTable(String keyField, Map<String, String> outputFields) {
+			this.keyField = keyField;
+			this.renamed = new String[outputFields.size()];
+			this.columns = new int[outputFields.size()];
+
+			int i = 0;
+			for (String name : outputFields.keySet()) {
+				renamed[i] = outputFields.get(name);
+				columns[i] = file.getColumnIndex(name);
+				i++;
+			}
+		}
+
+		@Override
+		public void lookup(Row row) {
+			lookupRow(row);
+		}
+
+		@Override
+		public void lookup(RowBatch rowBatch) {
+			if (rowBatch.selectedInUse) {
+				for (int i = 0; i < rowBatch.size; i++)
+					lookupRow(rowBatch.rows[rowBatch.selected[i]]);
+			} else {
+				for (int i = 0; i < rowBatch.size; i++)
+					lookupRow(rowBatch.rows[i]);
+			}
+		}
+
+		private void lookupRow(Row row) {
+			Object key = row.get(keyField);
+			if (!(key instanceof String))
+				return;
+
+			long entry = file.find((String) key);
+			if (entry < 0)
+				return;
+
+			for (int i = 0; i < columns.length; i++)
+				row.put(renamed[i], columns[i] < 0 ? null : file.getValue(entry, columns[i]));
+		}
+	}
 }
@@ -47,6 +47,31 @@ public enum TimeUnit {
 		return acronym;
 	}
 
+	/**
+	 * @return true if span length varies by calendar (month and year)
+	 * @since 2.6.15
+	 */
+	public static boolean isCalendarSpan(TimeSpan timeSpan) {
+		return timeSpan.unit == TimeUnit.Month || timeSpan.unit == TimeUnit.Year;
+	}
+
+	/**
+	 * Returns sequence number of fixed length span which contains the time.
+	 * {@link #getSpanTime(long, long)} of the index is same with getKey().
+	 * 
+	 * @since 2.6.15
+	 */
+	public static long getSpanIndex(long time, long spanMillis) {
+		return (time + timeZoneShift) / spanMillis;
+	}
+
+	/**
+	 * @since 2.6.15
+	 */
+	public static long getSpanTime(long index, long spanMillis) {
+		return index * spanMillis - timeZoneShift;
+	}
+
 	public static Date getKey(Date date, TimeSpan timeSpan) {
 		TimeUnit spanField = timeSpan.unit;
 
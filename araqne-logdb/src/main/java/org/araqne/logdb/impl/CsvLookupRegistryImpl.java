@@ -40,6 +40,7 @@ import org.araqne.confdb.Predicates;
 import org.araqne.logdb.CsvLookupRegistry;
 import org.araqne.logdb.LookupHandler;
 import org.araqne.logdb.LookupHandlerRegistry;
+import org.araqne.logdb.MappedLookupFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -65,6 +66,11 @@ public class CsvLookupRegistryImpl implements CsvLookupRegistry {
 
 	@Validate
 	public void start() {
+		// lookup files of previous run
+		int deleted = MappedLookupFile.deleteFiles();
+		if (deleted > 0)
+			logger.info("araqne logdb: deleted [{}] stale lookup files", deleted);
+
 		for (File f : getCsvFiles()) {
 			String name = getLookupName(f);
 			try {
@@ -82,8 +88,12 @@ public class CsvLookupRegistryImpl implements CsvLookupRegistry {
 			String name = getLookupName(f);
 			try {
 				logger.debug("araqne logdb: removing csv lookup handler [{}]", name);
-				if (lookup != null)
+				if (lookup != null) {
+					LookupHandler handler = lookup.getLookupHandler(name);
 					lookup.removeLookupHandler(name);
+					if (handler instanceof CsvLookupHandler)
+						((CsvLookupHandler) handler).close();
+				}
 			} catch (Throwable t) {
 				logger.error("araqne logdb: cannot remove csv lookup handler - " + name, t);
 			}
@@ -152,7 +162,32 @@ public class CsvLookupRegistryImpl implements CsvLookupRegistry {
 		c.remove();
 
 		// remove from lookup handler service
-		lookup.removeLookupHandler(getLookupName(f));
+		String name = getLookupName(f);
+		LookupHandler handler = lookup.getLookupHandler(name);
+		lookup.removeLookupHandler(name);
+		if (handler instanceof CsvLookupHandler)
+			((CsvLookupHandler) handler).close();
+	}
+
+	@Override
+	public void reloadCsvFile(File f) throws IOException {
+		if (f == null)
+			throw new IllegalArgumentException("csv path should not be null");
+
+		ConfigDatabase db = conf.ensureDatabase("araqne-logdb");
+		ConfigCollection col = db.ensureCollection("csv_lookups");
+
+		Config c = col.findOne(Predicates.field("path", f.getAbsolutePath()));
+		if (c == null)
+			throw new IllegalStateException("not registered path: " + f.getAbsolutePath());
+
+		// old handler serves lookups until new file is compiled
+		String name = getLookupName(f);
+		CsvLookupHandler newHandler = new CsvLookupHandler(f);
+		LookupHandler old = lookup.getLookupHandler(name);
+		lookup.setLookupHandler(name, newHandler);
+		if (old instanceof CsvLookupHandler)
+			((CsvLookupHandler) old).close();
 	}
 
 	private String getLookupName(File f) {
@@ -161,12 +196,12 @@ public class CsvLookupRegistryImpl implements CsvLookupRegistry {
 
 	private class CsvLookupHandler implements LookupHandler {
 		private String keyFieldName;
-		private ArrayList<String> valueFieldNames;
-		private Map<String, Map<String, String>> mappings = new HashMap<String, Map<String, String>>();
+		private MappedLookupFile mappings;
 
 		public CsvLookupHandler(File f) throws IOException {
 			CSVReader reader = null;
 			FileInputStream is = null;
+			MappedLookupFile.Builder builder = null;
 
 			try {
 				int skipBytes = getBomLength(f);
@@ -184,29 +219,39 @@ public class CsvLookupRegistryImpl implements CsvLookupRegistry {
 					throw new IllegalStateException("not enough columns (should be 2 or more)");
 
 				keyFieldName = nextLine[0];
-				valueFieldNames = new ArrayList<String>(nextLine.length - 1);
+				ArrayList<String> valueFieldNames = new ArrayList<String>(nextLine.length - 1);
 				for (int i = 1; i < nextLine.length; i++)
 					valueFieldNames.add(nextLine[i]);
 
 				if (logger.isDebugEnabled())
 					logger.debug("araqne logdb: key field [{}] value fields [{}]", keyFieldName, valueFieldNames);
 
+				// last row wins for duplicated key
+				builder = new MappedLookupFile.Builder(MappedLookupFile.createFile("csv_"), valueFieldNames, false);
+				String[] values = new String[valueFieldNames.size()];
 				while ((nextLine = reader.readNext()) != null) {
-					Map<String, String> values = new HashMap<String, String>();
-					for (int i = 1; i < nextLine.length; i++) {
-						String valueFieldName = valueFieldNames.get(i - 1);
-						String value = nextLine[i];
-						values.put(valueFieldName, value);
-					}
+					Arrays.fill(values, null);
+					for (int i = 1; i < nextLine.length && i <= values.length; i++)
+						values[i - 1] = nextLine[i];
 
-					mappings.put(nextLine[0], values);
+					builder.add(nextLine[0], values);
 				}
+
+				mappings = builder.finish();
+				builder = null;
 			} finally {
+				if (builder != null)
+					builder.abort();
+
 				if (reader != null)
 					reader.close();
 			}
 		}
 
+		public void close() {
+			mappings.close();
+		}
+
 		// support utf8 BOM only
 		private int getBomLength(File f) throws IOException {
 			if (f.length() < 3)
@@ -241,14 +286,15 @@ public class CsvLookupRegistryImpl implements CsvLookupRegistry {
 			if (!srcField.equals(keyFieldName))
 				return null;
 
-			if (!valueFieldNames.contains(dstField))
+			int column = mappings.getColumnIndex(dstField);
+			if (column < 0)
 				return null;
 
-			Map<String, String> valueMappings = mappings.get(srcValue.toString());
-			if (valueMappings == null)
+			long entry = mappings.find(srcValue.toString());
+			if (entry < 0)
 				return null;
 
-			return valueMappings.get(dstField);
+			return mappings.getValue(entry, column);
 		}
 	}
 }
@@ -42,6 +42,7 @@ import org.araqne.logdb.SavedResult;
 import org.araqne.logdb.SavedResultManager;
 import org.araqne.logdb.Session;
 import org.araqne.logdb.Strings;
+import org.araqne.logdb.sort.SortScheduler;
 
 public class LogDBScript implements Script {
 	private QueryService qs;
@@ -146,8 +147,7 @@ public class LogDBScript implements Script {
 	public void reloadCsvLookup(String[] args) throws IOException {
 		try {
 			File f = new File(args[0]);
-			csvRegistry.unloadCsvFile(f);
-			csvRegistry.loadCsvFile(f);
+			csvRegistry.reloadCsvFile(f);
 			context.println("reloaded");
 		} catch (IllegalStateException e) {
 			context.println(e);
@@ -443,4 +443,16 @@ public class LogDBScript implements Script {
 	public void getHashJoinThreshold(String[] args) {
 		context.println("hash join threshold :" + System.getProperty("araqne.hashjointhreshold", "100000"));
 	}
+
+	@ScriptUsage(description = "set sort worker thread count", arguments = { @ScriptArgument(name = "threads", type = "int", description = "sort worker thread count") })
+	public void setSortThreads(String[] args) {
+		SortScheduler scheduler = SortScheduler.getInstance();
+		scheduler.setThreadCount(Integer.parseInt(args[0]));
+		context.println("set sort threads to " + scheduler.getThreadCount());
+	}
+
+	@ScriptUsage(description = "get sort worker thread count")
+	public void getSortThreads(String[] args) {
+		context.println("sort threads :" + SortScheduler.getInstance().getThreadCount());
+	}
 }
@@ -30,6 +30,7 @@ import org.araqne.logdb.QueryResultSet;
 import org.araqne.logdb.QueryService;
 import org.araqne.logdb.RunMode;
 import org.araqne.logdb.Session;
+import org.araqne.logdb.query.engine.ColumnarResultStore.ColumnarResultSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -158,11 +159,21 @@ public class QueryHelper {
 	}
 
 	public static Map<String, Object> getResultData(QueryService qs, int id, int offset, int limit) throws IOException {
+		return getResultData(qs, id, offset, limit, null);
+	}
+
+	/**
+	 * @param selectedFields
+	 *            fields of result rows, all fields are returned if null
+	 * @since 2.6.15
+	 */
+	public static Map<String, Object> getResultData(QueryService qs, int id, int offset, int limit,
+			List<String> selectedFields) throws IOException {
 		Query query = qs.getQuery(id);
 		if (query != null) {
 			Map<String, Object> m = new HashMap<String, Object>();
 
-			m.put("result", getPage(query, offset, limit));
+			m.put("result", getPage(query, offset, limit, selectedFields));
 			m.put("count", query.getResultCount());
 
 			List<String> fields = null;
@@ -182,11 +193,20 @@ public class QueryHelper {
 		return null;
 	}
 
-	private static List<Object> getPage(Query query, int offset, int limit) throws IOException {
+	private static List<Object> getPage(Query query, int offset, int limit, List<String> selectedFields)
+			throws IOException {
 		List<Object> l = new LinkedList<Object>();
 		QueryResultSet rs = null;
 		try {
 			rs = query.getResultSet();
+
+			// columnar result decodes selected columns only
+			boolean projected = false;
+			if (selectedFields != null && rs instanceof ColumnarResultSet) {
+				((ColumnarResultSet) rs).setFields(selectedFields);
+				projected = true;
+			}
+
 			rs.skip(offset);
 
 			long count = 0;
@@ -194,7 +214,16 @@ public class QueryHelper {
 				if (count >= limit)
 					break;
 
-				l.add(rs.next());
+				Map<String, Object> row = rs.next();
+				if (selectedFields != null && !projected) {
+					Map<String, Object> selected = new HashMap<String, Object>();
+					for (String field : selectedFields)
+						if (row.containsKey(field))
+							selected.put(field, row.get(field));
+					row = selected;
+				}
+
+				l.add(row);
 				count++;
 			}
 		} finally {
@@ -1,11 +1,14 @@
 package org.araqne.logdb.impl;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Provides;
@@ -19,6 +22,8 @@ import org.araqne.confdb.Predicate;
 import org.araqne.confdb.Predicates;
 import org.araqne.logdb.SavedResult;
 import org.araqne.logdb.SavedResultManager;
+import org.araqne.logdb.query.engine.ColumnarResultStore;
+import org.araqne.logdb.query.engine.ColumnarResultStore.ColumnarResultSet;
 import org.araqne.logstorage.Log;
 import org.araqne.logstorage.LogCursor;
 import org.araqne.logstorage.LogFileService;
@@ -160,6 +165,17 @@ public class SavedResultManagerImpl implements SavedResultManager {
 		if (sr == null)
 			throw new IllegalStateException("saved result not found: " + guid);
 
+		if (ColumnarResultStore.NAME.equals(sr.getStorageName())) {
+			FilePath indexPath = baseDir.newFilePath(guid + ".idx");
+			FilePath dataPath = baseDir.newFilePath(guid + ".dat");
+			if (!(indexPath instanceof LocalFilePath) || !(dataPath instanceof LocalFilePath))
+				throw new IOException("columnar saved result should be in local file system: " + guid);
+
+			File indexFile = ((LocalFilePath) indexPath).getFile();
+			File dataFile = ((LocalFilePath) dataPath).getFile();
+			return new ColumnarCursor(sr, ColumnarResultStore.openResultSet(indexFile, dataFile));
+		}
+
 		LogFileService lfs = fileServiceRegistry.getLogFileService(sr.getStorageName());
 		Map<String, Object> options = new HashMap<String, Object>();
 		options.put("indexPath", baseDir.newFilePath(guid + ".idx"));
@@ -201,4 +217,49 @@ public class SavedResultManagerImpl implements SavedResultManager {
 			reader.close();
 		}
 	}
+
+	/**
+	 * Iterates in descending order like log file reader cursor.
+	 */
+	private static class ColumnarCursor implements LogCursor {
+		private final String guid;
+		private final Date created;
+		private final ColumnarResultSet rs;
+		private long next;
+
+		public ColumnarCursor(SavedResult result, ColumnarResultSet rs) {
+			this.guid = result.getGuid();
+			this.created = result.getCreated();
+			this.rs = rs;
+			this.next = rs.size() - 1;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next >= 0;
+		}
+
+		@Override
+		public Log next() {
+			if (next < 0)
+				throw new NoSuchElementException();
+
+			// decoded block is cached, seek is cheap
+			rs.reset();
+			rs.skip(next);
+			long id = next + 1;
+			next--;
+			return new Log(guid, created, id, rs.next());
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() {
+			rs.close();
+		}
+	}
 }
@@ -24,9 +24,11 @@ import org.araqne.logdb.MetadataService;
 import org.araqne.logdb.QueryContext;
 import org.araqne.logdb.QueryParseException;
 import org.araqne.logdb.Row;
+import org.araqne.logdb.query.engine.QueryTaskExecutor;
 import org.araqne.logdb.query.parser.CommandOptions;
 import org.araqne.logdb.query.parser.ParseResult;
 import org.araqne.logdb.query.parser.QueryTokenizer;
+import org.araqne.logdb.sort.SortScheduler;
 
 @Component(name = "logdb-thread-metadata")
 public class ThreadMetadataProvider implements MetadataProvider, FieldOrdering {
@@ -65,13 +67,13 @@ public class ThreadMetadataProvider implements MetadataProvider, FieldOrdering {
 			// throw new QueryParseException("no-read-permission", -1);
 		}
 
-		QueryTokenizer.parseOptions(context, queryString, 0, Arrays.asList("prettystack"), functionRegistry);
+		QueryTokenizer.parseOptions(context, queryString, 0, Arrays.asList("prettystack", "sort", "query"), functionRegistry);
 	}
 
 	@SuppressWarnings("unchecked")
 	@Override
 	public void query(QueryContext context, String queryString, MetadataCallback callback) {
-		ParseResult r = QueryTokenizer.parseOptions(context, queryString, 0, Arrays.asList("prettystack"), functionRegistry);
+		ParseResult r = QueryTokenizer.parseOptions(context, queryString, 0, Arrays.asList("prettystack", "sort", "query"), functionRegistry);
 		Map<String, Object> options = (Map<String, Object>) r.value;
 
 		// enable by default
@@ -80,6 +82,18 @@ public class ThreadMetadataProvider implements MetadataProvider, FieldOrdering {
 			prettyStack = CommandOptions.parseBoolean(options.get("prettystack").toString());
 		}
 
+		// show sort scheduler queues instead of threads
+		if (options.get("sort") != null && CommandOptions.parseBoolean(options.get("sort").toString())) {
+			dumpSortScheduler(callback);
+			return;
+		}
+
+		// show query task executor queues instead of threads
+		if (options.get("query") != null && CommandOptions.parseBoolean(options.get("query").toString())) {
+			dumpQueryTaskExecutor(callback);
+			return;
+		}
+
 		for (int i = 0; i < 3; i++) {
 			try {
 				dumpThreads(callback, prettyStack);
@@ -108,6 +122,56 @@ public class ThreadMetadataProvider implements MetadataProvider, FieldOrdering {
 		}
 	}
 
+	private void dumpSortScheduler(MetadataCallback callback) {
+		SortScheduler.Status s = SortScheduler.getInstance().getStatus();
+
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("type", "scheduler");
+		m.put("threads", s.getThreads());
+		m.put("pool_size", s.getPoolSize());
+		m.put("active_threads", s.getActiveThreads());
+		m.put("queued", s.getQueued());
+		m.put("running", s.getRunning());
+		callback.onPush(new Row(m));
+
+		for (SortScheduler.ClientStatus c : s.getClients()) {
+			m = new HashMap<String, Object>();
+			m.put("type", "sorter");
+			m.put("id", c.getId());
+			m.put("queued", c.getQueued());
+			m.put("running", c.getRunning());
+			m.put("completed", c.getCompleted());
+			callback.onPush(new Row(m));
+		}
+	}
+
+	private void dumpQueryTaskExecutor(MetadataCallback callback) {
+		QueryTaskExecutor.Status s = QueryTaskExecutor.getInstance().getStatus();
+
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("type", "executor");
+		m.put("backend", s.getBackend());
+		m.put("threads", s.getMaxThreads());
+		m.put("pool_size", s.getPoolSize());
+		m.put("query_limit", s.getQueryLimit());
+		m.put("session_limit", s.getSessionLimit());
+		m.put("max_queued", s.getMaxQueued());
+		m.put("running", s.getRunning());
+		m.put("queued", s.getQueued());
+		m.put("completed", s.getCompleted());
+		m.put("rejected", s.getRejected());
+		callback.onPush(new Row(m));
+
+		for (QueryTaskExecutor.QueryStatus q : s.getQueries()) {
+			m = new HashMap<String, Object>();
+			m.put("type", "query");
+			m.put("query_id", q.getQueryId());
+			m.put("running", q.getRunning());
+			m.put("queued", q.getQueued());
+			callback.onPush(new Row(m));
+		}
+	}
+
 	private String mergeStackTrace(ThreadInfo t) {
 		StackTraceElement[] stacktrace = t.getStackTrace();
 		MonitorInfo[] monitors = t.getLockedMonitors();
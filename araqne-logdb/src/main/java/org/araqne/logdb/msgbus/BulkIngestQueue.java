@@ -0,0 +1,231 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.msgbus;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.araqne.logstorage.Log;
+import org.araqne.logstorage.LogStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces concurrent insert batches into large storage writes. Writer
+ * threads drain all queued batches at once, group rows by table, and write
+ * each table using one storage call. Submitter is blocked until its rows are
+ * written. Pending rows are bounded, and submit returns false if the queue
+ * is still full after timeout, so that client can back off and retry.
+ * 
+ * @since 2.6.15
+ */
+public class BulkIngestQueue {
+	private final Logger slog = LoggerFactory.getLogger(BulkIngestQueue.class);
+
+	private final LogStorage storage;
+	private final int capacity;
+	private final int maxWriteRows;
+
+	// available pending row slots
+	private final Semaphore permits;
+	private final LinkedBlockingQueue<Batch> queue = new LinkedBlockingQueue<Batch>();
+	private final ThreadPoolExecutor executor;
+	private volatile boolean closed;
+
+	/**
+	 * @param threads
+	 *            writer thread count
+	 * @param capacity
+	 *            max pending row count
+	 * @param maxWriteRows
+	 *            max row count of one coalesced write
+	 */
+	public BulkIngestQueue(LogStorage storage, final String name, int threads, int capacity, int maxWriteRows) {
+		this.storage = storage;
+		this.capacity = Math.max(1, capacity);
+		this.maxWriteRows = Math.max(1, maxWriteRows);
+		this.permits = new Semaphore(this.capacity, true);
+
+		threads = Math.max(1, threads);
+		this.executor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private AtomicInteger counter = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, name + " " + counter.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+
+		for (int i = 0; i < threads; i++)
+			executor.execute(new Writer());
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int getPendingRows() {
+		return capacity - permits.availablePermits();
+	}
+
+	/**
+	 * Enqueues logs and waits until all logs are written.
+	 * 
+	 * @return false if pending rows are not drained until timeout
+	 * @throws IllegalStateException
+	 *             if write failed or queue is closed
+	 */
+	public boolean submit(String tableName, List<Log> logs, long timeout, TimeUnit unit) throws InterruptedException {
+		if (closed)
+			throw new IllegalStateException("bulk ingest queue is closed");
+
+		if (logs.isEmpty())
+			return true;
+
+		// oversized batch occupies whole queue
+		int rows = Math.min(logs.size(), capacity);
+		if (!permits.tryAcquire(rows, timeout, unit))
+			return false;
+
+		Batch batch = new Batch(tableName, logs, rows);
+		queue.add(batch);
+
+		// queue can be closed after closed check
+		if (closed && queue.remove(batch))
+			batch.done(new IllegalStateException("bulk ingest queue is closed"));
+
+		batch.latch.await();
+
+		Throwable t = batch.failure;
+		if (t == null)
+			return true;
+
+		if (t instanceof RuntimeException)
+			throw (RuntimeException) t;
+		throw new IllegalStateException("cannot write [" + logs.size() + "] logs to table [" + tableName + "]", t);
+	}
+
+	public void close() {
+		closed = true;
+		executor.shutdownNow();
+
+		Batch b = null;
+		while ((b = queue.poll()) != null)
+			b.done(new IllegalStateException("bulk ingest queue is closed"));
+	}
+
+	private void write(List<Batch> batches) {
+		Map<String, List<Batch>> tables = new LinkedHashMap<String, List<Batch>>();
+		for (Batch b : batches) {
+			List<Batch> l = tables.get(b.tableName);
+			if (l == null) {
+				l = new ArrayList<Batch>();
+				tables.put(b.tableName, l);
+			}
+			l.add(b);
+		}
+
+		for (String tableName : tables.keySet()) {
+			List<Batch> l = tables.get(tableName);
+			Throwable failure = null;
+			try {
+				if (l.size() == 1) {
+					storage.write(l.get(0).logs);
+				} else {
+					int count = 0;
+					for (Batch b : l)
+						count += b.logs.size();
+
+					List<Log> logs = new ArrayList<Log>(count);
+					for (Batch b : l)
+						logs.addAll(b.logs);
+
+					storage.write(logs);
+				}
+			} catch (Throwable t) {
+				// written rows cannot be identified, do not retry
+				slog.debug("araqne logdb: cannot write bulk ingest batches of table [" + tableName + "]", t);
+				failure = t;
+			}
+
+			for (Batch b : l)
+				b.done(failure);
+		}
+	}
+
+	private class Writer implements Runnable {
+		@Override
+		public void run() {
+			while (!closed) {
+				try {
+					Batch first = queue.poll(1, TimeUnit.SECONDS);
+					if (first == null)
+						continue;
+
+					List<Batch> batches = new ArrayList<Batch>();
+					batches.add(first);
+
+					int rows = first.logs.size();
+					while (rows < maxWriteRows) {
+						Batch b = queue.poll();
+						if (b == null)
+							break;
+
+						batches.add(b);
+						rows += b.logs.size();
+					}
+
+					write(batches);
+				} catch (InterruptedException e) {
+				} catch (Throwable t) {
+					slog.error("araqne logdb: bulk ingest writer failed", t);
+				}
+			}
+		}
+	}
+
+	private class Batch {
+		private final String tableName;
+		private final List<Log> logs;
+		private final int permits;
+		private final CountDownLatch latch = new CountDownLatch(1);
+		private volatile Throwable failure;
+
+		public Batch(String tableName, List<Log> logs, int permits) {
+			this.tableName = tableName;
+			this.logs = logs;
+			this.permits = permits;
+		}
+
+		public void done(Throwable failure) {
+			this.failure = failure;
+			BulkIngestQueue.this.permits.release(permits);
+			latch.countDown();
+		}
+	}
+}
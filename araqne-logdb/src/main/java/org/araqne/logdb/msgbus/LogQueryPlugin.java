@@ -27,6 +27,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
@@ -81,6 +82,14 @@ public class LogQueryPlugin {
 	// milliseconds
 	private static final int DEFAULT_STREAM_FLUSH_INTERVAL = 1000;
 
+	// bulk ingest queue settings, can be set using system properties
+	private static final int INGEST_THREADS = Integer.getInteger("araqne.logdb.ingest.threads", 2);
+	private static final int INGEST_QUEUE_ROWS = Integer.getInteger("araqne.logdb.ingest.queue_rows", 500000);
+	private static final int INGEST_WRITE_ROWS = Integer.getInteger("araqne.logdb.ingest.write_rows", 100000);
+
+	// milliseconds
+	private static final int INGEST_WAIT_INTERVAL = Integer.getInteger("araqne.logdb.ingest.wait", 1000);
+
 	@Requires
 	private QueryService service;
 
@@ -104,12 +113,14 @@ public class LogQueryPlugin {
 
 	private StreamingResultEncoder streamingEncoder;
 	private StreamingResultDecoder streamingDecoder;
+	private BulkIngestQueue bulkIngest;
 
 	@Validate
 	public void start() {
 		int poolSize = Math.min(8, Runtime.getRuntime().availableProcessors());
 		streamingEncoder = new StreamingResultEncoder("Streaming Result Encoder", poolSize);
 		streamingDecoder = new StreamingResultDecoder("Streaming Result Decoder", poolSize);
+		bulkIngest = new BulkIngestQueue(storage, "Bulk Ingest Writer", INGEST_THREADS, INGEST_QUEUE_ROWS, INGEST_WRITE_ROWS);
 	}
 
 	@Invalidate
@@ -123,6 +134,11 @@ public class LogQueryPlugin {
 			streamingDecoder.close();
 			streamingDecoder = null;
 		}
+
+		if (bulkIngest != null) {
+			bulkIngest.close();
+			bulkIngest = null;
+		}
 	}
 
 	@MsgbusMethod
@@ -288,33 +304,50 @@ public class LogQueryPlugin {
 		// decode
 		if (!req.has("bins") || !req.has("table"))
 			throw new IllegalStateException("no data");
+
+		String tableName = req.getString("table");
+		if (!tableRegistry.exists(tableName))
+			throw new MsgbusException("logdb", "table-not-exists");
+
+		List<Log> logs = null;
 		try {
-			String tableName = req.getString("table");
 			List<Map<String, Object>> chunk = (List<Map<String, Object>>) req.get("bins");
 			List<Object> l = streamingDecoder.decode(chunk);
 
+			logs = new ArrayList<Log>(l.size());
 			for (Object m : l) {
 				Map<String, Object> data = (Map<String, Object>) m;
 				Date date = (Date) data.get("_time");
-				Log log = new Log(tableName, date, data);
-				// storage.writeBatch(log);
-				try {
-					storage.write(log);
-				} catch (InterruptedException e) {
-					logger.warn("storage.write interrupted", e);
-				}
-
+				logs.add(new Log(tableName, date, data));
 			}
 		} catch (ExecutionException e) {
-			logger.error("araqne logdb : cannot insert data", e);
+			logger.error("araqne logdb : cannot decode insert data", e);
+			throw new MsgbusException("logdb", "cannot-decode-data");
 		}
+
+		// respond after all rows are written, or signal client to retry later
+		try {
+			if (!bulkIngest.submit(tableName, logs, INGEST_WAIT_INTERVAL, TimeUnit.MILLISECONDS)) {
+				Map<String, Object> params = new HashMap<String, Object>();
+				params.put("pending_rows", bulkIngest.getPendingRows());
+				params.put("retry_after", INGEST_WAIT_INTERVAL);
+				throw new MsgbusException("logdb", "ingest-busy", params);
+			}
+		} catch (InterruptedException e) {
+			logger.warn("araqne logdb: bulk insert interrupted", e);
+			throw new MsgbusException("logdb", "ingest-interrupted");
+		}
+
+		resp.put("count", logs.size());
 	}
 
+	@SuppressWarnings("unchecked")
 	@MsgbusMethod
 	public void getResult(Request req, Response resp) throws IOException {
 		int id = req.getInteger("id", true);
 		int offset = req.getInteger("offset", true);
 		int limit = req.getInteger("limit", true);
+		List<String> fields = (List<String>) req.get("fields");
 		Boolean binaryEncode = req.getBoolean("binary_encode");
 		String compression = req.getString("compression");
 		boolean useGzip = compression != null && compression.equals("gzip");
@@ -323,7 +356,7 @@ public class LogQueryPlugin {
 		if (query == null)
 			return;
 
-		Map<String, Object> m = QueryHelper.getResultData(service, id, offset, limit);
+		Map<String, Object> m = QueryHelper.getResultData(service, id, offset, limit, fields);
 		if (m == null)
 			return;
 
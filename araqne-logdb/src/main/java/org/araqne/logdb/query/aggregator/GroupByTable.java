@@ -0,0 +1,610 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.query.aggregator;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.araqne.logdb.ObjectComparator;
+import org.araqne.logdb.Row;
+import org.araqne.logdb.RowBatch;
+import org.araqne.logdb.query.command.NumberUtil;
+import org.araqne.logdb.query.expr.Expression;
+
+/**
+ * Batch oriented group-by table for stats command. Composite keys are hashed
+ * once per row and stored in open addressing table. count, sum, avg, min and
+ * max are accumulated into per-group arrays instead of cloned aggregation
+ * function instances, and other functions fall back to clone of template
+ * function.
+ *
+ * Serialized group state is compatible with
+ * {@link AggregationFunction#serialize()} of template functions, so spilled
+ * groups can be merged using {@link AggregationFunction#merge}.
+ *
+ * @since 2.6.15
+ */
+public class GroupByTable {
+	private static final int INITIAL_GROUPS = 1024;
+
+	// approximated heap usage
+	private static final int REF_SIZE = 8;
+	private static final int ARRAY_OVERHEAD = 16;
+	private static final int OBJECT_OVERHEAD = 16;
+
+	private final String[] clauses;
+	private final Accumulator[] accumulators;
+	private final int groupBytes;
+
+	// group index + 1, zero means empty slot
+	private int[] slots;
+	private int mask;
+
+	private Object[][] groupKeys;
+	private int[] groupHashes;
+	private int groupCount;
+	private long keyBytes;
+
+	// per-batch buffers
+	private Object[] keyBuffer;
+	private Row[] batchRows = new Row[0];
+	private int[] batchGroups = new int[0];
+
+	public GroupByTable(List<String> clauses, AggregationFunction[] templates) {
+		this.clauses = clauses.toArray(new String[0]);
+		this.keyBuffer = new Object[this.clauses.length];
+		this.accumulators = new Accumulator[templates.length];
+
+		int bytes = ARRAY_OVERHEAD + REF_SIZE * (this.clauses.length + 2) + 4 * 3;
+		for (int i = 0; i < templates.length; i++) {
+			accumulators[i] = newAccumulator(templates[i]);
+			bytes += accumulators[i].bytesPerGroup();
+		}
+		this.groupBytes = bytes;
+
+		allocate(INITIAL_GROUPS);
+	}
+
+	private static Accumulator newAccumulator(AggregationFunction f) {
+		// subclasses (e.g. per_time) have own semantics
+		Class<?> c = f.getClass();
+		List<Expression> args = f.getArguments();
+		if (c == Count.class)
+			return args.isEmpty() ? new CountAll() : new CountNotNull(args.get(0));
+		if (c == Sum.class)
+			return new SumAccumulator(args.get(0));
+		if (c == Average.class)
+			return new AverageAccumulator(args.get(0));
+		if (c == Min.class)
+			return new MinMaxAccumulator(args.get(0), true);
+		if (c == Max.class)
+			return new MinMaxAccumulator(args.get(0), false);
+		return new FunctionAccumulator(f);
+	}
+
+	private void allocate(int groups) {
+		slots = new int[groups * 2];
+		mask = slots.length - 1;
+		groupKeys = new Object[groups][];
+		groupHashes = new int[groups];
+		for (Accumulator acc : accumulators)
+			acc.resize(groups);
+	}
+
+	public int size() {
+		return groupCount;
+	}
+
+	/**
+	 * @return approximated heap bytes used by groups and hash slots
+	 */
+	public long estimatedBytes() {
+		return keyBytes + (long) groupCount * groupBytes + (long) slots.length * 4
+				+ (long) (groupKeys.length - groupCount) * REF_SIZE;
+	}
+
+	public Object[] getKeys(int group) {
+		return groupKeys[group];
+	}
+
+	/**
+	 * @return serialized aggregation function states of the group
+	 */
+	public Object[] serialize(int group) {
+		Object[] l = new Object[accumulators.length];
+		for (int i = 0; i < accumulators.length; i++)
+			l[i] = accumulators[i].serialize(group);
+		return l;
+	}
+
+	/**
+	 * Remove all groups and release grown buffers.
+	 */
+	public void clear() {
+		groupCount = 0;
+		keyBytes = 0;
+		for (Accumulator acc : accumulators)
+			acc.release();
+		allocate(INITIAL_GROUPS);
+	}
+
+	/**
+	 * @return the number of aggregated rows. rows with null group key are
+	 *         ignored.
+	 */
+	public int add(RowBatch rowBatch) {
+		int size = rowBatch.size;
+		if (batchRows.length < size) {
+			batchRows = new Row[size];
+			batchGroups = new int[size];
+		}
+
+		// extract group keys and find groups
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			Row row = rowBatch.selectedInUse ? rowBatch.rows[rowBatch.selected[i]] : rowBatch.rows[i];
+			int group = findGroup(row);
+			if (group < 0)
+				continue;
+
+			batchRows[count] = row;
+			batchGroups[count] = group;
+			count++;
+		}
+
+		// then aggregate column by column
+		for (Accumulator acc : accumulators)
+			acc.apply(batchRows, batchGroups, count);
+
+		Arrays.fill(batchRows, 0, count, null);
+		return count;
+	}
+
+	/**
+	 * @return false if row has null group key
+	 */
+	public boolean add(Row row) {
+		int group = findGroup(row);
+		if (group < 0)
+			return false;
+
+		for (Accumulator acc : accumulators)
+			acc.apply(row, group);
+		return true;
+	}
+
+	private int findGroup(Row row) {
+		int hash = 1;
+		for (int i = 0; i < clauses.length; i++) {
+			Object value = row.get(clauses[i]);
+			if (value == null)
+				return -1;
+
+			keyBuffer[i] = value;
+			hash = 31 * hash + value.hashCode();
+		}
+
+		int h = spread(hash);
+		int pos = h & mask;
+		while (true) {
+			int slot = slots[pos];
+			if (slot == 0)
+				break;
+
+			int group = slot - 1;
+			if (groupHashes[group] == hash && keyEquals(groupKeys[group]))
+				return group;
+
+			pos = (pos + 1) & mask;
+		}
+
+		return insert(pos, hash);
+	}
+
+	private boolean keyEquals(Object[] keys) {
+		for (int i = 0; i < keys.length; i++)
+			if (!keys[i].equals(keyBuffer[i]))
+				return false;
+		return true;
+	}
+
+	private int insert(int pos, int hash) {
+		int group = groupCount++;
+		if (group == groupKeys.length) {
+			grow();
+			pos = spread(hash) & mask;
+			while (slots[pos] != 0)
+				pos = (pos + 1) & mask;
+		}
+
+		Object[] keys = keyBuffer.clone();
+		groupKeys[group] = keys;
+		groupHashes[group] = hash;
+		slots[pos] = group + 1;
+
+		keyBytes += ARRAY_OVERHEAD;
+		for (Object key : keys)
+			keyBytes += estimate(key);
+
+		for (Accumulator acc : accumulators)
+			acc.init(group);
+
+		return group;
+	}
+
+	private void grow() {
+		int groups = groupKeys.length * 2;
+		groupKeys = Arrays.copyOf(groupKeys, groups);
+		groupHashes = Arrays.copyOf(groupHashes, groups);
+		for (Accumulator acc : accumulators)
+			acc.resize(groups);
+
+		// rehash, load factor is kept under 0.5
+		slots = new int[groups * 2];
+		mask = slots.length - 1;
+		for (int g = 0; g < groupCount - 1; g++) {
+			int pos = spread(groupHashes[g]) & mask;
+			while (slots[pos] != 0)
+				pos = (pos + 1) & mask;
+			slots[pos] = g + 1;
+		}
+	}
+
+	private static int spread(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	static long estimate(Object o) {
+		if (o instanceof String)
+			return OBJECT_OVERHEAD + 24 + ARRAY_OVERHEAD + ((String) o).length() * 2;
+		if (o instanceof Number || o instanceof Boolean)
+			return OBJECT_OVERHEAD + 8;
+		if (o instanceof Date)
+			return OBJECT_OVERHEAD + 16;
+		if (o instanceof byte[])
+			return ARRAY_OVERHEAD + ((byte[]) o).length;
+		return 64;
+	}
+
+	private static abstract class Accumulator {
+		abstract int bytesPerGroup();
+
+		abstract void resize(int groups);
+
+		abstract void release();
+
+		abstract void init(int group);
+
+		abstract void apply(Row row, int group);
+
+		abstract Object[] serialize(int group);
+
+		void apply(Row[] rows, int[] groups, int count) {
+			for (int i = 0; i < count; i++)
+				apply(rows[i], groups[i]);
+		}
+	}
+
+	private static class CountAll extends Accumulator {
+		private long[] counts;
+
+		@Override
+		int bytesPerGroup() {
+			return 8;
+		}
+
+		@Override
+		void resize(int groups) {
+			counts = counts == null ? new long[groups] : Arrays.copyOf(counts, groups);
+		}
+
+		@Override
+		void release() {
+			counts = null;
+		}
+
+		@Override
+		void init(int group) {
+			counts[group] = 0;
+		}
+
+		@Override
+		void apply(Row row, int group) {
+			counts[group]++;
+		}
+
+		@Override
+		void apply(Row[] rows, int[] groups, int count) {
+			long[] c = counts;
+			for (int i = 0; i < count; i++)
+				c[groups[i]]++;
+		}
+
+		@Override
+		Object[] serialize(int group) {
+			return new Object[] { counts[group] };
+		}
+	}
+
+	private static class CountNotNull extends CountAll {
+		private final Expression expr;
+
+		public CountNotNull(Expression expr) {
+			this.expr = expr;
+		}
+
+		@Override
+		void apply(Row row, int group) {
+			if (expr.eval(row) != null)
+				super.apply(row, group);
+		}
+
+		@Override
+		void apply(Row[] rows, int[] groups, int count) {
+			for (int i = 0; i < count; i++)
+				apply(rows[i], groups[i]);
+		}
+	}
+
+	/**
+	 * follows {@link NumberUtil#add(Object, Object)} type promotion. sum is
+	 * long until any floating point value is added.
+	 */
+	private static class SumAccumulator extends Accumulator {
+		// sum starts at 0L like Sum, so group without numbers yields 0
+		private static final byte LONG = 1;
+		private static final byte DOUBLE = 2;
+
+		private final Expression expr;
+		private byte[] types;
+		private long[] longs;
+		private double[] doubles;
+
+		public SumAccumulator(Expression expr) {
+			this.expr = expr;
+		}
+
+		@Override
+		int bytesPerGroup() {
+			return 17;
+		}
+
+		@Override
+		void resize(int groups) {
+			if (types == null) {
+				types = new byte[groups];
+				longs = new long[groups];
+				doubles = new double[groups];
+			} else {
+				types = Arrays.copyOf(types, groups);
+				longs = Arrays.copyOf(longs, groups);
+				doubles = Arrays.copyOf(doubles, groups);
+			}
+		}
+
+		@Override
+		void release() {
+			types = null;
+			longs = null;
+			doubles = null;
+		}
+
+		@Override
+		void init(int group) {
+			types[group] = LONG;
+			longs[group] = 0;
+			doubles[group] = 0;
+		}
+
+		@Override
+		void apply(Row row, int group) {
+			Object obj = expr.eval(row);
+			if (obj == null || !(obj instanceof Number))
+				return;
+
+			if (obj instanceof Long || obj instanceof Integer || obj instanceof Short) {
+				addLong(group, ((Number) obj).longValue());
+			} else if (obj instanceof Double || obj instanceof Float) {
+				addDouble(group, ((Number) obj).doubleValue());
+			} else {
+				Number n = NumberUtil.getValue(obj, 0L);
+				if (n instanceof Long)
+					addLong(group, n.longValue());
+				else
+					addDouble(group, n.doubleValue());
+			}
+		}
+
+		private void addLong(int group, long v) {
+			if (types[group] == DOUBLE) {
+				doubles[group] += v;
+			} else {
+				longs[group] += v;
+			}
+		}
+
+		private void addDouble(int group, double v) {
+			if (types[group] == DOUBLE) {
+				doubles[group] += v;
+			} else {
+				doubles[group] = longs[group] + v;
+				types[group] = DOUBLE;
+			}
+		}
+
+		@Override
+		Object[] serialize(int group) {
+			if (types[group] == DOUBLE)
+				return new Object[] { doubles[group] };
+			return new Object[] { longs[group] };
+		}
+	}
+
+	private static class AverageAccumulator extends Accumulator {
+		private final Expression expr;
+		private double[] sums;
+		private int[] counts;
+
+		public AverageAccumulator(Expression expr) {
+			this.expr = expr;
+		}
+
+		@Override
+		int bytesPerGroup() {
+			return 12;
+		}
+
+		@Override
+		void resize(int groups) {
+			if (sums == null) {
+				sums = new double[groups];
+				counts = new int[groups];
+			} else {
+				sums = Arrays.copyOf(sums, groups);
+				counts = Arrays.copyOf(counts, groups);
+			}
+		}
+
+		@Override
+		void release() {
+			sums = null;
+			counts = null;
+		}
+
+		@Override
+		void init(int group) {
+			sums[group] = 0;
+			counts[group] = 0;
+		}
+
+		@Override
+		void apply(Row row, int group) {
+			Object obj = expr.eval(row);
+			if (obj == null || !(obj instanceof Number))
+				return;
+
+			double v;
+			if (obj instanceof Long || obj instanceof Integer || obj instanceof Double)
+				v = ((Number) obj).doubleValue();
+			else
+				v = NumberUtil.getValue(obj, 0L).doubleValue();
+
+			sums[group] += v;
+			counts[group]++;
+		}
+
+		@Override
+		Object[] serialize(int group) {
+			Double d = counts[group] == 0 ? null : sums[group];
+			return new Object[] { d, counts[group] };
+		}
+	}
+
+	private static class MinMaxAccumulator extends Accumulator {
+		private final Expression expr;
+		private final boolean min;
+		private final ObjectComparator comp = new ObjectComparator();
+		private Object[] values;
+
+		public MinMaxAccumulator(Expression expr, boolean min) {
+			this.expr = expr;
+			this.min = min;
+		}
+
+		@Override
+		int bytesPerGroup() {
+			return REF_SIZE + OBJECT_OVERHEAD + 8;
+		}
+
+		@Override
+		void resize(int groups) {
+			values = values == null ? new Object[groups] : Arrays.copyOf(values, groups);
+		}
+
+		@Override
+		void release() {
+			values = null;
+		}
+
+		@Override
+		void init(int group) {
+			values[group] = null;
+		}
+
+		@Override
+		void apply(Row row, int group) {
+			Object obj = expr.eval(row);
+			if (obj == null)
+				return;
+
+			Object old = values[group];
+			if (old == null) {
+				values[group] = obj;
+				return;
+			}
+
+			int cmp = comp.compare(old, obj);
+			if (min ? cmp > 0 : cmp < 0)
+				values[group] = obj;
+		}
+
+		@Override
+		Object[] serialize(int group) {
+			return new Object[] { values[group] };
+		}
+	}
+
+	private static class FunctionAccumulator extends Accumulator {
+		private final AggregationFunction template;
+		private AggregationFunction[] funcs;
+
+		public FunctionAccumulator(AggregationFunction template) {
+			this.template = template;
+		}
+
+		@Override
+		int bytesPerGroup() {
+			return REF_SIZE + 96;
+		}
+
+		@Override
+		void resize(int groups) {
+			funcs = funcs == null ? new AggregationFunction[groups] : Arrays.copyOf(funcs, groups);
+		}
+
+		@Override
+		void release() {
+			funcs = null;
+		}
+
+		@Override
+		void init(int group) {
+			funcs[group] = template.clone();
+		}
+
+		@Override
+		void apply(Row row, int group) {
+			funcs[group].apply(row);
+		}
+
+		@Override
+		Object[] serialize(int group) {
+			return funcs[group].serialize();
+		}
+	}
+}
@@ -31,6 +31,7 @@ import org.araqne.logdb.Strings;
 import org.araqne.logdb.query.expr.Expression;
 import org.araqne.logdb.sort.CloseableIterator;
 import org.araqne.logdb.sort.Item;
+import org.araqne.logdb.sort.ObjectKeyEncoder;
 import org.araqne.logdb.sort.ParallelMergeSorter;
 
 public class BoxPlot extends QueryCommand {
@@ -49,7 +50,7 @@ public class BoxPlot extends QueryCommand {
 		this.clauses = clauses;
 		this.clauseCount = clauses.size();
 		this.groupCounts = new HashMap<GroupKey, AtomicLong>();
-		this.sorter = new ParallelMergeSorter(new ItemComparer());
+		this.sorter = new ParallelMergeSorter(new ItemComparer(), new ObjectKeyEncoder());
 	}
 
 	@Override
@@ -57,6 +58,12 @@ public class BoxPlot extends QueryCommand {
 		return "boxplot";
 	}
 
+	@Override
+	public void onStart() {
+		super.onStart();
+		sorter.setOwner(getQuery());
+	}
+
 	public Expression getExpression() {
 		return expr;
 	}
@@ -20,14 +20,19 @@ import org.araqne.logdb.Row;
 import org.araqne.logdb.RowBatch;
 import org.araqne.logdb.ThreadSafe;
 import org.araqne.logdb.query.expr.Expression;
+import org.araqne.logdb.query.expr.ExpressionCompiler;
 
 public class Eval extends QueryCommand implements ThreadSafe {
 	private String field;
 	private Expression expr;
 
+	// evaluated instead of expr
+	private Expression compiled;
+
 	public Eval(String field, Expression expr) {
 		this.field = field;
 		this.expr = expr;
+		this.compiled = ExpressionCompiler.compile(expr);
 	}
 
 	@Override
@@ -45,7 +50,7 @@ public class Eval extends QueryCommand implements ThreadSafe {
 
 	@Override
 	public void onPush(Row m) {
-		m.put(field, expr.eval(m));
+		m.put(field, compiled.eval(m));
 		pushPipe(m);
 	}
 
@@ -55,12 +60,12 @@ public class Eval extends QueryCommand implements ThreadSafe {
 			for (int i = 0; i < rowBatch.size; i++) {
 				int p = rowBatch.selected[i];
 				Row row = rowBatch.rows[p];
-				row.put(field, expr.eval(row));
+				row.put(field, compiled.eval(row));
 			}
 		} else {
 			for (int i = 0; i < rowBatch.size; i++) {
 				Row row = rowBatch.rows[i];
-				row.put(field, expr.eval(row));
+				row.put(field, compiled.eval(row));
 			}
 		}
 
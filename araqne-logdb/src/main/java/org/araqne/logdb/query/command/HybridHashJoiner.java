@@ -0,0 +1,319 @@
+package org.araqne.logdb.query.command;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.araqne.codec.EncodingRule;
+import org.araqne.codec.FastEncodingRule;
+import org.araqne.logdb.Row;
+import org.araqne.logdb.query.command.Join.JoinKeys;
+import org.araqne.logdb.query.command.Join.JoinType;
+import org.araqne.logdb.query.command.Sort.SortField;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hybrid hash join. Both inputs are partitioned by join key hash. Subquery
+ * rows of resident partitions are kept in hash tables and main query rows of
+ * those partitions are joined immediately. Other partitions are spilled to
+ * disk and joined one by one at merge(). Resident partitions are evicted
+ * from highest partition number when build side exceeds memory budget.
+ * 
+ * @since 2.6.15
+ */
+public class HybridHashJoiner {
+	private final Logger logger = LoggerFactory.getLogger(HybridHashJoiner.class);
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+	private final JoinType joinType;
+	private final SortField[] sortFields;
+	private final SortMergeJoinerListener listener;
+	private final long memoryBudget;
+	private final long rowBytes;
+	private final Partition[] partitions;
+	private final JoinKeys probeKeys;
+	private final FastEncodingRule enc = new FastEncodingRule();
+
+	// lowest spilled partition number, partitions below are resident
+	private int residentCount;
+	private long usedBytes;
+	private volatile boolean canceled;
+
+	/**
+	 * @param partitionCount
+	 *            power of 2
+	 * @param rowBytes
+	 *            estimated heap bytes of subquery row
+	 */
+	public HybridHashJoiner(JoinType joinType, SortField[] sortFields, SortMergeJoinerListener listener,
+			int partitionCount, long memoryBudget, long rowBytes) {
+		this.joinType = joinType;
+		this.sortFields = sortFields;
+		this.listener = listener;
+		this.memoryBudget = memoryBudget;
+		this.rowBytes = Math.max(1, rowBytes);
+		this.probeKeys = new JoinKeys(new Object[sortFields.length]);
+
+		partitions = new Partition[partitionCount];
+		for (int i = 0; i < partitionCount; i++)
+			partitions[i] = new Partition();
+
+		residentCount = partitionCount;
+	}
+
+	public int getPartitionCount() {
+		return partitions.length;
+	}
+
+	/**
+	 * @return resident partition count after build
+	 */
+	public int getResidentCount() {
+		return residentCount;
+	}
+
+	public void build(Iterator<Map<String, Object>> it) throws IOException {
+		while (it.hasNext() && !canceled) {
+			Map<String, Object> sm = it.next();
+			JoinKeys keys = new JoinKeys(Join.getJoinKeys(sm, sortFields, new Object[sortFields.length]));
+			int p = partitionOf(keys);
+
+			if (p < residentCount) {
+				partitions[p].put(keys, sm);
+				usedBytes += rowBytes;
+
+				while (usedBytes > memoryBudget && residentCount > 1)
+					evict();
+
+				// single partition is larger than budget, nothing to do
+			} else {
+				partitions[p].spillS(sm);
+			}
+		}
+
+		for (Partition partition : partitions)
+			partition.flushS();
+
+		logger.debug("araqne logdb: hybrid hash join built, resident partitions [{}/{}]", residentCount, partitions.length);
+	}
+
+	public void probe(Row row) throws IOException {
+		Join.getJoinKeys(row.map(), sortFields, probeKeys.keys);
+		int p = partitionOf(probeKeys);
+		if (p < residentCount)
+			join(row.map(), partitions[p].table.get(probeKeys));
+		else
+			partitions[p].spillR(row.map());
+	}
+
+	/**
+	 * Joins spilled partitions. Main query input should be completed.
+	 */
+	public void merge() {
+		try {
+			for (int i = residentCount; i < partitions.length && !canceled; i++) {
+				Partition partition = partitions[i];
+				partition.flushR();
+				partition.loadS();
+
+				DataInputStream is = partition.openR();
+				if (is == null)
+					continue;
+
+				try {
+					Map<String, Object> rm = null;
+					while (!canceled && (rm = read(is)) != null) {
+						Join.getJoinKeys(rm, sortFields, probeKeys.keys);
+						join(rm, partition.table.get(probeKeys));
+					}
+				} finally {
+					is.close();
+				}
+
+				partition.close();
+			}
+		} catch (Throwable t) {
+			logger.error("araqne logdb: cannot merge spilled hash join partitions", t);
+		} finally {
+			close();
+		}
+	}
+
+	public void cancel() {
+		canceled = true;
+		close();
+	}
+
+	private void close() {
+		for (Partition partition : partitions)
+			partition.close();
+	}
+
+	private void join(Map<String, Object> rm, List<Map<String, Object>> matches) {
+		if (matches == null) {
+			if (joinType == JoinType.Left)
+				listener.onPushPipe(new Row(rm));
+			return;
+		}
+
+		for (Map<String, Object> sm : matches) {
+			Map<String, Object> joinMap = new HashMap<String, Object>(rm);
+			joinMap.putAll(sm);
+			listener.onPushPipe(new Row(joinMap));
+		}
+	}
+
+	private void evict() throws IOException {
+		residentCount--;
+		Partition partition = partitions[residentCount];
+		for (List<Map<String, Object>> l : partition.table.values()) {
+			for (Map<String, Object> sm : l)
+				partition.spillS(sm);
+			usedBytes -= rowBytes * l.size();
+		}
+		partition.table.clear();
+
+		logger.debug("araqne logdb: hybrid hash join evicted partition [{}]", residentCount);
+	}
+
+	private int partitionOf(JoinKeys keys) {
+		int h = keys.hashCode();
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return h & (partitions.length - 1);
+	}
+
+	private void write(DataOutputStream os, Map<String, Object> m) throws IOException {
+		ByteBuffer bb = enc.encode(m);
+		os.writeInt(bb.remaining());
+		os.write(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> read(DataInputStream is) throws IOException {
+		int len = 0;
+		try {
+			len = is.readInt();
+		} catch (EOFException e) {
+			return null;
+		}
+
+		byte[] b = new byte[len];
+		is.readFully(b);
+		return (Map<String, Object>) EncodingRule.decode(ByteBuffer.wrap(b));
+	}
+
+	private static File createSpillFile(String prefix) throws IOException {
+		String dataDir = System.getProperty("araqne.sort.dir", System.getProperty("araqne.data.dir"));
+		File tmpDir = new File(dataDir, "araqne-logdb/join");
+		tmpDir.mkdirs();
+		return File.createTempFile(prefix, ".dat", tmpDir);
+	}
+
+	private class Partition {
+		private HashMap<JoinKeys, List<Map<String, Object>>> table = new HashMap<JoinKeys, List<Map<String, Object>>>();
+
+		private File sFile;
+		private File rFile;
+		private DataOutputStream sOutput;
+		private DataOutputStream rOutput;
+
+		private void put(JoinKeys keys, Map<String, Object> sm) {
+			List<Map<String, Object>> l = table.get(keys);
+			if (l == null) {
+				l = new ArrayList<Map<String, Object>>(2);
+				table.put(keys, l);
+			}
+			l.add(sm);
+		}
+
+		private void spillS(Map<String, Object> sm) throws IOException {
+			if (sOutput == null) {
+				sFile = createSpillFile("join_s");
+				sOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sFile), WRITE_BUFFER_SIZE));
+			}
+			write(sOutput, sm);
+		}
+
+		private void spillR(Map<String, Object> rm) throws IOException {
+			if (rOutput == null) {
+				rFile = createSpillFile("join_r");
+				rOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(rFile), WRITE_BUFFER_SIZE));
+			}
+			write(rOutput, rm);
+		}
+
+		private void flushS() throws IOException {
+			if (sOutput != null) {
+				sOutput.close();
+				sOutput = null;
+			}
+		}
+
+		private void flushR() throws IOException {
+			if (rOutput != null) {
+				rOutput.close();
+				rOutput = null;
+			}
+		}
+
+		private void loadS() throws IOException {
+			if (sFile == null)
+				return;
+
+			DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(sFile), WRITE_BUFFER_SIZE));
+			try {
+				Map<String, Object> sm = null;
+				while ((sm = read(is)) != null)
+					put(new JoinKeys(Join.getJoinKeys(sm, sortFields, new Object[sortFields.length])), sm);
+			} finally {
+				is.close();
+			}
+		}
+
+		private DataInputStream openR() throws IOException {
+			if (rFile == null)
+				return null;
+			return new DataInputStream(new BufferedInputStream(new FileInputStream(rFile), WRITE_BUFFER_SIZE));
+		}
+
+		private void close() {
+			table = new HashMap<JoinKeys, List<Map<String, Object>>>();
+			closeQuietly(sOutput);
+			closeQuietly(rOutput);
+			sOutput = null;
+			rOutput = null;
+
+			if (sFile != null && !sFile.delete())
+				logger.error("araqne logdb: cannot delete join spill file [{}]", sFile.getAbsolutePath());
+			if (rFile != null && !rFile.delete())
+				logger.error("araqne logdb: cannot delete join spill file [{}]", rFile.getAbsolutePath());
+			sFile = null;
+			rFile = null;
+		}
+
+		private void closeQuietly(DataOutputStream os) {
+			if (os == null)
+				return;
+
+			try {
+				os.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+}
@@ -6,6 +6,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.araqne.codec.FastEncodingRule;
 import org.araqne.logdb.Query;
 import org.araqne.logdb.QueryCommand;
 import org.araqne.logdb.QueryResultSet;
@@ -39,6 +40,9 @@ public class Join extends QueryCommand {
 
 	private SortMergeJoiner sortMergeJoiner;
 
+	// for hybrid hash join, set if subquery result exceeds hash join threshold
+	private volatile HybridHashJoiner hybridHashJoiner;
+
 	public Join(JoinType joinType, SortField[] sortFields, Query subQuery) {
 		this.joinType = joinType;
 		this.joinKeyCount = sortFields.length;
@@ -67,12 +71,18 @@ public class Join extends QueryCommand {
 		}
 		
 		subQuery.preRun();
+		sortMergeJoiner.setOwner(getQuery());
 	}
 
 	@Override
 	public void onClose(QueryStopReason reason) {
 		if (hashJoinMap != null) {
 			hashJoinMap = null;
+		} else if (hybridHashJoiner != null) {
+			if (reason == QueryStopReason.PartialFetch || reason == QueryStopReason.End)
+				hybridHashJoiner.merge();
+			else
+				hybridHashJoiner.cancel();
 		} else {
 			if (reason == QueryStopReason.PartialFetch || reason == QueryStopReason.End) {
 				sortMergeJoiner.merge();
@@ -97,13 +107,7 @@ public class Join extends QueryCommand {
 	@Override
 	public void onPush(Row m) {
 		if (hashJoinMap != null) {
-			int i = 0;
-			for (SortField f : sortFields) {
-				Object joinValue = m.get(f.getName());
-				if (joinValue instanceof Integer || joinValue instanceof Short)
-					joinValue = ((Number) joinValue).longValue();
-				joinKeys.keys[i++] = joinValue;
-			}
+			getJoinKeys(m.map(), sortFields, joinKeys.keys);
 
 			List<Object> l = hashJoinMap.get(joinKeys);
 			if (l == null) {
@@ -120,6 +124,12 @@ public class Join extends QueryCommand {
 				pushPipe(new Row(joinMap));
 			}
 			return;
+		} else if (hybridHashJoiner != null) {
+			try {
+				hybridHashJoiner.probe(m);
+			} catch (Throwable t) {
+				logger.error("araqne logdb: cannot probe hybrid hash join [" + m.toString() + "]", t);
+			}
 		} else {
 			try {
 				sortMergeJoiner.setR(m);
@@ -159,6 +169,18 @@ public class Join extends QueryCommand {
 	private class SubQueryTask extends QueryTask {
 		private final int HASH_JOIN_THRESHOLD = Integer.parseInt(System.getProperty("araqne.hashjointhreshold", "100000"));
 
+		// memory budget of hybrid hash join build side
+		private final long HASH_JOIN_MEMORY = Long.parseLong(System.getProperty("araqne.hashjoinmemory",
+				Long.toString(Runtime.getRuntime().maxMemory() / 8)));
+
+		// sort merge join is used if subquery needs more partitions
+		private final int MAX_PARTITIONS = 64;
+
+		private final int SAMPLE_ROWS = 1000;
+
+		// heap usage per encoded byte of row
+		private final int HEAP_FACTOR = 4;
+
 		@Override
 		public void run() {
 			logger.debug("araqne logdb: join subquery end, main query [{}] sub query [{}]", query.getId(), subQuery.getId());
@@ -173,10 +195,24 @@ public class Join extends QueryCommand {
 						"araqne logdb: join fetch subquery result of query [{}:{}]", query.getId(),
 						query.getQueryString());
 
-				if (rs.size() <= HASH_JOIN_THRESHOLD)
+				if (rs.size() <= HASH_JOIN_THRESHOLD) {
 					buildHashJoinTable(rs);
-				else
-					sortMergeJoiner.setS(rs);
+				} else {
+					long rowBytes = estimateRowBytes(rs);
+					long estimated = rowBytes * rs.size();
+					int partitionCount = getPartitionCount(estimated);
+
+					if (partitionCount > 0) {
+						logger.debug("araqne logdb: use hybrid hash join, estimated subquery size [{}], partitions [{}]",
+								estimated, partitionCount);
+						HybridHashJoiner joiner = new HybridHashJoiner(joinType, sortFields, new SortMergeJoinerCallback(
+								Join.this), partitionCount, HASH_JOIN_MEMORY, rowBytes);
+						joiner.build(rs);
+						hybridHashJoiner = joiner;
+					} else {
+						sortMergeJoiner.setS(rs);
+					}
+				}
 
 			} catch (Throwable e) {
 				logger.error("araqne logdb: cannot get subquery result of query " + query.getId(), e);
@@ -187,22 +223,42 @@ public class Join extends QueryCommand {
 			}
 		}
 
+		private long estimateRowBytes(QueryResultSet rs) {
+			FastEncodingRule enc = new FastEncodingRule();
+			long total = 0;
+			int count = 0;
+			while (count < SAMPLE_ROWS && rs.hasNext()) {
+				total += enc.encode(rs.next()).remaining();
+				count++;
+			}
+			rs.reset();
+
+			return count == 0 ? 1 : total * HEAP_FACTOR / count;
+		}
+
+		/**
+		 * @return power of 2 partition count, or 0 if sort merge join is
+		 *         preferred
+		 */
+		private int getPartitionCount(long estimated) {
+			// keep about half of partitions resident
+			long needed = estimated * 2 / Math.max(1, HASH_JOIN_MEMORY) + 1;
+			if (needed > MAX_PARTITIONS)
+				return 0;
+
+			int partitionCount = 4;
+			while (partitionCount < needed)
+				partitionCount <<= 1;
+			return partitionCount;
+		}
+
 		private void buildHashJoinTable(QueryResultSet rs) {
 			hashJoinMap = new HashMap<JoinKeys, List<Object>>(HASH_JOIN_THRESHOLD);
 
 			while (rs.hasNext()) {
 				Map<String, Object> sm = rs.next();
 
-				Object[] keys = new Object[joinKeyCount];
-				for (int i = 0; i < joinKeyCount; i++) {
-					Object joinValue = sm.get(sortFields[i].getName());
-					if (joinValue instanceof Integer || joinValue instanceof Short) {
-						joinValue = ((Number) joinValue).longValue();
-					}
-					keys[i] = joinValue;
-				}
-
-				JoinKeys joinKeys = new JoinKeys(keys);
+				JoinKeys joinKeys = new JoinKeys(getJoinKeys(sm, sortFields, new Object[joinKeyCount]));
 				List<Object> l = hashJoinMap.get(joinKeys);
 				if (l == null) {
 					l = new ArrayList<Object>(2);
@@ -214,6 +270,22 @@ public class Join extends QueryCommand {
 		}
 	}
 
+	/**
+	 * Fills join key values. Integer and short values are converted to long.
+	 * 
+	 * @return keys
+	 * @since 2.6.15
+	 */
+	static Object[] getJoinKeys(Map<String, Object> m, SortField[] sortFields, Object[] keys) {
+		for (int i = 0; i < sortFields.length; i++) {
+			Object joinValue = m.get(sortFields[i].getName());
+			if (joinValue instanceof Integer || joinValue instanceof Short)
+				joinValue = ((Number) joinValue).longValue();
+			keys[i] = joinValue;
+		}
+		return keys;
+	}
+
 	public static class JoinKeys {
 		public Object[] keys;
 
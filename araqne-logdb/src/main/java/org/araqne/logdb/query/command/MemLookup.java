@@ -1,5 +1,6 @@
 package org.araqne.logdb.query.command;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -7,13 +8,20 @@ import java.util.Map;
 import org.araqne.logdb.DriverQueryCommand;
 import org.araqne.logdb.LookupHandler;
 import org.araqne.logdb.LookupHandlerRegistry;
+import org.araqne.logdb.MappedLookupFile;
 import org.araqne.logdb.MemLookupHandler;
 import org.araqne.logdb.QueryParseException;
 import org.araqne.logdb.QueryStopReason;
 import org.araqne.logdb.Row;
 import org.araqne.logdb.query.parser.MemLookupParser.Op;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class MemLookup extends DriverQueryCommand {
+	private final Logger logger = LoggerFactory.getLogger(MemLookup.class);
+
+	// entry count limit including duplicated keys
+	private static final long MAX_SIZE = Long.getLong("araqne.logdb.memlookup.max_size", 100000);
 
 	private LookupHandlerRegistry lookupRegistry;
 	private Op op;
@@ -21,7 +29,8 @@ public class MemLookup extends DriverQueryCommand {
 	private String keyField;
 	private List<String> fields;
 
-	private Map<String, Map<String, Object>> mappings = new HashMap<String, Map<String, Object>>();
+	// off-heap mappings are built while query is running
+	private MappedLookupFile.Builder builder;
 
 	public MemLookup(LookupHandlerRegistry lookupRegistry, Op op, String name, String key, List<String> fields) {
 		this.lookupRegistry = lookupRegistry;
@@ -58,7 +67,7 @@ public class MemLookup extends DriverQueryCommand {
 				Map<String, Object> row = new HashMap<String, Object>();
 				row.put("name", name);
 				row.put("key", handler.getKeyField());
-				row.put("size", handler.getMappings().size());
+				row.put("size", handler.size());
 				pushPipe(new Row(row));
 			}
 		} else {
@@ -72,6 +81,21 @@ public class MemLookup extends DriverQueryCommand {
 			MemLookupHandler handler = (MemLookupHandler) h;
 			String keyField = handler.getKeyField();
 
+			MappedLookupFile file = handler.getMappedLookupFile();
+			if (file != null) {
+				List<String> columns = file.getColumns();
+				long[] cursor = new long[1];
+				long entry;
+				while ((entry = file.nextEntry(cursor)) >= 0) {
+					Map<String, Object> row = new HashMap<String, Object>();
+					for (int i = 0; i < columns.size(); i++)
+						row.put(columns.get(i), file.getValue(entry, i));
+					row.put(keyField, file.getKey(entry));
+					pushPipe(new Row(row));
+				}
+				return;
+			}
+
 			Map<String, Map<String, Object>> mappings = handler.getMappings();
 			for (String k : mappings.keySet()) {
 				// do not corrupt internal map
@@ -91,13 +115,17 @@ public class MemLookup extends DriverQueryCommand {
 
 		Object k = row.get(keyField);
 		if (k != null) {
-			synchronized (mappings) {
-				if (!mappings.containsKey(k.toString()) && mappings.size() < 100000) {
-					Map<String, Object> tuple = new HashMap<String, Object>(fields.size());
-					for (String field : fields)
-						tuple.put(field, row.get(field));
-
-					mappings.put(k.toString(), tuple);
+			synchronized (this) {
+				if (builder != null && builder.getCount() < MAX_SIZE) {
+					Object[] tuple = new Object[fields.size()];
+					for (int i = 0; i < tuple.length; i++)
+						tuple[i] = row.get(fields.get(i));
+
+					try {
+						builder.add(k.toString(), tuple);
+					} catch (IOException e) {
+						throw new IllegalStateException("cannot write memlookup " + name, e);
+					}
 				}
 			}
 		}
@@ -109,21 +137,51 @@ public class MemLookup extends DriverQueryCommand {
 	public void onStart() {
 		if (op == Op.DROP) {
 			LookupHandler handler = lookupRegistry.getLookupHandler(name);
-			if (handler != null && handler instanceof MemLookupHandler)
+			if (handler != null && handler instanceof MemLookupHandler) {
 				lookupRegistry.removeLookupHandler(name);
+				((MemLookupHandler) handler).close();
+			}
+		} else if (op == Op.BUILD) {
+			try {
+				// first row wins for duplicated key
+				builder = new MappedLookupFile.Builder(MappedLookupFile.createFile("mem_"), fields, true);
+			} catch (IOException e) {
+				throw new IllegalStateException("cannot create memlookup " + name, e);
+			}
 		}
 	}
 
 	@Override
 	public void onClose(QueryStopReason reason) {
-		if (reason != QueryStopReason.End && reason != QueryStopReason.PartialFetch)
+		if (op != Op.BUILD)
 			return;
 
-		if (op == Op.BUILD) {
-			LookupHandler handler = lookupRegistry.getLookupHandler(name);
-			if (handler == null || handler instanceof MemLookupHandler) {
-				lookupRegistry.setLookupHandler(name, new MemLookupHandler(keyField, mappings));
-			}
+		MappedLookupFile.Builder b = null;
+		synchronized (this) {
+			b = builder;
+			builder = null;
+		}
+
+		if (b == null)
+			return;
+
+		if (reason != QueryStopReason.End && reason != QueryStopReason.PartialFetch) {
+			b.abort();
+			return;
+		}
+
+		LookupHandler handler = lookupRegistry.getLookupHandler(name);
+		if (handler != null && !(handler instanceof MemLookupHandler)) {
+			b.abort();
+			return;
+		}
+
+		try {
+			lookupRegistry.setLookupHandler(name, new MemLookupHandler(keyField, b.finish()));
+			if (handler != null)
+				((MemLookupHandler) handler).close();
+		} catch (IOException e) {
+			logger.error("araqne logdb: cannot build memlookup " + name, e);
 		}
 	}
 }
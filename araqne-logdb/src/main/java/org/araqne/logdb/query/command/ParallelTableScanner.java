@@ -0,0 +1,380 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.query.command;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.araqne.logstorage.Log;
+import org.araqne.logstorage.LogTraverseCallback;
+import org.araqne.logstorage.TableScanRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Scans multiple tables of one table command concurrently. In ordered mode,
+ * every table has its own bounded stream and rows are merged by _time in
+ * caller thread. Caller submits next table only when one of parallelism
+ * decoding permits is free, so no thread is parked before its scan begins. In
+ * unordered mode, parallelism workers pick tables one by one and rows are
+ * delivered as soon as each batch is ready.
+ * 
+ * Scanner threads are bounded by araqne.logdb.table.scan_threads over all
+ * queries. Ordered merge needs one producer thread per table, so thread slots
+ * are reserved before scan begins, and scan methods return false if there is
+ * no free slot. Caller should fall back to serial scan in that case.
+ * 
+ * @since 2.6.15
+ */
+class ParallelTableScanner {
+	private static final Logger logger = LoggerFactory.getLogger(ParallelTableScanner.class);
+
+	// buffered batches per stream
+	private static final int QUEUE_SIZE = 2;
+	private static final int MERGE_BATCH_SIZE = 1000;
+	private static final long POLL_INTERVAL = 100;
+
+	private static final int MAX_THREADS = Integer.getInteger("araqne.logdb.table.scan_threads", 128);
+
+	// free scanner thread slots, acquired before submit
+	private static final Semaphore threadSlots = new Semaphore(MAX_THREADS);
+
+	private static final ThreadPoolExecutor executor;
+
+	static {
+		executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ScannerThreadFactory());
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	// end of stream marker, compared by identity
+	private static final List<Log> END = new ArrayList<Log>(0);
+
+	private final Table table;
+	private final List<StorageObjectName> tableNames;
+	private final int parallelism;
+	private final boolean asc;
+	private volatile boolean cancelled;
+
+	public ParallelTableScanner(Table table, List<StorageObjectName> tableNames, int parallelism, boolean asc) {
+		this.table = table;
+		this.tableNames = tableNames;
+		this.parallelism = parallelism;
+		this.asc = asc;
+	}
+
+	/**
+	 * @return false if scanner threads are exhausted and nothing is scanned
+	 */
+	public boolean scanOrdered(LogTraverseCallback.Sink sink) {
+		int count = tableNames.size();
+		if (!threadSlots.tryAcquire(count))
+			return false;
+
+		Semaphore permits = new Semaphore(parallelism);
+		List<Stream> streams = new ArrayList<Stream>(count);
+		int submitted = 0;
+		try {
+			for (int i = 0; i < count; i++) {
+				if (!acquire(permits))
+					return true;
+
+				final Stream stream = new Stream(i, QUEUE_SIZE, true, permits);
+				final StorageObjectName tableName = tableNames.get(i);
+				streams.add(stream);
+				submitted++;
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							scan(tableName, stream);
+						} finally {
+							stream.put(END);
+							stream.permits.release();
+							threadSlots.release();
+						}
+					}
+				});
+			}
+
+			PriorityQueue<Stream> heads = new PriorityQueue<Stream>(streams.size(), new HeadComparator(asc));
+			for (Stream stream : streams)
+				if (stream.advance())
+					heads.add(stream);
+
+			List<Log> merged = new ArrayList<Log>(MERGE_BATCH_SIZE);
+			while (!heads.isEmpty()) {
+				Stream stream = heads.poll();
+				merged.add(stream.batch.get(stream.pos++));
+
+				if (stream.pos >= stream.batch.size()) {
+					// do not hold merged rows while waiting next batch
+					if (!merged.isEmpty() && stream.queue.isEmpty()) {
+						if (!sink.write(merged))
+							return true;
+						merged = new ArrayList<Log>(MERGE_BATCH_SIZE);
+					}
+
+					if (!stream.advance())
+						continue;
+				}
+
+				heads.add(stream);
+
+				if (merged.size() >= MERGE_BATCH_SIZE) {
+					if (!sink.write(merged))
+						return true;
+					merged = new ArrayList<Log>(MERGE_BATCH_SIZE);
+				}
+			}
+
+			sink.write(merged);
+			return true;
+		} finally {
+			cancel(streams);
+
+			// release slots of tables which are not submitted
+			threadSlots.release(count - submitted);
+		}
+	}
+
+	/**
+	 * @return false if scanner threads are exhausted and nothing is scanned
+	 */
+	public boolean scanUnordered(LogTraverseCallback.Sink sink) {
+		int workers = 0;
+		while (workers < Math.min(parallelism, tableNames.size()) && threadSlots.tryAcquire())
+			workers++;
+
+		if (workers == 0)
+			return false;
+
+		final ConcurrentLinkedQueue<StorageObjectName> pending = new ConcurrentLinkedQueue<StorageObjectName>(tableNames);
+		final Stream output = new Stream(0, workers * QUEUE_SIZE, false, null);
+		try {
+			for (int i = 0; i < workers; i++) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							StorageObjectName tableName = null;
+							while (!cancelled && (tableName = pending.poll()) != null)
+								scan(tableName, output);
+						} finally {
+							output.put(END);
+							threadSlots.release();
+						}
+					}
+				});
+			}
+
+			int finished = 0;
+			while (finished < workers) {
+				List<Log> logs = output.take();
+				if (logs == null)
+					break;
+
+				if (logs == END)
+					finished++;
+				else if (!sink.write(logs))
+					break;
+			}
+			return true;
+		} finally {
+			List<Stream> streams = new ArrayList<Stream>(1);
+			streams.add(output);
+			cancel(streams);
+		}
+	}
+
+	/**
+	 * @return false if query is stopped while waiting permit
+	 */
+	private boolean acquire(Semaphore permits) {
+		try {
+			while (!table.isScanStopped()) {
+				if (permits.tryAcquire(POLL_INTERVAL, TimeUnit.MILLISECONDS))
+					return true;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	private void cancel(List<Stream> streams) {
+		cancelled = true;
+
+		// wake up blocked producers
+		for (Stream stream : streams)
+			stream.queue.clear();
+	}
+
+	private void scan(StorageObjectName tableName, Stream stream) {
+		try {
+			if (cancelled || table.isScanStopped())
+				return;
+
+			TableScanRequest req = table.newScanRequest(tableName, new StreamCallback(stream), false);
+			table.getStorage().search(req);
+		} catch (InterruptedException e) {
+			logger.trace("araqne logdb: table [{}] scan interrupted", tableName);
+		} catch (Throwable t) {
+			logger.error("araqne logdb: cannot scan table " + tableName, t);
+		}
+	}
+
+	private class Stream {
+		private final int index;
+		private final BlockingQueue<List<Log>> queue;
+		private final boolean ordered;
+
+		// limits decoding tables in ordered mode, null for unordered mode.
+		// producer holds one permit until table scan is completed
+		private final Semaphore permits;
+
+		// current batch, accessed by merging thread only
+		private List<Log> batch;
+		private int pos;
+
+		public Stream(int index, int capacity, boolean ordered, Semaphore permits) {
+			this.index = index;
+			this.queue = new ArrayBlockingQueue<List<Log>>(capacity);
+			this.ordered = ordered;
+			this.permits = permits;
+		}
+
+		public void put(List<Log> logs) {
+			if (queue.offer(logs))
+				return;
+
+			// release decoding slot while merger consumes other streams
+			if (permits != null)
+				permits.release();
+
+			try {
+				while (!cancelled) {
+					if (queue.offer(logs, POLL_INTERVAL, TimeUnit.MILLISECONDS))
+						return;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				cancelled = true;
+			} finally {
+				if (permits != null)
+					permits.acquireUninterruptibly();
+			}
+		}
+
+		/**
+		 * @return next batch, END, or null if query is stopped
+		 */
+		public List<Log> take() {
+			try {
+				while (!table.isScanStopped()) {
+					List<Log> logs = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+					if (logs != null)
+						return logs;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return null;
+		}
+
+		public boolean advance() {
+			List<Log> logs = take();
+			if (logs == null || logs == END) {
+				batch = null;
+				return false;
+			}
+
+			batch = logs;
+			pos = 0;
+			return true;
+		}
+	}
+
+	private class StreamCallback extends LogTraverseCallback {
+		public StreamCallback(final Stream stream) {
+			super(new LogTraverseCallback.Sink(0, 0, stream.ordered) {
+				@Override
+				protected void processLogs(List<Log> logs) {
+					// logs can be sublist of reused buffer
+					stream.put(new ArrayList<Log>(logs));
+				}
+			});
+		}
+
+		@Override
+		public void interrupt() {
+		}
+
+		@Override
+		public boolean isInterrupted() {
+			return cancelled || table.isScanStopped();
+		}
+
+		@Override
+		protected List<Log> filter(List<Log> logs) {
+			return logs;
+		}
+	}
+
+	private static class HeadComparator implements Comparator<Stream> {
+		private final boolean asc;
+
+		public HeadComparator(boolean asc) {
+			this.asc = asc;
+		}
+
+		@Override
+		public int compare(Stream o1, Stream o2) {
+			long t1 = o1.batch.get(o1.pos).getDate().getTime();
+			long t2 = o2.batch.get(o2.pos).getDate().getTime();
+			if (t1 != t2) {
+				if (asc)
+					return t1 < t2 ? -1 : 1;
+				return t1 > t2 ? -1 : 1;
+			}
+
+			// keep table order for same time
+			return o1.index - o2.index;
+		}
+	}
+
+	private static class ScannerThreadFactory implements ThreadFactory {
+		private final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "LogDB Table Scanner " + counter.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
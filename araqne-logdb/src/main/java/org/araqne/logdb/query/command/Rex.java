@@ -20,6 +20,7 @@ import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.araqne.log.api.RegexPrefilter;
 import org.araqne.logdb.FieldOrdering;
 import org.araqne.logdb.QueryCommand;
 import org.araqne.logdb.Row;
@@ -31,6 +32,7 @@ public class Rex extends QueryCommand implements ThreadSafe, FieldOrdering {
 	private final String field;
 	private final Pattern p;
 	private final ThreadLocal<Matcher> localMatcher;
+	private final RegexPrefilter prefilter;
 	private final String[] names;
 
 	// for query string generation convenience
@@ -40,6 +42,7 @@ public class Rex extends QueryCommand implements ThreadSafe, FieldOrdering {
 		this.field = field;
 		this.p = p;
 		this.names = names;
+		this.prefilter = new RegexPrefilter(p);
 		this.localMatcher = new ThreadLocal<Matcher>() {
 			@Override
 			protected Matcher initialValue() {
@@ -84,6 +87,10 @@ public class Rex extends QueryCommand implements ThreadSafe, FieldOrdering {
 		}
 
 		String s = o.toString();
+		if (!prefilter.mayMatch(s)) {
+			pushPipe(m);
+			return;
+		}
 
 		Matcher matcher = localMatcher.get();
 		matcher.reset(s);
@@ -110,6 +117,8 @@ public class Rex extends QueryCommand implements ThreadSafe, FieldOrdering {
 					continue;
 
 				String s = o.toString();
+				if (!prefilter.mayMatch(s))
+					continue;
 
 				matcher.reset(s);
 				if (matcher.find()) {
@@ -129,6 +138,8 @@ public class Rex extends QueryCommand implements ThreadSafe, FieldOrdering {
 					continue;
 
 				String s = o.toString();
+				if (!prefilter.mayMatch(s))
+					continue;
 
 				matcher.reset(s);
 				if (matcher.find()) {
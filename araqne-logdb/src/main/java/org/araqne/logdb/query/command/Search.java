@@ -24,18 +24,23 @@ import org.araqne.logdb.Row;
 import org.araqne.logdb.RowBatch;
 import org.araqne.logdb.ThreadSafe;
 import org.araqne.logdb.query.expr.Expression;
+import org.araqne.logdb.query.expr.ExpressionCompiler;
 
 public class Search extends QueryCommand implements ThreadSafe {
 	private AtomicLong count = new AtomicLong();
 	private final Long limit;
 	private final Expression expr;
 
+	// evaluated instead of expr
+	private final Expression compiled;
+
 	// for accurate limit
 	private ReentrantLock lock = new ReentrantLock();
 
 	public Search(Long limit, Expression expr) {
 		this.limit = limit;
 		this.expr = expr;
+		this.compiled = ExpressionCompiler.compile(expr);
 	}
 
 	@Override
@@ -99,7 +104,7 @@ public class Search extends QueryCommand implements ThreadSafe {
 				int p = rowBatch.selected[i];
 				Row row = rowBatch.rows[p];
 
-				Object o = expr.eval(row);
+				Object o = compiled.eval(row);
 				if (o instanceof Boolean)
 					ret = (Boolean) o;
 				else
@@ -115,7 +120,7 @@ public class Search extends QueryCommand implements ThreadSafe {
 			rowBatch.selected = new int[rowBatch.size];
 			for (int i = 0; i < rowBatch.size; i++) {
 				Row row = rowBatch.rows[i];
-				Object o = expr.eval(row);
+				Object o = compiled.eval(row);
 				if (o instanceof Boolean)
 					ret = (Boolean) o;
 				else
@@ -159,7 +164,7 @@ public class Search extends QueryCommand implements ThreadSafe {
 		boolean ret;
 
 		if (expr != null) {
-			Object o = expr.eval(m);
+			Object o = compiled.eval(m);
 			if (o instanceof Boolean)
 				ret = (Boolean) o;
 			else
@@ -21,25 +21,31 @@ import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.araqne.logdb.ObjectComparator;
 import org.araqne.logdb.QueryCommand;
 import org.araqne.logdb.QueryStopReason;
 import org.araqne.logdb.Row;
 import org.araqne.logdb.RowBatch;
+import org.araqne.logdb.ThreadSafe;
 import org.araqne.logdb.impl.TopSelector;
 import org.araqne.logdb.query.parser.ParseResult;
 import org.araqne.logdb.query.parser.QueryTokenizer;
 import org.araqne.logdb.sort.CloseableIterator;
+import org.araqne.logdb.sort.FieldKeyEncoder;
 import org.araqne.logdb.sort.Item;
 import org.araqne.logdb.sort.ParallelMergeSorter;
+import org.araqne.logdb.sort.SortKeyEncoder;
 
-public class Sort extends QueryCommand {
+public class Sort extends QueryCommand implements ThreadSafe {
 	private static final int TOP_OPTIMIZE_THRESHOLD = 10000;
 	private Integer limit;
 	private SortField[] fields;
 	private ParallelMergeSorter sorter;
-	private TopSelector<Item> top;
+
+	// top entries of each pushing thread, merged in onClose()
+	private ConcurrentHashMap<Thread, TopSelector<Item>> tops;
 
 	public Sort(Integer limit, SortField[] fields) {
 		this.limit = limit;
@@ -55,9 +61,11 @@ public class Sort extends QueryCommand {
 	public void onStart() {
 		super.onStart();
 		if (limit != null && limit <= TOP_OPTIMIZE_THRESHOLD)
-			this.top = new TopSelector<Item>(limit, new DefaultComparator());
-		else
-			this.sorter = new ParallelMergeSorter(new DefaultComparator());
+			this.tops = new ConcurrentHashMap<Thread, TopSelector<Item>>();
+		else {
+			this.sorter = new ParallelMergeSorter(new DefaultComparator(), SortField.newKeyEncoder(fields));
+			sorter.setOwner(getQuery());
+		}
 	}
 
 	public Integer getLimit() {
@@ -71,8 +79,8 @@ public class Sort extends QueryCommand {
 	@Override
 	public void onPush(Row m) {
 		try {
-			if (top != null)
-				top.add(new Item(m.map(), null));
+			if (tops != null)
+				getTop().add(new Item(m.map(), null));
 			else if (sorter != null) {
 				// onClose() thread can interfere
 				synchronized (sorter) {
@@ -86,35 +94,50 @@ public class Sort extends QueryCommand {
 
 	@Override
 	public void onPush(RowBatch rowBatch) {
-		try {
+		if (tops != null) {
+			TopSelector<Item> top = getTop();
 			if (rowBatch.selectedInUse) {
-				for (int i = 0; i < rowBatch.size; i++) {
-					int p = rowBatch.selected[i];
-					Row row = rowBatch.rows[p];
-
-					if (top != null)
-						top.add(new Item(row.map(), null));
-					else if (sorter != null)
-						sorter.add(new Item(row.map(), null));
-				}
+				for (int i = 0; i < rowBatch.size; i++)
+					top.add(new Item(rowBatch.rows[rowBatch.selected[i]].map(), null));
 			} else {
-				for (int i = 0; i < rowBatch.size; i++) {
-					Row row = rowBatch.rows[i];
-					
-					if (top != null)
-						top.add(new Item(row.map(), null));
-					else if (sorter != null) {
-						synchronized (sorter) {
-							sorter.add(new Item(row.map(), null));
-						}
-					}
-				}
+				for (int i = 0; i < rowBatch.size; i++)
+					top.add(new Item(rowBatch.rows[i].map(), null));
+			}
+			return;
+		}
+
+		if (sorter == null)
+			return;
+
+		List<Item> items = new ArrayList<Item>(rowBatch.size);
+		if (rowBatch.selectedInUse) {
+			for (int i = 0; i < rowBatch.size; i++)
+				items.add(new Item(rowBatch.rows[rowBatch.selected[i]].map(), null));
+		} else {
+			for (int i = 0; i < rowBatch.size; i++)
+				items.add(new Item(rowBatch.rows[i].map(), null));
+		}
+
+		try {
+			// onClose() thread and other pushing threads can interfere
+			synchronized (sorter) {
+				sorter.addAll(items);
 			}
 		} catch (IOException e) {
 			throw new IllegalStateException("sort failed, query " + query, e);
 		}
 	}
 
+	private TopSelector<Item> getTop() {
+		Thread t = Thread.currentThread();
+		TopSelector<Item> top = tops.get(t);
+		if (top == null) {
+			top = new TopSelector<Item>(limit, new DefaultComparator());
+			tops.put(t, top);
+		}
+		return top;
+	}
+
 	@Override
 	public boolean isReducer() {
 		return true;
@@ -125,7 +148,15 @@ public class Sort extends QueryCommand {
 	public void onClose(QueryStopReason reason) {
 		this.status = Status.Finalizing;
 
-		if (top != null) {
+		if (tops != null) {
+			// merge top entries of all threads
+			TopSelector<Item> top = new TopSelector<Item>(limit, new DefaultComparator());
+			for (TopSelector<Item> partial : tops.values()) {
+				Iterator<Item> it = partial.getTopEntries();
+				while (it.hasNext())
+					top.add(it.next());
+			}
+
 			Iterator<Item> it = top.getTopEntries();
 			while (it.hasNext()) {
 				Item item = it.next();
@@ -133,7 +164,7 @@ public class Sort extends QueryCommand {
 			}
 
 			// support sorter cache GC when query processing is ended
-			top = null;
+			tops = null;
 
 		} else if (sorter != null) {
 			// TODO: use LONG instead!
@@ -243,6 +274,19 @@ public class Sort extends QueryCommand {
 			return fields;
 		}
 
+		/**
+		 * @return normalized key encoder which follows sort field order
+		 */
+		public static SortKeyEncoder newKeyEncoder(SortField[] sortFields) {
+			String[] names = new String[sortFields.length];
+			boolean[] asc = new boolean[sortFields.length];
+			for (int i = 0; i < sortFields.length; i++) {
+				names[i] = sortFields[i].name;
+				asc[i] = sortFields[i].asc;
+			}
+			return new FieldKeyEncoder(names, asc);
+		}
+
 		public static String serialize(SortField[] sortFields) {
 			StringBuilder sb = new StringBuilder();
 			int i = 0;
@@ -37,14 +37,22 @@ public class SortMergeJoiner {
 		this.sortFields = sortFields;
 
 		this.comparator = new DefaultComparator();
-		this.rSorter = new ParallelMergeSorter(comparator);
-		this.sSorter = new ParallelMergeSorter(comparator);
+		this.rSorter = new ParallelMergeSorter(comparator, SortField.newKeyEncoder(sortFields));
+		this.sSorter = new ParallelMergeSorter(comparator, SortField.newKeyEncoder(sortFields));
 
 		this.canceled = false;
 
 		this.listener = listener;
 	}
 
+	/**
+	 * @since 2.6.15
+	 */
+	public void setOwner(Object owner) {
+		rSorter.setOwner(owner);
+		sSorter.setOwner(owner);
+	}
+
 	public void setR(Row row) throws IOException {
 		Item item = getItem(row.map());
 		synchronized (rSorter) {
@@ -23,7 +23,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 import org.araqne.logdb.FieldOrdering;
 import org.araqne.logdb.ObjectComparator;
@@ -31,40 +30,41 @@ import org.araqne.logdb.QueryCommand;
 import org.araqne.logdb.QueryStopReason;
 import org.araqne.logdb.Row;
 import org.araqne.logdb.RowBatch;
+import org.araqne.logdb.ThreadSafe;
 import org.araqne.logdb.query.aggregator.AggregationField;
 import org.araqne.logdb.query.aggregator.AggregationFunction;
+import org.araqne.logdb.query.aggregator.GroupByTable;
 import org.araqne.logdb.sort.CloseableIterator;
 import org.araqne.logdb.sort.Item;
+import org.araqne.logdb.sort.ObjectKeyEncoder;
 import org.araqne.logdb.sort.ParallelMergeSorter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class Stats extends QueryCommand implements FieldOrdering {
+public class Stats extends QueryCommand implements ThreadSafe, FieldOrdering {
+	// spill aggregated groups to sorter when estimated heap usage of all
+	// partial states exceeds budget, in megabytes
+	private static final long MEMORY_BUDGET = Long.getLong("araqne.logdb.stats.memory",
+			Math.max(16, Math.min(256, Runtime.getRuntime().maxMemory() >> 24))) << 20;
+
 	private final Logger logger = LoggerFactory.getLogger(Stats.class);
 	private final Logger compareLogger = LoggerFactory.getLogger("stats-key-compare");
-	private int inputCount;
 	private final List<AggregationField> fields;
 	private final List<String> clauses;
-	private final int clauseCount;
-	private final boolean useClause;
-	private final List<Object> EMPTY_KEY;
 
 	// clone template
 	private AggregationFunction[] funcs;
 
 	private ParallelMergeSorter sorter;
 
-	private ConcurrentMap<List<Object>, AggregationFunction[]> buffer;
+	// partial state of each pushing thread, merged in onClose()
+	private ConcurrentHashMap<Thread, Partial> partials = new ConcurrentHashMap<Thread, Partial>();
 
 	private ArrayList<String> fieldOrder;
 
 	public Stats(List<AggregationField> fields, List<String> clause) {
-		this.EMPTY_KEY = new ArrayList<Object>(0);
 		this.clauses = clause;
-		this.clauseCount = clauses.size();
-		this.useClause = clauseCount > 0;
-		this.sorter = new ParallelMergeSorter(new ItemComparer());
-		this.buffer = new ConcurrentHashMap<List<Object>, AggregationFunction[]>();
+		this.sorter = new ParallelMergeSorter(new ItemComparer(), new ObjectKeyEncoder());
 		this.fields = fields;
 		this.funcs = new AggregationFunction[fields.size()];
 		this.fieldOrder = new ArrayList<String>(clauses);
@@ -98,6 +98,7 @@ public class Stats extends QueryCommand implements FieldOrdering {
 	@Override
 	public void onStart() {
 		super.onStart();
+		sorter.setOwner(getQuery());
 
 		for (AggregationFunction f : funcs)
 			f.clean();
@@ -105,143 +106,56 @@ public class Stats extends QueryCommand implements FieldOrdering {
 
 	@Override
 	public void onPush(RowBatch rowBatch) {
-		List<Object> keys = EMPTY_KEY;
-
-		if (useClause)
-			keys = new ArrayList<Object>(clauseCount);
-
-		if (rowBatch.selectedInUse) {
-			for (int index = 0; index < rowBatch.size; index++) {
-				keys.clear();
-				Row row = rowBatch.rows[rowBatch.selected[index]];
-				if (useClause) {
-					boolean isNullGroup = false;
-					for (String clause : clauses) {
-						Object keyValue = row.get(clause);
-						if (keyValue == null) {
-							isNullGroup = true;
-							break;
-						}
-
-						keys.add(keyValue);
-					}
-
-					if (isNullGroup)
-						continue;
-				}
-
-				inputCount++;
-
-				AggregationFunction[] fs = buffer.get(keys);
-				if (fs == null) {
-					fs = new AggregationFunction[funcs.length];
-					for (int i = 0; i < fs.length; i++)
-						fs[i] = funcs[i].clone();
-
-					buffer.put(new ArrayList<Object>(keys), fs);
-				}
-
-				for (AggregationFunction f : fs)
-					f.apply(row);
-			}
-		} else {
-			for (Row m : rowBatch.rows) {
-				if (useClause) {
-					keys.clear();
-					boolean isNullGroup = false;
-					for (String clause : clauses) {
-						Object keyValue = m.get(clause);
-						if (keyValue == null) {
-							isNullGroup = true;
-							break;
-						}
-
-						keys.add(keyValue);
-					}
-
-					if (isNullGroup)
-						continue;
-				}
-
-				inputCount++;
-
-				AggregationFunction[] fs = buffer.get(keys);
-				if (fs == null) {
-					fs = new AggregationFunction[funcs.length];
-					for (int i = 0; i < fs.length; i++)
-						fs[i] = funcs[i].clone();
-
-					buffer.put(new ArrayList<Object>(keys), fs);
-				}
-
-				for (AggregationFunction f : fs)
-					f.apply(m);
-			}
-		}
-
-		try {
-			// flush
-			if (buffer.size() > 50000)
-				flush();
-		} catch (IOException e) {
-			throw new IllegalStateException("stats failed, query " + query, e);
-		}
+		Partial partial = getPartial();
+		partial.inputCount += partial.table.add(rowBatch);
+		flushIfFlood(partial);
 	}
 
 	@Override
 	public void onPush(Row m) {
-		List<Object> keys = EMPTY_KEY;
-		if (clauseCount > 0) {
-			keys = new ArrayList<Object>(clauseCount);
+		Partial partial = getPartial();
+		if (!partial.table.add(m))
+			return;
 
-			for (String clause : clauses) {
-				Object keyValue = m.get(clause);
-				if (keyValue == null)
-					return;
+		partial.inputCount++;
+		flushIfFlood(partial);
+	}
 
-				keys.add(keyValue);
-			}
+	private Partial getPartial() {
+		Thread t = Thread.currentThread();
+		Partial partial = partials.get(t);
+		if (partial == null) {
+			partial = new Partial(new GroupByTable(clauses, funcs));
+			partials.put(t, partial);
 		}
+		return partial;
+	}
 
+	private void flushIfFlood(Partial partial) {
 		try {
-			inputCount++;
-
-			AggregationFunction[] fs = buffer.get(keys);
-			if (fs == null) {
-				fs = new AggregationFunction[funcs.length];
-				for (int i = 0; i < fs.length; i++)
-					fs[i] = funcs[i].clone();
-
-				buffer.put(keys, fs);
-			}
-
-			for (AggregationFunction f : fs)
-				f.apply(m);
-
-			// flush
-			if (buffer.size() > 50000)
-				flush();
-
+			// each partial state shares memory budget
+			if (partial.table.estimatedBytes() * partials.size() > MEMORY_BUDGET)
+				flush(partial.table);
 		} catch (IOException e) {
 			throw new IllegalStateException("stats failed, query " + query, e);
 		}
 	}
 
-	private void flush() throws IOException {
+	private void flush(GroupByTable table) throws IOException {
+		int groups = table.size();
 		if (logger.isDebugEnabled())
-			logger.debug("araqne logdb: flushing stats buffer, [{}] keys", buffer.keySet().size());
+			logger.debug("araqne logdb: flushing stats buffer, [{}] keys, estimated [{}] bytes", groups,
+					table.estimatedBytes());
 
-		for (List<Object> keys : buffer.keySet()) {
-			AggregationFunction[] fs = buffer.get(keys);
-			Object[] l = new Object[fs.length];
-			int i = 0;
-			for (AggregationFunction f : fs)
-				l[i++] = f.serialize();
+		List<Item> items = new ArrayList<Item>(groups);
+		for (int i = 0; i < groups; i++)
+			items.add(new Item(table.getKeys(i), table.serialize(i)));
 
-			sorter.add(new Item(keys.toArray(), l));
+		synchronized (sorter) {
+			sorter.addAll(items);
 		}
 
-		buffer.clear();
+		table.clear();
 	}
 
 	@Override
@@ -253,14 +167,19 @@ public class Stats extends QueryCommand implements FieldOrdering {
 	public void onClose(QueryStopReason reason) {
 		this.status = Status.Finalizing;
 
-		logger.debug("araqne logdb: stats sort input count [{}]", inputCount);
+		long inputCount = 0;
+		for (Partial partial : partials.values())
+			inputCount += partial.inputCount;
+
+		logger.debug("araqne logdb: stats sort input count [{}], partials [{}]", inputCount, partials.size());
 		CloseableIterator it = null;
 		try {
-			// last flush
-			flush();
+			// last flush of all partial states, merged by sort
+			for (Partial partial : partials.values())
+				flush(partial.table);
 
 			// reclaim buffer (GC support)
-			buffer = new ConcurrentHashMap<List<Object>, AggregationFunction[]>();
+			partials.clear();
 
 			// sort
 			it = sorter.sort();
@@ -348,6 +267,17 @@ public class Stats extends QueryCommand implements FieldOrdering {
 		pushPipe(new Row(m));
 	}
 
+	private static class Partial {
+		private final GroupByTable table;
+
+		// rows accepted by table
+		private long inputCount;
+
+		public Partial(GroupByTable table) {
+			this.table = table;
+		}
+	}
+
 	private static class ItemComparer implements Comparator<Item> {
 		private ObjectComparator cmp = new ObjectComparator();
 
@@ -43,8 +43,13 @@ import org.araqne.logdb.Row;
 import org.araqne.logdb.RowBatch;
 import org.araqne.logdb.Strings;
 import org.araqne.logdb.TimeSpan;
+import org.araqne.logdb.query.expr.BlockSummaryMatcher;
+import org.araqne.logdb.query.expr.Expression;
+import org.araqne.logdb.query.expr.ExpressionCompiler;
 import org.araqne.logdb.query.parser.TableSpec;
 import org.araqne.logstorage.Log;
+import org.araqne.logstorage.LogBlockFilter;
+import org.araqne.logstorage.LogBlockSummary;
 import org.araqne.logstorage.LogCallback;
 import org.araqne.logstorage.LogStorage;
 import org.araqne.logstorage.LogTableRegistry;
@@ -67,6 +72,9 @@ public class Table extends DriverQueryCommand implements FieldOrdering {
 
 	private RealtimeReceiver receiver;
 
+	// pushed down search predicate
+	private Expression filter;
+
 	public Table(TableParams params) {
 		this.params = params;
 	}
@@ -155,23 +163,24 @@ public class Table extends DriverQueryCommand implements FieldOrdering {
 	private void scanTables() {
 		try {
 			ResultSink sink = new ResultSink(Table.this, params.offset, params.limit, params.ordered);
-			boolean isSuppressedBugAlert = false;
+			List<StorageObjectName> tableNames = expandTableNames(params.tableNames);
 
-			for (StorageObjectName tableName : expandTableNames(params.tableNames)) {
-				LogParserBuilder builder = null;
+			int parallelism = Math.min(params.parallelism, tableNames.size());
+			if (parallelism > 1) {
+				ParallelTableScanner scanner = new ParallelTableScanner(this, tableNames, parallelism, params.isAsc());
+				boolean scanned = params.ordered ? scanner.scanOrdered(sink) : scanner.scanUnordered(sink);
+				if (scanned)
+					return;
 
-				if (!params.raw) {
-					builder = new DefaultLogParserBuilder(parserRegistry, parserFactoryRegistry, tableRegistry,
-							tableName.getTable());
-					if (isSuppressedBugAlert)
-						builder.suppressBugAlert();
-				}
+				logger.debug("araqne logdb: no free table scan thread, scan [{}] serially", tableNames);
+			}
 
-				TableScanRequest req = new TableScanRequest(tableName.getTable(), params.from, params.to, builder,
-						new LogTraverseCallbackImpl(sink));
-				req.setAsc(params.isAsc());
+			boolean isSuppressedBugAlert = false;
+			for (StorageObjectName tableName : tableNames) {
+				TableScanRequest req = newScanRequest(tableName, new LogTraverseCallbackImpl(sink), isSuppressedBugAlert);
 				storage.search(req);
 
+				LogParserBuilder builder = req.getParserBuilder();
 				isSuppressedBugAlert = isSuppressedBugAlert || (builder != null && builder.isBugAlertSuppressed());
 				if (sink.isEof())
 					break;
@@ -185,6 +194,26 @@ public class Table extends DriverQueryCommand implements FieldOrdering {
 		}
 	}
 
+	TableScanRequest newScanRequest(StorageObjectName tableName, LogTraverseCallback callback, boolean suppressBugAlert) {
+		LogParserBuilder builder = null;
+
+		if (!params.raw) {
+			builder = new DefaultLogParserBuilder(parserRegistry, parserFactoryRegistry, tableRegistry, tableName.getTable());
+			if (suppressBugAlert)
+				builder.suppressBugAlert();
+		}
+
+		TableScanRequest req = new TableScanRequest(tableName.getTable(), params.from, params.to, builder, callback);
+		req.setAsc(params.isAsc());
+		if (filter != null)
+			req.setFilter(new ExpressionLogFilter(filter));
+		return req;
+	}
+
+	boolean isScanStopped() {
+		return stopped || (task != null && task.getStatus() == QueryTask.TaskStatus.CANCELED);
+	}
+
 	@Deprecated
 	public List<String> getTableNames() {
 		List<String> result = new ArrayList<String>();
@@ -266,6 +295,27 @@ public class Table extends DriverQueryCommand implements FieldOrdering {
 		return params.to;
 	}
 
+	public TimeSpan getWindow() {
+		return params.window;
+	}
+
+	/**
+	 * @since 2.6.15
+	 */
+	public Expression getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Set search predicate which is evaluated by storage scan threads.
+	 * Expression should be thread-safe.
+	 * 
+	 * @since 2.6.15
+	 */
+	public void setFilter(Expression filter) {
+		this.filter = filter;
+	}
+
 	@Override
 	public void onClose(QueryStopReason reason) {
 		if (logger.isDebugEnabled())
@@ -335,6 +385,29 @@ public class Table extends DriverQueryCommand implements FieldOrdering {
 
 	}
 
+	private static class ExpressionLogFilter implements LogBlockFilter {
+		private final Expression expr;
+		private final Expression compiled;
+
+		public ExpressionLogFilter(Expression expr) {
+			this.expr = expr;
+			this.compiled = ExpressionCompiler.compile(expr);
+		}
+
+		@Override
+		public boolean accept(Log log) {
+			Object o = compiled.eval(new Row(log.getData()));
+			if (o instanceof Boolean)
+				return (Boolean) o;
+			return o != null;
+		}
+
+		@Override
+		public boolean mayMatch(LogBlockSummary block) {
+			return BlockSummaryMatcher.mayMatch(expr, block);
+		}
+	}
+
 	private class LogTraverseCallbackImpl extends LogTraverseCallback {
 		LogTraverseCallbackImpl(Sink sink) {
 			super(sink);
@@ -372,6 +445,9 @@ public class Table extends DriverQueryCommand implements FieldOrdering {
 	}
 
 	public static class TableParams {
+		// number of tables which are scanned at the same time
+		private static final int DEFAULT_PARALLELISM = loadDefaultParallelism();
+
 		private List<TableSpec> tableNames;
 		private long offset;
 		private long limit;
@@ -382,6 +458,18 @@ public class Table extends DriverQueryCommand implements FieldOrdering {
 		private TimeSpan window;
 		private String parserName;
 		private boolean raw;
+		private int parallelism = DEFAULT_PARALLELISM;
+
+		private static int loadDefaultParallelism() {
+			int def = Math.min(4, Runtime.getRuntime().availableProcessors());
+			try {
+				String s = System.getProperty("araqne.logdb.table.parallelism");
+				if (s != null && Integer.parseInt(s.trim()) > 0)
+					return Integer.parseInt(s.trim());
+			} catch (NumberFormatException e) {
+			}
+			return def;
+		}
 
 		public List<TableSpec> getTableSpecs() {
 			return tableNames;
@@ -462,6 +550,27 @@ public class Table extends DriverQueryCommand implements FieldOrdering {
 		public void setRaw(boolean raw) {
 			this.raw = raw;
 		}
+
+		/**
+		 * @since 2.6.15
+		 */
+		public int getParallelism() {
+			return parallelism;
+		}
+
+		/**
+		 * @since 2.6.15
+		 */
+		public void setParallelism(int parallelism) {
+			this.parallelism = parallelism;
+		}
+
+		/**
+		 * @since 2.6.15
+		 */
+		public static int getDefaultParallelism() {
+			return DEFAULT_PARALLELISM;
+		}
 	}
 
 	@Override
@@ -490,6 +599,9 @@ public class Table extends DriverQueryCommand implements FieldOrdering {
 		if (params.isAsc())
 			s += " order=asc";
 
+		if (params.getParallelism() != TableParams.getDefaultParallelism())
+			s += " parallel=" + params.getParallelism();
+
 		return s + " " + Strings.join(getTableNames(), ", ");
 	}
 
@@ -21,28 +21,35 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.araqne.logdb.ObjectComparator;
 import org.araqne.logdb.QueryCommand;
 import org.araqne.logdb.QueryStopReason;
 import org.araqne.logdb.Row;
 import org.araqne.logdb.RowBatch;
+import org.araqne.logdb.ThreadSafe;
 import org.araqne.logdb.TimeSpan;
-import org.araqne.logdb.TimeUnit;
 import org.araqne.logdb.query.aggregator.AggregationField;
 import org.araqne.logdb.query.aggregator.AggregationFunction;
-import org.araqne.logdb.query.aggregator.PerTime;
 import org.araqne.logdb.sort.CloseableIterator;
 import org.araqne.logdb.sort.Item;
+import org.araqne.logdb.sort.ObjectKeyEncoder;
 import org.araqne.logdb.sort.ParallelMergeSorter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class Timechart extends QueryCommand {
+public class Timechart extends QueryCommand implements ThreadSafe {
 	private final Logger logger = LoggerFactory.getLogger(Timechart.class);
 
-	// sort by timechart key, and merge incrementally in eof()
+	// cell (time span and key) count limit of all partial states. each
+	// partial is flushed when its share of the limit is exceeded
+	private static final int MAX_CELLS = Integer.getInteger("araqne.logdb.timechart.max_cells", 50000);
+
+	// sort by timechart key, and merge incrementally in eof(). used only if
+	// partial state exceeds cell limit
 	private ParallelMergeSorter sorter;
+	private volatile boolean spilled;
 
 	// definition of aggregation fields
 	private List<AggregationField> fields;
@@ -50,8 +57,8 @@ public class Timechart extends QueryCommand {
 	// clone template functions
 	private AggregationFunction[] funcs;
 
-	// flush waiting buffer. merge in memory as many as possible
-	private HashMap<TimechartKey, AggregationFunction[]> buffer;
+	// partial state of each pushing thread, merged in onClose()
+	private ConcurrentHashMap<Thread, TimechartBuckets> partials;
 
 	private TimeSpan timeSpan;
 
@@ -99,8 +106,9 @@ public class Timechart extends QueryCommand {
 	@Override
 	public void onStart() {
 		super.onStart();
-		this.sorter = new ParallelMergeSorter(new ItemComparer());
-		this.buffer = new HashMap<TimechartKey, AggregationFunction[]>();
+		this.sorter = new ParallelMergeSorter(new ItemComparer(), new ObjectKeyEncoder());
+		sorter.setOwner(getQuery());
+		this.partials = new ConcurrentHashMap<Thread, TimechartBuckets>();
 		this.spanMillis = timeSpan.getMillis();
 
 		logger.debug("araqne logdb: span millis [{}] for query [{}]", spanMillis, query);
@@ -108,137 +116,57 @@ public class Timechart extends QueryCommand {
 
 	@Override
 	public void onPush(Row row) {
+		TimechartBuckets partial = getPartial();
+		apply(partial, row);
+		flushIfFlood(partial);
+	}
+
+	@Override
+	public void onPush(RowBatch rowBatch) {
+		TimechartBuckets partial = getPartial();
+		if (rowBatch.selectedInUse) {
+			for (int i = 0; i < rowBatch.size; i++)
+				apply(partial, rowBatch.rows[rowBatch.selected[i]]);
+		} else {
+			for (int i = 0; i < rowBatch.size; i++)
+				apply(partial, rowBatch.rows[i]);
+		}
+
+		flushIfFlood(partial);
+	}
+
+	private TimechartBuckets getPartial() {
+		Thread t = Thread.currentThread();
+		TimechartBuckets partial = partials.get(t);
+		if (partial == null) {
+			partial = new TimechartBuckets(funcs, timeSpan);
+			partials.put(t, partial);
+		}
+		return partial;
+	}
+
+	private void apply(TimechartBuckets partial, Row row) {
 		Date time = (Date) row.get("_time");
 		if (time == null)
 			return;
 
-		Date timeSlot = TimeUnit.getKey(time, timeSpan);
 		String keyFieldValue = null;
 		if (keyField != null) {
-			if (row.get(keyField) == null)
+			Object value = row.get(keyField);
+			if (value == null)
 				return;
-			keyFieldValue = row.get(keyField).toString();
+			keyFieldValue = value.toString();
 		}
 
 		// bucket is identified by truncated time and key field value. each
 		// bucket has function array.
-		TimechartKey key = new TimechartKey(timeSlot, keyFieldValue);
-
-		// find or create flush waiting bucket
-		AggregationFunction[] fs = buffer.get(key);
-		if (fs == null) {
-			fs = new AggregationFunction[funcs.length];
-			for (int i = 0; i < fs.length; i++) {
-				fs[i] = funcs[i].clone();
-
-				// set span milliseconds for average evaluation per span
-				if (fs[i] instanceof PerTime)
-					((PerTime) fs[i]).setAmount(spanMillis);
-			}
-
-			buffer.put(key, fs);
-		}
-
-		// aggregate for each functions
-		for (AggregationFunction f : fs)
-			f.apply(row);
-
-		// flush if flood
-		try {
-			if (buffer.size() > 50000)
-				flush();
-		} catch (IOException e) {
-			throw new IllegalStateException("timechart sort failed, query " + query, e);
-		}
+		partial.apply(time, keyFieldValue, row);
 	}
 
-	@Override
-	public void onPush(RowBatch rowBatch) {
-		if (rowBatch.selectedInUse) {
-			for (int r = 0; r < rowBatch.size; r++) {
-				int p = rowBatch.selected[r];
-				Row row = rowBatch.rows[p];
-
-				Date time = (Date) row.get("_time");
-				if (time == null)
-					return;
-
-				Date timeSlot = TimeUnit.getKey(time, timeSpan);
-				String keyFieldValue = null;
-				if (keyField != null) {
-					if (row.get(keyField) == null)
-						return;
-					keyFieldValue = row.get(keyField).toString();
-				}
-
-				// bucket is identified by truncated time and key field value.
-				// each bucket has function array.
-				TimechartKey key = new TimechartKey(timeSlot, keyFieldValue);
-
-				// find or create flush waiting bucket
-				AggregationFunction[] fs = buffer.get(key);
-				if (fs == null) {
-					fs = new AggregationFunction[funcs.length];
-					for (int i = 0; i < fs.length; i++) {
-						fs[i] = funcs[i].clone();
-
-						// set span milliseconds for average evaluation per span
-						if (fs[i] instanceof PerTime)
-							((PerTime) fs[i]).setAmount(spanMillis);
-					}
-
-					buffer.put(key, fs);
-				}
-
-				// aggregate for each functions
-				for (AggregationFunction f : fs)
-					f.apply(row);
-			}
-		} else {
-		    for (int i = 0; i < rowBatch.size; i++) {
-		        Row row = rowBatch.rows[i];
-
-		        Date time = (Date) row.get("_time");
-				if (time == null)
-					return;
-
-				Date timeSlot = TimeUnit.getKey(time, timeSpan);
-				String keyFieldValue = null;
-				if (keyField != null) {
-					if (row.get(keyField) == null)
-						return;
-					keyFieldValue = row.get(keyField).toString();
-				}
-
-				// bucket is identified by truncated time and key field value.
-				// each bucket has function array.
-				TimechartKey key = new TimechartKey(timeSlot, keyFieldValue);
-
-				// find or create flush waiting bucket
-				AggregationFunction[] fs = buffer.get(key);
-				if (fs == null) {
-					fs = new AggregationFunction[funcs.length];
-					for (int j = 0; j < fs.length; j++) {
-						fs[j] = funcs[j].clone();
-
-						// set span milliseconds for average evaluation per span
-						if (fs[j] instanceof PerTime)
-							((PerTime) fs[j]).setAmount(spanMillis);
-					}
-
-					buffer.put(key, fs);
-				}
-
-				// aggregate for each functions
-				for (AggregationFunction f : fs)
-					f.apply(row);
-			}
-		}
-
-		// flush if flood
+	private void flushIfFlood(TimechartBuckets partial) {
 		try {
-			if (buffer.size() > 50000)
-				flush();
+			if ((long) partial.getCellCount() * partials.size() > MAX_CELLS)
+				flush(partial);
 		} catch (IOException e) {
 			throw new IllegalStateException("timechart sort failed, query " + query, e);
 		}
@@ -249,18 +177,25 @@ public class Timechart extends QueryCommand {
 		return true;
 	}
 
-	private void flush() throws IOException {
-		for (TimechartKey key : buffer.keySet()) {
-			AggregationFunction[] fs = buffer.get(key);
-			Object[] l = new Object[fs.length];
-			int i = 0;
-			for (AggregationFunction f : fs)
-				l[i++] = f.serialize();
+	private void flush(TimechartBuckets partial) throws IOException {
+		spilled = true;
+
+		for (TimechartBuckets.Bucket bucket : partial.getBuckets()) {
+			Date time = bucket.getTime();
+			for (Map.Entry<String, AggregationFunction[]> e : bucket.getCells().entrySet()) {
+				AggregationFunction[] fs = e.getValue();
+				Object[] l = new Object[fs.length];
+				int i = 0;
+				for (AggregationFunction f : fs)
+					l[i++] = f.serialize();
 
-			sorter.add(new Item(new Object[] { key.time, key.key }, l));
+				synchronized (sorter) {
+					sorter.add(new Item(new Object[] { time, e.getKey() }, l));
+				}
+			}
 		}
 
-		buffer.clear();
+		partial.clear();
 	}
 
 	public void onClose(QueryStopReason reason) {
@@ -268,17 +203,24 @@ public class Timechart extends QueryCommand {
 
 		CloseableIterator it = null;
 		try {
-			// last flush
-			if (buffer != null) {
-				flush();
+			if (partials != null) {
+				// merge partial states of all threads
+				TimechartBuckets merged = new TimechartBuckets(funcs, timeSpan);
+				for (TimechartBuckets partial : partials.values())
+					merged.merge(partial);
 
 				// reclaim buffer (GC support)
-				buffer.clear();
-
-				// sort
-				it = sorter.sort();
-
-				mergeAndWrite(it);
+				partials.clear();
+
+				if (spilled) {
+					// last flush, sort and merge
+					flush(merged);
+					it = sorter.sort();
+					mergeAndWrite(it);
+				} else {
+					// already in time order
+					writeBuckets(merged);
+				}
 			}
 		} catch (IOException e) {
 			throw new IllegalStateException("timechart sort failed, query " + query, e);
@@ -291,6 +233,17 @@ public class Timechart extends QueryCommand {
 		sorter = null;
 	}
 
+	private void writeBuckets(TimechartBuckets merged) {
+		for (TimechartBuckets.Bucket bucket : merged.getBuckets()) {
+			HashMap<String, Object> output = new HashMap<String, Object>();
+			for (Map.Entry<String, AggregationFunction[]> e : bucket.getCells().entrySet())
+				setOutputAndReset(output, e.getValue(), e.getKey());
+
+			output.put("_time", bucket.getTime());
+			pushPipe(new Row(output), pivot);
+		}
+	}
+
 	private void mergeAndWrite(CloseableIterator it) {
 		Date lastTime = null;
 
@@ -432,68 +385,6 @@ public class Timechart extends QueryCommand {
 		}
 	}
 
-	private static class TimechartKey implements Comparable<TimechartKey> {
-		// truncated time by span amount
-		public Date time;
-
-		// value of key field ('by' clause, can be null)
-		public String key;
-
-		public TimechartKey(Date time, String key) {
-			this.time = time;
-			this.key = key;
-		}
-
-		@Override
-		public int compareTo(TimechartKey o) {
-			if (o == null)
-				return -1;
-
-			int diff = (int) (time.getTime() - o.time.getTime());
-			if (diff != 0)
-				return diff;
-
-			if (key == null && o.key != null)
-				return -1;
-			else if (key != null && o.key == null)
-				return 1;
-
-			diff = key.compareTo(o.key);
-			return diff;
-		}
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + ((key == null) ? 0 : key.hashCode());
-			result = prime * result + ((time == null) ? 0 : time.hashCode());
-			return result;
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj)
-				return true;
-			if (obj == null)
-				return false;
-			if (getClass() != obj.getClass())
-				return false;
-			TimechartKey other = (TimechartKey) obj;
-			if (key == null) {
-				if (other.key != null)
-					return false;
-			} else if (!key.equals(other.key))
-				return false;
-			if (time == null) {
-				if (other.time != null)
-					return false;
-			} else if (!time.equals(other.time))
-				return false;
-			return true;
-		}
-	}
-
 	@Override
 	public String toString() {
 		String s = "";
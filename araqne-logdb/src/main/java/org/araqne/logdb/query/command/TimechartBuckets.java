@@ -0,0 +1,245 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.query.command;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.araqne.logdb.Row;
+import org.araqne.logdb.TimeSpan;
+import org.araqne.logdb.TimeUnit;
+import org.araqne.logdb.query.aggregator.AggregationFunction;
+import org.araqne.logdb.query.aggregator.PerTime;
+
+/**
+ * Partial timechart state. Fixed length spans are stored in array indexed by
+ * span number relative to first seen span, and array grows to both
+ * direction. Calendar spans (month and year), and outlier spans which would
+ * grow the array too much, are stored in map. Each bucket has aggregation
+ * functions for each key field value.
+ * 
+ * Not thread-safe. Use one instance per thread and merge them.
+ * 
+ * @since 2.6.15
+ */
+public class TimechartBuckets {
+	private static final int MAX_ARRAY_SPANS = 1 << 20;
+
+	private final AggregationFunction[] funcs;
+	private final TimeSpan timeSpan;
+	private final long spanMillis;
+	private final boolean calendar;
+
+	// for fixed length span
+	private long baseIndex;
+	private Bucket[] buckets;
+
+	// for calendar span or outlier, truncated time to bucket
+	private HashMap<Long, Bucket> sparseBuckets;
+
+	// total key count of all buckets
+	private int cellCount;
+
+	public TimechartBuckets(AggregationFunction[] funcs, TimeSpan timeSpan) {
+		this.funcs = funcs;
+		this.timeSpan = timeSpan;
+		this.spanMillis = timeSpan.getMillis();
+		this.calendar = TimeUnit.isCalendarSpan(timeSpan);
+		clear();
+	}
+
+	public int getCellCount() {
+		return cellCount;
+	}
+
+	public boolean isEmpty() {
+		return cellCount == 0;
+	}
+
+	public void clear() {
+		baseIndex = 0;
+		buckets = null;
+		sparseBuckets = new HashMap<Long, Bucket>();
+		cellCount = 0;
+	}
+
+	/**
+	 * @param key
+	 *            key field value, or null if timechart has no by clause
+	 */
+	public void apply(Date time, String key, Row row) {
+		AggregationFunction[] fs = getBucket(time.getTime()).getFunctions(key);
+		for (AggregationFunction f : fs)
+			f.apply(row);
+	}
+
+	/**
+	 * Merges other partial state. Functions of other are moved if this
+	 * doesn't have the cell.
+	 */
+	public void merge(TimechartBuckets other) {
+		for (Bucket src : other.getBuckets()) {
+			Bucket dst = getBucket(src.time);
+			for (Map.Entry<String, AggregationFunction[]> e : src.cells.entrySet()) {
+				AggregationFunction[] fs = dst.cells.get(e.getKey());
+				if (fs == null) {
+					dst.cells.put(e.getKey(), e.getValue());
+					cellCount++;
+					continue;
+				}
+
+				AggregationFunction[] srcFuncs = e.getValue();
+				for (int i = 0; i < fs.length; i++)
+					fs[i].merge(srcFuncs[i]);
+			}
+		}
+		other.clear();
+	}
+
+	/**
+	 * @return non-empty buckets in time order
+	 */
+	public List<Bucket> getBuckets() {
+		List<Bucket> l = new ArrayList<Bucket>();
+		if (buckets != null) {
+			for (Bucket b : buckets)
+				if (b != null)
+					l.add(b);
+		}
+
+		if (!sparseBuckets.isEmpty()) {
+			l.addAll(sparseBuckets.values());
+			Collections.sort(l);
+		}
+		return l;
+	}
+
+	private Bucket getBucket(long time) {
+		if (calendar)
+			return getSparseBucket(TimeUnit.getKey(new Date(time), timeSpan).getTime());
+
+		long index = TimeUnit.getSpanIndex(time, spanMillis);
+		if (buckets == null) {
+			baseIndex = index;
+			buckets = new Bucket[16];
+		}
+
+		if (index < baseIndex || index - baseIndex >= buckets.length) {
+			long low = Math.min(index, baseIndex);
+			long high = Math.max(index, baseIndex + buckets.length - 1);
+			if (high - low >= MAX_ARRAY_SPANS)
+				return getSparseBucket(TimeUnit.getSpanTime(index, spanMillis));
+
+			grow(index);
+		}
+
+		int i = (int) (index - baseIndex);
+		Bucket b = buckets[i];
+		if (b == null) {
+			b = new Bucket(TimeUnit.getSpanTime(index, spanMillis));
+			buckets[i] = b;
+		}
+		return b;
+	}
+
+	private void grow(long index) {
+		if (index < baseIndex) {
+			// grow to past
+			long shift = baseIndex - index;
+			int len = (int) Math.min(MAX_ARRAY_SPANS, Math.max(buckets.length * 2L, buckets.length + shift));
+			Bucket[] newBuckets = new Bucket[len];
+			int offset = len - buckets.length;
+			System.arraycopy(buckets, 0, newBuckets, offset, buckets.length);
+			buckets = newBuckets;
+			baseIndex -= offset;
+		} else {
+			int len = (int) Math.min(MAX_ARRAY_SPANS, Math.max(buckets.length * 2L, index - baseIndex + 1));
+			buckets = Arrays.copyOf(buckets, len);
+		}
+
+		if (sparseBuckets.isEmpty())
+			return;
+
+		// move outliers which are now in array range
+		Iterator<Bucket> it = sparseBuckets.values().iterator();
+		while (it.hasNext()) {
+			Bucket b = it.next();
+			long i = TimeUnit.getSpanIndex(b.time, spanMillis) - baseIndex;
+			if (i >= 0 && i < buckets.length) {
+				buckets[(int) i] = b;
+				it.remove();
+			}
+		}
+	}
+
+	private Bucket getSparseBucket(long slot) {
+		Bucket b = sparseBuckets.get(slot);
+		if (b == null) {
+			b = new Bucket(slot);
+			sparseBuckets.put(slot, b);
+		}
+		return b;
+	}
+
+	public class Bucket implements Comparable<Bucket> {
+		private final long time;
+
+		// key field value to functions
+		private final HashMap<String, AggregationFunction[]> cells = new HashMap<String, AggregationFunction[]>();
+
+		private Bucket(long time) {
+			this.time = time;
+		}
+
+		public Date getTime() {
+			return new Date(time);
+		}
+
+		public Map<String, AggregationFunction[]> getCells() {
+			return cells;
+		}
+
+		private AggregationFunction[] getFunctions(String key) {
+			AggregationFunction[] fs = cells.get(key);
+			if (fs != null)
+				return fs;
+
+			fs = new AggregationFunction[funcs.length];
+			for (int i = 0; i < fs.length; i++) {
+				fs[i] = funcs[i].clone();
+
+				// set span milliseconds for average evaluation per span
+				if (fs[i] instanceof PerTime)
+					((PerTime) fs[i]).setAmount(spanMillis);
+			}
+
+			cells.put(key, fs);
+			cellCount++;
+			return fs;
+		}
+
+		@Override
+		public int compareTo(Bucket o) {
+			return time < o.time ? -1 : (time == o.time ? 0 : 1);
+		}
+	}
+}
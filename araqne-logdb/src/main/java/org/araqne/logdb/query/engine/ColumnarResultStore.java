@@ -0,0 +1,705 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.query.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.araqne.codec.EncodingRule;
+import org.araqne.codec.FastEncodingRule;
+import org.araqne.logdb.QueryResultSet;
+import org.araqne.logdb.Row;
+import org.araqne.logdb.RowBatch;
+
+/**
+ * Columnar query result store.
+ * 
+ * Row n is stored in block n / {@link #BLOCK_ROWS}, so any page can be found
+ * without scanning. Writers reserve row number using atomic counter and fill
+ * the slot of in-memory pending block. The writer which fills the last slot
+ * encodes the block and writes it using positional write. Writers share read
+ * lock, and close() takes write lock to wait in-flight writers, so every
+ * reserved slot is filled before the last block is sealed. Unsealed rows are
+ * served from memory.
+ * 
+ * Index file has 8 bytes header (magic, block rows) and 16 bytes entry (data
+ * offset, block length, row count) for each block. Block consists of row
+ * count, column directory and deflated column chunks. Column chunk has end
+ * offset of each row value, then encoded values. Absent value has zero
+ * length. Reader inflates and decodes requested columns only.
+ * 
+ * @since 2.6.15
+ */
+public class ColumnarResultStore implements ResultStore {
+	public static final String NAME = "columnar";
+
+	static final int BLOCK_ROWS = 1024;
+	private static final int MAGIC = 0x41524331;
+	private static final int HEADER_SIZE = 8;
+	private static final int ENTRY_SIZE = 16;
+
+	private final File indexFile;
+	private final File dataFile;
+	private final RandomAccessFile indexRaf;
+	private final RandomAccessFile dataRaf;
+
+	private final AtomicLong nextRow = new AtomicLong();
+	private final AtomicLong dataLength = new AtomicLong();
+	private final ConcurrentHashMap<Integer, PendingBlock> pendingBlocks = new ConcurrentHashMap<Integer, PendingBlock>();
+	private final ConcurrentHashMap<Integer, BlockRef> sealedBlocks = new ConcurrentHashMap<Integer, BlockRef>();
+
+	// shared by writers, exclusive for close and result set snapshot
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private volatile boolean closed;
+
+	public ColumnarResultStore(File indexFile, File dataFile) throws IOException {
+		this.indexFile = indexFile;
+		this.dataFile = dataFile;
+
+		RandomAccessFile index = null;
+		RandomAccessFile data = null;
+		try {
+			index = new RandomAccessFile(indexFile, "rw");
+			data = new RandomAccessFile(dataFile, "rw");
+			index.setLength(0);
+			data.setLength(0);
+			index.writeInt(MAGIC);
+			index.writeInt(BLOCK_ROWS);
+		} catch (IOException e) {
+			close(index);
+			close(data);
+			throw e;
+		}
+
+		this.indexRaf = index;
+		this.dataRaf = data;
+	}
+
+	/**
+	 * Opens closed result files, e.g. saved result.
+	 */
+	public static ColumnarResultSet openResultSet(File indexFile, File dataFile) throws IOException {
+		List<BlockRef> blocks = readIndex(indexFile);
+		long count = 0;
+		for (BlockRef ref : blocks)
+			count += ref.rowCount;
+
+		return new ColumnarResultSet(null, blocks, indexFile, dataFile, count);
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	@Override
+	public void write(Row row) throws IOException {
+		lock.readLock().lock();
+		try {
+			checkOpen();
+			append(row.map());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void write(RowBatch rowBatch) throws IOException {
+		lock.readLock().lock();
+		try {
+			checkOpen();
+			if (rowBatch.selectedInUse) {
+				for (int i = 0; i < rowBatch.size; i++)
+					append(rowBatch.rows[rowBatch.selected[i]].map());
+			} else {
+				for (int i = 0; i < rowBatch.size; i++)
+					append(rowBatch.rows[i].map());
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private void checkOpen() {
+		if (closed)
+			throw new IllegalStateException("result writer is already closed");
+	}
+
+	// caller should hold read lock
+	private void append(Map<String, Object> m) throws IOException {
+		long n = nextRow.getAndIncrement();
+		int blockId = (int) (n / BLOCK_ROWS);
+
+		PendingBlock block = pendingBlocks.get(blockId);
+		if (block == null) {
+			PendingBlock newBlock = new PendingBlock();
+			block = pendingBlocks.putIfAbsent(blockId, newBlock);
+			if (block == null)
+				block = newBlock;
+		}
+
+		block.rows.set((int) (n % BLOCK_ROWS), m);
+
+		// last writer of the block seals it
+		if (block.filled.incrementAndGet() == BLOCK_ROWS)
+			seal(blockId, block, BLOCK_ROWS);
+	}
+
+	private void seal(int blockId, PendingBlock block, int rowCount) throws IOException {
+		byte[] b = encodeBlock(block.rows, rowCount);
+		long offset = dataLength.getAndAdd(b.length);
+		writeFully(dataRaf.getChannel(), ByteBuffer.wrap(b), offset);
+
+		ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+		entry.putLong(offset);
+		entry.putInt(b.length);
+		entry.putInt(rowCount);
+		entry.flip();
+		writeFully(indexRaf.getChannel(), entry, HEADER_SIZE + (long) blockId * ENTRY_SIZE);
+
+		// publish sealed block before removing pending one
+		sealedBlocks.put(blockId, new BlockRef(offset, b.length, rowCount));
+		pendingBlocks.remove(blockId);
+	}
+
+	/**
+	 * Positional writes are visible to readers immediately.
+	 */
+	@Override
+	public void sync() throws IOException {
+	}
+
+	@Override
+	public void close() throws IOException {
+		// wait in-flight writers, later writers will see closed flag
+		lock.writeLock().lock();
+		try {
+			if (closed)
+				return;
+
+			closed = true;
+
+			try {
+				// all reserved slots are filled here, and only last block can be
+				// partially filled
+				long rowCount = nextRow.get();
+				List<Integer> ids = new ArrayList<Integer>(pendingBlocks.keySet());
+				Collections.sort(ids);
+				for (Integer id : ids) {
+					PendingBlock block = pendingBlocks.get(id);
+					if (block != null)
+						seal(id, block, (int) Math.min(BLOCK_ROWS, rowCount - (long) id * BLOCK_ROWS));
+				}
+
+				dataRaf.getChannel().force(false);
+				indexRaf.getChannel().force(false);
+			} finally {
+				close(indexRaf);
+				close(dataRaf);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void purge() {
+		lock.writeLock().lock();
+		try {
+			closed = true;
+			close(indexRaf);
+			close(dataRaf);
+			pendingBlocks.clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		indexFile.delete();
+		dataFile.delete();
+	}
+
+	@Override
+	public boolean isLowDisk() {
+		File dir = dataFile.getAbsoluteFile().getParentFile();
+		return dir != null && dir.getUsableSpace() == 0;
+	}
+
+	@Override
+	public QueryResultSet openResultSet() throws IOException {
+		long size;
+		lock.writeLock().lock();
+		try {
+			if (closed)
+				return openResultSet(indexFile, dataFile);
+
+			// no reserved but unfilled slot while writers are paused
+			size = nextRow.get();
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		return new ColumnarResultSet(this, null, indexFile, dataFile, size);
+	}
+
+	BlockRef getBlock(int blockId) {
+		return sealedBlocks.get(blockId);
+	}
+
+	/**
+	 * @return null if row is not sealed or not written yet
+	 */
+	Map<String, Object> getPendingRow(long n) {
+		PendingBlock block = pendingBlocks.get((int) (n / BLOCK_ROWS));
+		if (block == null)
+			return null;
+		return block.rows.get((int) (n % BLOCK_ROWS));
+	}
+
+	private static byte[] encodeBlock(AtomicReferenceArray<Map<String, Object>> rows, int rowCount) throws IOException {
+		FastEncodingRule enc = new FastEncodingRule();
+		LinkedHashMap<String, ColumnBuilder> columns = new LinkedHashMap<String, ColumnBuilder>();
+
+		for (int r = 0; r < rowCount; r++) {
+			Map<String, Object> m = rows.get(r);
+			for (Map.Entry<String, Object> e : m.entrySet()) {
+				ColumnBuilder c = columns.get(e.getKey());
+				if (c == null) {
+					c = new ColumnBuilder(rowCount);
+					columns.put(e.getKey(), c);
+				}
+
+				ByteBuffer bb = enc.encode(e.getValue());
+				c.add(r, bb.array(), bb.remaining());
+				bb.clear();
+			}
+		}
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bos);
+		out.writeInt(rowCount);
+		out.writeInt(columns.size());
+
+		List<byte[]> chunks = new ArrayList<byte[]>(columns.size());
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			for (Map.Entry<String, ColumnBuilder> e : columns.entrySet()) {
+				byte[] raw = e.getValue().toByteArray(rowCount);
+				byte[] compressed = deflate(deflater, raw);
+				chunks.add(compressed);
+
+				out.writeUTF(e.getKey());
+				out.writeInt(raw.length);
+				out.writeInt(compressed.length);
+			}
+		} finally {
+			deflater.end();
+		}
+
+		for (byte[] chunk : chunks)
+			out.write(chunk);
+
+		out.flush();
+		return bos.toByteArray();
+	}
+
+	private static byte[] deflate(Deflater deflater, byte[] raw) {
+		deflater.reset();
+		deflater.setInput(raw);
+		deflater.finish();
+
+		byte[] buf = new byte[Math.max(64, raw.length / 2)];
+		int len = 0;
+		while (!deflater.finished()) {
+			if (len == buf.length)
+				buf = Arrays.copyOf(buf, buf.length * 2);
+			len += deflater.deflate(buf, len, buf.length - len);
+		}
+		return Arrays.copyOf(buf, len);
+	}
+
+	private static List<BlockRef> readIndex(File indexFile) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+		try {
+			if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC)
+				throw new IOException("invalid columnar result index: " + indexFile.getAbsolutePath());
+
+			int blockRows = raf.readInt();
+			if (blockRows != BLOCK_ROWS)
+				throw new IOException("unsupported block rows " + blockRows + ": " + indexFile.getAbsolutePath());
+
+			int count = (int) ((raf.length() - HEADER_SIZE) / ENTRY_SIZE);
+			byte[] b = new byte[count * ENTRY_SIZE];
+			raf.readFully(b);
+
+			ByteBuffer bb = ByteBuffer.wrap(b);
+			List<BlockRef> blocks = new ArrayList<BlockRef>(count);
+			for (int i = 0; i < count; i++)
+				blocks.add(new BlockRef(bb.getLong(), bb.getInt(), bb.getInt()));
+			return blocks;
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer bb, long position) throws IOException {
+		while (bb.hasRemaining())
+			position += channel.write(bb, position);
+	}
+
+	private static void close(RandomAccessFile raf) {
+		if (raf == null)
+			return;
+
+		try {
+			raf.close();
+		} catch (IOException e) {
+		}
+	}
+
+	private static class PendingBlock {
+		private final AtomicReferenceArray<Map<String, Object>> rows = new AtomicReferenceArray<Map<String, Object>>(
+				BLOCK_ROWS);
+		private final AtomicInteger filled = new AtomicInteger();
+	}
+
+	static class BlockRef {
+		private final long offset;
+		private final int length;
+		private final int rowCount;
+
+		private BlockRef(long offset, int length, int rowCount) {
+			this.offset = offset;
+			this.length = length;
+			this.rowCount = rowCount;
+		}
+	}
+
+	private static class ColumnBuilder {
+		// end offset of each row value
+		private final int[] ends;
+		private byte[] buf = new byte[256];
+		private int len;
+		private int filledRows;
+
+		private ColumnBuilder(int rowCount) {
+			ends = new int[rowCount];
+		}
+
+		private void add(int row, byte[] b, int length) {
+			// absent values of skipped rows
+			while (filledRows < row)
+				ends[filledRows++] = len;
+
+			if (len + length > buf.length)
+				buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + length));
+
+			System.arraycopy(b, 0, buf, len, length);
+			len += length;
+			ends[filledRows++] = len;
+		}
+
+		private byte[] toByteArray(int rowCount) {
+			while (filledRows < rowCount)
+				ends[filledRows++] = len;
+
+			ByteBuffer bb = ByteBuffer.allocate(rowCount * 4 + len);
+			for (int i = 0; i < rowCount; i++)
+				bb.putInt(ends[i]);
+			bb.put(buf, 0, len);
+			return bb.array();
+		}
+	}
+
+	/**
+	 * Decoded block. Column chunks are inflated on demand.
+	 */
+	private static class Block {
+		private final int rowCount;
+		private final String[] names;
+		private final int[] rawLengths;
+		private final int[] chunkOffsets;
+		private final int[] chunkLengths;
+		private final byte[] data;
+		private final byte[][] chunks;
+
+		private Block(byte[] data) throws IOException {
+			this.data = data;
+			ByteBuffer bb = ByteBuffer.wrap(data);
+			rowCount = bb.getInt();
+			int columnCount = bb.getInt();
+
+			names = new String[columnCount];
+			rawLengths = new int[columnCount];
+			chunkOffsets = new int[columnCount];
+			chunkLengths = new int[columnCount];
+			chunks = new byte[columnCount][];
+
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 8,
+					data.length - 8));
+			int dirLength = 0;
+			for (int i = 0; i < columnCount; i++) {
+				names[i] = in.readUTF();
+				rawLengths[i] = in.readInt();
+				chunkLengths[i] = in.readInt();
+				dirLength += 2 + utfLength(names[i]) + 8;
+			}
+
+			int offset = 8 + dirLength;
+			for (int i = 0; i < columnCount; i++) {
+				chunkOffsets[i] = offset;
+				offset += chunkLengths[i];
+			}
+		}
+
+		private Map<String, Object> getRow(int r, Set<String> fields) throws IOException {
+			Map<String, Object> m = new HashMap<String, Object>();
+			for (int i = 0; i < names.length; i++) {
+				if (fields != null && !fields.contains(names[i]))
+					continue;
+
+				byte[] chunk = getChunk(i);
+				int base = rowCount * 4;
+				int begin = r == 0 ? 0 : readInt(chunk, (r - 1) * 4);
+				int end = readInt(chunk, r * 4);
+				if (begin == end)
+					continue;
+
+				m.put(names[i], EncodingRule.decode(ByteBuffer.wrap(chunk, base + begin, end - begin)));
+			}
+			return m;
+		}
+
+		private byte[] getChunk(int i) throws IOException {
+			if (chunks[i] != null)
+				return chunks[i];
+
+			Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(data, chunkOffsets[i], chunkLengths[i]);
+				byte[] raw = new byte[rawLengths[i]];
+				int len = 0;
+				while (len < raw.length) {
+					int n = inflater.inflate(raw, len, raw.length - len);
+					if (n == 0 && (inflater.finished() || inflater.needsInput()))
+						throw new EOFException("corrupted column chunk: " + names[i]);
+					len += n;
+				}
+				chunks[i] = raw;
+				return raw;
+			} catch (DataFormatException e) {
+				throw new IOException("corrupted column chunk: " + names[i], e);
+			} finally {
+				inflater.end();
+			}
+		}
+
+		private static int readInt(byte[] b, int offset) {
+			return ((b[offset] & 0xff) << 24) | ((b[offset + 1] & 0xff) << 16) | ((b[offset + 2] & 0xff) << 8)
+					| (b[offset + 3] & 0xff);
+		}
+
+		private static int utfLength(String s) {
+			int len = 0;
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				if (c >= 0x0001 && c <= 0x007f)
+					len++;
+				else if (c > 0x07ff)
+					len += 3;
+				else
+					len += 2;
+			}
+			return len;
+		}
+	}
+
+	public static class ColumnarResultSet implements QueryResultSet {
+		private final ColumnarResultStore store;
+		private final List<BlockRef> blocks;
+		private final File indexFile;
+		private final File dataFile;
+		private final RandomAccessFile data;
+		private final long size;
+		private long pos;
+		private Set<String> fields;
+
+		private int currentId = -1;
+		private Block current;
+
+		// prefetched row of the pending block
+		private Map<String, Object> pendingRow;
+
+		private ColumnarResultSet(ColumnarResultStore store, List<BlockRef> blocks, File indexFile, File dataFile,
+				long size) throws IOException {
+			this.store = store;
+			this.blocks = blocks;
+			this.indexFile = indexFile;
+			this.dataFile = dataFile;
+			this.data = new RandomAccessFile(dataFile, "r");
+			this.size = size;
+		}
+
+		@Override
+		public String getStorageName() {
+			return NAME;
+		}
+
+		@Override
+		public File getIndexPath() {
+			return indexFile;
+		}
+
+		@Override
+		public File getDataPath() {
+			return dataFile;
+		}
+
+		@Override
+		public long size() {
+			return size;
+		}
+
+		/**
+		 * Restricts decoded columns. All columns are returned if null.
+		 */
+		public void setFields(Collection<String> fields) {
+			this.fields = fields == null ? null : new HashSet<String>(fields);
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (pos >= size)
+				return false;
+
+			int blockId = (int) (pos / BLOCK_ROWS);
+			if (findBlock(blockId) != null)
+				return true;
+
+			// not sealed yet, row can be in-flight
+			pendingRow = store.getPendingRow(pos);
+			if (pendingRow != null)
+				return true;
+
+			// sealed after first lookup
+			return findBlock(blockId) != null;
+		}
+
+		@Override
+		public Map<String, Object> next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			try {
+				int blockId = (int) (pos / BLOCK_ROWS);
+				int r = (int) (pos % BLOCK_ROWS);
+				pos++;
+
+				BlockRef ref = findBlock(blockId);
+				if (ref == null)
+					return select(pendingRow);
+
+				if (blockId != currentId) {
+					byte[] b = new byte[ref.length];
+					readFully(data.getChannel(), ByteBuffer.wrap(b), ref.offset);
+					current = new Block(b);
+					currentId = blockId;
+				}
+
+				return current.getRow(r, fields);
+			} catch (IOException e) {
+				throw new IllegalStateException("cannot read query result: " + dataFile.getAbsolutePath(), e);
+			}
+		}
+
+		private BlockRef findBlock(int blockId) {
+			if (store != null)
+				return store.getBlock(blockId);
+			return blockId < blocks.size() ? blocks.get(blockId) : null;
+		}
+
+		private Map<String, Object> select(Map<String, Object> m) {
+			if (fields == null)
+				return new HashMap<String, Object>(m);
+
+			Map<String, Object> selected = new HashMap<String, Object>();
+			for (String field : fields)
+				if (m.containsKey(field))
+					selected.put(field, m.get(field));
+			return selected;
+		}
+
+		@Override
+		public void reset() {
+			pos = 0;
+		}
+
+		@Override
+		public void skip(long n) {
+			pos = Math.min(size, pos + n);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() {
+			ColumnarResultStore.close(data);
+		}
+
+		private static void readFully(FileChannel channel, ByteBuffer bb, long position) throws IOException {
+			while (bb.hasRemaining()) {
+				int n = channel.read(bb, position);
+				if (n < 0)
+					throw new EOFException();
+				position += n;
+			}
+		}
+	}
+}
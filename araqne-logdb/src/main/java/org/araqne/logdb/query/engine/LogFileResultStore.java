@@ -0,0 +1,224 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.query.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.araqne.codec.EncodingRule;
+import org.araqne.logdb.QueryResultConfig;
+import org.araqne.logdb.QueryResultSet;
+import org.araqne.logdb.QueryResultStorage;
+import org.araqne.logdb.Row;
+import org.araqne.logdb.RowBatch;
+import org.araqne.logstorage.Log;
+import org.araqne.logstorage.LogFlushCallback;
+import org.araqne.logstorage.LogFlushCallbackArgs;
+import org.araqne.logstorage.file.LogFileReader;
+import org.araqne.logstorage.file.LogFileWriter;
+import org.araqne.logstorage.file.LogRecord;
+import org.araqne.logstorage.file.LogRecordCursor;
+import org.araqne.storage.localfile.LocalFilePath;
+
+/**
+ * Writes result rows as logs using log file writer of the result storage.
+ * 
+ * @since 2.6.15
+ */
+class LogFileResultStore implements ResultStore, LogFlushCallback {
+	private final QueryResultConfig config;
+	private final QueryResultStorage resultStorage;
+	private final LogFileWriter writer;
+	private final AtomicLong flushed = new AtomicLong();
+	private long id;
+	private boolean closed;
+
+	/**
+	 * do NOT directly lock on log file writer. input should be serialized at
+	 * caller side. inner block-able caller run policy can cause deadlock.
+	 */
+	private final Object writerLock = new Object();
+
+	public LogFileResultStore(QueryResultConfig config, QueryResultStorage resultStorage) throws IOException {
+		this.config = config;
+		this.resultStorage = resultStorage;
+		this.writer = resultStorage.createWriter(config);
+		writer.getCallbackSet().get(LogFlushCallback.class).add(this);
+	}
+
+	@Override
+	public String getName() {
+		return resultStorage.getName();
+	}
+
+	@Override
+	public boolean isThreadSafe() {
+		return false;
+	}
+
+	@Override
+	public void write(Row row) throws IOException {
+		synchronized (writerLock) {
+			if (closed)
+				throw new IllegalStateException("result writer is already closed");
+
+			writer.write(new Log("$Result$", new Date(), ++id, row.map()));
+		}
+	}
+
+	@Override
+	public void write(RowBatch rowBatch) throws IOException {
+		synchronized (writerLock) {
+			if (closed)
+				throw new IllegalStateException("result writer is already closed");
+
+			if (rowBatch.selectedInUse) {
+				for (int i = 0; i < rowBatch.size; i++) {
+					Row row = rowBatch.rows[rowBatch.selected[i]];
+					writer.write(new Log("$Result$", new Date(), ++id, row.map()));
+				}
+			} else {
+				for (int i = 0; i < rowBatch.size; i++) {
+					Row row = rowBatch.rows[i];
+					writer.write(new Log("$Result$", new Date(), ++id, row.map()));
+				}
+			}
+		}
+	}
+
+	@Override
+	public void sync() throws IOException {
+		synchronized (writerLock) {
+			writer.flush();
+			writer.sync();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (writerLock) {
+			closed = true;
+			writer.close();
+		}
+	}
+
+	@Override
+	public void purge() {
+		synchronized (writerLock) {
+			writer.purge();
+		}
+	}
+
+	@Override
+	public boolean isLowDisk() {
+		return writer.isLowDisk();
+	}
+
+	@Override
+	public QueryResultSet openResultSet() throws IOException {
+		LogFileReader reader = null;
+		try {
+			reader = resultStorage.createReader(config);
+			return new LogResultSetImpl(resultStorage.getName(), reader, flushed.get());
+		} catch (Throwable t) {
+			if (reader != null)
+				reader.close();
+			throw new IOException(t);
+		}
+	}
+
+	@Override
+	public void onFlushCompleted(LogFlushCallbackArgs arg) {
+		flushed.addAndGet(arg.getLogs().size());
+	}
+
+	@Override
+	public void onFlush(LogFlushCallbackArgs arg) {
+	}
+
+	@Override
+	public void onFlushException(LogFlushCallbackArgs arg, Throwable t) {
+	}
+
+	private static class LogResultSetImpl implements QueryResultSet {
+		private String storageName;
+		private LogFileReader reader;
+		private LogRecordCursor cursor;
+		private long count;
+
+		// assume result is stored in local storage
+		public LogResultSetImpl(String storageName, LogFileReader reader, long count) throws IOException {
+			this.storageName = storageName;
+			this.reader = reader;
+			this.cursor = reader.getCursor(true);
+			this.count = count;
+		}
+
+		@Override
+		public String getStorageName() {
+			return storageName;
+		}
+
+		@Override
+		public File getIndexPath() {
+			return ((LocalFilePath) reader.getIndexPath()).getFile();
+		}
+
+		@Override
+		public File getDataPath() {
+			return ((LocalFilePath) reader.getDataPath()).getFile();
+		}
+
+		@Override
+		public long size() {
+			return count;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return cursor.hasNext();
+		}
+
+		@Override
+		public Map<String, Object> next() {
+			LogRecord next = cursor.next();
+			return EncodingRule.decodeMap(next.getData());
+		}
+
+		@Override
+		public void reset() {
+			cursor.reset();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void skip(long n) {
+			cursor.skip(n);
+		}
+
+		@Override
+		public void close() {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.query.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.araqne.logdb.QueryCommand;
+import org.araqne.logdb.QueryContext;
+import org.araqne.logdb.QueryPlanner;
+import org.araqne.logdb.query.command.Search;
+import org.araqne.logdb.query.command.Table;
+import org.araqne.logdb.query.expr.And;
+import org.araqne.logdb.query.expr.BinaryExpression;
+import org.araqne.logdb.query.expr.BooleanConstant;
+import org.araqne.logdb.query.expr.Contains;
+import org.araqne.logdb.query.expr.Eq;
+import org.araqne.logdb.query.expr.EvalField;
+import org.araqne.logdb.query.expr.Expression;
+import org.araqne.logdb.query.expr.FunctionExpression;
+import org.araqne.logdb.query.expr.Gt;
+import org.araqne.logdb.query.expr.Gte;
+import org.araqne.logdb.query.expr.In;
+import org.araqne.logdb.query.expr.IsNotNull;
+import org.araqne.logdb.query.expr.IsNull;
+import org.araqne.logdb.query.expr.Lt;
+import org.araqne.logdb.query.expr.Lte;
+import org.araqne.logdb.query.expr.Match;
+import org.araqne.logdb.query.expr.Neq;
+import org.araqne.logdb.query.expr.Not;
+import org.araqne.logdb.query.expr.NullConstant;
+import org.araqne.logdb.query.expr.NumberConstant;
+import org.araqne.logdb.query.expr.Or;
+import org.araqne.logdb.query.expr.StringConstant;
+
+/**
+ * Moves search predicates which directly follow table command into table scan
+ * request, so storage scan threads can drop unmatched logs before they are
+ * converted to rows and pushed to the query pipeline. Only comparisons,
+ * logical operators, contains(), match(), in(), isnull() and isnotnull() on
+ * fields and constants are pushed down, because pushed expression is
+ * evaluated concurrently.
+ * 
+ * Table with offset, limit or window option is not changed, since search
+ * should be applied after them. Disabled if araqne.logdb.pushdown system
+ * property is false.
+ * 
+ * @since 2.6.15
+ */
+public class PredicatePushdownPlanner implements QueryPlanner {
+	private volatile boolean enabled = !"false".equals(System.getProperty("araqne.logdb.pushdown"));
+
+	@Override
+	public String getName() {
+		return "pushdown";
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean b) {
+		this.enabled = b;
+	}
+
+	@Override
+	public List<QueryCommand> plan(QueryContext context, List<QueryCommand> commands) {
+		if (!enabled || commands.size() < 2)
+			return commands;
+
+		List<QueryCommand> planned = new ArrayList<QueryCommand>(commands.size());
+		int i = 0;
+		while (i < commands.size()) {
+			QueryCommand cmd = commands.get(i++);
+			planned.add(cmd);
+
+			if (!(cmd instanceof Table))
+				continue;
+
+			Table table = (Table) cmd;
+			if (table.getOffset() > 0 || table.getLimit() > 0 || table.getWindow() != null)
+				continue;
+
+			Expression filter = table.getFilter();
+			while (i < commands.size() && commands.get(i) instanceof Search) {
+				Search search = (Search) commands.get(i);
+				Expression expr = search.getExpression();
+				if (expr == null || !isPushable(expr))
+					break;
+
+				filter = filter == null ? expr : new And(filter, expr);
+				i++;
+
+				// search limit is still applied after scan
+				if (search.getLimit() != null) {
+					planned.add(new Search(search.getLimit(), null));
+					break;
+				}
+			}
+
+			table.setFilter(filter);
+		}
+
+		return planned;
+	}
+
+	private static boolean isPushable(Expression expr) {
+		if (expr instanceof EvalField || expr instanceof StringConstant || expr instanceof NumberConstant
+				|| expr instanceof BooleanConstant || expr instanceof NullConstant)
+			return true;
+
+		if (expr instanceof And || expr instanceof Or || expr instanceof Eq || expr instanceof Neq || expr instanceof Gt
+				|| expr instanceof Gte || expr instanceof Lt || expr instanceof Lte) {
+			BinaryExpression b = (BinaryExpression) expr;
+			return isPushable(b.getLhs()) && isPushable(b.getRhs());
+		}
+
+		if (expr instanceof Not || expr instanceof IsNull || expr instanceof IsNotNull || expr instanceof Contains
+				|| expr instanceof Match || expr instanceof In) {
+			for (Expression arg : ((FunctionExpression) expr).getArgs())
+				if (!isPushable(arg))
+					return false;
+			return true;
+		}
+
+		return false;
+	}
+}
@@ -1,5 +1,6 @@
 package org.araqne.logdb.query.engine;
 
+import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -20,6 +21,7 @@ import org.araqne.logstorage.file.LogFileWriter;
 import org.araqne.logstorage.file.LogFileWriterV2;
 import org.araqne.storage.api.FilePath;
 import org.araqne.storage.api.StorageManager;
+import org.araqne.storage.localfile.LocalFilePath;
 
 @Component(name = "logdb-query-result-factory")
 @Provides
@@ -29,6 +31,8 @@ public class QueryResultFactoryImpl implements QueryResultFactory {
 	
 	private CopyOnWriteArrayList<QueryResultStorage> storages = new CopyOnWriteArrayList<QueryResultStorage>();
 
+	private QueryResultStorageV2 embedded;
+
 	public QueryResultFactoryImpl() {
 	}
 	
@@ -41,7 +45,7 @@ public class QueryResultFactoryImpl implements QueryResultFactory {
 	public void start() {
 		FilePath BASE_DIR = storageManager.resolveFilePath(System.getProperty("araqne.data.dir", ".")).newFilePath("araqne-logdb/query/");
 
-		QueryResultStorageV2 embedded = new QueryResultStorageV2(BASE_DIR);
+		embedded = new QueryResultStorageV2(BASE_DIR);
 		storages.add(embedded);
 	}
 
@@ -51,9 +55,38 @@ public class QueryResultFactoryImpl implements QueryResultFactory {
 		for (QueryResultStorage storage : storages)
 			lastStorage = storage;
 
+		// columnar store replaces embedded v2 storage only
+		if (lastStorage == embedded && useColumnarStore() && embedded.BASE_DIR instanceof LocalFilePath) {
+			File dir = ((LocalFilePath) embedded.BASE_DIR).getFile();
+			dir.mkdirs();
+
+			String filePrefix = getFileNamePrefix("result_c1_", config);
+			File indexFile = new File(dir, filePrefix + ".idx");
+			File dataFile = new File(dir, filePrefix + ".dat");
+			return new QueryResultImpl(config, new ColumnarResultStore(indexFile, dataFile));
+		}
+
 		return new QueryResultImpl(config, lastStorage);
 	}
 
+	/**
+	 * set araqne.logdb.result.storage=v2 to use row oriented log file
+	 */
+	private boolean useColumnarStore() {
+		return !"v2".equals(System.getProperty("araqne.logdb.result.storage", ColumnarResultStore.NAME));
+	}
+
+	private static String getFileNamePrefix(String prefix, QueryResultConfig config) {
+		Query query = config.getQuery();
+		String tag = config.getTag();
+
+		SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd_HHmmss");
+		if (tag == null || tag.isEmpty())
+			tag = query.getId() + "_" + df.format(config.getCreated());
+
+		return prefix + tag;
+	}
+
 	@Override
 	public void registerStorage(QueryResultStorage storage) {
 		storages.add(storage);
@@ -95,14 +128,7 @@ public class QueryResultFactoryImpl implements QueryResultFactory {
 		}
 
 		private String getFileNamePrefix(QueryResultConfig config) {
-			Query query = config.getQuery();
-			String tag = config.getTag();
-
-			SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd_HHmmss");
-			if (tag == null || tag.isEmpty())
-				tag = query.getId() + "_" + df.format(config.getCreated());
-
-			return "result_v2_" + tag;
+			return QueryResultFactoryImpl.getFileNamePrefix("result_v2_", config);
 		}
 
 	}
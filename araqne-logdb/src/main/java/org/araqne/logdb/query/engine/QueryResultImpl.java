@@ -15,15 +15,12 @@
  */
 package org.araqne.logdb.query.engine;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.Date;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.atomic.AtomicLong;
 
-import org.araqne.codec.EncodingRule;
 import org.araqne.logdb.QueryResult;
 import org.araqne.logdb.QueryResultCallback;
 import org.araqne.logdb.QueryResultConfig;
@@ -33,28 +30,20 @@ import org.araqne.logdb.QueryStatusCallback;
 import org.araqne.logdb.QueryStopReason;
 import org.araqne.logdb.Row;
 import org.araqne.logdb.RowBatch;
-import org.araqne.logstorage.Log;
-import org.araqne.logstorage.LogFlushCallback;
-import org.araqne.logstorage.LogFlushCallbackArgs;
-import org.araqne.logstorage.file.LogFileReader;
-import org.araqne.logstorage.file.LogFileWriter;
-import org.araqne.logstorage.file.LogRecord;
-import org.araqne.logstorage.file.LogRecordCursor;
-import org.araqne.storage.localfile.LocalFilePath;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class QueryResultImpl implements QueryResult, LogFlushCallback {
+public class QueryResultImpl implements QueryResult {
 	private final Logger logger = LoggerFactory.getLogger(QueryResultImpl.class);
-	private LogFileWriter writer;
+	private final ResultStore store;
 	private AtomicLong counter = new AtomicLong();
-	private AtomicLong flushed = new AtomicLong();
 
 	/**
-	 * do NOT directly lock on log file writer. input should be serialized at
-	 * caller side. inner block-able caller run policy can cause deadlock.
+	 * serialize result callbacks when store accepts concurrent writes
 	 */
-	private Object writerLock = new Object();
+	private final Object callbackLock = new Object();
+
+	private final Object stopLock = new Object();
 
 	/**
 	 * index and data file is deleted by user request
@@ -71,14 +60,18 @@ public class QueryResultImpl implements QueryResult, LogFlushCallback {
 	private volatile boolean streaming;
 
 	private QueryResultConfig config;
-	private QueryResultStorage resultStorage;
 	private Set<QueryResultCallback> resultCallbacks = new CopyOnWriteArraySet<QueryResultCallback>();
 
 	public QueryResultImpl(QueryResultConfig config, QueryResultStorage resultStorage) throws IOException {
+		this(config, new LogFileResultStore(config, resultStorage));
+	}
+
+	/**
+	 * @since 2.6.15
+	 */
+	QueryResultImpl(QueryResultConfig config, ResultStore store) {
 		this.config = config;
-		this.resultStorage = resultStorage;
-		writer = resultStorage.createWriter(config);
-		writer.getCallbackSet().get(LogFlushCallback.class).add(this);
+		this.store = store;
 	}
 
 	@Override
@@ -93,32 +86,33 @@ public class QueryResultImpl implements QueryResult, LogFlushCallback {
 
 	@Override
 	public boolean isThreadSafe() {
-		return false;
+		return store.isThreadSafe();
 	}
 
 	@Override
 	public void onRow(Row row) {
-		long count = counter.incrementAndGet();
+		counter.incrementAndGet();
 		try {
-			if (!streaming) {
-				synchronized (writerLock) {
-					if (writerClosed)
-						throw new IllegalStateException("result writer is already closed");
-
-					writer.write(new Log("$Result$", new Date(), count, row.map()));
-				}
-			}
+			if (!streaming)
+				store.write(row);
 		} catch (IOException e) {
-			// cancel query when disk is full
-			synchronized (writerLock) {
-				if (!stopRequested && writer.isLowDisk()) {
-					stopRequested = true;
-					config.getQuery().stop(QueryStopReason.LowDisk);
-				}
-			}
+			stopIfLowDisk();
 			throw new IllegalStateException(e);
 		}
 
+		if (resultCallbacks.isEmpty())
+			return;
+
+		if (store.isThreadSafe()) {
+			synchronized (callbackLock) {
+				invokeRowCallbacks(row);
+			}
+		} else {
+			invokeRowCallbacks(row);
+		}
+	}
+
+	private void invokeRowCallbacks(Row row) {
 		for (QueryResultCallback c : resultCallbacks) {
 			try {
 				c.onRow(config.getQuery(), row);
@@ -128,6 +122,16 @@ public class QueryResultImpl implements QueryResult, LogFlushCallback {
 		}
 	}
 
+	// cancel query when disk is full
+	private void stopIfLowDisk() {
+		synchronized (stopLock) {
+			if (!stopRequested && store.isLowDisk()) {
+				stopRequested = true;
+				config.getQuery().stop(QueryStopReason.LowDisk);
+			}
+		}
+	}
+
 	private void invokeCloseCallbacks(QueryStopReason reason) {
 		for (QueryResultCallback c : resultCallbacks) {
 			try {
@@ -140,46 +144,34 @@ public class QueryResultImpl implements QueryResult, LogFlushCallback {
 
 	@Override
 	public void onRowBatch(RowBatch rowBatch) {
-
+		counter.addAndGet(rowBatch.size);
 		try {
-			synchronized (writerLock) {
-				if (writerClosed)
-					throw new IllegalStateException("result writer is already closed");
-
-				if (rowBatch.selectedInUse) {
-					for (int i = 0; i < rowBatch.size; i++) {
-						Row row = rowBatch.rows[rowBatch.selected[i]];
-						long count = counter.incrementAndGet();
-						if (!streaming)
-							writer.write(new Log("$Result$", new Date(), count, row.map()));
-					}
-				} else {
-					for (int i = 0; i < rowBatch.size; i++) {
-						Row row = rowBatch.rows[i];
-						
-						long count = counter.incrementAndGet();
-						if (!streaming)
-							writer.write(new Log("$Result$", new Date(), count, row.map()));
-					}
-				}
-			}
+			if (!streaming)
+				store.write(rowBatch);
+		} catch (IOException e) {
+			stopIfLowDisk();
+			throw new IllegalStateException(e);
+		}
 
-			for (QueryResultCallback c : resultCallbacks) {
-				try {
-					c.onRowBatch(config.getQuery(), rowBatch);
-				} catch (Throwable t) {
-					logger.warn("araqne logdb: result callback should not throw any exception", t);
-				}
+		if (resultCallbacks.isEmpty())
+			return;
+
+		if (store.isThreadSafe()) {
+			synchronized (callbackLock) {
+				invokeRowBatchCallbacks(rowBatch);
 			}
-		} catch (IOException e) {
-			// cancel query when disk is full
-			synchronized (writerLock) {
-				if (!stopRequested && writer.isLowDisk()) {
-					stopRequested = true;
-					config.getQuery().stop(QueryStopReason.LowDisk);
-				}
+		} else {
+			invokeRowBatchCallbacks(rowBatch);
+		}
+	}
+
+	private void invokeRowBatchCallbacks(RowBatch rowBatch) {
+		for (QueryResultCallback c : resultCallbacks) {
+			try {
+				c.onRowBatch(config.getQuery(), rowBatch);
+			} catch (Throwable t) {
+				logger.warn("araqne logdb: result callback should not throw any exception", t);
 			}
-			throw new IllegalStateException(e);
 		}
 	}
 
@@ -191,24 +183,12 @@ public class QueryResultImpl implements QueryResult, LogFlushCallback {
 		}
 
 		syncWriter();
-
-		LogFileReader reader = null;
-		try {
-			reader = resultStorage.createReader(config);
-			return new LogResultSetImpl(resultStorage.getName(), reader, flushed.get());
-		} catch (Throwable t) {
-			if (reader != null)
-				reader.close();
-			throw new IOException(t);
-		}
+		return store.openResultSet();
 	}
 
 	@Override
 	public void syncWriter() throws IOException {
-		synchronized (writerLock) {
-			writer.flush();
-			writer.sync();
-		}
+		store.sync();
 	}
 
 	@Override
@@ -219,10 +199,11 @@ public class QueryResultImpl implements QueryResult, LogFlushCallback {
 		writerClosed = true;
 
 		try {
-			synchronized (writerLock) {
-				writer.close();
-			}
+			store.close();
 		} catch (IOException e) {
+		} catch (Throwable t) {
+			// eof status and close callbacks should be delivered anyway
+			logger.error("araqne logdb: cannot close query result writer", t);
 		}
 
 		eofDate = new Date();
@@ -242,9 +223,7 @@ public class QueryResultImpl implements QueryResult, LogFlushCallback {
 		resultCallbacks.clear();
 
 		// delete files
-		synchronized (writerLock) {
-			writer.purge();
-		}
+		store.purge();
 	}
 
 	@Override
@@ -261,83 +240,4 @@ public class QueryResultImpl implements QueryResult, LogFlushCallback {
 	public Set<QueryResultCallback> getResultCallbacks() {
 		return resultCallbacks;
 	}
-
-	private static class LogResultSetImpl implements QueryResultSet {
-		private String storageName;
-		private LogFileReader reader;
-		private LogRecordCursor cursor;
-		private long count;
-
-		// assume result is stored in local storage
-		public LogResultSetImpl(String storageName, LogFileReader reader, long count) throws IOException {
-			this.storageName = storageName;
-			this.reader = reader;
-			this.cursor = reader.getCursor(true);
-			this.count = count;
-		}
-
-		@Override
-		public String getStorageName() {
-			return storageName;
-		}
-
-		@Override
-		public File getIndexPath() {
-			return ((LocalFilePath) reader.getIndexPath()).getFile();
-		}
-
-		@Override
-		public File getDataPath() {
-			return ((LocalFilePath) reader.getDataPath()).getFile();
-		}
-
-		@Override
-		public long size() {
-			return count;
-		}
-
-		@Override
-		public boolean hasNext() {
-			return cursor.hasNext();
-		}
-
-		@Override
-		public Map<String, Object> next() {
-			LogRecord next = cursor.next();
-			return EncodingRule.decodeMap(next.getData());
-		}
-
-		@Override
-		public void reset() {
-			cursor.reset();
-		}
-
-		@Override
-		public void remove() {
-			throw new UnsupportedOperationException();
-		}
-
-		@Override
-		public void skip(long n) {
-			cursor.skip(n);
-		}
-
-		@Override
-		public void close() {
-			reader.close();
-		}
-	}
-
-	@Override
-	public void onFlushCompleted(LogFlushCallbackArgs arg) {
-		flushed.addAndGet(arg.getLogs().size());
-	}
-
-	@Override
-	public void onFlush(LogFlushCallbackArgs arg) {
-	}
-
-	@Override
-	public void onFlushException(LogFlushCallbackArgs arg, Throwable t) {
-	}
 }
@@ -199,6 +199,7 @@ public class QueryServiceImpl implements QueryService, SessionEventListener {
 		this.queries = new ConcurrentHashMap<Integer, Query>();
 		this.callbacks = new CopyOnWriteArraySet<QueryEventListener>();
 		this.planners = new CopyOnWriteArrayList<QueryPlanner>();
+		this.planners.add(new PredicatePushdownPlanner());
 
 		// ensure directory
 		File dir = new File(System.getProperty("araqne.data.dir"), "araqne-logdb/query");
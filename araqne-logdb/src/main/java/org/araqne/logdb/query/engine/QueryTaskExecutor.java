@@ -0,0 +1,419 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.query.engine;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.araqne.logdb.Query;
+import org.araqne.logdb.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Engine-wide executor for query tasks. Tasks are queued in FIFO order and
+ * dispatched while global, per-query and per-session running task counts are
+ * under the limits. Query tasks never wait for other running tasks (they are
+ * started only after dependencies are completed), so capped tasks just wait in
+ * queue without deadlock.
+ * 
+ * Backend can be selected by araqne.logdb.query.executor system property:
+ * <ul>
+ * <li>pool: bounded and reused platform threads (default)</li>
+ * <li>virtual: virtual thread per task, falls back to pool if JVM does not
+ * support virtual threads</li>
+ * <li>thread: new platform thread per task (legacy behavior)</li>
+ * </ul>
+ * Limits can be set using araqne.logdb.query.threads,
+ * araqne.logdb.query.task_limit, araqne.logdb.query.session_task_limit and
+ * araqne.logdb.query.max_queued_tasks system properties. Zero means unlimited.
+ * 
+ * @since 2.6.15
+ */
+public class QueryTaskExecutor {
+	private static final QueryTaskExecutor instance = new QueryTaskExecutor(System.getProperty("araqne.logdb.query.executor",
+			"pool"), Integer.getInteger("araqne.logdb.query.threads",
+			Math.max(32, Runtime.getRuntime().availableProcessors() * 8)), Integer.getInteger("araqne.logdb.query.task_limit", 16),
+			Integer.getInteger("araqne.logdb.query.session_task_limit", 64), Integer.getInteger(
+					"araqne.logdb.query.max_queued_tasks", 10000));
+
+	private final Logger logger = LoggerFactory.getLogger(QueryTaskExecutor.class);
+
+	private final String backendName;
+	private final Executor backend;
+
+	private volatile int maxThreads;
+	private volatile int queryLimit;
+	private volatile int sessionLimit;
+	private volatile int maxQueued;
+
+	// guarded by this
+	private final LinkedList<Entry> queue = new LinkedList<Entry>();
+	private final Map<Integer, Counter> queryCounters = new HashMap<Integer, Counter>();
+	private final Map<String, Counter> sessionCounters = new HashMap<String, Counter>();
+	private int running;
+	private long completed;
+	private long rejected;
+
+	public static QueryTaskExecutor getInstance() {
+		return instance;
+	}
+
+	public QueryTaskExecutor(String backend, int maxThreads, int queryLimit, int sessionLimit, int maxQueued) {
+		this.maxThreads = Math.max(1, maxThreads);
+		this.queryLimit = queryLimit;
+		this.sessionLimit = sessionLimit;
+		this.maxQueued = maxQueued;
+
+		Executor executor = null;
+		if (backend.equals("virtual")) {
+			executor = newVirtualThreadExecutor();
+			if (executor == null)
+				logger.warn("araqne logdb: virtual thread is not supported, use query task pool instead");
+		} else if (backend.equals("thread")) {
+			executor = new ThreadPerTaskExecutor();
+		} else if (!backend.equals("pool")) {
+			logger.warn("araqne logdb: unknown query executor [{}], use query task pool instead", backend);
+		}
+
+		if (executor == null) {
+			backend = "pool";
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(this.maxThreads, this.maxThreads, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new QueryTaskThreadFactory());
+			pool.allowCoreThreadTimeOut(true);
+			executor = pool;
+		}
+
+		this.backendName = backend;
+		this.backend = executor;
+	}
+
+	private static Executor newVirtualThreadExecutor() {
+		try {
+			Method m = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (Executor) m.invoke(null);
+		} catch (Throwable t) {
+			return null;
+		}
+	}
+
+	public String getBackendName() {
+		return backendName;
+	}
+
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	public void setMaxThreads(int maxThreads) {
+		maxThreads = Math.max(1, maxThreads);
+		if (backend instanceof ThreadPoolExecutor) {
+			ThreadPoolExecutor pool = (ThreadPoolExecutor) backend;
+			if (maxThreads > pool.getMaximumPoolSize()) {
+				pool.setMaximumPoolSize(maxThreads);
+				pool.setCorePoolSize(maxThreads);
+			} else {
+				pool.setCorePoolSize(maxThreads);
+				pool.setMaximumPoolSize(maxThreads);
+			}
+		}
+
+		this.maxThreads = maxThreads;
+		dispatch();
+	}
+
+	public int getQueryLimit() {
+		return queryLimit;
+	}
+
+	public void setQueryLimit(int queryLimit) {
+		this.queryLimit = queryLimit;
+		dispatch();
+	}
+
+	public int getSessionLimit() {
+		return sessionLimit;
+	}
+
+	public void setSessionLimit(int sessionLimit) {
+		this.sessionLimit = sessionLimit;
+		dispatch();
+	}
+
+	public int getMaxQueued() {
+		return maxQueued;
+	}
+
+	public void setMaxQueued(int maxQueued) {
+		this.maxQueued = maxQueued;
+	}
+
+	/**
+	 * Enqueue task of the query.
+	 * 
+	 * @throws RejectedExecutionException
+	 *             if too many tasks are waiting already
+	 */
+	public void submit(Query query, Runnable task) {
+		Entry e = new Entry(query.getId(), getSessionKey(query), task);
+		synchronized (this) {
+			if (maxQueued > 0 && queue.size() >= maxQueued) {
+				rejected++;
+				throw new RejectedExecutionException("query task queue is full, query [" + query.getId() + "] queued ["
+						+ queue.size() + "]");
+			}
+
+			getCounter(queryCounters, e.queryId).queued++;
+			getCounter(sessionCounters, e.sessionKey).queued++;
+			queue.add(e);
+		}
+
+		dispatch();
+	}
+
+	private static String getSessionKey(Query query) {
+		Session session = null;
+		if (query.getContext() != null)
+			session = query.getContext().getSession();
+		return session != null ? session.getGuid() : "";
+	}
+
+	private void dispatch() {
+		List<Entry> ready = new ArrayList<Entry>();
+		synchronized (this) {
+			Iterator<Entry> it = queue.iterator();
+			while (running < maxThreads && it.hasNext()) {
+				Entry e = it.next();
+				Counter qc = queryCounters.get(e.queryId);
+				Counter sc = sessionCounters.get(e.sessionKey);
+				if (queryLimit > 0 && qc.running >= queryLimit)
+					continue;
+				if (sessionLimit > 0 && sc.running >= sessionLimit)
+					continue;
+
+				it.remove();
+				qc.queued--;
+				qc.running++;
+				sc.queued--;
+				sc.running++;
+				running++;
+				ready.add(e);
+			}
+		}
+
+		for (Entry e : ready) {
+			try {
+				backend.execute(e);
+			} catch (Throwable t) {
+				// should not happen, run in caller thread
+				logger.error("araqne logdb: cannot dispatch query [" + e.queryId + "] task", t);
+				e.run();
+			}
+		}
+	}
+
+	private void release(Entry e) {
+		synchronized (this) {
+			running--;
+			completed++;
+			release(queryCounters, e.queryId);
+			release(sessionCounters, e.sessionKey);
+		}
+
+		dispatch();
+	}
+
+	private static <K> Counter getCounter(Map<K, Counter> counters, K key) {
+		Counter c = counters.get(key);
+		if (c == null) {
+			c = new Counter();
+			counters.put(key, c);
+		}
+		return c;
+	}
+
+	private static <K> void release(Map<K, Counter> counters, K key) {
+		Counter c = counters.get(key);
+		c.running--;
+		if (c.running == 0 && c.queued == 0)
+			counters.remove(key);
+	}
+
+	public Status getStatus() {
+		Status s = new Status();
+		s.backend = backendName;
+		s.maxThreads = maxThreads;
+		s.queryLimit = queryLimit;
+		s.sessionLimit = sessionLimit;
+		s.maxQueued = maxQueued;
+
+		if (backend instanceof ThreadPoolExecutor)
+			s.poolSize = ((ThreadPoolExecutor) backend).getPoolSize();
+
+		synchronized (this) {
+			s.running = running;
+			s.queued = queue.size();
+			s.completed = completed;
+			s.rejected = rejected;
+
+			for (Map.Entry<Integer, Counter> e : queryCounters.entrySet()) {
+				QueryStatus qs = new QueryStatus();
+				qs.queryId = e.getKey();
+				qs.running = e.getValue().running;
+				qs.queued = e.getValue().queued;
+				s.queries.add(qs);
+			}
+		}
+
+		return s;
+	}
+
+	public static class Status {
+		private String backend;
+		private int maxThreads;
+		private int queryLimit;
+		private int sessionLimit;
+		private int maxQueued;
+		private int poolSize;
+		private int running;
+		private int queued;
+		private long completed;
+		private long rejected;
+		private List<QueryStatus> queries = new ArrayList<QueryStatus>();
+
+		public String getBackend() {
+			return backend;
+		}
+
+		public int getMaxThreads() {
+			return maxThreads;
+		}
+
+		public int getQueryLimit() {
+			return queryLimit;
+		}
+
+		public int getSessionLimit() {
+			return sessionLimit;
+		}
+
+		public int getMaxQueued() {
+			return maxQueued;
+		}
+
+		public int getPoolSize() {
+			return poolSize;
+		}
+
+		public int getRunning() {
+			return running;
+		}
+
+		public int getQueued() {
+			return queued;
+		}
+
+		public long getCompleted() {
+			return completed;
+		}
+
+		public long getRejected() {
+			return rejected;
+		}
+
+		public List<QueryStatus> getQueries() {
+			return queries;
+		}
+	}
+
+	public static class QueryStatus {
+		private int queryId;
+		private int running;
+		private int queued;
+
+		public int getQueryId() {
+			return queryId;
+		}
+
+		public int getRunning() {
+			return running;
+		}
+
+		public int getQueued() {
+			return queued;
+		}
+	}
+
+	private static class Counter {
+		private int running;
+		private int queued;
+	}
+
+	private class Entry implements Runnable {
+		private final int queryId;
+		private final String sessionKey;
+		private final Runnable task;
+
+		public Entry(int queryId, String sessionKey, Runnable task) {
+			this.queryId = queryId;
+			this.sessionKey = sessionKey;
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+			try {
+				task.run();
+			} catch (Throwable t) {
+				logger.error("araqne logdb: query [" + queryId + "] task failed", t);
+			} finally {
+				release(this);
+			}
+		}
+	}
+
+	private static class ThreadPerTaskExecutor implements Executor {
+		private final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public void execute(Runnable r) {
+			new Thread(r, "Query Task Thread " + counter.incrementAndGet()).start();
+		}
+	}
+
+	private static class QueryTaskThreadFactory implements ThreadFactory {
+		private final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "LogDB Query Worker " + counter.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -25,21 +25,40 @@ import org.araqne.logdb.QueryTaskListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class QueryTaskRunner extends Thread {
+public class QueryTaskRunner implements Runnable {
 	private static AtomicLong idCounter = new AtomicLong(1);
 	private final Logger logger = LoggerFactory.getLogger(QueryTaskRunner.class);
 	private QueryTaskScheduler scheduler;
 	private QueryTask task;
+	private String name;
 
 	public QueryTaskRunner(QueryTaskScheduler scheduler, QueryTask task) {
 		this.scheduler = scheduler;
 		this.task = task;
-		setName("Query Task #"+ idCounter.incrementAndGet() + " for query " + scheduler.getQuery().getId());
+		this.name = "Query Task #" + idCounter.incrementAndGet() + " for query " + scheduler.getQuery().getId();
 	}
 
 	@Override
 	public void run() {
+		// pooled thread, show current task in thread dump
+		Thread thread = Thread.currentThread();
+		String oldName = thread.getName();
+		thread.setName(name);
 		try {
+			execute();
+		} finally {
+			thread.setName(oldName);
+		}
+	}
+
+	private void execute() {
+		try {
+			// query is stopped while task is waiting in executor queue
+			if (task.getStatus() == TaskStatus.CANCELED) {
+				logger.debug("araqne logdb: skip canceled task [{}]", task);
+				return;
+			}
+
 			logger.debug("araqne logdb: running task [{}]", task);
 			QueryTaskEvent startEvent = new QueryTaskEvent(task);
 			triggerStartEvent(task, startEvent);
@@ -17,6 +17,7 @@ package org.araqne.logdb.query.engine;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.araqne.logdb.Query;
 import org.araqne.logdb.QueryCommand;
@@ -101,24 +102,35 @@ public class QueryTaskScheduler implements Runnable {
 		stopRecursively(tracer);
 	}
 
-	private synchronized void startReadyTasks() {
-		// later task runner can be completed before tracer.run(), and can cause
-		// duplicated query finish callback
-		boolean finished = tracer.isRunnable() || tracer.getStatus() == TaskStatus.CANCELED;
+	private void startReadyTasks() {
+		RejectedExecutionException rejected = null;
+		synchronized (this) {
+			// later task runner can be completed before tracer.run(), and can
+			// cause duplicated query finish callback
+			boolean finished = tracer.isRunnable() || tracer.getStatus() == TaskStatus.CANCELED;
+
+			for (QueryCommand cmd : pipeline) {
+				QueryTask mainTask = cmd.getMainTask();
+				if (mainTask != null) {
+					RejectedExecutionException e = startRecursively(mainTask);
+					if (rejected == null)
+						rejected = e;
+				}
+			}
 
-		for (QueryCommand cmd : pipeline) {
-			QueryTask mainTask = cmd.getMainTask();
-			if (mainTask != null)
-				startRecursively(mainTask);
+			// all main task completed?
+			if (finished)
+				tracer.run();
 		}
 
-		// all main task completed?
-		if (finished)
-			tracer.run();
-
+		// admission control, stop query outside of lock
+		if (rejected != null)
+			query.stop(rejected);
 	}
 
-	private void startRecursively(QueryTask task) {
+	private RejectedExecutionException startRecursively(QueryTask task) {
+		RejectedExecutionException rejected = null;
+
 		if (task.isRunnable()) {
 			// prevent duplicated run caused by late thread start
 			if (logger.isDebugEnabled())
@@ -126,7 +138,14 @@ public class QueryTaskScheduler implements Runnable {
 						new Object[] { query.getId(), task.getID(), task });
 
 			task.setStatus(TaskStatus.RUNNING);
-			new QueryTaskRunner(this, task).start();
+			try {
+				QueryTaskExecutor.getInstance().submit(query, new QueryTaskRunner(this, task));
+			} catch (RejectedExecutionException e) {
+				logger.warn("araqne logdb: query [{}] task [{}] rejected, {}", new Object[] { query.getId(), task, e.getMessage() });
+				task.setStatus(TaskStatus.CANCELED);
+				task.setFailure(e);
+				rejected = e;
+			}
 		} else {
 			if (logger.isDebugEnabled()) {
 				StringBuilder sb = new StringBuilder();
@@ -139,8 +158,13 @@ public class QueryTaskScheduler implements Runnable {
 			}
 		}
 
-		for (QueryTask subTask : task.getSubTasks())
-			startRecursively(subTask);
+		for (QueryTask subTask : task.getSubTasks()) {
+			RejectedExecutionException e = startRecursively(subTask);
+			if (rejected == null)
+				rejected = e;
+		}
+
+		return rejected;
 	}
 
 	private void stopRecursively(QueryTask task) {
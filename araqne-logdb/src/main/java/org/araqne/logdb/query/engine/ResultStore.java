@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.query.engine;
+
+import java.io.IOException;
+
+import org.araqne.logdb.QueryResultSet;
+import org.araqne.logdb.Row;
+import org.araqne.logdb.RowBatch;
+
+/**
+ * Storage backend of {@link QueryResultImpl}. Write methods throw
+ * IllegalStateException after close().
+ * 
+ * @since 2.6.15
+ */
+interface ResultStore {
+	String getName();
+
+	/**
+	 * @return true if write methods can be called concurrently
+	 */
+	boolean isThreadSafe();
+
+	void write(Row row) throws IOException;
+
+	void write(RowBatch rowBatch) throws IOException;
+
+	/**
+	 * make all written rows visible to new result set
+	 */
+	void sync() throws IOException;
+
+	void close() throws IOException;
+
+	void purge();
+
+	boolean isLowDisk();
+
+	QueryResultSet openResultSet() throws IOException;
+}
@@ -23,4 +23,12 @@ public abstract class BinaryExpression implements Expression {
 		this.lhs = lhs;
 		this.rhs = rhs;
 	}
+
+	public Expression getLhs() {
+		return lhs;
+	}
+
+	public Expression getRhs() {
+		return rhs;
+	}
 }
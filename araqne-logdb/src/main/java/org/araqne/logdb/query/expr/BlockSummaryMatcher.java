@@ -0,0 +1,152 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.query.expr;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.araqne.logstorage.LogBlockSummary;
+
+/**
+ * Decides whether storage block can contain rows which satisfy the search
+ * expression, using per-block skip index. Unknown expressions always match,
+ * so false means the block can be skipped safely.
+ * 
+ * @since 2.6.15
+ */
+public class BlockSummaryMatcher {
+	private BlockSummaryMatcher() {
+	}
+
+	public static boolean mayMatch(Expression expr, LogBlockSummary block) {
+		if (expr instanceof And) {
+			And and = (And) expr;
+			return mayMatch(and.getLhs(), block) && mayMatch(and.getRhs(), block);
+		}
+
+		if (expr instanceof Or) {
+			Or or = (Or) expr;
+			return mayMatch(or.getLhs(), block) || mayMatch(or.getRhs(), block);
+		}
+
+		if (expr instanceof Eq)
+			return mayEqual((Eq) expr, block);
+
+		if (expr instanceof In)
+			return mayContain((In) expr, block);
+
+		if (expr instanceof Gt || expr instanceof Gte || expr instanceof Lt || expr instanceof Lte)
+			return mayCompare((BinaryExpression) expr, block);
+
+		return true;
+	}
+
+	private static boolean mayEqual(Eq eq, LogBlockSummary block) {
+		if (!(eq.getLhs() instanceof EvalField))
+			return true;
+
+		String field = ((EvalField) eq.getLhs()).getFieldName();
+		Expression rhs = eq.getRhs();
+		if (rhs instanceof StringConstant) {
+			// wildcard is evaluated by pattern
+			String term = (String) rhs.eval(null);
+			if (term.indexOf('*') >= 0)
+				return true;
+			return block.mightContainText(field, term);
+		}
+
+		if (rhs instanceof NumberConstant)
+			return block.mightContainNumber(field, (Number) rhs.eval(null));
+
+		return true;
+	}
+
+	private static boolean mayContain(In in, LogBlockSummary block) {
+		List<Expression> args = new ArrayList<Expression>(in.getArgs());
+		if (!(args.get(0) instanceof EvalField))
+			return true;
+
+		String field = ((EvalField) args.get(0)).getFieldName();
+		for (Expression arg : args.subList(1, args.size())) {
+			if (arg instanceof StringConstant) {
+				String term = (String) arg.eval(null);
+				if (term.indexOf('*') >= 0 || block.mightContainText(field, term))
+					return true;
+			} else if (arg instanceof NumberConstant) {
+				if (block.mightContainNumber(field, (Number) arg.eval(null)))
+					return true;
+			} else {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static boolean mayCompare(BinaryExpression expr, LogBlockSummary block) {
+		Expression lhs = expr.getLhs();
+		Expression rhs = expr.getRhs();
+
+		// normalize to field op constant
+		boolean greater = expr instanceof Gt || expr instanceof Gte;
+		boolean inclusive = expr instanceof Gte || expr instanceof Lte;
+		if (lhs instanceof NumberConstant && rhs instanceof EvalField) {
+			Expression t = lhs;
+			lhs = rhs;
+			rhs = t;
+			greater = !greater;
+		}
+
+		if (!(lhs instanceof EvalField) || !(rhs instanceof NumberConstant))
+			return true;
+
+		String field = ((EvalField) lhs).getFieldName();
+		Double c = toExactDouble((Number) rhs.eval(null));
+		if (c == null || !block.isNumeric(field))
+			return true;
+
+		// other types are greater than numbers, null is less than numbers
+		if (greater) {
+			Double max = block.getMax(field);
+			if (max == null)
+				return false;
+
+			int cmp = Double.compare(max, c);
+			return inclusive ? cmp >= 0 : cmp > 0;
+		} else {
+			Double min = block.getMin(field);
+			if (min == null || !block.isComplete(field))
+				return true;
+
+			int cmp = Double.compare(min, c);
+			return inclusive ? cmp <= 0 : cmp < 0;
+		}
+	}
+
+	private static Double toExactDouble(Number n) {
+		double d = n.doubleValue();
+		if (Double.isNaN(d))
+			return null;
+
+		if ((n instanceof Long || n instanceof Integer || n instanceof Short) && (long) d != n.longValue())
+			return null;
+
+		if (!(n instanceof Long || n instanceof Integer || n instanceof Short || n instanceof Double || n instanceof Float))
+			return null;
+
+		return d;
+	}
+}
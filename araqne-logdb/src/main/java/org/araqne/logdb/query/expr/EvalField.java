@@ -24,6 +24,13 @@ public class EvalField implements Expression {
 		this.fieldName = fieldName;
 	}
 
+	/**
+	 * @since 2.6.15
+	 */
+	public String getFieldName() {
+		return fieldName;
+	}
+
 	@Override
 	public Object eval(Row map) {
 		return map.get(fieldName);
@@ -0,0 +1,431 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.query.expr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.araqne.logdb.ObjectComparator;
+import org.araqne.logdb.Row;
+import org.araqne.logdb.query.command.NumberUtil;
+
+/**
+ * Rewrites parsed expression tree into specialized evaluation nodes. Constant
+ * subtrees are folded, and/or chains are flattened and short-circuited when
+ * every operand is free of side effects, comparisons against numeric
+ * constants skip type dispatch for long and double operands, and arithmetic
+ * on long operands skips number conversion. Unknown expressions are kept as
+ * is, so the interpreter is always the fallback.
+ * 
+ * Compiled tree is stateless and can be evaluated concurrently. Keep original
+ * tree for planners and query string generation. Disabled if
+ * araqne.logdb.expr_compile system property is false.
+ * 
+ * @since 2.6.15
+ */
+public class ExpressionCompiler {
+	private static final boolean enabled = !"false".equals(System.getProperty("araqne.logdb.expr_compile"));
+
+	// expressions without side effects, children are checked separately
+	private static final Set<Class<?>> pureTypes = new HashSet<Class<?>>(Arrays.<Class<?>> asList(EvalField.class,
+			NumberConstant.class, StringConstant.class, BooleanConstant.class, NullConstant.class, And.class, Or.class,
+			Add.class, Sub.class, Mul.class, Div.class, Mod.class, Eq.class, Neq.class, Gt.class, Gte.class, Lt.class,
+			Lte.class, Not.class, IsNull.class, IsNotNull.class, IsNum.class, IsStr.class, Contains.class, In.class,
+			Match.class, Len.class, Lower.class, Upper.class, Trim.class, Left.class, Right.class, Substr.class,
+			Concat.class, ToInt.class, ToLong.class, ToDouble.class));
+
+	private static final int ADD = 0;
+	private static final int SUB = 1;
+	private static final int MUL = 2;
+	private static final int DIV = 3;
+
+	private static final int EQ = 0;
+	private static final int NEQ = 1;
+	private static final int GT = 2;
+	private static final int GTE = 3;
+	private static final int LT = 4;
+	private static final int LTE = 5;
+
+	private ExpressionCompiler() {
+	}
+
+	/**
+	 * @return equivalent expression for evaluation, or expr itself if
+	 *         compilation is disabled
+	 */
+	public static Expression compile(Expression expr) {
+		if (!enabled || expr == null)
+			return expr;
+		return rewrite(expr);
+	}
+
+	private static Expression rewrite(Expression expr) {
+		if (isConstant(expr))
+			return expr;
+
+		if (expr instanceof And || expr instanceof Or) {
+			boolean and = expr instanceof And;
+			List<Expression> operands = new ArrayList<Expression>();
+			flatten(expr, expr.getClass(), operands);
+
+			boolean constant = true;
+			boolean pure = true;
+			for (int i = 0; i < operands.size(); i++) {
+				Expression operand = operands.get(i);
+				pure &= isPure(operand);
+				operand = rewrite(operand);
+				constant &= isConstant(operand);
+				operands.set(i, operand);
+			}
+
+			if (constant)
+				return fold(expr);
+
+			return new Junction(expr, and, operands.toArray(new Expression[0]), pure);
+		}
+
+		int arithmetic = getArithmeticOp(expr);
+		if (arithmetic >= 0) {
+			BinaryExpression b = (BinaryExpression) expr;
+			Expression lhs = rewrite(b.getLhs());
+			Expression rhs = rewrite(b.getRhs());
+			if (isConstant(lhs) && isConstant(rhs))
+				return fold(expr);
+			return new Arithmetic(expr, arithmetic, lhs, rhs);
+		}
+
+		int comparison = getComparisonOp(expr);
+		if (comparison >= 0) {
+			BinaryExpression b = (BinaryExpression) expr;
+			Expression lhs = rewrite(b.getLhs());
+			Expression rhs = b.getRhs();
+
+			// keep wildcard string matcher of eq and neq
+			if (rhs instanceof StringConstant && (comparison == EQ || comparison == NEQ))
+				return comparison == EQ ? new Eq(lhs, rhs) : new Neq(lhs, rhs);
+
+			rhs = rewrite(rhs);
+			if (isConstant(lhs) && isConstant(rhs))
+				return fold(expr);
+
+			if (rhs instanceof NumberConstant)
+				return new ConstantComparison(expr, comparison, lhs, (Number) rhs.eval(null), false);
+
+			if (lhs instanceof NumberConstant && comparison != EQ && comparison != NEQ)
+				return new ConstantComparison(expr, comparison, rhs, (Number) lhs.eval(null), true);
+
+			return new Comparison(expr, comparison, lhs, rhs);
+		}
+
+		if (expr.getClass() == Not.class) {
+			List<Expression> args = new ArrayList<Expression>();
+			for (Expression arg : ((Not) expr).getArgs())
+				args.add(rewrite(arg));
+			return new Not(null, args);
+		}
+
+		return expr;
+	}
+
+	private static void flatten(Expression expr, Class<?> type, List<Expression> operands) {
+		if (expr.getClass() == type) {
+			BinaryExpression b = (BinaryExpression) expr;
+			flatten(b.getLhs(), type, operands);
+			flatten(b.getRhs(), type, operands);
+		} else {
+			operands.add(expr);
+		}
+	}
+
+	private static Expression fold(Expression expr) {
+		Object value;
+		try {
+			value = expr.eval(null);
+		} catch (RuntimeException e) {
+			// let interpreter raise same error at runtime
+			return expr;
+		}
+
+		if (value == null)
+			return new NullConstant();
+		if (value instanceof Boolean)
+			return new BooleanConstant((Boolean) value);
+		if (value instanceof Number)
+			return new NumberConstant((Number) value);
+		return expr;
+	}
+
+	private static boolean isConstant(Expression expr) {
+		return expr instanceof NumberConstant || expr instanceof StringConstant || expr instanceof BooleanConstant
+				|| expr instanceof NullConstant;
+	}
+
+	private static boolean isPure(Expression expr) {
+		if (!pureTypes.contains(expr.getClass()))
+			return false;
+
+		if (expr instanceof BinaryExpression) {
+			BinaryExpression b = (BinaryExpression) expr;
+			return isPure(b.getLhs()) && isPure(b.getRhs());
+		}
+
+		if (expr instanceof FunctionExpression) {
+			for (Expression arg : ((FunctionExpression) expr).getArgs())
+				if (!isPure(arg))
+					return false;
+		}
+
+		return true;
+	}
+
+	private static int getArithmeticOp(Expression expr) {
+		Class<?> c = expr.getClass();
+		if (c == Add.class)
+			return ADD;
+		if (c == Sub.class)
+			return SUB;
+		if (c == Mul.class)
+			return MUL;
+		if (c == Div.class)
+			return DIV;
+		return -1;
+	}
+
+	private static int getComparisonOp(Expression expr) {
+		Class<?> c = expr.getClass();
+		if (c == Eq.class)
+			return EQ;
+		if (c == Neq.class)
+			return NEQ;
+		if (c == Gt.class)
+			return GT;
+		if (c == Gte.class)
+			return GTE;
+		if (c == Lt.class)
+			return LT;
+		if (c == Lte.class)
+			return LTE;
+		return -1;
+	}
+
+	private static boolean isTrue(Object o) {
+		if (o instanceof Boolean)
+			return (Boolean) o;
+		return o != null;
+	}
+
+	private static boolean isIntegral(Object o) {
+		return o instanceof Long || o instanceof Integer || o instanceof Short;
+	}
+
+	private static boolean test(int op, int cmp) {
+		switch (op) {
+		case EQ:
+			return cmp == 0;
+		case NEQ:
+			return cmp != 0;
+		case GT:
+			return cmp > 0;
+		case GTE:
+			return cmp >= 0;
+		case LT:
+			return cmp < 0;
+		default:
+			return cmp <= 0;
+		}
+	}
+
+	/**
+	 * Base of compiled nodes, query string is generated from original tree.
+	 */
+	private static abstract class CompiledExpression implements Expression {
+		private final Expression source;
+
+		public CompiledExpression(Expression source) {
+			this.source = source;
+		}
+
+		@Override
+		public String toString() {
+			return source.toString();
+		}
+	}
+
+	/**
+	 * Flattened and/or chain. Every operand is evaluated unless all operands
+	 * are pure, same as interpreter.
+	 */
+	private static class Junction extends CompiledExpression {
+		private final boolean and;
+		private final Expression[] operands;
+		private final boolean shortCircuit;
+
+		public Junction(Expression source, boolean and, Expression[] operands, boolean shortCircuit) {
+			super(source);
+			this.and = and;
+			this.operands = operands;
+			this.shortCircuit = shortCircuit;
+		}
+
+		@Override
+		public Object eval(Row row) {
+			if (shortCircuit) {
+				for (Expression operand : operands)
+					if (isTrue(operand.eval(row)) != and)
+						return !and;
+				return and;
+			}
+
+			boolean ret = and;
+			for (Expression operand : operands) {
+				if (and)
+					ret &= isTrue(operand.eval(row));
+				else
+					ret |= isTrue(operand.eval(row));
+			}
+			return ret;
+		}
+	}
+
+	private static class Arithmetic extends CompiledExpression {
+		private final int op;
+		private final Expression lhs;
+		private final Expression rhs;
+
+		public Arithmetic(Expression source, int op, Expression lhs, Expression rhs) {
+			super(source);
+			this.op = op;
+			this.lhs = lhs;
+			this.rhs = rhs;
+		}
+
+		@Override
+		public Object eval(Row row) {
+			Object l = lhs.eval(row);
+			Object r = rhs.eval(row);
+
+			if ((l instanceof Long || l instanceof Integer) && (r instanceof Long || r instanceof Integer)) {
+				long a = ((Number) l).longValue();
+				long b = ((Number) r).longValue();
+				switch (op) {
+				case ADD:
+					return a + b;
+				case SUB:
+					return a - b;
+				case MUL:
+					return a * b;
+				default:
+					return (double) a / (double) b;
+				}
+			}
+
+			switch (op) {
+			case ADD:
+				return NumberUtil.add(l, r);
+			case SUB:
+				return NumberUtil.sub(l, r);
+			case MUL:
+				return NumberUtil.mul(l, r);
+			default:
+				return NumberUtil.div(l, r);
+			}
+		}
+	}
+
+	/**
+	 * Comparison of two non-constant operands
+	 */
+	private static class Comparison extends CompiledExpression {
+		private final ObjectComparator cmp = new ObjectComparator();
+		private final int op;
+		private final Expression lhs;
+		private final Expression rhs;
+
+		public Comparison(Expression source, int op, Expression lhs, Expression rhs) {
+			super(source);
+			this.op = op;
+			this.lhs = lhs;
+			this.rhs = rhs;
+		}
+
+		@Override
+		public Object eval(Row row) {
+			Object l = lhs.eval(row);
+			if ((op == EQ || op == NEQ) && l == null)
+				return false;
+
+			Object r = rhs.eval(row);
+			if ((op == EQ || op == NEQ) && r == null)
+				return false;
+
+			if (isIntegral(l) && isIntegral(r)) {
+				long a = ((Number) l).longValue();
+				long b = ((Number) r).longValue();
+				return test(op, a == b ? 0 : (a < b ? -1 : 1));
+			}
+
+			return test(op, cmp.compare(l, r));
+		}
+	}
+
+	/**
+	 * Comparison with numeric constant, operands are swapped if constant is
+	 * on the left side.
+	 */
+	private static class ConstantComparison extends CompiledExpression {
+		private final ObjectComparator cmp = new ObjectComparator();
+		private final int op;
+		private final Expression operand;
+		private final Number constant;
+		private final boolean integralConstant;
+		private final long longValue;
+		private final double doubleValue;
+		private final boolean swapped;
+
+		public ConstantComparison(Expression source, int op, Expression operand, Number constant, boolean swapped) {
+			super(source);
+			this.op = op;
+			this.operand = operand;
+			this.constant = constant;
+			this.integralConstant = isIntegral(constant);
+			this.longValue = constant.longValue();
+			this.doubleValue = constant.doubleValue();
+			this.swapped = swapped;
+		}
+
+		@Override
+		public Object eval(Row row) {
+			Object o = operand.eval(row);
+			if ((op == EQ || op == NEQ) && o == null)
+				return false;
+
+			int c;
+			if (integralConstant && isIntegral(o)) {
+				long v = ((Number) o).longValue();
+				c = v == longValue ? 0 : (v < longValue ? -1 : 1);
+			} else if (o instanceof Double) {
+				c = Double.compare((Double) o, doubleValue);
+			} else {
+				c = cmp.compare(o, constant);
+			}
+
+			return test(op, swapped ? -c : c);
+		}
+	}
+}
@@ -45,6 +45,13 @@ public abstract class FunctionExpression implements Expression {
 		}
 	}
 	
+	/**
+	 * @since 2.6.15
+	 */
+	public Collection<Expression> getArgs() {
+		return args;
+	}
+
 	@Override
 	public String toString() {
 		return name + "(" + Strings.join(args, ", ") + ")";
@@ -19,7 +19,6 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.araqne.logdb.QueryContext;
@@ -41,7 +40,6 @@ public class In extends FunctionExpression {
 		private String operand;
 		private Pattern pattern;
 		private StringMatchMethod matchMethod;
-		private Matcher matcher;
 
 		public StringMatcher(String s) {
 			this.term = s;
@@ -59,10 +57,9 @@ public class In extends FunctionExpression {
 				operand = term.substring(1, last);
 			} else {
 				pattern = Strings.tryBuildPattern(term);
-				if (pattern != null) {
+				if (pattern != null)
 					matchMethod = StringMatchMethod.PATTERN;
-					matcher = pattern.matcher("");
-				} else
+				else
 					matchMethod = StringMatchMethod.EQUALS;
 			}
 		}
@@ -80,7 +77,9 @@ public class In extends FunctionExpression {
 				case CONTAINS:
 					return token.contains(operand);
 				case PATTERN:
-					return matcher.reset(token).matches();
+					// new matcher for each call, expression can be evaluated
+					// concurrently
+					return pattern.matcher(token).matches();
 				default:
 					throw new IllegalStateException("bad match method: " + matchMethod.toString());
 				}
@@ -78,6 +78,7 @@ public class TableParser extends AbstractQueryCommandParser {
 		m.put("10606", new QueryErrorMessage("no-read-permission", "테이블 [table] 읽기 권한이 없습니다."));
 		m.put("10607", new QueryErrorMessage("table-not-found", "테이블 [table]이(가) 존재하지 않습니다."));
 		m.put("10608", new QueryErrorMessage("no-read-permission", "테이블 [table] 읽기 권한이 없습니다."));
+		m.put("10609", new QueryErrorMessage("invalid-parallel", "parallel 값은 1보다 크거나 같아야 합니다: 입력값=[parallel]."));
 		return m;
 	}
 
@@ -89,7 +90,7 @@ public class TableParser extends AbstractQueryCommandParser {
 			throw new QueryParseException("10600",  -1, -1, null);
 
 		ParseResult r = QueryTokenizer.parseOptions(context, commandString, getCommandName().length(),
-				Arrays.asList("from", "to", "offset", "limit", "duration", "parser", "order", "window", "raw"),
+				Arrays.asList("from", "to", "offset", "limit", "duration", "parser", "order", "window", "raw", "parallel"),
 				getFunctionRegistry());
 		Map<String, String> options = (Map<String, String>) r.value;
 		String tableTokens = commandString.substring(r.next);
@@ -158,6 +159,23 @@ public class TableParser extends AbstractQueryCommandParser {
 		}
 
 		TableParams params = new TableParams();
+		if (options.containsKey("parallel")) {
+			String s = options.get("parallel");
+			int parallel = 0;
+			try {
+				parallel = Integer.parseInt(s);
+			} catch (NumberFormatException e) {
+			}
+
+			if (parallel < 1) {
+				Map<String, String> param = new HashMap<String, String>();
+				param.put("parallel", s);
+				int offsetS = QueryTokenizer.findKeyword(commandString, s);
+				throw new QueryParseException("10609", offsetS, offsetS + s.length() - 1, param);
+			}
+			params.setParallelism(parallel);
+		}
+
 		params.setTableSpecs(tableNames);
 		params.setOffset(offset);
 		params.setLimit(limit);
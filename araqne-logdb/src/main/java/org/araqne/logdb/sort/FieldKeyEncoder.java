@@ -0,0 +1,46 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.sort;
+
+import java.util.Map;
+
+/**
+ * Encodes fields of map item key. Each field is compared using
+ * {@link org.araqne.logdb.ObjectComparator}, and null is the smallest value.
+ *
+ * @since 2.6.15
+ */
+public class FieldKeyEncoder implements SortKeyEncoder {
+	private String[] names;
+	private boolean[] asc;
+
+	public FieldKeyEncoder(String[] names, boolean[] asc) {
+		this.names = names;
+		this.asc = asc;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public byte[] encode(Item item) {
+		Map<String, Object> m = (Map<String, Object>) item.getKey();
+		SortKeyBuffer buf = new SortKeyBuffer();
+		for (int i = 0; i < names.length; i++)
+			if (!buf.add(m.get(names[i]), asc[i]))
+				return null;
+
+		return buf.toByteArray();
+	}
+}
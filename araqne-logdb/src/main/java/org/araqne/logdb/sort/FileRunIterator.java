@@ -16,14 +16,12 @@
 package org.araqne.logdb.sort;
 
 import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.ByteBuffer;
 import java.util.NoSuchElementException;
 
-import org.araqne.codec.EncodingRule;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,27 +29,30 @@ class FileRunIterator implements CloseableIterator {
 	private final Logger logger = LoggerFactory.getLogger(FileRunIterator.class);
 	private static final int READ_BUFFER_SIZE = 1024 * 128;
 	private File f;
-	private InputStream bis;
+	private DataInputStream bis;
 	private Item next;
-	private byte[] buf = new byte[640 * 1024];
-	private byte[] intbuf = new byte[4];
+	private RunBlockReader blockReader = new RunBlockReader();
+	private byte[] block;
+	private int blockPos;
 
 	public FileRunIterator(File f) throws IOException {
 		this.f = f;
-		bis = new BufferedInputStream(new FileInputStream(f), READ_BUFFER_SIZE);
+		bis = new DataInputStream(new BufferedInputStream(new FileInputStream(f), READ_BUFFER_SIZE));
 	}
 
 	@Override
 	public boolean hasNext() {
 		if (next == null) {
 			try {
-				int readBytes = IoHelper.ensureRead(bis, intbuf, 4);
+				if (block == null || blockPos >= block.length) {
+					block = blockReader.read(bis);
+					blockPos = 0;
+				}
 
-				if (readBytes == 4) {
-					int len = IoHelper.decodeInt(intbuf);
-					readBytes = IoHelper.ensureRead(bis, buf, len);
-					if (readBytes == len)
-						next = (Item) EncodingRule.decode(ByteBuffer.wrap(buf, 0, len), SortCodec.instance);
+				if (block != null) {
+					RunEntry e = RunBlockReader.parse(block, blockPos);
+					blockPos = e.offset + e.length;
+					next = e.getItem();
 				}
 			} catch (IOException e) {
 				try {
@@ -82,6 +83,7 @@ class FileRunIterator implements CloseableIterator {
 
 	@Override
 	public void close() throws IOException {
+		blockReader.close();
 		bis.close();
 		f.delete();
 	}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.sort;
+
+/**
+ * Encodes whole item key using {@link org.araqne.logdb.ObjectComparator}
+ * order.
+ *
+ * @since 2.6.15
+ */
+public class ObjectKeyEncoder implements SortKeyEncoder {
+	@Override
+	public byte[] encode(Item item) {
+		SortKeyBuffer buf = new SortKeyBuffer();
+		if (!buf.add(item.getKey(), true))
+			return null;
+		return buf.toByteArray();
+	}
+}
@@ -25,14 +25,9 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.PriorityQueue;
 import java.util.Queue;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.ThreadPoolExecutor.CallerRunsPolicy;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
@@ -47,11 +42,15 @@ public class ParallelMergeSorter {
 	private Queue<PartitionMergeTask> merges = new LinkedBlockingQueue<PartitionMergeTask>();
 	private LinkedList<Item> buffer;
 	private Comparator<Item> comparator;
+	private SortKeyEncoder keyEncoder;
 	private AtomicInteger runIndexer;
 	private volatile int flushTaskCount;
 	private AtomicInteger cacheCount;
 	private Object flushDoneSignal = new Object();
-	private ExecutorService executor;
+	private Object owner;
+
+	// registered at first task submission, so that owner can be set
+	private SortScheduler.Client scheduler;
 	private CountDownLatch mergeLatch;
 	private volatile boolean canceled;
 
@@ -67,32 +66,44 @@ public class ParallelMergeSorter {
 	}
 
 	public ParallelMergeSorter(Comparator<Item> comparator, int runLength, int memoryRunCount) {
+		this(comparator, runLength, memoryRunCount, null);
+	}
+
+	public ParallelMergeSorter(Comparator<Item> comparator, SortKeyEncoder keyEncoder) {
+		this(comparator, DEFAULT_RUN_LENGTH, DEFAULT_CACHE_SIZE, keyEncoder);
+	}
+
+	/**
+	 * @param keyEncoder
+	 *            normalized key encoder which follows comparator order. merge
+	 *            compares encoded keys of run files without decoding items.
+	 *            comparator is used for all items if null.
+	 */
+	public ParallelMergeSorter(Comparator<Item> comparator, int runLength, int memoryRunCount, SortKeyEncoder keyEncoder) {
 		this.runLength = runLength;
 		this.comparator = comparator;
+		this.keyEncoder = keyEncoder;
 		this.buffer = new LinkedList<Item>();
 		this.runIndexer = new AtomicInteger();
-		this.executor = new ThreadPoolExecutor(8, 8, 10, TimeUnit.SECONDS, new LimitedQueue<Runnable>(8), new CallerRunsPolicy());
 		this.cacheCount = new AtomicInteger(memoryRunCount);
 	}
 
-	public class LimitedQueue<E> extends ArrayBlockingQueue<E> {
-		private static final long serialVersionUID = 1L;
-
-		public LimitedQueue(int maxSize) {
-			super(maxSize);
-		}
+	/**
+	 * Sorters of same owner share one fair share of engine-wide sort workers.
+	 * Should be called before first add().
+	 * 
+	 * @param owner
+	 *            owner query, or null if sorter has own share
+	 * @since 2.6.15
+	 */
+	public void setOwner(Object owner) {
+		this.owner = owner;
+	}
 
-		@Override
-		public boolean offer(E e) {
-			// turn offer() and add() into a blocking calls (unless interrupted)
-			try {
-				put(e);
-				return true;
-			} catch (InterruptedException ie) {
-				Thread.currentThread().interrupt();
-			}
-			return false;
-		}
+	private SortScheduler.Client getScheduler() {
+		if (scheduler == null)
+			scheduler = SortScheduler.getInstance().register(owner);
+		return scheduler;
 	}
 
 	public void add(Item item) throws IOException {
@@ -122,7 +133,7 @@ public class ParallelMergeSorter {
 		synchronized (flushDoneSignal) {
 			flushTaskCount++;
 		}
-		executor.submit(new FlushWorker(buffered));
+		getScheduler().submit(new FlushWorker(buffered));
 	}
 
 	public CloseableIterator sort() throws IOException {
@@ -136,7 +147,8 @@ public class ParallelMergeSorter {
 			logger.trace("merge ended");
 			return it;
 		} finally {
-			executor.shutdown();
+			if (scheduler != null)
+				scheduler.close();
 		}
 	}
 
@@ -262,7 +274,7 @@ public class ParallelMergeSorter {
 		mergeLatch = new CountDownLatch(tasks.size());
 		for (PartitionMergeTask task : tasks) {
 			merges.add(task);
-			executor.submit(new MergeWorker(task));
+			getScheduler().submit(new MergeWorker(task));
 		}
 
 		// wait partition merge
@@ -321,7 +333,7 @@ public class ParallelMergeSorter {
 			Collections.sort(buffered, comparator);
 
 			int id = runIndexer.incrementAndGet();
-			RunOutput out = new RunOutput(id, buffered.size(), cacheCount);
+			RunOutput out = new RunOutput(id, buffered.size(), cacheCount, keyEncoder);
 			try {
 				for (Item o : buffered)
 					out.write(o);
@@ -396,18 +408,18 @@ public class ParallelMergeSorter {
 		try {
 			int total = 0;
 			for (Run r : runs) {
-				inputs.add(new RunInput(r, cacheCount));
+				inputs.add(new RunInput(r, cacheCount, keyEncoder));
 				total += r.length;
 			}
 
 			int id = runIndexer.incrementAndGet();
-			r3 = new RunOutput(id, total, cacheCount, true);
+			r3 = new RunOutput(id, total, cacheCount, true, keyEncoder);
 
 			while (!canceled) {
 				// load next inputs
 				for (RunInput input : inputs) {
 					if (input.loaded == null && input.hasNext()) {
-						input.loaded = input.next();
+						input.loaded = input.nextEntry();
 						q.add(new RunItem(input, input.loaded));
 					}
 				}
@@ -416,7 +428,7 @@ public class ParallelMergeSorter {
 				if (item == null)
 					break;
 
-				r3.write(item.item);
+				r3.write(item.entry);
 				item.runInput.loaded = null;
 			}
 		} finally {
@@ -435,18 +447,22 @@ public class ParallelMergeSorter {
 
 		@Override
 		public int compare(RunItem o1, RunItem o2) {
-			return comparator.compare(o1.item, o2.item);
+			byte[] k1 = o1.entry.key;
+			byte[] k2 = o2.entry.key;
+			if (k1 != null && k2 != null)
+				return SortKeyBuffer.compare(k1, k2);
+			return comparator.compare(o1.entry.getItem(), o2.entry.getItem());
 		}
 
 	}
 
 	private static class RunItem {
 		private RunInput runInput;
-		private Item item;
+		private RunEntry entry;
 
-		public RunItem(RunInput runInput, Item item) {
+		public RunItem(RunInput runInput, RunEntry entry) {
 			this.runInput = runInput;
-			this.item = item;
+			this.entry = entry;
 		}
 	}
 
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.sort;
+
+import java.io.DataInput;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Reads and uncompresses run file blocks written by {@link RunOutput}. New
+ * array is allocated for each block, so returned entries remain valid after
+ * next block is loaded.
+ */
+class RunBlockReader {
+	private RunCompression[] codecs = new RunCompression[3];
+	private byte[] compressed = new byte[0];
+
+	/**
+	 * @return uncompressed block, or null if end of file is reached
+	 */
+	public byte[] read(DataInput in) throws IOException {
+		byte codec;
+		try {
+			codec = in.readByte();
+		} catch (EOFException e) {
+			return null;
+		}
+
+		int rawLength = in.readInt();
+		int storedLength = in.readInt();
+		byte[] block = new byte[rawLength];
+		if (codec == RunCompression.NONE) {
+			in.readFully(block);
+			return block;
+		}
+
+		if (codec < 0 || codec >= codecs.length)
+			throw new IOException("unsupported run block codec: " + codec);
+
+		if (compressed.length < storedLength)
+			compressed = new byte[storedLength];
+		in.readFully(compressed, 0, storedLength);
+
+		RunCompression c = codecs[codec];
+		if (c == null)
+			c = codecs[codec] = RunCompression.newInstance(codec);
+
+		c.uncompress(compressed, 0, storedLength, block, rawLength);
+		return block;
+	}
+
+	/**
+	 * @return record at specified block position
+	 */
+	public static RunEntry parse(byte[] block, int pos) {
+		int keyLength = getInt(block, pos);
+		pos += 4;
+
+		byte[] key = null;
+		if (keyLength >= 0) {
+			key = new byte[keyLength];
+			System.arraycopy(block, pos, key, 0, keyLength);
+			pos += keyLength;
+		}
+
+		int length = getInt(block, pos);
+		return new RunEntry(key, block, pos + 4, length);
+	}
+
+	public void close() {
+		for (RunCompression c : codecs)
+			if (c != null)
+				c.close();
+	}
+
+	public static int getInt(byte[] b, int offset) {
+		return ((b[offset] & 0xff) << 24) | ((b[offset + 1] & 0xff) << 16) | ((b[offset + 2] & 0xff) << 8)
+				| (b[offset + 3] & 0xff);
+	}
+
+	public static void putInt(byte[] b, int offset, int n) {
+		b[offset] = (byte) (n >> 24);
+		b[offset + 1] = (byte) (n >> 16);
+		b[offset + 2] = (byte) (n >> 8);
+		b[offset + 3] = (byte) n;
+	}
+}
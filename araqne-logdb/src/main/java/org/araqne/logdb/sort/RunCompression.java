@@ -0,0 +1,165 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.sort;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xerial.snappy.Snappy;
+
+/**
+ * Block compression of run file. Codec is selected by araqne.sort.compression
+ * system property (none, deflate or snappy, default: none). Codec id is stored
+ * in each block header, so reader does not depend on current setting.
+ */
+abstract class RunCompression {
+	public static final byte NONE = 0;
+	public static final byte DEFLATE = 1;
+	public static final byte SNAPPY = 2;
+
+	private static final Logger logger = LoggerFactory.getLogger(RunCompression.class);
+
+	private static volatile boolean snappyFailed;
+
+	public static byte getConfiguredCodec() {
+		String s = System.getProperty("araqne.sort.compression", "none");
+		if (s.equals("deflate"))
+			return DEFLATE;
+		if (s.equals("snappy") && !snappyFailed)
+			return SNAPPY;
+		return NONE;
+	}
+
+	/**
+	 * @return null for none
+	 */
+	public static RunCompression newInstance(byte codec) {
+		if (codec == DEFLATE)
+			return new DeflateRunCompression();
+		if (codec == SNAPPY)
+			return new SnappyRunCompression();
+		return null;
+	}
+
+	public abstract byte getCodec();
+
+	/**
+	 * @return compressed length, or -1 if block is not compressible
+	 */
+	public abstract int compress(byte[] b, int offset, int length) throws IOException;
+
+	/**
+	 * @return compressed buffer which is valid until next compress() call
+	 */
+	public abstract byte[] getOutput();
+
+	public abstract void uncompress(byte[] b, int offset, int length, byte[] output, int outputLength) throws IOException;
+
+	public void close() {
+	}
+
+	private static class DeflateRunCompression extends RunCompression {
+		private Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		private Inflater inflater = new Inflater();
+		private byte[] output = new byte[0];
+
+		@Override
+		public byte getCodec() {
+			return DEFLATE;
+		}
+
+		@Override
+		public int compress(byte[] b, int offset, int length) throws IOException {
+			if (output.length < length)
+				output = new byte[length];
+
+			deflater.reset();
+			deflater.setInput(b, offset, length);
+			deflater.finish();
+			int size = deflater.deflate(output, 0, length);
+			if (!deflater.finished() || size >= length)
+				return -1;
+			return size;
+		}
+
+		@Override
+		public byte[] getOutput() {
+			return output;
+		}
+
+		@Override
+		public void uncompress(byte[] b, int offset, int length, byte[] out, int outputLength) throws IOException {
+			inflater.reset();
+			inflater.setInput(b, offset, length);
+			try {
+				int size = inflater.inflate(out, 0, outputLength);
+				if (size != outputLength)
+					throw new IOException("broken run block, expected=" + outputLength + ", actual=" + size);
+			} catch (DataFormatException e) {
+				throw new IOException(e);
+			}
+		}
+
+		@Override
+		public void close() {
+			deflater.end();
+			inflater.end();
+		}
+	}
+
+	private static class SnappyRunCompression extends RunCompression {
+		private byte[] output = new byte[0];
+
+		@Override
+		public byte getCodec() {
+			return SNAPPY;
+		}
+
+		@Override
+		public int compress(byte[] b, int offset, int length) throws IOException {
+			try {
+				int max = Snappy.maxCompressedLength(length);
+				if (output.length < max)
+					output = new byte[max];
+
+				int size = Snappy.compress(b, offset, length, output, 0);
+				return size < length ? size : -1;
+			} catch (LinkageError e) {
+				// snappy is optional, write uncompressed blocks from now
+				if (!snappyFailed)
+					logger.warn("araqne logdb: snappy is not available, disable run compression", e);
+				snappyFailed = true;
+				return -1;
+			}
+		}
+
+		@Override
+		public byte[] getOutput() {
+			return output;
+		}
+
+		@Override
+		public void uncompress(byte[] b, int offset, int length, byte[] out, int outputLength) throws IOException {
+			int size = Snappy.uncompress(b, offset, length, out, 0);
+			if (size != outputLength)
+				throw new IOException("broken run block, expected=" + outputLength + ", actual=" + size);
+		}
+	}
+}
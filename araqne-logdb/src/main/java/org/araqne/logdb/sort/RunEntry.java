@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.sort;
+
+import java.nio.ByteBuffer;
+
+import org.araqne.codec.EncodingRule;
+
+/**
+ * Item of run with its normalized sort key. Item of file run is decoded only
+ * when it is requested.
+ */
+class RunEntry {
+	// normalized sort key, can be null
+	public byte[] key;
+
+	// encoded item, slice of run block
+	public byte[] buf;
+	public int offset;
+	public int length;
+
+	private Item item;
+
+	public RunEntry(byte[] key, Item item) {
+		this.key = key;
+		this.item = item;
+	}
+
+	public RunEntry(byte[] key, byte[] buf, int offset, int length) {
+		this.key = key;
+		this.buf = buf;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	public boolean isEncoded() {
+		return buf != null;
+	}
+
+	public Item getItem() {
+		if (item == null)
+			item = (Item) EncodingRule.decode(ByteBuffer.wrap(buf, offset, length), SortCodec.instance);
+		return item;
+	}
+}
@@ -16,56 +16,73 @@
 package org.araqne.logdb.sort;
 
 import java.io.BufferedInputStream;
-import java.io.File;
+import java.io.DataInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import org.araqne.codec.EncodingRule;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 class RunInput {
 	private static final int READ_BUFFER_SIZE = 1024 * 128;
 	private final Logger logger = LoggerFactory.getLogger(RunInput.class);
-	private ThreadLocal<byte[]> readBuffer = new ThreadLocal<byte[]>() {
-		@Override
-		protected byte[] initialValue() {
-			return new byte[640 * 1024];
-		}
-	};
 
 	private Run run;
 	public Iterator<Item> cachedIt;
 	public BufferedInputStream bis;
-	public Item loaded;
+	public RunEntry loaded;
 
 	private FileInputStream fis;
-	private Item prefetch;
-	private byte[] intbuf = new byte[4];
+	private DataInputStream dis;
+	private RunEntry prefetch;
 	private int loadCount;
 	private AtomicInteger cacheCount;
+	private SortKeyEncoder keyEncoder;
+
+	private RunBlockReader blockReader;
+	private byte[] block;
+	private int blockPos;
 
 	public RunInput(Run run, AtomicInteger cacheCount) throws IOException {
+		this(run, cacheCount, null);
+	}
+
+	public RunInput(Run run, AtomicInteger cacheCount, SortKeyEncoder keyEncoder) throws IOException {
 		this.run = run;
 		this.cacheCount = cacheCount;
+		this.keyEncoder = keyEncoder;
 
 		if (run.cached != null) {
 			cachedIt = run.cached.iterator();
 		} else {
 			this.fis = new FileInputStream(run.dataFile);
+			this.blockReader = new RunBlockReader();
+
+			int skipInBlock = 0;
 			if (run.offset > 0) {
 				logger.debug("araqne logdb: run input #{}, offset #{}", run.id, run.offset);
 				// index file must exists here
-				long skip = readSkipLength(run.indexFile, run.offset);
-				fis.skip(skip);
+				RandomAccessFile raf = new RandomAccessFile(run.indexFile, "r");
+				try {
+					raf.seek((long) RunOutput.INDEX_ENTRY_SIZE * run.offset);
+					fis.skip(raf.readLong());
+					skipInBlock = raf.readInt();
+				} finally {
+					raf.close();
+				}
 			}
 
 			this.bis = new BufferedInputStream(fis, READ_BUFFER_SIZE);
+			this.dis = new DataInputStream(bis);
+
+			if (skipInBlock > 0) {
+				block = blockReader.read(dis);
+				blockPos = skipInBlock;
+			}
 		}
 	}
 
@@ -73,16 +90,6 @@ class RunInput {
 		return run.id;
 	}
 
-	private long readSkipLength(File indexFile, int offset) throws IOException {
-		RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
-		try {
-			raf.seek(8 * offset);
-			return raf.readLong();
-		} finally {
-			raf.close();
-		}
-	}
-
 	public boolean hasNext() {
 		if (loadCount >= run.length)
 			return false;
@@ -92,20 +99,22 @@ class RunInput {
 
 		if (cachedIt != null) {
 			if (cachedIt.hasNext()) {
-				prefetch = cachedIt.next();
+				Item item = cachedIt.next();
+				prefetch = new RunEntry(keyEncoder != null ? keyEncoder.encode(item) : null, item);
 				return true;
 			} else
 				return false;
 		}
 
 		try {
-			int readBytes = IoHelper.ensureRead(bis, intbuf, 4);
-			if (readBytes == 4) {
-				int len = IoHelper.decodeInt(intbuf);
-				byte[] buf = readBuffer.get();
-				readBytes = IoHelper.ensureRead(bis, buf, len);
-				if (readBytes == len)
-					prefetch = (Item) EncodingRule.decode(ByteBuffer.wrap(buf, 0, len), SortCodec.instance);
+			if (block == null || blockPos >= block.length) {
+				block = blockReader.read(dis);
+				blockPos = 0;
+			}
+
+			if (block != null) {
+				prefetch = RunBlockReader.parse(block, blockPos);
+				blockPos = prefetch.offset + prefetch.length;
 			}
 		} catch (IOException e) {
 			logger.error("araqne logdb: cannot read run", e);
@@ -114,9 +123,13 @@ class RunInput {
 	}
 
 	public Item next() throws IOException {
+		return nextEntry().getItem();
+	}
+
+	public RunEntry nextEntry() throws IOException {
 		if (!hasNext())
 			throw new NoSuchElementException();
-		Item ret = prefetch;
+		RunEntry ret = prefetch;
 		prefetch = null;
 		loadCount++;
 		return ret;
@@ -125,6 +138,9 @@ class RunInput {
 	public void purge() {
 		ensureClose(bis, fis);
 
+		if (blockReader != null)
+			blockReader.close();
+
 		if (run.indexFile != null)
 			run.indexFile.delete();
 
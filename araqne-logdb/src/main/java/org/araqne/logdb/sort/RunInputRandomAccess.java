@@ -17,9 +17,7 @@ package org.araqne.logdb.sort;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
 
-import org.araqne.codec.EncodingRule;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,7 +26,11 @@ class RunInputRandomAccess {
 	public Run run;
 	private RandomAccessFile indexRaf;
 	private RandomAccessFile dataRaf;
-	private byte[] buf = new byte[64 * 1024];
+	private RunBlockReader blockReader = new RunBlockReader();
+
+	// last loaded block
+	private byte[] block;
+	private long blockOffset = -1;
 
 	public RunInputRandomAccess(Run run) throws IOException {
 		this.run = run;
@@ -48,20 +50,24 @@ class RunInputRandomAccess {
 		if (run.cached != null)
 			return run.cached.get((int) offset);
 
-		indexRaf.seek(8 * offset);
+		indexRaf.seek(RunOutput.INDEX_ENTRY_SIZE * offset);
 		long pos = indexRaf.readLong();
+		int posInBlock = indexRaf.readInt();
 
-		dataRaf.seek(pos);
-		int len = dataRaf.readInt();
-
-		int readBytes = dataRaf.read(buf, 0, len);
-		if (readBytes != len)
-			throw new IOException("insufficient merge data block, expected=" + len + ", actual=" + readBytes);
+		if (pos != blockOffset) {
+			dataRaf.seek(pos);
+			block = blockReader.read(dataRaf);
+			if (block == null)
+				throw new IOException("insufficient merge data block, offset=" + pos);
+			blockOffset = pos;
+		}
 
-		return (Item) EncodingRule.decode(ByteBuffer.wrap(buf, 0, len), SortCodec.instance);
+		return RunBlockReader.parse(block, posInBlock).getItem();
 	}
 
 	public void close() {
+		blockReader.close();
+
 		if (indexRaf != null) {
 			try {
 				indexRaf.close();
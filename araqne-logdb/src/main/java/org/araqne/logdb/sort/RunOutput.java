@@ -20,6 +20,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -27,8 +28,20 @@ import org.araqne.codec.FastEncodingRule;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Writes sorted items to memory or run file. Run file is a sequence of blocks,
+ * and each block has header (codec 1 byte, raw length 4 bytes, stored length 4
+ * bytes) and records. Record has normalized sort key (length 4 bytes, -1 if
+ * not available) followed by encoded item (length 4 bytes), so merge can
+ * compare keys without decoding items. Index file has block offset (8 bytes)
+ * and record offset in block (4 bytes) for each item.
+ */
 class RunOutput {
 	private static final int WRITE_BUFFER_SIZE = 1024 * 1024 * 8;
+	static final int BLOCK_SIZE = 64 * 1024;
+	static final int BLOCK_HEADER_SIZE = 9;
+	static final int INDEX_ENTRY_SIZE = 12;
+
 	private final Logger logger = LoggerFactory.getLogger(RunOutput.class);
 	public BufferedOutputStream dataBos;
 
@@ -36,18 +49,26 @@ class RunOutput {
 	private BufferedOutputStream indexBos;
 	private FileOutputStream indexFos;
 	private FileOutputStream dataFos;
-	private byte[] intbuf = new byte[4];
-	private byte[] longbuf = new byte[8];
-	private long dataOffset;
+	private byte[] headerbuf = new byte[BLOCK_HEADER_SIZE];
+	private byte[] indexbuf = new byte[INDEX_ENTRY_SIZE];
 	private boolean noIndexWrite;
 	private FastEncodingRule enc = new FastEncodingRule();
+	private SortKeyEncoder keyEncoder;
+	private RunCompression compression;
 
-	public RunOutput(int id, int length, AtomicInteger cacheCount) throws IOException {
-		this(id, length, cacheCount, false);
+	// current block and its file offset
+	private byte[] block;
+	private int blockLength;
+	private long blockOffset;
+
+	public RunOutput(int id, int length, AtomicInteger cacheCount, SortKeyEncoder keyEncoder) throws IOException {
+		this(id, length, cacheCount, false, keyEncoder);
 	}
 
-	public RunOutput(int id, int length, AtomicInteger cacheCount, boolean noIndexWrite) throws IOException {
+	public RunOutput(int id, int length, AtomicInteger cacheCount, boolean noIndexWrite, SortKeyEncoder keyEncoder)
+			throws IOException {
 		this.noIndexWrite = noIndexWrite;
+		this.keyEncoder = keyEncoder;
 
 		int remainCacheSize = cacheCount.addAndGet(-length);
 		if (remainCacheSize >= 0) {
@@ -76,31 +97,99 @@ class RunOutput {
 			ReferenceCountedFile rcData = new ReferenceCountedFile(dataFile.getAbsolutePath());
 
 			this.run = new Run(id, length, rcIndex, rcData);
+			this.block = new byte[BLOCK_SIZE];
+			this.compression = RunCompression.newInstance(RunCompression.getConfiguredCodec());
 		}
 	}
 
 	public void write(Item o) throws IOException {
 		if (run.cached != null)
 			run.cached.add(o);
-		else {
-			ByteBuffer buf = enc.encode(o, SortCodec.instance);
-			int len = buf.remaining();
+		else
+			writeRecord(keyEncoder != null ? keyEncoder.encode(o) : null, o);
+	}
 
-			if (!noIndexWrite) {
-				IoHelper.encodeLong(longbuf, dataOffset);
-				indexBos.write(longbuf);
-			}
+	public void write(RunEntry e) throws IOException {
+		if (run.cached != null)
+			run.cached.add(e.getItem());
+		else if (e.isEncoded())
+			writeRecord(e.key, e.buf, e.offset, e.length);
+		else
+			writeRecord(e.key, e.getItem());
+	}
+
+	private void writeRecord(byte[] key, Item o) throws IOException {
+		ByteBuffer buf = enc.encode(o, SortCodec.instance);
+		writeRecord(key, buf.array(), 0, buf.remaining());
+		buf.clear();
+	}
+
+	private void writeRecord(byte[] key, byte[] b, int offset, int len) throws IOException {
+		int keyLength = key != null ? key.length : 0;
+		int recordLength = 8 + keyLength + len;
+		if (blockLength > 0 && blockLength + recordLength > BLOCK_SIZE)
+			flushBlock();
+
+		if (blockLength + recordLength > block.length)
+			block = Arrays.copyOf(block, blockLength + recordLength);
+
+		if (!noIndexWrite) {
+			IoHelper.encodeLong(indexbuf, blockOffset);
+			RunBlockReader.putInt(indexbuf, 8, blockLength);
+			indexBos.write(indexbuf);
+		}
+
+		RunBlockReader.putInt(block, blockLength, key != null ? keyLength : -1);
+		blockLength += 4;
+		if (key != null) {
+			System.arraycopy(key, 0, block, blockLength, keyLength);
+			blockLength += keyLength;
+		}
 
-			IoHelper.encodeInt(intbuf, len);
-			dataBos.write(intbuf);
-			dataBos.write(buf.array(), 0, len);
-			buf.clear();
+		RunBlockReader.putInt(block, blockLength, len);
+		blockLength += 4;
+		System.arraycopy(b, offset, block, blockLength, len);
+		blockLength += len;
+	}
 
-			dataOffset += 4 + len;
+	private void flushBlock() throws IOException {
+		if (blockLength == 0)
+			return;
+
+		byte codec = RunCompression.NONE;
+		byte[] stored = block;
+		int storedLength = blockLength;
+		if (compression != null) {
+			int compressed = compression.compress(block, 0, blockLength);
+			if (compressed > 0) {
+				codec = compression.getCodec();
+				stored = compression.getOutput();
+				storedLength = compressed;
+			}
 		}
+
+		headerbuf[0] = codec;
+		RunBlockReader.putInt(headerbuf, 1, blockLength);
+		RunBlockReader.putInt(headerbuf, 5, storedLength);
+		dataBos.write(headerbuf);
+		dataBos.write(stored, 0, storedLength);
+
+		blockOffset += BLOCK_HEADER_SIZE + storedLength;
+		blockLength = 0;
 	}
 
 	public Run finish() {
+		if (dataBos != null) {
+			try {
+				flushBlock();
+			} catch (IOException e) {
+				logger.error("araqne logdb: cannot write run block", e);
+			}
+		}
+
+		if (compression != null)
+			compression.close();
+
 		ensureClose(indexBos, indexFos);
 		ensureClose(dataBos, dataFos);
 
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.sort;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Builds byte-comparable sort key which follows {@link org.araqne.logdb.ObjectComparator} order.
+ * Each value is written as type tag and order preserving payload:
+ * <ul>
+ * <li>number: sortable double bits, then sortable long bits for tie break</li>
+ * <li>string: case folded chars (2 bytes), 0x000000 terminated. char 0 is
+ * escaped to 0x000001</li>
+ * <li>array: elements, 0x00 terminated</li>
+ * <li>map: tag only (all maps are equal)</li>
+ * </ul>
+ * Descending value is written as one's complement. Byte, blob and other types
+ * are not supported.
+ *
+ * @since 2.6.15
+ */
+public class SortKeyBuffer {
+	// same order with ObjectComparator type groups
+	private static final byte NULL = 1;
+	private static final byte BOOLEAN = 2;
+	private static final byte NUM = 3;
+	private static final byte DATE = 4;
+	private static final byte IPV4 = 5;
+	private static final byte IPV6 = 6;
+	private static final byte STRING = 7;
+	private static final byte ARRAY = 8;
+	private static final byte MAP = 9;
+
+	private byte[] buf;
+	private int len;
+
+	public SortKeyBuffer() {
+		this(64);
+	}
+
+	public SortKeyBuffer(int capacity) {
+		buf = new byte[capacity];
+	}
+
+	public void reset() {
+		len = 0;
+	}
+
+	public int length() {
+		return len;
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buf, len);
+	}
+
+	/**
+	 * @return false if value type is not supported. buffer state is undefined
+	 *         in that case.
+	 */
+	public boolean add(Object value, boolean asc) {
+		int begin = len;
+		if (!write(value))
+			return false;
+
+		if (!asc) {
+			for (int i = begin; i < len; i++)
+				buf[i] = (byte) ~buf[i];
+		}
+		return true;
+	}
+
+	private boolean write(Object value) {
+		if (value == null) {
+			put(NULL);
+		} else if (value instanceof Long || value instanceof Integer || value instanceof Short) {
+			long l = ((Number) value).longValue();
+			put(NUM);
+			putLong(sortableDouble(l));
+			putLong(l ^ Long.MIN_VALUE);
+		} else if (value instanceof Double || value instanceof Float) {
+			double d = ((Number) value).doubleValue();
+			long l = 0;
+			if (d == Math.rint(d) && d >= Long.MIN_VALUE && d <= Long.MAX_VALUE)
+				l = (long) d;
+
+			put(NUM);
+			putLong(sortableDouble(d));
+			putLong(l ^ Long.MIN_VALUE);
+		} else if (value instanceof String) {
+			String s = (String) value;
+			ensure(s.length() * 2 + 3);
+			put(STRING);
+			for (int i = 0; i < s.length(); i++) {
+				char c = Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+				if (c == 0) {
+					put((byte) 0);
+					put((byte) 0);
+					put((byte) 1);
+				} else {
+					put((byte) (c >> 8));
+					put((byte) c);
+				}
+			}
+			put((byte) 0);
+			put((byte) 0);
+			put((byte) 0);
+		} else if (value instanceof Object[]) {
+			put(ARRAY);
+			for (Object o : (Object[]) value)
+				if (!write(o))
+					return false;
+			put((byte) 0);
+		} else if (value instanceof Inet4Address) {
+			put(IPV4);
+			putSigned(((Inet4Address) value).getAddress());
+		} else if (value instanceof Boolean) {
+			put(BOOLEAN);
+			put((byte) ((Boolean) value ? 1 : 0));
+		} else if (value instanceof Date) {
+			put(DATE);
+			putLong(((Date) value).getTime() ^ Long.MIN_VALUE);
+		} else if (value instanceof Inet6Address) {
+			put(IPV6);
+			putSigned(((Inet6Address) value).getAddress());
+		} else if (value instanceof Map) {
+			put(MAP);
+		} else {
+			return false;
+		}
+
+		return true;
+	}
+
+	private static long sortableDouble(double d) {
+		// -0.0 < 0.0, NaN is greatest like Double.compare()
+		long bits = Double.doubleToLongBits(d);
+		return bits < 0 ? ~bits : bits ^ Long.MIN_VALUE;
+	}
+
+	// ObjectComparator compares address bytes as signed
+	private void putSigned(byte[] b) {
+		ensure(b.length);
+		for (byte v : b)
+			buf[len++] = (byte) (v ^ 0x80);
+	}
+
+	private void putLong(long l) {
+		ensure(8);
+		for (int shift = 56; shift >= 0; shift -= 8)
+			buf[len++] = (byte) (l >> shift);
+	}
+
+	private void put(byte b) {
+		ensure(1);
+		buf[len++] = b;
+	}
+
+	private void ensure(int n) {
+		if (len + n > buf.length)
+			buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n));
+	}
+
+	/**
+	 * unsigned lexicographic comparison
+	 */
+	public static int compare(byte[] b1, byte[] b2) {
+		int min = Math.min(b1.length, b2.length);
+		for (int i = 0; i < min; i++) {
+			int l = b1[i] & 0xff;
+			int r = b2[i] & 0xff;
+			if (l != r)
+				return l < r ? -1 : 1;
+		}
+
+		if (b1.length == b2.length)
+			return 0;
+		return b1.length < b2.length ? -1 : 1;
+	}
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.sort;
+
+/**
+ * Converts sort key of item to byte array. Unsigned lexicographic order of
+ * encoded keys should be same with the order of the comparator which is
+ * passed to {@link ParallelMergeSorter}.
+ *
+ * @since 2.6.15
+ */
+public interface SortKeyEncoder {
+	/**
+	 * @return normalized sort key, or null if key contains unsupported type.
+	 *         comparator is used for the item in that case.
+	 */
+	byte[] encode(Item item);
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.sort;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Engine-wide worker pool for run flush and partition merge of all
+ * {@link ParallelMergeSorter} instances. Each sorter has own task queue, and
+ * sorters are grouped by owner query. Workers pick next task from groups in
+ * round-robin order, and from sorters of the group in round-robin order, so a
+ * query with many sorters cannot starve other queries. Submitter blocks if its
+ * sorter already has too many pending tasks.
+ *
+ * Worker count can be set using araqne.logdb.sort.threads system property
+ * (default: available processors), or logdb.setSortThreads script command.
+ *
+ * @since 2.6.15
+ */
+public class SortScheduler {
+	private static final int DEFAULT_MAX_PENDING = 8;
+
+	private static final SortScheduler instance = new SortScheduler(Integer.getInteger("araqne.logdb.sort.threads", Runtime
+			.getRuntime().availableProcessors()));
+
+	private final Logger logger = LoggerFactory.getLogger(SortScheduler.class);
+
+	private final ThreadPoolExecutor executor;
+	private final AtomicInteger clientIndexer = new AtomicInteger();
+
+	// guarded by this. groups which have queued tasks
+	private final LinkedList<Group> ready = new LinkedList<Group>();
+
+	// guarded by this. groups by owner
+	private final Map<Object, Group> groups = new HashMap<Object, Group>();
+
+	// guarded by this. registered sorters for monitoring
+	private final Set<Client> clients = Collections.newSetFromMap(new WeakHashMap<Client, Boolean>());
+
+	public static SortScheduler getInstance() {
+		return instance;
+	}
+
+	public SortScheduler(int threads) {
+		threads = Math.max(1, threads);
+		this.executor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new SortThreadFactory());
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	public int getThreadCount() {
+		return executor.getMaximumPoolSize();
+	}
+
+	public void setThreadCount(int threads) {
+		threads = Math.max(1, threads);
+		if (threads > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(threads);
+			executor.setCorePoolSize(threads);
+		} else {
+			executor.setCorePoolSize(threads);
+			executor.setMaximumPoolSize(threads);
+		}
+	}
+
+	public Client register() {
+		return register(null, DEFAULT_MAX_PENDING);
+	}
+
+	public Client register(int maxPending) {
+		return register(null, maxPending);
+	}
+
+	public Client register(Object owner) {
+		return register(owner, DEFAULT_MAX_PENDING);
+	}
+
+	/**
+	 * @param owner
+	 *            sorters of same owner (e.g. query) share one fair share of
+	 *            workers. client has own share if null.
+	 */
+	public Client register(Object owner, int maxPending) {
+		synchronized (this) {
+			Group g = owner != null ? groups.get(owner) : null;
+			if (g == null) {
+				g = new Group(owner);
+				if (owner != null)
+					groups.put(owner, g);
+			}
+
+			Client c = new Client(clientIndexer.incrementAndGet(), g, maxPending);
+			g.clients++;
+			clients.add(c);
+			return c;
+		}
+	}
+
+	public Status getStatus() {
+		Status s = new Status();
+		s.threads = executor.getMaximumPoolSize();
+		s.poolSize = executor.getPoolSize();
+		s.activeThreads = executor.getActiveCount();
+
+		synchronized (this) {
+			for (Client c : clients) {
+				ClientStatus cs = new ClientStatus(c);
+				s.queued += cs.queued;
+				s.running += cs.running;
+				s.clients.add(cs);
+			}
+		}
+
+		return s;
+	}
+
+	private void dispatch() {
+		Client c = null;
+		Runnable task = null;
+		synchronized (this) {
+			Group g = ready.poll();
+			if (g == null)
+				return;
+
+			c = g.ready.poll();
+			task = c.tasks.poll();
+			c.running++;
+
+			// round robin in group, and between groups
+			if (!c.tasks.isEmpty())
+				g.ready.add(c);
+			if (!g.ready.isEmpty())
+				ready.add(g);
+
+			// wake up blocked submitter
+			notifyAll();
+		}
+
+		try {
+			task.run();
+		} catch (Throwable t) {
+			logger.error("araqne logdb: sort task failed", t);
+		} finally {
+			synchronized (this) {
+				c.running--;
+				c.completed++;
+			}
+		}
+	}
+
+	private static class Group {
+		private final Object owner;
+
+		// clients which have queued tasks
+		private final LinkedList<Client> ready = new LinkedList<Client>();
+
+		// registered client count
+		private int clients;
+
+		private Group(Object owner) {
+			this.owner = owner;
+		}
+	}
+
+	public class Client {
+		private final int id;
+		private final Group group;
+		private final int maxPending;
+
+		// guarded by scheduler
+		private final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+		private int running;
+		private long completed;
+		private boolean closed;
+
+		private Client(int id, Group group, int maxPending) {
+			this.id = id;
+			this.group = group;
+			this.maxPending = maxPending;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		/**
+		 * Enqueue task. Blocks while this client has too many queued tasks.
+		 * Task is executed in caller thread if caller is interrupted while
+		 * waiting.
+		 */
+		public void submit(Runnable task) {
+			SortScheduler scheduler = SortScheduler.this;
+			synchronized (scheduler) {
+				if (closed)
+					throw new IllegalStateException("sort scheduler client closed: " + id);
+
+				try {
+					while (tasks.size() >= maxPending)
+						scheduler.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					task.run();
+					return;
+				}
+
+				if (tasks.isEmpty()) {
+					if (group.ready.isEmpty())
+						ready.add(group);
+					group.ready.add(this);
+				}
+				tasks.add(task);
+			}
+
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					dispatch();
+				}
+			});
+		}
+
+		/**
+		 * Unregister client. Already queued tasks will be executed.
+		 */
+		public void close() {
+			synchronized (SortScheduler.this) {
+				if (closed)
+					return;
+
+				closed = true;
+				clients.remove(this);
+				if (--group.clients == 0 && group.owner != null)
+					groups.remove(group.owner);
+			}
+		}
+	}
+
+	public static class Status {
+		private int threads;
+		private int poolSize;
+		private int activeThreads;
+		private int queued;
+		private int running;
+		private List<ClientStatus> clients = new ArrayList<ClientStatus>();
+
+		public int getThreads() {
+			return threads;
+		}
+
+		public int getPoolSize() {
+			return poolSize;
+		}
+
+		public int getActiveThreads() {
+			return activeThreads;
+		}
+
+		public int getQueued() {
+			return queued;
+		}
+
+		public int getRunning() {
+			return running;
+		}
+
+		public List<ClientStatus> getClients() {
+			return clients;
+		}
+	}
+
+	public static class ClientStatus {
+		private int id;
+		private int queued;
+		private int running;
+		private long completed;
+
+		private ClientStatus(Client c) {
+			this.id = c.id;
+			this.queued = c.tasks.size();
+			this.running = c.running;
+			this.completed = c.completed;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public int getQueued() {
+			return queued;
+		}
+
+		public int getRunning() {
+			return running;
+		}
+
+		public long getCompleted() {
+			return completed;
+		}
+	}
+
+	private static class SortThreadFactory implements ThreadFactory {
+		private final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "LogDB Sort Worker " + counter.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class MappedLookupFileTest {
+	@Test
+	public void testLookup() throws IOException {
+		File f = File.createTempFile("lookup", ".lkp");
+		MappedLookupFile.Builder builder = new MappedLookupFile.Builder(f, Arrays.asList("country", "score"), false);
+		for (int i = 0; i < 10000; i++)
+			builder.add("10.0.0." + i, new Object[] { "KR", i });
+
+		builder.add("가나다", new Object[] { "한국" });
+		builder.add("emoji 😀", new Object[] { null, 1 });
+		builder.add("10.0.0.1", new Object[] { "US", -1 });
+
+		MappedLookupFile file = builder.finish();
+		try {
+			assertEquals(10002, file.size());
+			assertEquals(1, file.getColumnIndex("score"));
+			assertEquals(-1, file.getColumnIndex("unknown"));
+
+			assertEquals(9999, file.getValue(file.find("10.0.0.9999"), 1));
+			assertEquals(-1L, file.find("10.0.0.10000"));
+
+			// last entry wins
+			assertEquals("US", file.getValue(file.find("10.0.0.1"), 0));
+
+			long entry = file.find("가나다");
+			assertEquals("한국", file.getValue(entry, 0));
+			assertNull(file.getValue(entry, 1));
+			assertEquals("가나다", file.getKey(entry));
+
+			entry = file.find("emoji 😀");
+			assertNull(file.getValue(entry, 0));
+			assertEquals(1, file.getValue(entry, 1));
+		} finally {
+			file.close();
+		}
+	}
+
+	@Test
+	public void testKeepFirstAndIterate() throws IOException {
+		File f = File.createTempFile("lookup", ".lkp");
+		MappedLookupFile.Builder builder = new MappedLookupFile.Builder(f, Arrays.asList("v"), true);
+		builder.add("a", new Object[] { 1 });
+		builder.add("b", new Object[] { 2 });
+		builder.add("a", new Object[] { 3 });
+
+		MappedLookupFile file = builder.finish();
+		try {
+			assertEquals(2, file.size());
+
+			Map<String, Object> m = new HashMap<String, Object>();
+			long[] cursor = new long[1];
+			long entry;
+			while ((entry = file.nextEntry(cursor)) >= 0)
+				m.put(file.getKey(entry), file.getValue(entry, 0));
+
+			assertEquals(2, m.size());
+			assertEquals(1, m.get("a"));
+			assertEquals(2, m.get("b"));
+		} finally {
+			file.close();
+		}
+	}
+
+	@Test
+	public void testMemLookupTable() throws IOException {
+		File f = File.createTempFile("lookup", ".lkp");
+		MappedLookupFile.Builder builder = new MappedLookupFile.Builder(f, Arrays.asList("owner"), true);
+		builder.add("host1", new Object[] { "alice" });
+
+		MemLookupHandler handler = new MemLookupHandler("host", builder.finish());
+		try {
+			Map<String, String> outputFields = new HashMap<String, String>();
+			outputFields.put("owner", "host_owner");
+			LookupTable table = handler.newTable("host", outputFields);
+
+			Row hit = new Row();
+			hit.put("host", "host1");
+			Row miss = new Row();
+			miss.put("host", "host2");
+
+			RowBatch batch = new RowBatch();
+			batch.rows = new Row[] { hit, miss };
+			batch.size = 2;
+			table.lookup(batch);
+
+			assertEquals("alice", hit.get("host_owner"));
+			assertTrue(!miss.map().containsKey("host_owner"));
+			assertEquals("alice", handler.lookup("host", "owner", "host1"));
+
+			Set<String> keys = new HashSet<String>(handler.getMappings().keySet());
+			assertEquals(new HashSet<String>(Arrays.asList("host1")), keys);
+		} finally {
+			handler.close();
+		}
+	}
+
+	@Test
+	public void testDeleteStaleFiles() throws IOException {
+		File dataDir = File.createTempFile("araqne", "");
+		dataDir.delete();
+		String old = System.getProperty("araqne.data.dir");
+		System.setProperty("araqne.data.dir", dataDir.getAbsolutePath());
+		try {
+			File f1 = MappedLookupFile.createFile("csv_");
+			File f2 = MappedLookupFile.createFile("mem_");
+			assertTrue(f1.exists() && f2.exists());
+
+			// files left by previous run
+			assertEquals(2, MappedLookupFile.deleteFiles());
+			assertTrue(!f1.exists() && !f2.exists());
+			assertEquals(0, MappedLookupFile.deleteFiles());
+		} finally {
+			if (old != null)
+				System.setProperty("araqne.data.dir", old);
+			else
+				System.clearProperty("araqne.data.dir");
+
+			File lookupDir = new File(dataDir, "araqne-logdb/lookup");
+			lookupDir.delete();
+			lookupDir.getParentFile().delete();
+			dataDir.delete();
+		}
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.msgbus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.araqne.logstorage.Log;
+import org.araqne.logstorage.LogStorage;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class BulkIngestQueueTest {
+	@Test
+	public void testCoalesce() throws Exception {
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<String> writes = Collections.synchronizedList(new ArrayList<String>());
+
+		LogStorage storage = mock(LogStorage.class);
+		doAnswer(new Answer<Void>() {
+			@SuppressWarnings("unchecked")
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				List<Log> logs = (List<Log>) invocation.getArguments()[0];
+				writes.add(logs.get(0).getTableName() + ":" + logs.size());
+				blocked.countDown();
+				release.await();
+				return null;
+			}
+		}).when(storage).write(anyListOf(Log.class));
+
+		BulkIngestQueue q = new BulkIngestQueue(storage, "test", 1, 1000, 1000);
+		try {
+			List<Submitter> submitters = new ArrayList<Submitter>();
+			submitters.add(submit(q, "t", 1));
+			assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+			// queued while writer is blocked
+			submitters.add(submit(q, "t", 2));
+			submitters.add(submit(q, "u", 3));
+			submitters.add(submit(q, "t", 4));
+			waitPending(q, 10);
+
+			release.countDown();
+			for (Submitter s : submitters) {
+				s.join(5000);
+				assertTrue(s.result);
+			}
+
+			assertEquals(3, writes.size());
+			assertEquals("t:1", writes.get(0));
+
+			// table order follows arrival order of queued batches
+			assertTrue(writes.contains("t:6"));
+			assertTrue(writes.contains("u:3"));
+			assertEquals(0, q.getPendingRows());
+		} finally {
+			q.close();
+		}
+	}
+
+	@Test
+	public void testBusy() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		LogStorage storage = mock(LogStorage.class);
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				release.await();
+				return null;
+			}
+		}).when(storage).write(anyListOf(Log.class));
+
+		BulkIngestQueue q = new BulkIngestQueue(storage, "test", 1, 10, 1000);
+		try {
+			// oversized batch occupies whole queue
+			Submitter s = submit(q, "t", 20);
+			waitPending(q, 10);
+
+			assertFalse(q.submit("t", logs("t", 1), 10, TimeUnit.MILLISECONDS));
+
+			release.countDown();
+			s.join(5000);
+			assertTrue(s.result);
+			assertTrue(q.submit("t", logs("t", 1), 10, TimeUnit.MILLISECONDS));
+		} finally {
+			q.close();
+		}
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		LogStorage storage = mock(LogStorage.class);
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				throw new IllegalStateException("table dropped");
+			}
+		}).when(storage).write(anyListOf(Log.class));
+
+		BulkIngestQueue q = new BulkIngestQueue(storage, "test", 1, 10, 1000);
+		try {
+			q.submit("t", logs("t", 1), 10, TimeUnit.MILLISECONDS);
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("table dropped", e.getMessage());
+			assertEquals(0, q.getPendingRows());
+		} finally {
+			q.close();
+		}
+	}
+
+	private static void waitPending(BulkIngestQueue q, int rows) throws InterruptedException {
+		long begin = System.currentTimeMillis();
+		while (q.getPendingRows() < rows) {
+			if (System.currentTimeMillis() - begin > 5000)
+				fail("pending rows " + q.getPendingRows());
+			Thread.sleep(10);
+		}
+	}
+
+	private static List<Log> logs(String tableName, int count) {
+		List<Log> logs = new ArrayList<Log>();
+		for (int i = 0; i < count; i++)
+			logs.add(new Log(tableName, new Date(), new HashMap<String, Object>()));
+		return logs;
+	}
+
+	private static Submitter submit(BulkIngestQueue q, String tableName, int count) {
+		Submitter s = new Submitter(q, tableName, count);
+		s.start();
+		return s;
+	}
+
+	private static class Submitter extends Thread {
+		private BulkIngestQueue q;
+		private String tableName;
+		private int count;
+		private volatile boolean result;
+
+		public Submitter(BulkIngestQueue q, String tableName, int count) {
+			this.q = q;
+			this.tableName = tableName;
+			this.count = count;
+		}
+
+		@Override
+		public void run() {
+			try {
+				result = q.submit(tableName, logs(tableName, count), 5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+			}
+		}
+	}
+}
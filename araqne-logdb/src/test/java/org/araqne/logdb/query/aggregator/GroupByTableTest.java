@@ -0,0 +1,179 @@
+package org.araqne.logdb.query.aggregator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.araqne.logdb.Row;
+import org.araqne.logdb.RowBatch;
+import org.araqne.logdb.query.expr.EvalField;
+import org.araqne.logdb.query.expr.Expression;
+import org.junit.Test;
+
+public class GroupByTableTest {
+	@Test
+	public void compareWithFunctionsTest() {
+		List<String> clauses = Arrays.asList("src", "port");
+		AggregationFunction[] templates = newTemplates();
+		GroupByTable table = new GroupByTable(clauses, templates);
+		Map<List<Object>, AggregationFunction[]> expected = new HashMap<List<Object>, AggregationFunction[]>();
+
+		Random r = new Random(1);
+		int aggregated = 0;
+		for (int b = 0; b < 50; b++) {
+			RowBatch batch = newBatch(r, 100);
+			aggregated += table.add(batch);
+
+			for (int i = 0; i < batch.size; i++) {
+				Row row = batch.rows[batch.selected[i]];
+				if (row.get("src") == null || row.get("port") == null)
+					continue;
+
+				List<Object> keys = Arrays.asList(row.get("src"), row.get("port"));
+				AggregationFunction[] fs = expected.get(keys);
+				if (fs == null) {
+					fs = new AggregationFunction[templates.length];
+					for (int j = 0; j < fs.length; j++)
+						fs[j] = templates[j].clone();
+					expected.put(keys, fs);
+				}
+
+				for (AggregationFunction f : fs)
+					f.apply(row);
+			}
+		}
+
+		int total = 0;
+		for (AggregationFunction[] fs : expected.values())
+			total += (Long) fs[0].eval();
+
+		assertEquals(total, aggregated);
+		assertEquals(expected.size(), table.size());
+
+		for (int g = 0; g < table.size(); g++) {
+			AggregationFunction[] fs = expected.get(Arrays.asList(table.getKeys(g)));
+			Object[] state = table.serialize(g);
+			for (int j = 0; j < fs.length; j++) {
+				Object[] expectedState = fs[j].serialize();
+
+				// cleaned sum is null until first number, table sum starts at 0
+				if (fs[j] instanceof Sum && expectedState[0] == null)
+					expectedState = new Object[] { 0L };
+
+				assertTrue(fs[j] + " of " + Arrays.toString(table.getKeys(g)),
+						Arrays.deepEquals(expectedState, (Object[]) state[j]));
+			}
+		}
+
+		long bytes = table.estimatedBytes();
+		table.clear();
+		assertEquals(0, table.size());
+		assertTrue(table.estimatedBytes() < bytes);
+	}
+
+	@Test
+	public void noClauseTest() {
+		AggregationFunction[] templates = newTemplates();
+		GroupByTable table = new GroupByTable(new ArrayList<String>(), templates);
+
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("bytes", 10);
+		assertTrue(table.add(new Row(m)));
+		m.put("bytes", 2.5);
+		assertTrue(table.add(new Row(m)));
+
+		assertEquals(1, table.size());
+		Object[] state = table.serialize(0);
+		assertEquals(2L, ((Object[]) state[0])[0]);
+		assertEquals(12.5, ((Object[]) state[2])[0]);
+		assertEquals(2.5, ((Object[]) state[4])[0]);
+		assertEquals(10, ((Object[]) state[5])[0]);
+	}
+
+	@Test
+	public void growTest() {
+		GroupByTable table = new GroupByTable(Arrays.asList("id"), newTemplates());
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < 10000; i++) {
+				Map<String, Object> m = new HashMap<String, Object>();
+				m.put("id", i);
+				m.put("bytes", i);
+				table.add(new Row(m));
+			}
+		}
+
+		assertEquals(10000, table.size());
+		for (int g = 0; g < table.size(); g++) {
+			int id = (Integer) table.getKeys(g)[0];
+			Object[] state = table.serialize(g);
+			assertEquals(3L, ((Object[]) state[0])[0]);
+			assertEquals(id * 3L, ((Object[]) state[2])[0]);
+		}
+	}
+
+	@Test
+	public void nonNumericSumTest() {
+		GroupByTable table = new GroupByTable(Arrays.asList("src"), newTemplates());
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("src", "10.0.0.1");
+		m.put("bytes", "text");
+		table.add(new Row(m));
+		table.add(new Row(m));
+
+		// sum starts at 0, group without numbers should not be null
+		Object[] state = table.serialize(0);
+		assertEquals(2L, ((Object[]) state[0])[0]);
+		assertEquals(0L, ((Object[]) state[2])[0]);
+	}
+
+	@Test
+	public void nullKeyTest() {
+		GroupByTable table = new GroupByTable(Arrays.asList("src"), newTemplates());
+		assertFalse(table.add(new Row()));
+		assertEquals(0, table.size());
+	}
+
+	private AggregationFunction[] newTemplates() {
+		List<Expression> args = new ArrayList<Expression>();
+		args.add(new EvalField("bytes"));
+
+		AggregationFunction[] templates = new AggregationFunction[] { new Count(new ArrayList<Expression>()), new Count(args),
+				new Sum(args), new Average(args), new Min(args), new Max(args), new First(args) };
+
+		for (AggregationFunction f : templates)
+			f.clean();
+		return templates;
+	}
+
+	private RowBatch newBatch(Random r, int size) {
+		Object[] values = { 1, 2L, 3.5, 4.25f, (short) 5, "text", null, -7, Long.MAX_VALUE / 4 };
+
+		RowBatch batch = new RowBatch();
+		batch.rows = new Row[size];
+		batch.selected = new int[size];
+		batch.selectedInUse = true;
+		for (int i = 0; i < size; i++) {
+			Map<String, Object> m = new HashMap<String, Object>();
+			if (r.nextInt(20) != 0)
+				m.put("src", "10.0.0." + r.nextInt(30));
+
+			// integer and long ports are different groups
+			int port = r.nextInt(5);
+			m.put("port", r.nextBoolean() ? (Object) port : (Object) (long) port);
+			m.put("bytes", values[r.nextInt(values.length)]);
+			batch.rows[i] = new Row(m);
+
+			// select every other row
+			if (i % 2 == 0)
+				batch.selected[batch.size++] = i;
+		}
+		return batch;
+	}
+}
@@ -0,0 +1,89 @@
+package org.araqne.logdb.query.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.araqne.logdb.Row;
+import org.araqne.logdb.query.command.Join.JoinType;
+import org.araqne.logdb.query.command.Sort.SortField;
+import org.junit.Test;
+
+public class HybridHashJoinerTest {
+	@Test
+	public void testInnerJoinWithSpill() throws IOException {
+		List<Row> output = runJoin(JoinType.Inner, 100);
+		assertEquals(500, output.size());
+		for (Row row : output)
+			assertEquals("s" + row.get("id"), row.get("name"));
+	}
+
+	@Test
+	public void testLeftJoinWithSpill() throws IOException {
+		List<Row> output = runJoin(JoinType.Left, 100);
+		assertEquals(1000, output.size());
+
+		int matched = 0;
+		for (Row row : output) {
+			long id = ((Number) row.get("id")).longValue();
+			if (id < 500) {
+				assertEquals("s" + id, row.get("name"));
+				matched++;
+			} else {
+				assertTrue(!row.map().containsKey("name"));
+			}
+		}
+		assertEquals(500, matched);
+	}
+
+	@Test
+	public void testResident() throws IOException {
+		List<Row> output = runJoin(JoinType.Inner, Long.MAX_VALUE);
+		assertEquals(500, output.size());
+	}
+
+	private List<Row> runJoin(JoinType joinType, long memoryBudget) throws IOException {
+		System.setProperty("araqne.sort.dir", System.getProperty("java.io.tmpdir"));
+		final List<Row> output = new ArrayList<Row>();
+
+		SortField[] sortFields = { new SortField("id") };
+		HybridHashJoiner joiner = new HybridHashJoiner(joinType, sortFields, new SortMergeJoinerListener() {
+			@Override
+			public void onPushPipe(Row row) {
+				output.add(row);
+			}
+		}, 8, memoryBudget, 10);
+
+		// subquery ids are int, main query ids are long
+		List<Map<String, Object>> s = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < 500; i++) {
+			Map<String, Object> m = new HashMap<String, Object>();
+			m.put("id", i);
+			m.put("name", "s" + i);
+			s.add(m);
+		}
+
+		joiner.build(s.iterator());
+		if (memoryBudget < Long.MAX_VALUE)
+			assertTrue(joiner.getResidentCount() < joiner.getPartitionCount());
+
+		for (long i = 0; i < 1000; i++) {
+			Map<String, Object> m = new HashMap<String, Object>();
+			m.put("id", i);
+			joiner.probe(new Row(m));
+		}
+
+		joiner.merge();
+
+		File dir = new File(System.getProperty("java.io.tmpdir"), "araqne-logdb/join");
+		String[] files = dir.list();
+		assertEquals(0, files == null ? 0 : files.length);
+		return output;
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.query.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.araqne.logdb.query.command.Table.TableParams;
+import org.araqne.logstorage.Log;
+import org.araqne.logstorage.LogStorage;
+import org.araqne.logstorage.LogTraverseCallback;
+import org.araqne.logstorage.TableScanRequest;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class ParallelTableScannerTest {
+	private static final int TABLE_COUNT = 7;
+	private static final int ROWS = 2500;
+	private static final int BATCH_SIZE = 100;
+
+	private Table table;
+	private List<StorageObjectName> tableNames;
+
+	@Before
+	public void setup() throws InterruptedException {
+		LogStorage storage = mock(LogStorage.class);
+		when(storage.search(any(TableScanRequest.class))).thenAnswer(new Answer<Boolean>() {
+			@Override
+			public Boolean answer(InvocationOnMock invocation) throws Throwable {
+				TableScanRequest req = (TableScanRequest) invocation.getArguments()[0];
+				generate(req.getTableName(), req.getTraverseCallback());
+				return true;
+			}
+		});
+
+		TableParams params = new TableParams();
+		params.setRaw(true);
+		params.setAsc(false);
+		table = new Table(params);
+		table.setStorage(storage);
+
+		tableNames = new ArrayList<StorageObjectName>();
+		for (int i = 0; i < TABLE_COUNT; i++)
+			tableNames.add(new StorageObjectName(null, "t" + i, false));
+	}
+
+	@Test
+	public void testOrderedMerge() throws InterruptedException {
+		List<Log> serial = sortByTime(serialScan());
+		assertEquals(TABLE_COUNT * ROWS, serial.size());
+
+		long[][] windows = { { 0, 0 }, { 0, 10 }, { 15, 40 }, { 4990, 3000 }, { 17000, 0 } };
+		for (long[] w : windows) {
+			List<Log> merged = new ArrayList<Log>();
+			ParallelTableScanner scanner = new ParallelTableScanner(table, tableNames, 3, false);
+			assertTrue(scanner.scanOrdered(new CollectSink(w[0], w[1], true, merged)));
+
+			int end = w[1] == 0 ? serial.size() : (int) Math.min(serial.size(), w[0] + w[1]);
+			assertSameLogs(serial.subList((int) w[0], end), merged);
+		}
+	}
+
+	@Test
+	public void testUnorderedScan() throws InterruptedException {
+		List<Log> serial = serialScan();
+
+		List<Log> logs = new ArrayList<Log>();
+		ParallelTableScanner scanner = new ParallelTableScanner(table, tableNames, 3, false);
+		assertTrue(scanner.scanUnordered(new CollectSink(0, 0, false, logs)));
+		assertEquals(keys(serial), keys(logs));
+		assertEquals(serial.size(), logs.size());
+
+		logs.clear();
+		scanner = new ParallelTableScanner(table, tableNames, 3, false);
+		assertTrue(scanner.scanUnordered(new CollectSink(100, 250, false, logs)));
+		assertEquals(250, logs.size());
+		assertTrue(keys(serial).containsAll(keys(logs)));
+		assertEquals(250, keys(logs).size());
+	}
+
+	private List<Log> serialScan() throws InterruptedException {
+		List<Log> logs = new ArrayList<Log>();
+		CollectSink sink = new CollectSink(0, 0, true, logs);
+		for (StorageObjectName tableName : tableNames) {
+			table.getStorage().search(table.newScanRequest(tableName, new CollectCallback(sink), false));
+			if (sink.isEof())
+				break;
+		}
+		return logs;
+	}
+
+	private static List<Log> sortByTime(List<Log> logs) {
+		List<Log> sorted = new ArrayList<Log>(logs);
+
+		// stable sort keeps table order for same time
+		Collections.sort(sorted, new Comparator<Log>() {
+			@Override
+			public int compare(Log o1, Log o2) {
+				return o2.getDate().compareTo(o1.getDate());
+			}
+		});
+		return sorted;
+	}
+
+	private static void assertSameLogs(List<Log> expected, List<Log> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getTableName(), actual.get(i).getTableName());
+			assertEquals(expected.get(i).getId(), actual.get(i).getId());
+		}
+	}
+
+	private static Set<String> keys(List<Log> logs) {
+		Set<String> keys = new HashSet<String>();
+		for (Log log : logs)
+			keys.add(log.getTableName() + ":" + log.getId());
+		return keys;
+	}
+
+	private static void generate(String tableName, LogTraverseCallback callback) {
+		int seed = Integer.parseInt(tableName.substring(1));
+		List<Log> batch = new ArrayList<Log>(BATCH_SIZE);
+
+		// descending order, and tables have overlapping and same times
+		for (int i = ROWS - 1; i >= 0; i--) {
+			if (callback.isInterrupted() || callback.isEof())
+				return;
+
+			long time = 1400000000000L + (i / 2) * 1000L + ((i / 2) % 7 == 0 ? 0 : seed * 10);
+			Map<String, Object> m = new HashMap<String, Object>();
+			m.put("seq", i);
+			batch.add(new Log(tableName, new Date(time), i + 1, m));
+			if (batch.size() == BATCH_SIZE) {
+				callback.writeLogs(batch);
+				batch = new ArrayList<Log>(BATCH_SIZE);
+			}
+		}
+
+		if (!batch.isEmpty())
+			callback.writeLogs(batch);
+	}
+
+	private static class CollectSink extends LogTraverseCallback.Sink {
+		private final List<Log> output;
+
+		public CollectSink(long offset, long limit, boolean ordered, List<Log> output) {
+			super(offset, limit, ordered);
+			this.output = output;
+		}
+
+		@Override
+		protected void processLogs(List<Log> logs) {
+			output.addAll(logs);
+		}
+	}
+
+	private static class CollectCallback extends LogTraverseCallback {
+		public CollectCallback(Sink sink) {
+			super(sink);
+		}
+
+		@Override
+		public void interrupt() {
+		}
+
+		@Override
+		public boolean isInterrupted() {
+			return false;
+		}
+
+		@Override
+		protected List<Log> filter(List<Log> logs) {
+			return logs;
+		}
+	}
+}
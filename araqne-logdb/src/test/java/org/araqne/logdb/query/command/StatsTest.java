@@ -0,0 +1,152 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.query.command;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.araqne.logdb.QueryCommand;
+import org.araqne.logdb.QueryStopReason;
+import org.araqne.logdb.Row;
+import org.araqne.logdb.RowBatch;
+import org.araqne.logdb.RowPipe;
+import org.araqne.logdb.query.aggregator.AggregationField;
+import org.araqne.logdb.query.aggregator.AggregationFunction;
+import org.araqne.logdb.query.aggregator.Count;
+import org.araqne.logdb.query.aggregator.Sum;
+import org.araqne.logdb.query.command.Sort.SortField;
+import org.araqne.logdb.query.expr.EvalField;
+import org.araqne.logdb.query.expr.Expression;
+import org.junit.Test;
+
+public class StatsTest {
+	private static final int THREADS = 4;
+
+	@Test
+	public void testParallelStats() throws InterruptedException {
+		List<Expression> args = new ArrayList<Expression>();
+		args.add(new EvalField("bytes"));
+
+		Stats stats = new Stats(Arrays.asList(field("count", new Count(new ArrayList<Expression>())), field("sum",
+				new Sum(args))), Arrays.asList("host"));
+		List<Row> output = collect(stats);
+		stats.onStart();
+
+		pushConcurrently(stats, 10000);
+		stats.onClose(QueryStopReason.End);
+
+		// groups are merged across partial states in key order
+		assertEquals(10, output.size());
+		for (int h = 0; h < 10; h++) {
+			Row row = output.get(h);
+			assertEquals("host" + h, row.get("host"));
+			assertEquals((long) THREADS * 1000, row.get("count"));
+			assertEquals((long) THREADS * 1000 * h, ((Number) row.get("sum")).longValue());
+		}
+	}
+
+	@Test
+	public void testParallelSortLimit() throws InterruptedException {
+		Sort sort = new Sort(5, new SortField[] { new SortField("seq", false) });
+		List<Row> output = collect(sort);
+		sort.onStart();
+
+		pushConcurrently(sort, 10000);
+		sort.onClose(QueryStopReason.End);
+
+		assertEquals(5, output.size());
+		for (int i = 0; i < 5; i++)
+			assertEquals(9999 - i / THREADS, output.get(i).get("seq"));
+	}
+
+	private static void pushConcurrently(final QueryCommand cmd, final int count) throws InterruptedException {
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int n = 0; n < THREADS; n++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					// mix row and batch push
+					RowBatch batch = new RowBatch();
+					batch.rows = new Row[100];
+					for (int i = 0; i < count; i++) {
+						Row row = row(i);
+						if (i % 2 == 0) {
+							cmd.onPush(row);
+							continue;
+						}
+
+						batch.rows[batch.size++] = row;
+						if (batch.size == batch.rows.length) {
+							cmd.onPush(batch);
+							batch = new RowBatch();
+							batch.rows = new Row[100];
+						}
+					}
+
+					if (batch.size > 0)
+						cmd.onPush(batch);
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+
+		for (Thread thread : threads)
+			thread.join();
+	}
+
+	private static List<Row> collect(QueryCommand cmd) {
+		final List<Row> output = new ArrayList<Row>();
+		cmd.setOutput(new RowPipe() {
+			@Override
+			public boolean isThreadSafe() {
+				return false;
+			}
+
+			@Override
+			public void onRow(Row row) {
+				output.add(row);
+			}
+
+			@Override
+			public void onRowBatch(RowBatch rowBatch) {
+				for (int i = 0; i < rowBatch.size; i++)
+					output.add(rowBatch.rows[i]);
+			}
+		});
+		return output;
+	}
+
+	private static Row row(int seq) {
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("seq", seq);
+		m.put("host", "host" + (seq % 10));
+		m.put("bytes", seq % 10);
+		return new Row(m);
+	}
+
+	private static AggregationField field(String name, AggregationFunction func) {
+		AggregationField field = new AggregationField();
+		field.setName(name);
+		field.setFunction(func);
+		return field;
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.query.command;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.araqne.logdb.QueryStopReason;
+import org.araqne.logdb.Row;
+import org.araqne.logdb.RowBatch;
+import org.araqne.logdb.RowPipe;
+import org.araqne.logdb.TimeSpan;
+import org.araqne.logdb.TimeUnit;
+import org.araqne.logdb.query.aggregator.AggregationField;
+import org.araqne.logdb.query.aggregator.AggregationFunction;
+import org.araqne.logdb.query.aggregator.Count;
+import org.araqne.logdb.query.expr.Expression;
+import org.junit.Test;
+
+public class TimechartTest {
+	private static final long MINUTE = 60000;
+
+	@Test
+	public void testBucketOrder() {
+		TimechartBuckets buckets = new TimechartBuckets(countFuncs(), new TimeSpan(1, TimeUnit.Minute));
+		long base = TimeUnit.getKey(new Date(), new TimeSpan(1, TimeUnit.Minute)).getTime();
+
+		// descending input and far outlier
+		for (int i = 99; i >= 0; i--)
+			buckets.apply(new Date(base + i * MINUTE), null, new Row());
+		buckets.apply(new Date(base + 10L * 365 * 1440 * MINUTE), null, new Row());
+		buckets.apply(new Date(base - MINUTE + 1), null, new Row());
+
+		List<TimechartBuckets.Bucket> l = buckets.getBuckets();
+		assertEquals(102, l.size());
+		assertEquals(base - MINUTE, l.get(0).getTime().getTime());
+		for (int i = 1; i < l.size(); i++)
+			assertEquals(-1, l.get(i - 1).compareTo(l.get(i)));
+	}
+
+	@Test
+	public void testMerge() {
+		TimeSpan span = new TimeSpan(1, TimeUnit.Month);
+		TimechartBuckets b1 = new TimechartBuckets(countFuncs(), span);
+		TimechartBuckets b2 = new TimechartBuckets(countFuncs(), span);
+
+		Date now = new Date();
+		b1.apply(now, "a", new Row());
+		b2.apply(now, "a", new Row());
+		b2.apply(now, "b", new Row());
+
+		b1.merge(b2);
+		assertEquals(2, b1.getCellCount());
+		assertEquals(0, b2.getCellCount());
+
+		Map<String, AggregationFunction[]> cells = b1.getBuckets().get(0).getCells();
+		assertEquals(2L, cells.get("a")[0].eval());
+		assertEquals(1L, cells.get("b")[0].eval());
+	}
+
+	@Test
+	public void testTimechartByKey() throws InterruptedException {
+		final List<Row> output = new ArrayList<Row>();
+		Timechart timechart = new Timechart(Arrays.asList(countField()), "host", new TimeSpan(1, TimeUnit.Minute));
+		timechart.setOutput(new RowPipe() {
+			@Override
+			public boolean isThreadSafe() {
+				return false;
+			}
+
+			@Override
+			public void onRow(Row row) {
+				output.add(row);
+			}
+
+			@Override
+			public void onRowBatch(RowBatch rowBatch) {
+				for (int i = 0; i < rowBatch.size; i++)
+					output.add(rowBatch.rows[i]);
+			}
+		});
+		timechart.onStart();
+
+		final long base = TimeUnit.getKey(new Date(), new TimeSpan(1, TimeUnit.Minute)).getTime();
+		final Timechart t = timechart;
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int n = 0; n < 4; n++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 60; i++) {
+						for (int h = 0; h < 3; h++)
+							t.onPush(row(base + i * MINUTE, "host" + h));
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+
+		for (Thread thread : threads)
+			thread.join();
+
+		timechart.onClose(QueryStopReason.End);
+
+		assertEquals(60, output.size());
+		for (int i = 0; i < 60; i++) {
+			Row row = output.get(i);
+			assertEquals(new Date(base + i * MINUTE), row.get("_time"));
+			for (int h = 0; h < 3; h++)
+				assertEquals(4L, row.get("host" + h));
+		}
+	}
+
+	private static Row row(long time, String host) {
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("_time", new Date(time));
+		m.put("host", host);
+		return new Row(m);
+	}
+
+	private static AggregationFunction[] countFuncs() {
+		return new AggregationFunction[] { new Count(new ArrayList<Expression>()) };
+	}
+
+	private static AggregationField countField() {
+		AggregationField field = new AggregationField();
+		field.setName("count");
+		field.setFunction(new Count(new ArrayList<Expression>()));
+		return field;
+	}
+}
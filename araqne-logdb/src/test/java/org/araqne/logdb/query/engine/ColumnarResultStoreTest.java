@@ -0,0 +1,214 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.query.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.araqne.logdb.Row;
+import org.araqne.logdb.query.engine.ColumnarResultStore.ColumnarResultSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ColumnarResultStoreTest {
+	private File indexFile;
+	private File dataFile;
+	private ColumnarResultStore store;
+
+	@Before
+	public void setup() throws IOException {
+		indexFile = File.createTempFile("result_c1_", ".idx");
+		dataFile = File.createTempFile("result_c1_", ".dat");
+		store = new ColumnarResultStore(indexFile, dataFile);
+	}
+
+	@After
+	public void teardown() {
+		store.purge();
+	}
+
+	@Test
+	public void testPaging() throws IOException {
+		int count = ColumnarResultStore.BLOCK_ROWS * 3 + 10;
+		for (int i = 0; i < count; i++)
+			store.write(row(i));
+
+		// sealed blocks and pending rows
+		ColumnarResultSet rs = (ColumnarResultSet) store.openResultSet();
+		try {
+			assertEquals(count, rs.size());
+			rs.skip(ColumnarResultStore.BLOCK_ROWS * 3 + 5);
+			assertEquals(ColumnarResultStore.BLOCK_ROWS * 3 + 5, rs.next().get("n"));
+		} finally {
+			rs.close();
+		}
+
+		store.close();
+
+		rs = ColumnarResultStore.openResultSet(indexFile, dataFile);
+		try {
+			assertEquals(count, rs.size());
+			rs.skip(2000);
+			for (int i = 2000; i < count; i++) {
+				Map<String, Object> m = rs.next();
+				assertEquals(i, m.get("n"));
+				assertEquals("line " + i, m.get("line"));
+				if (i % 2 == 0)
+					assertNull(m.get("odd"));
+				else
+					assertEquals(true, m.get("odd"));
+			}
+			assertFalse(rs.hasNext());
+
+			rs.reset();
+			rs.skip(7);
+			assertEquals(7, rs.next().get("n"));
+		} finally {
+			rs.close();
+		}
+	}
+
+	@Test
+	public void testFieldSelection() throws IOException {
+		for (int i = 0; i < 100; i++)
+			store.write(row(i));
+		store.close();
+
+		ColumnarResultSet rs = ColumnarResultStore.openResultSet(indexFile, dataFile);
+		try {
+			rs.setFields(Arrays.asList("n"));
+			rs.skip(50);
+			Map<String, Object> m = rs.next();
+			assertEquals(1, m.size());
+			assertEquals(50, m.get("n"));
+		} finally {
+			rs.close();
+		}
+	}
+
+	@Test
+	public void testConcurrentWrite() throws Exception {
+		final int threadCount = 4;
+		final int perThread = 5000;
+		final CountDownLatch latch = new CountDownLatch(threadCount);
+
+		for (int t = 0; t < threadCount; t++) {
+			final int base = t * perThread;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < perThread; i++)
+							store.write(row(base + i));
+					} catch (IOException e) {
+						throw new IllegalStateException(e);
+					} finally {
+						latch.countDown();
+					}
+				}
+			}).start();
+		}
+
+		latch.await();
+		store.close();
+
+		ColumnarResultSet rs = ColumnarResultStore.openResultSet(indexFile, dataFile);
+		try {
+			assertEquals(threadCount * perThread, rs.size());
+
+			Set<Object> numbers = new HashSet<Object>();
+			while (rs.hasNext())
+				assertTrue(numbers.add(rs.next().get("n")));
+			assertEquals(threadCount * perThread, numbers.size());
+		} finally {
+			rs.close();
+		}
+	}
+
+	@Test
+	public void testCloseWhileWriting() throws Exception {
+		final int threadCount = 4;
+		final CountDownLatch started = new CountDownLatch(threadCount);
+		final CountDownLatch latch = new CountDownLatch(threadCount);
+		final AtomicLong written = new AtomicLong();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		for (int t = 0; t < threadCount; t++) {
+			final int base = t * 1000000;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0;; i++) {
+							store.write(row(base + i));
+							written.incrementAndGet();
+							if (i == 100)
+								started.countDown();
+						}
+					} catch (IllegalStateException e) {
+						// rejected after close
+					} catch (Throwable t) {
+						failure.set(t);
+					} finally {
+						started.countDown();
+						latch.countDown();
+					}
+				}
+			}).start();
+		}
+
+		started.await();
+		store.close();
+		latch.await();
+		assertNull(failure.get());
+
+		// every accepted row is sealed, and no unfilled slot is sealed
+		ColumnarResultSet rs = ColumnarResultStore.openResultSet(indexFile, dataFile);
+		try {
+			assertEquals(written.get(), rs.size());
+
+			Set<Object> numbers = new HashSet<Object>();
+			while (rs.hasNext())
+				assertTrue(numbers.add(rs.next().get("n")));
+			assertEquals(written.get(), numbers.size());
+		} finally {
+			rs.close();
+		}
+	}
+
+	private static Row row(int i) {
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("n", i);
+		m.put("line", "line " + i);
+		if (i % 2 == 1)
+			m.put("odd", true);
+		return new Row(m);
+	}
+}
@@ -0,0 +1,80 @@
+package org.araqne.logdb.query.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.araqne.logdb.QueryCommand;
+import org.araqne.logdb.query.command.Search;
+import org.araqne.logdb.query.command.Table;
+import org.araqne.logdb.query.command.Table.TableParams;
+import org.araqne.logdb.query.expr.Eq;
+import org.araqne.logdb.query.expr.EvalField;
+import org.araqne.logdb.query.expr.Expression;
+import org.araqne.logdb.query.expr.Gt;
+import org.araqne.logdb.query.expr.Lower;
+import org.araqne.logdb.query.expr.NumberConstant;
+import org.araqne.logdb.query.expr.StringConstant;
+import org.junit.Test;
+
+public class PredicatePushdownPlannerTest {
+	private PredicatePushdownPlanner planner = new PredicatePushdownPlanner();
+
+	@Test
+	public void pushdownTest() {
+		Table table = new Table(new TableParams());
+		Expression e1 = new Eq(new EvalField("src_ip"), new StringConstant("10.1.1.1"));
+		Expression e2 = new Gt(new EvalField("port"), new NumberConstant(1024));
+
+		List<QueryCommand> planned = planner.plan(null, commands(table, new Search(null, e1), new Search(null, e2)));
+		assertEquals(1, planned.size());
+		assertEquals("((src_ip == \"10.1.1.1\") and (port > 1024))", table.getFilter().toString());
+	}
+
+	@Test
+	public void searchLimitTest() {
+		Table table = new Table(new TableParams());
+		Expression e1 = new Eq(new EvalField("src_ip"), new StringConstant("10.1.1.1"));
+
+		List<QueryCommand> planned = planner.plan(null, commands(table, new Search(10L, e1)));
+		assertEquals(2, planned.size());
+		assertEquals(e1, table.getFilter());
+
+		Search search = (Search) planned.get(1);
+		assertEquals(10L, (long) search.getLimit());
+		assertNull(search.getExpression());
+	}
+
+	@Test
+	public void unsupportedExpressionTest() {
+		Table table = new Table(new TableParams());
+		List<Expression> args = new ArrayList<Expression>();
+		args.add(new EvalField("user"));
+		Search search = new Search(null, new Eq(new Lower(null, args), new StringConstant("root")));
+
+		List<QueryCommand> planned = planner.plan(null, commands(table, search));
+		assertEquals(2, planned.size());
+		assertTrue(planned.get(1) == search);
+		assertNull(table.getFilter());
+	}
+
+	@Test
+	public void tableLimitTest() {
+		TableParams params = new TableParams();
+		params.setLimit(10);
+		Table table = new Table(params);
+		Search search = new Search(null, new Eq(new EvalField("src_ip"), new StringConstant("10.1.1.1")));
+
+		List<QueryCommand> planned = planner.plan(null, commands(table, search));
+		assertEquals(2, planned.size());
+		assertNull(table.getFilter());
+	}
+
+	private List<QueryCommand> commands(QueryCommand... commands) {
+		return new ArrayList<QueryCommand>(Arrays.asList(commands));
+	}
+}
@@ -0,0 +1,112 @@
+package org.araqne.logdb.query.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.araqne.logdb.Query;
+import org.junit.Test;
+
+public class QueryTaskExecutorTest {
+	@Test
+	public void queryLimitTest() throws InterruptedException {
+		QueryTaskExecutor executor = new QueryTaskExecutor("pool", 8, 2, 0, 0);
+		Query q1 = newQuery(1);
+		Query q2 = newQuery(2);
+
+		final CountDownLatch gate = new CountDownLatch(1);
+		final AtomicInteger q1Running = new AtomicInteger();
+		final AtomicInteger q1Max = new AtomicInteger();
+		final CountDownLatch q2Done = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(5);
+
+		for (int i = 0; i < 5; i++) {
+			executor.submit(q1, new Runnable() {
+				@Override
+				public void run() {
+					int n = q1Running.incrementAndGet();
+					synchronized (q1Max) {
+						q1Max.set(Math.max(q1Max.get(), n));
+					}
+
+					try {
+						gate.await();
+					} catch (InterruptedException e) {
+					}
+					q1Running.decrementAndGet();
+					done.countDown();
+				}
+			});
+		}
+
+		// other query is not blocked by capped query
+		executor.submit(q2, new Runnable() {
+			@Override
+			public void run() {
+				q2Done.countDown();
+			}
+		});
+		assertTrue(q2Done.await(10, TimeUnit.SECONDS));
+
+		// wait until q2 task is released
+		QueryTaskExecutor.Status s = executor.getStatus();
+		for (int i = 0; i < 100 && s.getRunning() != 2; i++) {
+			Thread.sleep(10);
+			s = executor.getStatus();
+		}
+
+		assertEquals(2, s.getRunning());
+		assertEquals(3, s.getQueued());
+
+		gate.countDown();
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(2, q1Max.get());
+	}
+
+	@Test
+	public void admissionTest() throws InterruptedException {
+		QueryTaskExecutor executor = new QueryTaskExecutor("pool", 1, 0, 0, 2);
+		Query q = newQuery(1);
+
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch gate = new CountDownLatch(1);
+		Runnable blocker = new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					gate.await();
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+
+		executor.submit(q, blocker);
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+
+		executor.submit(q, blocker);
+		executor.submit(q, blocker);
+
+		try {
+			executor.submit(q, blocker);
+			fail();
+		} catch (RejectedExecutionException e) {
+		}
+
+		assertEquals(1, executor.getStatus().getRejected());
+		gate.countDown();
+	}
+
+	private Query newQuery(int id) {
+		Query q = mock(Query.class);
+		when(q.getId()).thenReturn(id);
+		return q;
+	}
+}
@@ -0,0 +1,90 @@
+package org.araqne.logdb.query.expr;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.araqne.logstorage.file.BlockSkipIndex;
+import org.junit.Test;
+
+public class BlockSummaryMatcherTest {
+	@Test
+	public void equalityTest() {
+		BlockSkipIndex block = newBlock();
+
+		assertTrue(mayMatch(new Eq(field("user"), new StringConstant("alice")), block));
+		assertFalse(mayMatch(new Eq(field("user"), new StringConstant("mallory")), block));
+
+		// integer field is also compared with its string form
+		assertTrue(mayMatch(new Eq(field("port"), new StringConstant("443")), block));
+		assertTrue(mayMatch(new Eq(field("port"), new NumberConstant(443.0)), block));
+		assertFalse(mayMatch(new Eq(field("port"), new NumberConstant(444L)), block));
+
+		// wildcard and unknown fields cannot be skipped
+		assertTrue(mayMatch(new Eq(field("user"), new StringConstant("mal*")), block));
+		assertTrue(mayMatch(new Eq(field("src"), new StringConstant("mallory")), block));
+
+		assertFalse(mayMatch(new And(new Eq(field("user"), new StringConstant("alice")), new Eq(field("port"),
+				new NumberConstant(8080))), block));
+		assertTrue(mayMatch(new Or(new Eq(field("user"), new StringConstant("mallory")), new Eq(field("port"),
+				new NumberConstant(22))), block));
+	}
+
+	@Test
+	public void inTest() {
+		BlockSkipIndex block = newBlock();
+
+		List<Expression> args = Arrays.asList(field("user"), new StringConstant("eve"), new StringConstant("bob"));
+		assertTrue(mayMatch(new In(null, args), block));
+
+		args = Arrays.asList(field("user"), new StringConstant("eve"), new StringConstant("mallory"));
+		assertFalse(mayMatch(new In(null, args), block));
+	}
+
+	@Test
+	public void rangeTest() {
+		BlockSkipIndex block = newBlock();
+
+		assertTrue(mayMatch(new Gt(field("port"), new NumberConstant(442)), block));
+		assertFalse(mayMatch(new Gt(field("port"), new NumberConstant(443)), block));
+		assertTrue(mayMatch(new Gte(field("port"), new NumberConstant(443)), block));
+		assertFalse(mayMatch(new Lt(field("port"), new NumberConstant(22)), block));
+		assertTrue(mayMatch(new Lte(field("port"), new NumberConstant(22)), block));
+		assertFalse(mayMatch(new Lt(new NumberConstant(443), field("port")), block));
+
+		// missing value is less than any number
+		assertTrue(mayMatch(new Lt(field("bytes"), new NumberConstant(0)), block));
+		assertFalse(mayMatch(new Gt(field("bytes"), new NumberConstant(1000)), block));
+
+		// string is greater than any number
+		assertTrue(mayMatch(new Gt(field("user"), new NumberConstant(1000)), block));
+	}
+
+	private BlockSkipIndex newBlock() {
+		BlockSkipIndex.Builder builder = new BlockSkipIndex.Builder(Arrays.asList("user", "port", "bytes"));
+		builder.add(log("alice", 22, 100L));
+		builder.add(log("bob", 443, null));
+		builder.add(log("carol", 80, 1000.0));
+		return builder.build();
+	}
+
+	private Map<String, Object> log(String user, int port, Object bytes) {
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("user", user);
+		m.put("port", port);
+		m.put("bytes", bytes);
+		return m;
+	}
+
+	private EvalField field(String name) {
+		return new EvalField(name);
+	}
+
+	private boolean mayMatch(Expression expr, BlockSkipIndex block) {
+		return BlockSummaryMatcher.mayMatch(expr, block);
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logdb.query.expr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.araqne.logdb.Row;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class ExpressionCompilerTest {
+	@Test
+	public void testConstantFolding() {
+		Expression expr = ExpressionCompiler.compile(FunctionUtil.parseExpr("1 + 2 * 3"));
+		assertTrue(expr instanceof NumberConstant);
+		assertEquals(7L, expr.eval(null));
+
+		expr = ExpressionCompiler.compile(FunctionUtil.parseExpr("1 < 2 and 3 > 4"));
+		assertTrue(expr instanceof BooleanConstant);
+		assertEquals(false, expr.eval(null));
+	}
+
+	@Test
+	public void testQueryString() {
+		String s = "a > 10 and b == \"x*\" and c + 1 < 3 and not(d == e)";
+		Expression expr = FunctionUtil.parseExpr(s);
+		assertEquals(expr.toString(), ExpressionCompiler.compile(expr).toString());
+	}
+
+	// compiled expression should return same result with interpreter
+	@Test
+	public void testEquivalence() {
+		String[] exprs = new String[] { "a + b", "a - 1", "a * b", "a / 2", "mod(a, 3)", "a > 1", "1 > a", "a >= b", "a < 2.5",
+				"a <= -1", "a == 1", "a != 1", "a == b", "a != b", "a == \"1\"", "a > 1 and b < 2 or c == 3",
+				"a > 1 and b > 1 and c > 1", "a > 1 or b > 1 or c > 1", "not(a > b)", "(a + 1) * (b - 1) > c",
+				"isnull(a) or a > 0", "len(c) > 1 and b != 0" };
+
+		Object[] values = new Object[] { null, 0, 1, 2, -1, 1L, 3L, 1.0, 2.5, -0.5, "1", "abc", "", true };
+		Random r = new Random(1);
+
+		for (String s : exprs) {
+			Expression expr = FunctionUtil.parseExpr(s);
+			Expression compiled = ExpressionCompiler.compile(expr);
+
+			for (int i = 0; i < 3000; i++) {
+				Map<String, Object> m = new HashMap<String, Object>();
+				m.put("a", values[r.nextInt(values.length)]);
+				m.put("b", values[r.nextInt(values.length)]);
+				m.put("c", values[r.nextInt(values.length)]);
+				m.put("d", values[r.nextInt(values.length)]);
+				m.put("e", values[r.nextInt(values.length)]);
+
+				String expected = eval(expr, new Row(m));
+				String actual = eval(compiled, new Row(m));
+				assertEquals(s + " " + m, expected, actual);
+			}
+		}
+	}
+
+	@Ignore
+	public void testSpeed() {
+		Expression expr = FunctionUtil.parseExpr("a > 10 and a < 100000 and b >= 0 and c != 0 and (d + 1) * 2 > 100 "
+				+ "and e >= 1.5 and f <= 100000 and g != 22 and h > 0 and i < 65536");
+		Expression compiled = ExpressionCompiler.compile(expr);
+
+		Row[] rows = new Row[10000];
+		Random r = new Random(1);
+		for (int i = 0; i < rows.length; i++) {
+			Map<String, Object> m = new HashMap<String, Object>();
+			for (char c = 'a'; c <= 'i'; c++)
+				m.put(Character.toString(c), (long) r.nextInt(100000));
+			m.put("e", r.nextDouble() * 10);
+			rows[i] = new Row(m);
+		}
+
+		for (int round = 0; round < 5; round++) {
+			long begin = System.currentTimeMillis();
+			int matched = 0;
+			for (int i = 0; i < 100; i++)
+				for (Row row : rows)
+					if ((Boolean) expr.eval(row))
+						matched++;
+			long interpreted = System.currentTimeMillis() - begin;
+
+			begin = System.currentTimeMillis();
+			int matched2 = 0;
+			for (int i = 0; i < 100; i++)
+				for (Row row : rows)
+					if ((Boolean) compiled.eval(row))
+						matched2++;
+			long elapsed = System.currentTimeMillis() - begin;
+
+			System.out.println("interpreted " + interpreted + "ms, compiled " + elapsed + "ms, matched " + matched + "/"
+					+ matched2);
+		}
+	}
+
+	private String eval(Expression expr, Row row) {
+		try {
+			Object o = expr.eval(row);
+			return o == null ? "null" : o.getClass().getSimpleName() + ":" + o;
+		} catch (RuntimeException e) {
+			return e.getClass().getName();
+		}
+	}
+}
@@ -124,6 +124,26 @@ public class TableParserTest {
 		}
 	}
 
+	@Test
+	public void testParallel() {
+		Table table = parse("table parallel=8 iis, xtm");
+		assertTrue(table.toString().contains(" parallel=8"));
+	}
+
+	@Test
+	public void testInvalidParallel() {
+		String query = "table parallel=0 iis";
+
+		try {
+			parse(query);
+			fail();
+		} catch (QueryParseException e) {
+			assertEquals("10609", e.getType());
+			assertEquals(15, e.getStartOffset());
+			assertEquals(15, e.getEndOffset());
+		}
+	}
+
 	@Test
 	public void testNonExistentTable(){
 		String query = "table NonExistent";
@@ -1,7 +1,12 @@
 package org.araqne.logdb.sort;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 import org.junit.Test;
@@ -15,6 +20,59 @@ public class ParallelMergeSorterTest {
 		assertFalse(it.hasNext());
 	}
 
+	@Test
+	public void testFileRunSort() throws IOException {
+		fileRunSort(new ObjectKeyEncoder(), "none");
+	}
+
+	@Test
+	public void testCompressedFileRunSort() throws IOException {
+		fileRunSort(new ObjectKeyEncoder(), "deflate");
+	}
+
+	@Test
+	public void testFileRunSortWithoutKeyEncoder() throws IOException {
+		fileRunSort(null, "none");
+	}
+
+	private void fileRunSort(SortKeyEncoder encoder, String compression) throws IOException {
+		String oldDir = System.getProperty("araqne.sort.dir");
+		System.setProperty("araqne.sort.dir", new File(System.getProperty("java.io.tmpdir")).getAbsolutePath());
+		System.setProperty("araqne.sort.compression", compression);
+		try {
+			// spill all runs to file
+			ParallelMergeSorter sorter = new ParallelMergeSorter(new ItemComparer(), 1000, 0, encoder);
+			List<Item> expected = new ArrayList<Item>();
+			Random r = new Random(1);
+			for (int i = 0; i < 20000; i++) {
+				Object[] key = new Object[] { "host" + r.nextInt(100), r.nextInt(1000) };
+				Item item = new Item(key, i);
+				expected.add(item);
+				sorter.add(item);
+			}
+
+			Collections.sort(expected, new ItemComparer());
+
+			CloseableIterator it = sorter.sort();
+			try {
+				int count = 0;
+				while (it.hasNext()) {
+					Item item = it.next();
+					assertEquals(0, new ItemComparer().compare(expected.get(count++), item));
+				}
+				assertEquals(expected.size(), count);
+			} finally {
+				it.close();
+			}
+		} finally {
+			System.clearProperty("araqne.sort.compression");
+			if (oldDir == null)
+				System.clearProperty("araqne.sort.dir");
+			else
+				System.setProperty("araqne.sort.dir", oldDir);
+		}
+	}
+
 	private static class ItemComparer implements Comparator<Item> {
 		private ObjectComparator cmp = new ObjectComparator();
 
@@ -0,0 +1,101 @@
+package org.araqne.logdb.sort;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.araqne.logdb.ObjectComparator;
+import org.junit.Test;
+
+public class SortKeyBufferTest {
+	private ObjectComparator cmp = new ObjectComparator();
+
+	@Test
+	public void compareWithObjectComparatorTest() throws UnknownHostException {
+		Random r = new Random(1);
+		Object[] values = new Object[2000];
+		for (int i = 0; i < values.length; i++)
+			values[i] = randomValue(r, 0);
+
+		for (int i = 0; i < values.length; i++) {
+			for (int j = 0; j < 50; j++) {
+				Object o1 = values[i];
+				Object o2 = values[r.nextInt(values.length)];
+				int expected = Integer.signum(cmp.compare(o1, o2));
+				assertEquals(o1 + " vs " + o2, expected, Integer.signum(SortKeyBuffer.compare(encode(o1, true), encode(o2, true))));
+				assertEquals(o1 + " vs " + o2, -expected,
+						Integer.signum(SortKeyBuffer.compare(encode(o1, false), encode(o2, false))));
+			}
+		}
+	}
+
+	@Test
+	public void stringTest() {
+		assertEquals(0, SortKeyBuffer.compare(encode("Hello", true), encode("hELLO", true)));
+		assertEquals(-1, SortKeyBuffer.compare(encode("a", true), encode("a\0", true)));
+		assertEquals(-1, SortKeyBuffer.compare(encode("a\0", true), encode("a\1", true)));
+		assertEquals(-1, SortKeyBuffer.compare(encode("", true), encode("\0", true)));
+	}
+
+	@Test
+	public void numberTest() {
+		assertEquals(0, SortKeyBuffer.compare(encode(1, true), encode(1.0, true)));
+		assertEquals(0, SortKeyBuffer.compare(encode((short) 3, true), encode(3L, true)));
+		assertEquals(-1, SortKeyBuffer.compare(encode(-0.0, true), encode(0.0, true)));
+		assertEquals(-1, SortKeyBuffer.compare(encode(Double.POSITIVE_INFINITY, true), encode(Double.NaN, true)));
+		assertEquals(-1, SortKeyBuffer.compare(encode(Long.MIN_VALUE, true), encode(-1.5f, true)));
+	}
+
+	@Test
+	public void unsupportedTest() {
+		assertNull(new ObjectKeyEncoder().encode(new Item((byte) 1, null)));
+		assertNull(new ObjectKeyEncoder().encode(new Item(new Object[] { 1, new byte[1] }, null)));
+	}
+
+	private byte[] encode(Object o, boolean asc) {
+		SortKeyBuffer buf = new SortKeyBuffer(1);
+		if (!buf.add(o, asc))
+			throw new IllegalStateException("unsupported " + o);
+		return buf.toByteArray();
+	}
+
+	private Object randomValue(Random r, int depth) throws UnknownHostException {
+		switch (r.nextInt(depth < 2 ? 12 : 11)) {
+		case 0:
+			return null;
+		case 1:
+			return r.nextBoolean();
+		case 2:
+			return r.nextInt(20) - 10;
+		case 3:
+			return (long) (r.nextInt(20) - 10);
+		case 4:
+			return (r.nextInt(40) - 20) / 2.0;
+		case 5:
+			return (float) (r.nextInt(40) - 20) / 4;
+		case 6:
+			return new Date(r.nextInt(10));
+		case 7:
+			return InetAddress.getByAddress(new byte[] { 10, 0, (byte) r.nextInt(256), (byte) r.nextInt(3) });
+		case 8:
+			byte[] b = new byte[16];
+			b[15] = (byte) r.nextInt(256);
+			return InetAddress.getByAddress(b);
+		case 9:
+			String[] s = { "", "a", "A", "ab", "aB", "b", "\0", "a\0b", "가", "Z" };
+			return s[r.nextInt(s.length)];
+		case 10:
+			return new HashMap<String, Object>();
+		default:
+			Object[] arr = new Object[r.nextInt(3)];
+			for (int i = 0; i < arr.length; i++)
+				arr[i] = randomValue(r, depth + 1);
+			return arr;
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package org.araqne.logdb.sort;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class SortSchedulerTest {
+	@Test
+	public void roundRobinTest() throws InterruptedException {
+		SortScheduler scheduler = new SortScheduler(1);
+		SortScheduler.Client a = scheduler.register(100);
+		SortScheduler.Client b = scheduler.register(100);
+
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch gate = new CountDownLatch(1);
+		final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch done = new CountDownLatch(7);
+
+		// block single worker until all tasks are queued
+		a.submit(new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					gate.await();
+				} catch (InterruptedException e) {
+				}
+				done.countDown();
+			}
+		});
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+
+		for (int i = 0; i < 4; i++)
+			a.submit(new Task("a" + i, order, done));
+		for (int i = 0; i < 2; i++)
+			b.submit(new Task("b" + i, order, done));
+
+		gate.countDown();
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList("a0", "b0", "a1", "b1", "a2", "a3"), order);
+
+		a.close();
+		b.close();
+		assertEquals(0, scheduler.getStatus().getClients().size());
+	}
+
+	@Test
+	public void ownerShareTest() throws InterruptedException {
+		SortScheduler scheduler = new SortScheduler(1);
+		Object q1 = new Object();
+		Object q2 = new Object();
+		SortScheduler.Client a = scheduler.register(q1, 100);
+		SortScheduler.Client c = scheduler.register(q1, 100);
+		SortScheduler.Client b = scheduler.register(q2, 100);
+		SortScheduler.Client blocker = scheduler.register(100);
+
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch gate = new CountDownLatch(1);
+		final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch done = new CountDownLatch(6);
+
+		blocker.submit(new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					gate.await();
+				} catch (InterruptedException e) {
+				}
+			}
+		});
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+
+		for (int i = 0; i < 2; i++)
+			a.submit(new Task("a" + i, order, done));
+		for (int i = 0; i < 2; i++)
+			c.submit(new Task("c" + i, order, done));
+		for (int i = 0; i < 2; i++)
+			b.submit(new Task("b" + i, order, done));
+
+		// two sorters of q1 share one turn against q2
+		gate.countDown();
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList("a0", "b0", "c0", "b1", "a1", "c1"), order);
+
+		a.close();
+		b.close();
+		c.close();
+		blocker.close();
+		assertEquals(0, scheduler.getStatus().getClients().size());
+	}
+
+	@Test
+	public void backpressureTest() throws InterruptedException {
+		SortScheduler scheduler = new SortScheduler(2);
+		final SortScheduler.Client c = scheduler.register(2);
+
+		final CountDownLatch gate = new CountDownLatch(1);
+		Runnable blocked = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					gate.await();
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+
+		// 2 running, 2 queued
+		for (int i = 0; i < 4; i++)
+			c.submit(blocked);
+
+		final CountDownLatch submitted = new CountDownLatch(1);
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				c.submit(new Runnable() {
+					@Override
+					public void run() {
+					}
+				});
+				submitted.countDown();
+			}
+		};
+		t.start();
+
+		assertTrue(!submitted.await(200, TimeUnit.MILLISECONDS));
+		SortScheduler.Status s = scheduler.getStatus();
+		assertEquals(2, s.getQueued());
+		assertEquals(2, s.getRunning());
+
+		gate.countDown();
+		assertTrue(submitted.await(10, TimeUnit.SECONDS));
+		c.close();
+	}
+
+	private static class Task implements Runnable {
+		private String name;
+		private List<String> order;
+		private CountDownLatch done;
+
+		public Task(String name, List<String> order, CountDownLatch done) {
+			this.name = name;
+			this.order = order;
+			this.done = done;
+		}
+
+		@Override
+		public void run() {
+			order.add(name);
+			done.countDown();
+		}
+	}
+}
@@ -17,17 +17,17 @@ package org.araqne.logfile;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 
+import org.araqne.log.api.CompiledDateParser;
 import org.araqne.log.api.V1LogParser;
 
 public class ApacheWebLogParser extends V1LogParser {
 	private String logFormat;
+	private final CompiledDateParser dateFormat = new CompiledDateParser("dd/MMM/yyyy:HH:mm:ss Z", Locale.ENGLISH);
 	private final static Map<String, FormatInfo> formats = new HashMap<String, FormatInfo>();
 
 	static class FormatInfo {
@@ -251,11 +251,6 @@ public class ApacheWebLogParser extends V1LogParser {
 	}
 
 	private Date parseDate(String time) {
-		SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MMM/yyyy:HH:mm:ss Z", Locale.ENGLISH);
-		try {
-			return dateFormat.parse(time);
-		} catch (ParseException e) {
-			return null;
-		}
+		return dateFormat.parse(time);
 	}
 }
@@ -15,33 +15,26 @@
  */
 package org.araqne.logfile;
 
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 
+import org.araqne.log.api.CompiledDateParser;
 import org.araqne.log.api.V1LogParser;
 
 public class OpenSshLogParser extends V1LogParser {
+	// syslog timestamp has no year
+	private final CompiledDateParser dateFormat = new CompiledDateParser(new SimpleDateFormat("MMM dd HH:mm:ss",
+			Locale.ENGLISH), true, 64);
+
 	@Override
 	public Map<String, Object> parse(Map<String, Object> params) {
-		SimpleDateFormat dateFormat = new SimpleDateFormat("MMM dd HH:mm:ss", Locale.ENGLISH);
 		Map<String, Object> m = new HashMap<String, Object>();
 
 		String line = (String) params.get("line");
-		Date date = null;
-		try {
-			date = dateFormat.parse(line);
-			Calendar c = Calendar.getInstance();
-			int year = c.get(Calendar.YEAR);
-			c.setTime(date);
-			c.set(Calendar.YEAR, year);
-			date = c.getTime();
-		} catch (ParseException e) {
-		}
+		Date date = dateFormat.parse(line);
 
 		String[] tokens = split(line);
 
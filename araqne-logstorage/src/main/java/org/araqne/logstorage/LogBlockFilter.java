@@ -0,0 +1,29 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logstorage;
+
+/**
+ * Log filter which also can reject whole storage block using block summary
+ * before the block is decompressed and parsed.
+ *
+ * @since 3.0.2
+ */
+public interface LogBlockFilter extends LogFilter {
+	/**
+	 * @return false if no log in the block can be accepted
+	 */
+	boolean mayMatch(LogBlockSummary block);
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logstorage;
+
+/**
+ * Summary of field values in one storage block. Every method returns
+ * conservative answer, so block can be skipped only if summary proves that
+ * no log in the block can match. Fields which are not indexed are treated as
+ * unknown.
+ *
+ * @since 3.0.2
+ */
+public interface LogBlockSummary {
+	boolean isIndexed(String field);
+
+	/**
+	 * @return false if no log has value whose string form equals to text
+	 */
+	boolean mightContainText(String field, String text);
+
+	/**
+	 * @return false if no log has numeric value which is equal to number
+	 */
+	boolean mightContainNumber(String field, Number number);
+
+	/**
+	 * @return true if every log has value for the field
+	 */
+	boolean isComplete(String field);
+
+	/**
+	 * @return true if all non-null values are numbers
+	 */
+	boolean isNumeric(String field);
+
+	/**
+	 * @return min numeric value, or null if unknown or no numeric value
+	 */
+	Double getMin(String field);
+
+	/**
+	 * @return max numeric value, or null if unknown or no numeric value
+	 */
+	Double getMax(String field);
+}
@@ -22,6 +22,8 @@ import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import org.araqne.logstorage.file.LogFileWriter;
+import org.araqne.logstorage.file.RawBlock;
+import org.araqne.logstorage.file.RawBlockReader;
 import org.araqne.storage.api.FilePath;
 import org.araqne.storage.api.StorageManager;
 
@@ -107,6 +109,27 @@ public interface LogStorage {
 	 */
 	LogFileWriter getOnlineWriter(String tableName, Date day);
 
+	/**
+	 * Opens compressed blocks of flushed logs. Buffered logs of online
+	 * writer are not visible.
+	 * 
+	 * @return null if tablet is not found, encrypted, or log file type has no
+	 *         raw block format
+	 * @since 3.0.2
+	 */
+	RawBlockReader openRawBlockReader(String tableName, Date day) throws IOException;
+
+	/**
+	 * Appends compressed blocks to the tablet with renumbered ids. Log
+	 * callbacks are not invoked.
+	 * 
+	 * @return false if tablet cannot accept blocks of specified log file type
+	 *         and compression method, nothing is written in this case
+	 * @since 3.0.2
+	 */
+	boolean writeRawBlocks(String tableName, Date day, String type, String compressionMethod, List<RawBlock> blocks)
+			throws InterruptedException;
+
 	/**
 	 * @since 1.18.0
 	 */
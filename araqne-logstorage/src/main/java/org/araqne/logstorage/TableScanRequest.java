@@ -1,6 +1,7 @@
 package org.araqne.logstorage;
 
 import java.util.Date;
+import java.util.concurrent.Executor;
 
 import org.araqne.log.api.LogParserBuilder;
 
@@ -14,6 +15,9 @@ public class TableScanRequest {
 	private LogTraverseCallback callback;
 	private boolean useSerialScan;
 	private boolean isAsc;
+	private Executor scanExecutor;
+	private LogFilter filter;
+	private boolean reuseRows;
 	
 	public TableScanRequest() {
 	}
@@ -55,6 +59,9 @@ public class TableScanRequest {
 		cloned.callback = callback;
 		cloned.useSerialScan = useSerialScan;
 		cloned.isAsc = isAsc;
+		cloned.scanExecutor = scanExecutor;
+		cloned.filter = filter;
+		cloned.reuseRows = reuseRows;
 		return cloned;
 	}
 
@@ -129,4 +136,43 @@ public class TableScanRequest {
 	public void setAsc(boolean isAsc) {
 		this.isAsc = isAsc;
 	}
+
+	/**
+	 * @return shared scan worker pool, or null if tablet should be traversed
+	 *         in caller thread
+	 * @since 3.0.2
+	 */
+	public Executor getScanExecutor() {
+		return scanExecutor;
+	}
+
+	public void setScanExecutor(Executor scanExecutor) {
+		this.scanExecutor = scanExecutor;
+	}
+
+	/**
+	 * @return predicate for parsed logs, or null if all logs should be
+	 *         delivered
+	 * @since 3.0.2
+	 */
+	public LogFilter getFilter() {
+		return filter;
+	}
+
+	public void setFilter(LogFilter filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * @return true if parsed maps can be reused after writeLogs() of traverse
+	 *         callback returns. Callback should not keep parsed logs then.
+	 * @since 3.0.2
+	 */
+	public boolean isReuseRows() {
+		return reuseRows;
+	}
+
+	public void setReuseRows(boolean reuseRows) {
+		this.reuseRows = reuseRows;
+	}
 }
@@ -23,8 +23,12 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -41,7 +45,8 @@ import org.slf4j.LoggerFactory;
  * @author xeraph
  * 
  */
-public class FileStorageBackupMedia implements StorageBackupMedia {
+public class FileStorageBackupMedia implements StorageBlockBackupMedia {
+	private static final String MANIFEST_SUFFIX = ".blocks";
 	private final Logger logger = LoggerFactory.getLogger(FileStorageBackupMedia.class);
 	private File path;
 
@@ -126,12 +131,13 @@ public class FileStorageBackupMedia implements StorageBackupMedia {
 		if (!cachedSchemas.containsKey(tableName))
 			throw new IOException("table [" + tableName + "] not found in backup media");
 
-		List<StorageMediaFile> mediaFiles = new ArrayList<StorageMediaFile>();
+		// block manifest of incremental backup overrides full copy
+		Map<String, StorageMediaFile> mediaFiles = new LinkedHashMap<String, StorageMediaFile>();
 		File tableDir = schema.dir;
 		logger.info("araqne logstorage: get backup file list for table [{}], dir [{}]", tableName, tableDir.getAbsolutePath());
 
 		if (tableDir.listFiles() == null)
-			return mediaFiles;
+			return new ArrayList<StorageMediaFile>();
 
 		Stack<File> dirs = new Stack<File>();
 		dirs.push(tableDir);
@@ -143,21 +149,30 @@ public class FileStorageBackupMedia implements StorageBackupMedia {
 					dirs.push(f);
 				} else {
 					String name = f.getName();
+					boolean manifest = name.endsWith(MANIFEST_SUFFIX);
+					if (manifest)
+						name = name.substring(0, name.length() - MANIFEST_SUFFIX.length());
+
 					if (name.endsWith(".idx") || name.endsWith(".dat") || name.endsWith(".key")) {
 						String fpath = f.getAbsolutePath();
 						String ppath = tableDir.getAbsolutePath();
 						if (fpath.startsWith(ppath)) {
 							fpath = fpath.substring(ppath.length() + 1);
 							fpath = fpath.replace('\\', '/');
-							StorageMediaFile bf = new StorageMediaFile(tableName, fpath, f.length());
-							mediaFiles.add(bf);
+							if (manifest) {
+								fpath = fpath.substring(0, fpath.length() - MANIFEST_SUFFIX.length());
+								long length = readManifest(f).getLength();
+								mediaFiles.put(fpath, new StorageMediaFile(tableName, fpath, length));
+							} else if (!mediaFiles.containsKey(fpath)) {
+								mediaFiles.put(fpath, new StorageMediaFile(tableName, fpath, f.length()));
+							}
 						}
 					}
 				}
 			}
 		}
 
-		return mediaFiles;
+		return new ArrayList<StorageMediaFile>(mediaFiles.values());
 	}
 
 	@Override
@@ -195,6 +210,15 @@ public class FileStorageBackupMedia implements StorageBackupMedia {
 		dstTmp.getParentFile().mkdirs();
 
 		File src = getMediaFile(req);
+		File manifestFile = new File(src.getAbsolutePath() + MANIFEST_SUFFIX);
+		if (manifestFile.exists()) {
+			copyBlocksFromMedia(readManifest(manifestFile), dstTmp);
+			if (!dstTmp.renameTo(dst.getFile())) {
+				dstTmp.delete();
+				throw new IOException("rename failed, " + dstTmp.getAbsolutePath());
+			}
+			return;
+		}
 
 		if (logger.isDebugEnabled())
 			logger.debug("araqne logstorage: copy from [{}] to [{}]", src.getAbsolutePath(), dstTmp.getAbsolutePath());
@@ -220,6 +244,56 @@ public class FileStorageBackupMedia implements StorageBackupMedia {
 		}
 	}
 
+	/**
+	 * Reassembles file from blocks, and verifies each block hash.
+	 */
+	private void copyBlocksFromMedia(StorageBlockManifest manifest, File dst) throws IOException {
+		if (logger.isDebugEnabled())
+			logger.debug("araqne logstorage: copy [{}] blocks to [{}]", manifest.getHashes().size(), dst.getAbsolutePath());
+
+		MessageDigest md = newDigest();
+		byte[] b = new byte[manifest.getBlockSize()];
+		long total = 0;
+		FileOutputStream os = null;
+		try {
+			os = new FileOutputStream(dst);
+			for (String hash : manifest.getHashes()) {
+				InputStream is = null;
+				int len = 0;
+				try {
+					is = getBlockInputStream(hash);
+					while (len < b.length) {
+						int n = is.read(b, len, b.length - len);
+						if (n < 0)
+							break;
+						len += n;
+					}
+				} finally {
+					close(is);
+				}
+
+				md.update(b, 0, len);
+				if (!toHex(md.digest()).equals(hash))
+					throw new IOException("corrupted block " + hash + " of " + manifest.getFileName());
+
+				os.write(b, 0, len);
+				total += len;
+			}
+		} catch (IOException e) {
+			close(os);
+			dst.delete();
+			throw e;
+		} finally {
+			close(os);
+		}
+
+		if (total != manifest.getLength()) {
+			dst.delete();
+			throw new IOException("length mismatch, expected " + manifest.getLength() + ", actual " + total + " of "
+					+ manifest.getFileName());
+		}
+	}
+
 	private void ensureTransferTo(FileChannel srcChannel, FileChannel dstChannel, long length) throws IOException {
 		long copied = 0;
 		while (copied < length) {
@@ -261,6 +335,11 @@ public class FileStorageBackupMedia implements StorageBackupMedia {
 				throw new IOException("rename failed, " + dstTmp.getAbsolutePath());
 			}
 
+			// full copy replaces block manifest of previous incremental backup
+			File manifest = new File(dst.getAbsolutePath() + MANIFEST_SUFFIX);
+			if (manifest.exists() && !manifest.delete())
+				throw new IOException("cannot delete stale block manifest: " + manifest.getAbsolutePath());
+
 		} else {
 			StorageTransferStream stream = req.getToMediaStream();
 			File dst = new File(path, "table/" + stream.getTableId() + "/" + stream.getMediaFileName());
@@ -291,6 +370,173 @@ public class FileStorageBackupMedia implements StorageBackupMedia {
 		}
 	}
 
+	@Override
+	public StorageBlockManifest getManifest(int tableId, String fileName) throws IOException {
+		File f = new File(path, "table/" + tableId + "/" + fileName + MANIFEST_SUFFIX);
+		if (!f.exists())
+			return null;
+
+		return readManifest(f);
+	}
+
+	@Override
+	public void putManifest(int tableId, StorageBlockManifest manifest) throws IOException {
+		File f = new File(path, "table/" + tableId + "/" + manifest.getFileName() + MANIFEST_SUFFIX);
+		replaceFile(f, manifest.toJSON());
+
+		// and manifest replaces full copy of previous backup
+		File fullCopy = new File(path, "table/" + tableId + "/" + manifest.getFileName());
+		if (fullCopy.exists() && !fullCopy.delete())
+			logger.warn("araqne logstorage: cannot delete old full copy [{}]", fullCopy.getAbsolutePath());
+	}
+
+	@Override
+	public void putTableMetadata(int tableId, byte[] metadata) throws IOException {
+		replaceFile(new File(path, "table/" + tableId + "/table-metadata.json"), metadata);
+	}
+
+	@Override
+	public boolean hasBlock(String hash) {
+		File f = getBlockFile(hash);
+		if (!f.exists())
+			return false;
+
+		// reused block should survive purgeBlocks() of concurrent job
+		f.setLastModified(System.currentTimeMillis());
+		return true;
+	}
+
+	@Override
+	public void putBlock(String hash, byte[] b, int offset, int length) throws IOException {
+		File dst = getBlockFile(hash);
+		if (dst.exists())
+			return;
+
+		// same block can be written by other transfer stream concurrently
+		File dstTmp = new File(dst.getAbsolutePath() + "." + Thread.currentThread().getId() + ".transfer");
+		dstTmp.getParentFile().mkdirs();
+
+		FileOutputStream os = null;
+		try {
+			os = new FileOutputStream(dstTmp);
+			os.write(b, offset, length);
+		} finally {
+			close(os);
+		}
+
+		if (!dstTmp.renameTo(dst)) {
+			dstTmp.delete();
+			if (!dst.exists())
+				throw new IOException("rename failed, " + dstTmp.getAbsolutePath());
+		}
+	}
+
+	@Override
+	public InputStream getBlockInputStream(String hash) throws IOException {
+		return new FileInputStream(getBlockFile(hash));
+	}
+
+	@Override
+	public int purgeBlocks(long before) throws IOException {
+		Set<String> referenced = new HashSet<String>();
+		File[] tableDirs = new File(path, "table").listFiles();
+		if (tableDirs != null) {
+			for (File tableDir : tableDirs) {
+				File[] files = tableDir.listFiles();
+				if (files == null)
+					continue;
+
+				for (File f : files)
+					if (f.isFile() && f.getName().endsWith(MANIFEST_SUFFIX))
+						referenced.addAll(readManifest(f).getHashes());
+			}
+		}
+
+		int count = 0;
+		File[] blockDirs = new File(path, "blocks").listFiles();
+		if (blockDirs == null)
+			return 0;
+
+		for (File blockDir : blockDirs) {
+			File[] blocks = blockDir.listFiles();
+			if (blocks == null)
+				continue;
+
+			for (File f : blocks) {
+				// skip referenced, in-transfer, or recently used blocks
+				if (referenced.contains(f.getName()) || f.getName().endsWith(".transfer") || f.lastModified() >= before)
+					continue;
+
+				if (f.delete())
+					count++;
+			}
+		}
+
+		if (logger.isDebugEnabled())
+			logger.debug("araqne logstorage: purged [{}] unreferenced blocks of [{}]", count, path.getAbsolutePath());
+
+		return count;
+	}
+
+	private File getBlockFile(String hash) {
+		if (hash.length() < 3 || hash.indexOf('/') >= 0 || hash.indexOf('\\') >= 0 || hash.indexOf('.') >= 0)
+			throw new IllegalArgumentException("invalid block hash: " + hash);
+
+		return new File(path, "blocks/" + hash.substring(0, 2) + "/" + hash);
+	}
+
+	private StorageBlockManifest readManifest(File f) throws IOException {
+		FileInputStream is = null;
+		try {
+			is = new FileInputStream(f);
+			return StorageBlockManifest.parseJSON(is);
+		} finally {
+			close(is);
+		}
+	}
+
+	private void replaceFile(File dst, byte[] b) throws IOException {
+		File dstTmp = new File(dst.getAbsolutePath() + ".transfer");
+		dstTmp.getParentFile().mkdirs();
+
+		FileOutputStream os = null;
+		try {
+			os = new FileOutputStream(dstTmp);
+			os.write(b);
+		} finally {
+			close(os);
+		}
+
+		// rename does not replace existing file on some platforms
+		if (!dstTmp.renameTo(dst)) {
+			dst.delete();
+			if (!dstTmp.renameTo(dst)) {
+				dstTmp.delete();
+				throw new IOException("rename failed, " + dstTmp.getAbsolutePath());
+			}
+		}
+	}
+
+	/**
+	 * @return SHA-256 digest which is used as block address
+	 */
+	public static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static String toHex(byte[] b) {
+		StringBuilder sb = new StringBuilder(b.length * 2);
+		for (byte c : b) {
+			sb.append(Character.forDigit((c >> 4) & 0xf, 16));
+			sb.append(Character.forDigit(c & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
 	private void close(Closeable c) {
 		try {
 			if (c != null)
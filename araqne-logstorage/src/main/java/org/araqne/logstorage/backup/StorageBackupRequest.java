@@ -31,6 +31,12 @@ public class StorageBackupRequest {
 	private StorageBackupMedia media;
 	private StorageBackupProgressMonitor progressMonitor;
 
+	// transfer new or changed blocks only, requires block backup media
+	private boolean incremental;
+
+	// number of files transferred concurrently
+	private int transferThreads = 1;
+
 	public StorageBackupRequest(StorageBackupType type) {
 		this.type = type;
 	}
@@ -82,4 +88,32 @@ public class StorageBackupRequest {
 	public void setProgressMonitor(StorageBackupProgressMonitor progressMonitor) {
 		this.progressMonitor = progressMonitor;
 	}
+
+	/**
+	 * @since 3.0.2
+	 */
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	/**
+	 * @since 3.0.2
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
+	/**
+	 * @since 3.0.2
+	 */
+	public int getTransferThreads() {
+		return transferThreads;
+	}
+
+	/**
+	 * @since 3.0.2
+	 */
+	public void setTransferThreads(int transferThreads) {
+		this.transferThreads = Math.max(1, transferThreads);
+	}
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logstorage.backup;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Backup media which keeps file contents as hash addressed blocks, so that
+ * incremental backup transfers new or changed blocks only. Restore of block
+ * backed files is handled by copyFromMedia().
+ * 
+ * @since 3.0.2
+ */
+public interface StorageBlockBackupMedia extends StorageBackupMedia {
+	/**
+	 * @return the block manifest of last backup, or null if not found
+	 */
+	StorageBlockManifest getManifest(int tableId, String fileName) throws IOException;
+
+	/**
+	 * Replaces block manifest of the file, and removes full copy of the file
+	 * if exists. All blocks should be written before.
+	 */
+	void putManifest(int tableId, StorageBlockManifest manifest) throws IOException;
+
+	/**
+	 * Replaces table metadata file.
+	 */
+	void putTableMetadata(int tableId, byte[] metadata) throws IOException;
+
+	boolean hasBlock(String hash) throws IOException;
+
+	void putBlock(String hash, byte[] b, int offset, int length) throws IOException;
+
+	InputStream getBlockInputStream(String hash) throws IOException;
+
+	/**
+	 * Deletes blocks which are not referenced by any manifest, and not written
+	 * or reused since the given time. Caller should pass a time before the
+	 * start of every running backup on the media, because blocks of running
+	 * backup are not referenced until its manifests are written.
+	 * 
+	 * @param before
+	 *            unix time in milliseconds
+	 * @return deleted block count
+	 */
+	int purgeBlocks(long before) throws IOException;
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logstorage.backup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONConverter;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Hashes of fixed size blocks of a storage file. File is reassembled by
+ * concatenating blocks in order.
+ * 
+ * @since 3.0.2
+ */
+public class StorageBlockManifest {
+	private String fileName;
+	private long length;
+	private long lastModified;
+	private int blockSize;
+	private List<String> hashes = new ArrayList<String>();
+
+	public StorageBlockManifest(String fileName, long length, long lastModified, int blockSize) {
+		this.fileName = fileName;
+		this.length = length;
+		this.lastModified = lastModified;
+		this.blockSize = blockSize;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public List<String> getHashes() {
+		return hashes;
+	}
+
+	public void setHashes(List<String> hashes) {
+		this.hashes = hashes;
+	}
+
+	@SuppressWarnings("unchecked")
+	public static StorageBlockManifest parseJSON(InputStream is) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		byte[] b = new byte[8096];
+		while (true) {
+			int len = is.read(b);
+			if (len < 0)
+				break;
+
+			bos.write(b, 0, len);
+		}
+
+		Map<String, Object> json = null;
+		try {
+			json = JSONConverter.parse(new JSONObject(new String(bos.toByteArray(), "utf-8")));
+		} catch (JSONException e) {
+			throw new IOException("cannot parse block manifest", e);
+		}
+
+		String fileName = (String) json.get("file_name");
+		long length = Long.parseLong(json.get("length").toString());
+		long lastModified = Long.parseLong(json.get("last_modified").toString());
+		int blockSize = Integer.parseInt(json.get("block_size").toString());
+
+		StorageBlockManifest manifest = new StorageBlockManifest(fileName, length, lastModified, blockSize);
+		for (Object o : (List<Object>) json.get("blocks"))
+			manifest.hashes.add((String) o);
+
+		return manifest;
+	}
+
+	public byte[] toJSON() throws IOException {
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("version", 1);
+		m.put("file_name", fileName);
+		m.put("length", length);
+		m.put("last_modified", lastModified);
+		m.put("block_size", blockSize);
+		m.put("blocks", hashes);
+
+		try {
+			return JSONConverter.jsonize(m).getBytes("utf-8");
+		} catch (JSONException e) {
+			throw new IOException("cannot serialize block manifest", e);
+		}
+	}
+}
@@ -68,13 +68,21 @@ public class LocalDumpDriver implements DumpDriver {
 	@Override
 	public List<DumpConfigSpec> getExportSpecs() {
 		DumpConfigSpec path = new DumpConfigSpec("path", t("Path", "경로"), t("Export file path", "덤프 파일 경로"), true);
-		return Arrays.asList(path);
+		DumpConfigSpec rawBlock = new DumpConfigSpec("raw_block", t("Raw block", "블록 복사"), t(
+				"Copy compressed blocks as is (true or false). Default is false.",
+				"압축된 블록을 그대로 복사 (true 혹은 false). 기본값은 false."), false);
+		return Arrays.asList(path, rawBlock);
 	}
 
 	@Override
 	public List<DumpConfigSpec> getImportSpecs() {
 		DumpConfigSpec path = new DumpConfigSpec("path", t("Path", "경로"), t("Export file path", "덤프 파일 경로"), true);
-		return Arrays.asList(path);
+		DumpConfigSpec rawBlock = new DumpConfigSpec("raw_block", t("Raw block", "블록 복사"), t(
+				"Append copied blocks as is if compression matches (true or false). Default is true.",
+				"압축 방식이 같으면 복사된 블록을 그대로 추가 (true 혹은 false). 기본값은 true."), false);
+		DumpConfigSpec threads = new DumpConfigSpec("threads", t("Threads", "스레드 수"), t(
+				"Number of tablets imported concurrently. Default is 4.", "동시에 임포트할 테이블 파일 수. 기본값은 4."), false);
+		return Arrays.asList(path, rawBlock, threads);
 	}
 
 	@Override
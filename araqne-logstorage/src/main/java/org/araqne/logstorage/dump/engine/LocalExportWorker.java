@@ -2,6 +2,7 @@ package org.araqne.logstorage.dump.engine;
 
 import java.io.BufferedOutputStream;
 import java.io.Closeable;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -12,6 +13,7 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -28,6 +30,8 @@ import org.araqne.logstorage.dump.DumpTabletKey;
 import org.araqne.logstorage.dump.ExportTabletTask;
 import org.araqne.logstorage.dump.ExportTask;
 import org.araqne.logstorage.dump.ExportWorker;
+import org.araqne.logstorage.file.RawBlock;
+import org.araqne.logstorage.file.RawBlockReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,13 +49,16 @@ public class LocalExportWorker implements ExportWorker {
 
 	private File path;
 
+	// copy compressed blocks instead of decoded logs
+	private boolean rawBlock;
+
 	public LocalExportWorker(ExportRequest req, DumpService dumpService, LogStorage storage) {
 		this.req = req;
 		this.dumpService = dumpService;
 		this.storage = storage;
 		this.task = new ExportTask(req);
 		this.path = new File(req.getParams().get("path"));
-
+		this.rawBlock = "true".equals(req.getParams().get("raw_block"));
 	}
 
 	@Override
@@ -90,6 +97,15 @@ public class LocalExportWorker implements ExportWorker {
 				if (lastTableName == null || !lastTableName.equals(t.getTableName())) {
 					zos.putNextEntry(new ZipEntry(t.getTableId() + "/"));
 					lastTableName = t.getTableName();
+
+					// buffered logs should be written to blocks
+					if (rawBlock)
+						storage.flush(t.getTableName());
+				}
+
+				if (rawBlock && exportRawBlocks(t, df)) {
+					manifest.getEntries().add(t.toEntry());
+					continue;
 				}
 
 				String entryPath = t.getTableId() + "/" + df.format(t.getDay()) + ".dmp";
@@ -115,6 +131,7 @@ public class LocalExportWorker implements ExportWorker {
 
 				manifest.getEntries().add(t.toEntry());
 
+				bos.flush();
 				zos.closeEntry();
 			}
 
@@ -136,6 +153,58 @@ public class LocalExportWorker implements ExportWorker {
 		}
 	}
 
+	/**
+	 * Writes index entries and compressed data blocks of the tablet as is.
+	 * Entry is not deflated again, since blocks are already compressed.
+	 * 
+	 * @return false if tablet has no raw block format
+	 */
+	private boolean exportRawBlocks(ExportTabletTask t, SimpleDateFormat df) throws IOException {
+		RawBlockReader reader = storage.openRawBlockReader(t.getTableName(), t.getDay());
+		if (reader == null)
+			return false;
+
+		try {
+			String entryPath = t.getTableId() + "/" + df.format(t.getDay()) + ".blk";
+			zos.setLevel(Deflater.NO_COMPRESSION);
+			zos.putNextEntry(new ZipEntry(entryPath));
+
+			DataOutputStream dos = new DataOutputStream(bos);
+			dos.writeUTF(reader.getType());
+			dos.writeUTF(reader.getCompressionMethod());
+
+			long count = 0;
+			RawBlock block = null;
+			while ((block = reader.next()) != null) {
+				if (task.isCancelled())
+					break;
+
+				if (block.isEncrypted())
+					throw new IOException("cannot export encrypted block of table " + t.getTableName());
+
+				byte[] data = block.getData();
+				dos.writeLong(block.getMinTime());
+				dos.writeLong(block.getMaxTime());
+				dos.writeInt(block.getLogCount());
+				dos.writeInt(data.length);
+				dos.write(data);
+
+				count += block.getLogCount();
+				t.setActualCount(count);
+			}
+
+			dos.flush();
+			zos.closeEntry();
+
+			t.setActualCount(count);
+			t.setCompleted(true);
+			return true;
+		} finally {
+			zos.setLevel(Deflater.DEFAULT_COMPRESSION);
+			reader.close();
+		}
+	}
+
 	private Date nextDay(Date d) {
 		Calendar c = Calendar.getInstance();
 		c.setTime(d);
@@ -1,5 +1,7 @@
 package org.araqne.logstorage.dump.engine;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
@@ -12,6 +14,14 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -27,6 +37,7 @@ import org.araqne.logstorage.dump.ImportRequest;
 import org.araqne.logstorage.dump.ImportTabletTask;
 import org.araqne.logstorage.dump.ImportTask;
 import org.araqne.logstorage.dump.ImportWorker;
+import org.araqne.logstorage.file.RawBlock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,6 +52,12 @@ public class LocalImportWorker implements ImportWorker {
 
 	private File path;
 
+	// append copied blocks as is if target tablet accepts them
+	private boolean rawBlock;
+
+	// tablets imported concurrently
+	private int threadCount = 4;
+
 	public LocalImportWorker(ImportRequest req, DumpService dumpService, LogStorage storage) {
 		this.req = req;
 		this.dumpService = dumpService;
@@ -53,6 +70,11 @@ public class LocalImportWorker implements ImportWorker {
 		}
 
 		this.path = new File(req.getParams().get("path"));
+		this.rawBlock = !"false".equals(req.getParams().get("raw_block"));
+
+		String threads = req.getParams().get("threads");
+		if (threads != null && !threads.trim().isEmpty())
+			this.threadCount = Math.max(1, Integer.valueOf(threads.trim()));
 	}
 
 	@Override
@@ -63,6 +85,7 @@ public class LocalImportWorker implements ImportWorker {
 	@Override
 	public void run() {
 		ZipFile zipFile = null;
+		ExecutorService executor = null;
 		try {
 			DumpManifest manifest = dumpService.readManifest("local", req.getParams());
 			Map<String, Integer> tables = manifest.getTables();
@@ -73,10 +96,13 @@ public class LocalImportWorker implements ImportWorker {
 			}
 
 			zipFile = new ZipFile(path);
+			executor = newExecutor();
 
+			// tablets have separate online writers, load them concurrently
+			List<Future<?>> futures = new ArrayList<Future<?>>();
 			for (DumpTabletKey key : task.getTabletTasks().keySet()) {
 				if (task.isCancelled())
-					return;
+					break;
 
 				ImportTabletTask e = task.getTabletTasks().get(key);
 				if (!keys.contains(key))
@@ -86,13 +112,24 @@ public class LocalImportWorker implements ImportWorker {
 				if (tableId == null)
 					continue;
 
-				loadFile(zipFile, e, tableId);
+				futures.add(executor.submit(new TabletLoader(zipFile, e, tableId)));
+			}
+
+			for (Future<?> f : futures) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					slog.error("araqne logstorage: import failed", e.getCause());
+				}
 			}
 
 		} catch (IOException e) {
 			slog.error("araqne logstorage: import failed", e);
 		} catch (InterruptedException e) {
 		} finally {
+			if (executor != null)
+				executor.shutdownNow();
+
 			if (zipFile != null) {
 				try {
 					zipFile.close();
@@ -104,6 +141,129 @@ public class LocalImportWorker implements ImportWorker {
 		}
 	}
 
+	private ExecutorService newExecutor() {
+		return new ThreadPoolExecutor(threadCount, threadCount, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private AtomicInteger counter = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "LogStorage Import " + req.getGuid() + " " + counter.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+	}
+
+	private class TabletLoader implements Runnable {
+		private ZipFile zipFile;
+		private ImportTabletTask dumpEntry;
+		private int tableId;
+
+		public TabletLoader(ZipFile zipFile, ImportTabletTask dumpEntry, int tableId) {
+			this.zipFile = zipFile;
+			this.dumpEntry = dumpEntry;
+			this.tableId = tableId;
+		}
+
+		@Override
+		public void run() {
+			if (task.isCancelled())
+				return;
+
+			try {
+				SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd");
+				String prefix = tableId + "/" + df.format(dumpEntry.getDay());
+				ZipEntry blockEntry = zipFile.getEntry(prefix + ".blk");
+				if (blockEntry != null)
+					loadBlocks(zipFile, blockEntry, dumpEntry);
+				else
+					loadFile(zipFile, dumpEntry, tableId);
+			} catch (IOException e) {
+				throw new IllegalStateException("cannot import table " + dumpEntry.getTableName() + ", day "
+						+ dumpEntry.getDay(), e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Appends copied blocks to the target tablet with id renumbering only.
+	 * Blocks are decoded and written as logs if the tablet has different log
+	 * file type or compression method.
+	 */
+	private void loadBlocks(ZipFile zipFile, ZipEntry zipEntry, ImportTabletTask dumpEntry) throws IOException,
+			InterruptedException {
+		final int batchSize = 16;
+		String tableName = dumpEntry.getTableName();
+		boolean useRawBlock = rawBlock;
+		long total = 0;
+		DataInputStream is = null;
+		try {
+			is = new DataInputStream(new BufferedInputStream(zipFile.getInputStream(zipEntry), 8192 * 4));
+			String type = is.readUTF();
+			String compressionMethod = is.readUTF();
+
+			List<RawBlock> blocks = new ArrayList<RawBlock>(batchSize);
+			boolean eof = false;
+			while (!eof) {
+				if (task.isCancelled())
+					break;
+
+				blocks.clear();
+				while (blocks.size() < batchSize) {
+					RawBlock block = readBlock(is);
+					if (block == null) {
+						eof = true;
+						break;
+					}
+					blocks.add(block);
+				}
+
+				if (blocks.isEmpty())
+					break;
+
+				if (useRawBlock) {
+					useRawBlock = storage.writeRawBlocks(tableName, dumpEntry.getDay(), type, compressionMethod, blocks);
+					if (!useRawBlock)
+						slog.info("araqne logstorage: table [{}] cannot accept [{}] blocks, decoding blocks", tableName,
+								compressionMethod);
+				}
+
+				for (RawBlock block : blocks) {
+					if (!useRawBlock)
+						storage.write(block.toLogs(tableName, compressionMethod));
+
+					total += block.getLogCount();
+				}
+
+				dumpEntry.setImportCount(total);
+			}
+		} finally {
+			if (is != null) {
+				is.close();
+			}
+
+			dumpEntry.setCompleted(true);
+		}
+	}
+
+	private RawBlock readBlock(DataInputStream is) throws IOException {
+		long minTime = 0;
+		try {
+			minTime = is.readLong();
+		} catch (EOFException e) {
+			return null;
+		}
+
+		long maxTime = is.readLong();
+		int logCount = is.readInt();
+		byte[] data = new byte[is.readInt()];
+		is.readFully(data);
+		return new RawBlock(minTime, maxTime, logCount, data);
+	}
+
 	@SuppressWarnings("unchecked")
 	private void loadFile(ZipFile zipFile, ImportTabletTask dumpEntry, int tableId) throws IOException, InterruptedException {
 		long total = 0;
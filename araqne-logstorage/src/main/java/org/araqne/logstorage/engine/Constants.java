@@ -23,7 +23,9 @@ public enum Constants {
 	LogBlockSize("log_block_size"),
 	MinFreeDiskSpaceType("min_free_disk_space_type", "string"),
 	MinFreeDiskSpaceValue("min_free_disk_space_value"),
-	DiskLackAction("disk_lack_action", "string");
+	DiskLackAction("disk_lack_action", "string"),
+	LogScanThreads("log_scan_threads"),
+	LogBlockCacheSize("log_block_cache_size");
 
 	Constants(String name) {
 		this(name, "int");
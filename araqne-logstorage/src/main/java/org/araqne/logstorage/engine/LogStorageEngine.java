@@ -28,6 +28,7 @@ import java.util.ConcurrentModificationException;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -36,9 +37,15 @@ import java.util.NoSuchElementException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 
@@ -74,6 +81,7 @@ import org.araqne.logstorage.LogStorageEventListener;
 import org.araqne.logstorage.LogStorageStatus;
 import org.araqne.logstorage.LogTableRegistry;
 import org.araqne.logstorage.LogTraverseCallback;
+import org.araqne.logstorage.LogTraverseCallback.BlockSkipReason;
 import org.araqne.logstorage.LogWriterStatus;
 import org.araqne.logstorage.ReplicaStorageConfig;
 import org.araqne.logstorage.ReplicationMode;
@@ -86,11 +94,16 @@ import org.araqne.logstorage.TableSchema;
 import org.araqne.logstorage.UnsupportedLogFileTypeException;
 import org.araqne.logstorage.WriteFallback;
 import org.araqne.logstorage.WriterPreparationException;
+import org.araqne.logstorage.file.DataBlockCache;
 import org.araqne.logstorage.file.DatapathUtil;
 import org.araqne.logstorage.file.LogFileReader;
 import org.araqne.logstorage.file.LogFileServiceV2;
 import org.araqne.logstorage.file.LogFileWriter;
 import org.araqne.logstorage.file.LogRecordCursor;
+import org.araqne.logstorage.file.RawBlock;
+import org.araqne.logstorage.file.RawBlockReader;
+import org.araqne.logstorage.file.RawBlockReaderV3o;
+import org.araqne.logstorage.file.ScanTask;
 import org.araqne.storage.api.FilePath;
 import org.araqne.storage.api.StorageManager;
 import org.slf4j.Logger;
@@ -106,6 +119,12 @@ public class LogStorageEngine implements LogStorage, TableEventListener, LogFile
 	private static final int DEFAULT_LOG_CHECK_INTERVAL = 1000;
 	private static final int DEFAULT_MAX_IDLE_TIME = 600000; // 10min
 	private static final int DEFAULT_LOG_FLUSH_INTERVAL = 60000; // 60sec
+	private static final int DEFAULT_LOG_SCAN_THREADS = Runtime.getRuntime().availableProcessors();
+	// in megabytes
+	private static final int DEFAULT_LOG_BLOCK_CACHE_SIZE = 64;
+
+	// max buffered log batches for each tablet in parallel scan
+	private static final int TABLET_SCAN_QUEUE_SIZE = 16;
 
 	private LogStorageStatus status = LogStorageStatus.Closed;
 
@@ -136,6 +155,10 @@ public class LogStorageEngine implements LogStorage, TableEventListener, LogFile
 
 	private LogFileFetcher fetcher;
 
+	// shared worker pool for parallel tablet and block scan
+	private ThreadPoolExecutor scanExecutor;
+	private volatile int scanThreads;
+
 	private FilePath logDir;
 
 	private ConcurrentHashMap<String, Integer> tableNameCache;
@@ -224,6 +247,14 @@ public class LogStorageEngine implements LogStorage, TableEventListener, LogFile
 		writerSweeperThread = new Thread(writerSweeper, "LogStorage LogWriter Sweeper");
 		writerSweeperThread.start();
 
+		scanThreads = getIntParameter(Constants.LogScanThreads, DEFAULT_LOG_SCAN_THREADS);
+		int poolSize = Math.max(1, scanThreads);
+		scanExecutor = new ThreadPoolExecutor(poolSize, poolSize, 10, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(
+				poolSize * 64), new ScanThreadFactory());
+		scanExecutor.allowCoreThreadTimeOut(true);
+
+		setBlockCacheCapacity();
+
 		// load table name cache
 		tableNameCache.clear();
 		for (TableSchema schema : tableRegistry.getTableSchemas()) {
@@ -283,6 +314,14 @@ public class LogStorageEngine implements LogStorage, TableEventListener, LogFile
 		onlineWriters.clear();
 		lastIds.clear();
 
+		if (scanExecutor != null) {
+			scanExecutor.shutdownNow();
+			scanExecutor = null;
+		}
+
+		// storage directory can be changed before next start
+		DataBlockCache.getInstance().clear();
+
 		lfsRegistry.removeListener(this);
 
 		status = LogStorageStatus.Closed;
@@ -339,11 +378,14 @@ public class LogStorageEngine implements LogStorage, TableEventListener, LogFile
 			if (!tableDir.exists())
 				return;
 
-			// delete all .idx, .dat, .key files
+			// delete all .idx, .dat, .key, .skp files
 			for (FilePath f : tableDir.listFiles()) {
 				String name = f.getName();
-				if (f.isFile() && (name.endsWith(".idx") || name.endsWith(".dat") || name.endsWith(".key"))) {
+				if (f.isFile()
+						&& (name.endsWith(".idx") || name.endsWith(".dat") || name.endsWith(".key") || name.endsWith(".skp"))) {
 					ensureDelete(f);
+					if (name.endsWith(".dat"))
+						DataBlockCache.getInstance().invalidate(f.getAbsolutePath());
 				}
 			}
 
@@ -706,6 +748,11 @@ public class LogStorageEngine implements LogStorage, TableEventListener, LogFile
 		logger.debug("araqne logstorage: try to purge log data of table [{}], day [{}]", tableName, fileName);
 		ensureDelete(idxFile);
 		ensureDelete(datFile);
+
+		FilePath skpFile = dir.newFilePath(fileName + ".skp");
+		if (skpFile.exists())
+			ensureDelete(skpFile);
+		DataBlockCache.getInstance().invalidate(datFile.getAbsolutePath());
 	}
 
 	@SuppressWarnings("unchecked")
@@ -948,6 +995,26 @@ public class LogStorageEngine implements LogStorage, TableEventListener, LogFile
 		int maxIdleTime = getIntParameter(Constants.LogMaxIdleTime, DEFAULT_MAX_IDLE_TIME);
 		writerSweeper.setFlushInterval(flushInterval);
 		writerSweeper.setMaxIdleTime(maxIdleTime);
+
+		setBlockCacheCapacity();
+
+		scanThreads = getIntParameter(Constants.LogScanThreads, DEFAULT_LOG_SCAN_THREADS);
+		ThreadPoolExecutor executor = scanExecutor;
+		if (executor != null) {
+			int poolSize = Math.max(1, scanThreads);
+			if (poolSize > executor.getMaximumPoolSize()) {
+				executor.setMaximumPoolSize(poolSize);
+				executor.setCorePoolSize(poolSize);
+			} else {
+				executor.setCorePoolSize(poolSize);
+				executor.setMaximumPoolSize(poolSize);
+			}
+		}
+	}
+
+	private void setBlockCacheCapacity() {
+		int megabytes = getIntParameter(Constants.LogBlockCacheSize, DEFAULT_LOG_BLOCK_CACHE_SIZE);
+		DataBlockCache.getInstance().setCapacity(megabytes * 1024L * 1024L);
 	}
 
 	@Override
@@ -1002,6 +1069,59 @@ public class LogStorageEngine implements LogStorage, TableEventListener, LogFile
 		return online.getWriter();
 	}
 
+	@Override
+	public RawBlockReader openRawBlockReader(String tableName, Date day) throws IOException {
+		verify();
+
+		TableSchema schema = tableRegistry.getTableSchema(tableName, true);
+		if (!schema.getPrimaryStorage().getType().equals("v3o"))
+			return null;
+
+		int tableId = schema.getId();
+		String basePathString = schema.getPrimaryStorage().getBasePath();
+		FilePath basePath = logDir;
+		if (basePathString != null)
+			basePath = storageManager.resolveFilePath(basePathString);
+
+		FilePath indexPath = DatapathUtil.getIndexFile(tableId, day, basePath);
+		FilePath dataPath = DatapathUtil.getDataFile(tableId, day, basePath);
+		FilePath keyPath = DatapathUtil.getKeyFile(tableId, day, basePath);
+		if (!indexPath.isNotEmpty() || !dataPath.isNotEmpty() || keyPath.exists())
+			return null;
+
+		syncOnlineWriter(onlineWriters.get(new OnlineWriterKey(tableName, day, tableId)));
+
+		return new RawBlockReaderV3o(indexPath, dataPath);
+	}
+
+	@Override
+	public boolean writeRawBlocks(String tableName, Date day, String type, String compressionMethod, List<RawBlock> blocks)
+			throws InterruptedException {
+		verify();
+
+		TableLock lock = tableRegistry.getSharedTableLock(tableName);
+		lock.lockInterruptibly();
+		try {
+			for (int tryCnt = 0; tryCnt < 2; tryCnt++) {
+				try {
+					OnlineWriter writer = loadOnlineWriter(tableName, day);
+					return writer.writeRawBlocks(type, compressionMethod, blocks);
+				} catch (WriterPreparationException ex) {
+					logger.debug("WriterPreparationException", ex);
+					// retry
+				} catch (TimeoutException ex) {
+					throw new IllegalStateException("cannot write raw blocks to table [" + tableName + "]", ex);
+				} catch (IOException ex) {
+					throw new IllegalStateException("cannot write raw blocks to table [" + tableName + "]", ex);
+				}
+			}
+
+			throw new IllegalStateException("cannot write raw blocks to table [" + tableName + "]: retry count exceeded");
+		} finally {
+			lock.unlock();
+		}
+	}
+
 	@Override
 	public void addEventListener(LogStorageEventListener listener) {
 		callbackSet.get(LogStorageEventListener.class).add(listener);
@@ -1286,6 +1406,17 @@ public class LogStorageEngine implements LogStorage, TableEventListener, LogFile
 		if (req.isAsc())
 			Collections.sort(filtered);
 
+		ThreadPoolExecutor executor = scanExecutor;
+		if (executor != null && scanThreads > 1 && !req.isUseSerialScan()) {
+			req = req.clone();
+			req.setScanExecutor(executor);
+
+			if (filtered.size() > 1) {
+				searchParallel(req, filtered, executor);
+				return !req.getTraverseCallback().isEof();
+			}
+		}
+
 		for (Date day : filtered) {
 			if (logger.isTraceEnabled())
 				logger.trace("araqne logstorage: searching table {}, date={}", tableName, DateUtil.getDayText(day));
@@ -1298,6 +1429,193 @@ public class LogStorageEngine implements LogStorage, TableEventListener, LogFile
 		return !req.getTraverseCallback().isEof();
 	}
 
+	/**
+	 * Scan up to log_scan_threads tablets concurrently. Worker threads buffer
+	 * logs in bounded per-tablet queues, and caller thread delivers them to
+	 * traverse callback in requested tablet order. If the head tablet is not
+	 * picked up by worker yet, caller thread scans it by itself.
+	 */
+	private void searchParallel(TableScanRequest req, List<Date> days, ThreadPoolExecutor executor)
+			throws InterruptedException {
+		String tableName = req.getTableName();
+		LogTraverseCallback c = req.getTraverseCallback();
+		int window = scanThreads;
+
+		LinkedList<TabletScanTask> pending = new LinkedList<TabletScanTask>();
+		int next = 0;
+		try {
+			while (next < days.size() || !pending.isEmpty()) {
+				while (next < days.size() && pending.size() < window) {
+					TabletScanTask task = new TabletScanTask(req, days.get(next++));
+					pending.add(task);
+					try {
+						executor.execute(task);
+					} catch (RejectedExecutionException e) {
+						// caller thread will scan it
+					}
+				}
+
+				TabletScanTask task = pending.removeFirst();
+				if (logger.isTraceEnabled())
+					logger.trace("araqne logstorage: searching table {}, date={}", tableName, DateUtil.getDayText(task.day));
+
+				if (task.claim())
+					searchTablet(req, task.day);
+				else
+					task.drainTo(c);
+
+				if (c.isEof())
+					break;
+			}
+		} finally {
+			ScanTask.cancelAll(pending);
+		}
+	}
+
+	private class TabletScanTask extends ScanTask<Void> {
+		private final Date day;
+		private final TableScanRequest tabletReq;
+		private final TabletBufferCallback buffer;
+
+		public TabletScanTask(TableScanRequest req, Date day) {
+			this.day = day;
+			this.buffer = new TabletBufferCallback(this, req.getTraverseCallback());
+			this.tabletReq = req.clone();
+			this.tabletReq.setTraverseCallback(buffer);
+		}
+
+		@Override
+		protected Void execute() throws Exception {
+			try {
+				searchTablet(tabletReq, day);
+			} finally {
+				buffer.closed = true;
+				buffer.put(TabletBufferCallback.EOS);
+			}
+			return null;
+		}
+
+		private void drainTo(LogTraverseCallback c) throws InterruptedException {
+			while (true) {
+				Object o = buffer.queue.poll(100, TimeUnit.MILLISECONDS);
+				if (o == null) {
+					// worker can be interrupted before it puts EOS
+					if (buffer.closed && buffer.queue.isEmpty())
+						break;
+					continue;
+				}
+
+				if (o == TabletBufferCallback.EOS)
+					break;
+
+				if (o instanceof SkippedBlock) {
+					SkippedBlock skipped = (SkippedBlock) o;
+					c.onBlockSkipped(skipped.reason, skipped.firstId, skipped.logCount);
+					continue;
+				}
+
+				@SuppressWarnings("unchecked")
+				List<Log> logs = (List<Log>) o;
+				c.writeLogs(logs);
+				if (c.isEof()) {
+					cancel();
+					return;
+				}
+			}
+
+			if (buffer.isFailed())
+				c.setFailure(buffer.getFailure());
+		}
+	}
+
+	private static class SkippedBlock {
+		private final BlockSkipReason reason;
+		private final long firstId;
+		private final int logCount;
+
+		public SkippedBlock(BlockSkipReason reason, long firstId, int logCount) {
+			this.reason = reason;
+			this.firstId = firstId;
+			this.logCount = logCount;
+		}
+	}
+
+	/**
+	 * Buffers logs and skipped block events in scan order, and caller thread
+	 * delivers them to original callback.
+	 */
+	private static class TabletBufferCallback extends LogTraverseCallback {
+		private static final Object EOS = new Object();
+
+		private final TabletScanTask task;
+		private final LogTraverseCallback origin;
+		private final LinkedBlockingQueue<Object> queue;
+		private volatile boolean closed;
+
+		public TabletBufferCallback(TabletScanTask task, LogTraverseCallback origin) {
+			super(new LogTraverseCallback.Sink(0, 0) {
+				@Override
+				protected void processLogs(List<Log> logs) {
+				}
+			});
+			this.task = task;
+			this.origin = origin;
+			this.queue = new LinkedBlockingQueue<Object>(TABLET_SCAN_QUEUE_SIZE);
+		}
+
+		@Override
+		public void interrupt() {
+		}
+
+		@Override
+		public boolean isInterrupted() {
+			return task.isCancelled() || origin.isInterrupted();
+		}
+
+		@Override
+		public boolean isOrdered() {
+			return origin.isOrdered();
+		}
+
+		@Override
+		public void writeLogs(List<Log> logs) {
+			if (!logs.isEmpty())
+				put(logs);
+		}
+
+		@Override
+		public void onBlockSkipped(BlockSkipReason reason, long firstId, int logCount) {
+			put(new SkippedBlock(reason, firstId, logCount));
+		}
+
+		private void put(Object o) {
+			try {
+				while (!queue.offer(o, 100, TimeUnit.MILLISECONDS)) {
+					if (task.isCancelled())
+						return;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		protected List<Log> filter(List<Log> logs) {
+			return logs;
+		}
+	}
+
+	private static class ScanThreadFactory implements ThreadFactory {
+		private final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "LogStorage Scanner " + counter.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
 	private void syncOnlineWriter(OnlineWriter onlineWriter) {
 		if (onlineWriter != null) {
 			try {
@@ -1368,7 +1686,7 @@ public class LogStorageEngine implements LogStorage, TableEventListener, LogFile
 									result = Arrays.asList(new Log[] { new Log(e.tableName, e.date, e.id, e.logMap) });
 									c.setFailure(e);
 								}
-								logs.addAll(result);
+								LogFileReader.addFiltered(logs, result, req.getFilter());
 							}
 						}
 					} else {
@@ -1386,7 +1704,7 @@ public class LogStorageEngine implements LogStorage, TableEventListener, LogFile
 									result = Arrays.asList(new Log[] { new Log(e.tableName, e.date, e.id, e.logMap) });
 									c.setFailure(e);
 								}
-								logs.addAll(result);
+								LogFileReader.addFiltered(logs, result, req.getFilter());
 							}
 						}
 					}
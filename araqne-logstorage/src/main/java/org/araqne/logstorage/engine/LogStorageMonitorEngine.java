@@ -34,11 +34,14 @@ import org.araqne.cron.PeriodicJob;
 import org.araqne.logstorage.DiskLackAction;
 import org.araqne.logstorage.DiskLackCallback;
 import org.araqne.logstorage.DiskSpaceType;
+import org.araqne.logstorage.LogBlockCacheMonitor;
+import org.araqne.logstorage.LogBlockCacheStatus;
 import org.araqne.logstorage.LogRetentionPolicy;
 import org.araqne.logstorage.LogStorage;
 import org.araqne.logstorage.LogStorageMonitor;
 import org.araqne.logstorage.LogStorageStatus;
 import org.araqne.logstorage.LogTableRegistry;
+import org.araqne.logstorage.file.DataBlockCache;
 import org.araqne.storage.api.FilePath;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,7 +49,7 @@ import org.slf4j.LoggerFactory;
 @PeriodicJob("* * * * *")
 @Component(name = "logstorage-monitor")
 @Provides
-public class LogStorageMonitorEngine implements LogStorageMonitor {
+public class LogStorageMonitorEngine implements LogStorageMonitor, LogBlockCacheMonitor {
 	private static final String DEFAULT_MIN_FREE_SPACE_TYPE = DiskSpaceType.Percentage.toString();
 	private static final int DEFAULT_MIN_FREE_SPACE_VALUE = 5;
 	private static final String DEFAULT_DISK_LACK_ACTION = DiskLackAction.StopLogging.toString();
@@ -135,6 +138,11 @@ public class LogStorageMonitorEngine implements LogStorageMonitor {
 		diskLackCallbacks.remove(callback);
 	}
 
+	@Override
+	public LogBlockCacheStatus getBlockCacheStatus() {
+		return DataBlockCache.getInstance().getStatus();
+	}
+
 	@Override
 	public void forceRetentionCheck() {
 		checkRetentions(true);
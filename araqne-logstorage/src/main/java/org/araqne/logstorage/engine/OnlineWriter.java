@@ -35,6 +35,7 @@ import org.araqne.logstorage.TableSchema;
 import org.araqne.logstorage.WriterPreparationException;
 import org.araqne.logstorage.file.DatapathUtil;
 import org.araqne.logstorage.file.LogFileWriter;
+import org.araqne.logstorage.file.RawBlock;
 import org.araqne.storage.api.FilePath;
 import org.araqne.storage.api.StorageManager;
 import org.slf4j.Logger;
@@ -233,6 +234,35 @@ public class OnlineWriter {
 		}
 	}
 
+	/**
+	 * Appends raw blocks with renumbered ids.
+	 * 
+	 * @return false if writer cannot accept raw blocks of specified type and
+	 *         compression method, nothing is written in this case
+	 * @since 3.0.2
+	 */
+	public boolean writeRawBlocks(String type, String compressionMethod, List<RawBlock> blocks) throws IOException {
+		if (isClosed())
+			throw new IllegalStateException("file closed");
+		if (writer == null)
+			throw new IllegalStateException("not ready");
+
+		synchronized (this) {
+			if (!writer.canWriteRawBlock(type, compressionMethod))
+				return false;
+
+			for (RawBlock block : blocks) {
+				block.setMinId(nextId.get() + 1);
+				writer.writeRawBlock(block);
+				nextId.addAndGet(block.getLogCount());
+				debugCounter.addAndGet(block.getLogCount());
+			}
+
+			lastAccess = new Date();
+			return true;
+		}
+	}
+
 	public List<Log> getBuffer() {
 		// all log file writer should have lock free implementation
 		try {
@@ -18,10 +18,12 @@ package org.araqne.logstorage.engine;
 import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.security.MessageDigest;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -29,6 +31,14 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Provides;
@@ -37,12 +47,15 @@ import org.araqne.logstorage.LogStorage;
 import org.araqne.logstorage.LogTableRegistry;
 import org.araqne.logstorage.StorageConfig;
 import org.araqne.logstorage.TableSchema;
+import org.araqne.logstorage.backup.FileStorageBackupMedia;
 import org.araqne.logstorage.backup.StorageBackupJob;
 import org.araqne.logstorage.backup.StorageBackupManager;
 import org.araqne.logstorage.backup.StorageBackupMedia;
 import org.araqne.logstorage.backup.StorageBackupProgressMonitor;
 import org.araqne.logstorage.backup.StorageBackupRequest;
 import org.araqne.logstorage.backup.StorageBackupType;
+import org.araqne.logstorage.backup.StorageBlockBackupMedia;
+import org.araqne.logstorage.backup.StorageBlockManifest;
 import org.araqne.logstorage.backup.StorageFile;
 import org.araqne.logstorage.backup.StorageMediaFile;
 import org.araqne.logstorage.backup.StorageTransferRequest;
@@ -64,8 +77,16 @@ import org.slf4j.LoggerFactory;
 @Provides
 public class StorageBackupManagerImpl implements StorageBackupManager {
 	private static final String TABLE_METADATA_JSON = "table-metadata.json";
+
+	// unit of incremental transfer. tablet files are append-only, so only
+	// trailing blocks are changed in most cases
+	private static final int BLOCK_SIZE = getBlockSize();
 	private final Logger logger = LoggerFactory.getLogger(StorageBackupManagerImpl.class);
 
+	// start time of running incremental backup jobs. block purge and job
+	// registration are serialized by this map
+	private final Map<StorageBackupJob, Long> incrementalJobs = new HashMap<StorageBackupJob, Long>();
+
 	@Requires
 	private LogTableRegistry tableRegistry;
 
@@ -192,6 +213,7 @@ public class StorageBackupManagerImpl implements StorageBackupManager {
 			if (monitor != null)
 				monitor.onBeginJob(job);
 
+			ExecutorService executor = newTransferExecutor(job, "LogStorage Restore");
 			try {
 				Set<String> tableNames = job.getMediaFiles().keySet();
 
@@ -233,34 +255,25 @@ public class StorageBackupManagerImpl implements StorageBackupManager {
 					int tableId = tableRegistry.getTableSchema(tableName, true).getId();
 					List<StorageMediaFile> files = job.getMediaFiles().get(tableName);
 
+					List<Runnable> tasks = new ArrayList<Runnable>();
 					for (StorageMediaFile mediaFile : files) {
 						String storageFilename = new File(mediaFile.getFileName()).getName();
 
 						File storageFilePath = ((LocalFilePath) tableDir.newFilePath(storageFilename)).getFile();
 						StorageFile storageFile = new StorageFile(tableName, tableId, storageFilePath);
-						StorageTransferRequest tr = new StorageTransferRequest(storageFile, mediaFile);
-						try {
-							if (monitor != null)
-								monitor.onBeginFile(job, tableName, mediaFile.getFileName(), mediaFile.getLength());
-
-							media.copyFromMedia(tr);
-						} catch (IOException e) {
-							mediaFile.setException(e);
-							if (logger.isDebugEnabled())
-								logger.debug("araqne logstorage: restore failed", e);
-						} finally {
-							mediaFile.setDone(true);
-
-							if (monitor != null)
-								monitor.onCompleteFile(job, tableName, mediaFile.getFileName(), mediaFile.getLength());
-						}
+						tasks.add(new RestoreTask(job, storageFile, mediaFile));
 					}
 
+					runAll(executor, tasks);
+
 					if (monitor != null)
 						monitor.onCompleteTable(job, tableName);
 				}
 
+			} catch (InterruptedException e) {
+				logger.warn("araqne logstorage: restore job interrupted");
 			} finally {
+				executor.shutdownNow();
 				generateReport(job);
 
 				job.setDone(true);
@@ -286,6 +299,19 @@ public class StorageBackupManagerImpl implements StorageBackupManager {
 			if (monitor != null)
 				monitor.onBeginJob(job);
 
+			StorageBlockBackupMedia blockMedia = null;
+			if (job.getRequest().isIncremental()) {
+				if (media instanceof StorageBlockBackupMedia)
+					blockMedia = (StorageBlockBackupMedia) media;
+				else
+					logger.warn("araqne logstorage: media [{}] does not support incremental backup, copy all files", media
+							.getClass().getName());
+			}
+
+			if (blockMedia != null)
+				beginIncremental(job, System.currentTimeMillis());
+
+			ExecutorService executor = newTransferExecutor(job, "LogStorage Backup");
 			try {
 				Set<String> tableNames = job.getStorageFiles().keySet();
 
@@ -305,8 +331,12 @@ public class StorageBackupManagerImpl implements StorageBackupManager {
 						ByteArrayInputStream is = new ByteArrayInputStream(b);
 						int tableId = schema.getId();
 
-						StorageTransferStream stream = new StorageTransferStream(tableName, tableId, is, TABLE_METADATA_JSON);
-						media.copyToMedia(new StorageTransferRequest(stream));
+						if (blockMedia != null) {
+							blockMedia.putTableMetadata(tableId, b);
+						} else {
+							StorageTransferStream stream = new StorageTransferStream(tableName, tableId, is, TABLE_METADATA_JSON);
+							media.copyToMedia(new StorageTransferRequest(stream));
+						}
 					} catch (Exception e) {
 						logger.error("araqne logstorage: table metadata backup failed", e);
 					}
@@ -314,34 +344,25 @@ public class StorageBackupManagerImpl implements StorageBackupManager {
 					// transfer files
 					List<StorageFile> files = job.getStorageFiles().get(tableName);
 
-					for (StorageFile storageFile : files) {
-						String subPath = storageFile.getFile().getParentFile().getName() + File.separator
-								+ storageFile.getFile().getName();
-						StorageMediaFile mediaFile = new StorageMediaFile(tableName, subPath, storageFile.getLength());
-						StorageTransferRequest tr = new StorageTransferRequest(storageFile, mediaFile);
-						try {
-							if (monitor != null)
-								monitor.onBeginFile(job, tableName, storageFile.getFileName(), storageFile.getLength());
-
-							media.copyToMedia(tr);
-						} catch (IOException e) {
-							storageFile.setException(e);
-							if (logger.isDebugEnabled())
-								logger.debug("araqne logstorage: table backup failed", e);
-						} finally {
-							storageFile.setDone(true);
-
-							if (monitor != null)
-								monitor.onCompleteFile(job, tableName, storageFile.getFileName(), storageFile.getLength());
-						}
-					}
+					List<Runnable> tasks = new ArrayList<Runnable>();
+					for (StorageFile storageFile : files)
+						tasks.add(new BackupTask(job, blockMedia, storageFile));
+
+					runAll(executor, tasks);
 
 					if (monitor != null)
 						monitor.onCompleteTable(job, tableName);
 				}
+
+				if (blockMedia != null)
+					purgeBlocks(blockMedia);
 			} catch (Throwable t) {
 				logger.error("araqne logstorage: backup job failed", t);
 			} finally {
+				executor.shutdownNow();
+				if (blockMedia != null)
+					endIncremental(job);
+
 				generateReport(job);
 
 				job.setDone(true);
@@ -353,6 +374,243 @@ public class StorageBackupManagerImpl implements StorageBackupManager {
 
 	}
 
+	private class BackupTask implements Runnable {
+		private final StorageBackupJob job;
+		private final StorageBlockBackupMedia blockMedia;
+		private final StorageFile storageFile;
+
+		public BackupTask(StorageBackupJob job, StorageBlockBackupMedia blockMedia, StorageFile storageFile) {
+			this.job = job;
+			this.blockMedia = blockMedia;
+			this.storageFile = storageFile;
+		}
+
+		@Override
+		public void run() {
+			String tableName = storageFile.getTableName();
+			String subPath = storageFile.getFile().getParentFile().getName() + File.separator + storageFile.getFile().getName();
+			StorageMediaFile mediaFile = new StorageMediaFile(tableName, subPath, storageFile.getLength());
+			StorageTransferRequest tr = new StorageTransferRequest(storageFile, mediaFile);
+			try {
+				onBeginFile(job, tableName, storageFile.getFileName(), storageFile.getLength());
+
+				if (blockMedia != null)
+					copyBlocksToMedia(blockMedia, storageFile, BLOCK_SIZE);
+				else
+					job.getRequest().getMedia().copyToMedia(tr);
+			} catch (IOException e) {
+				storageFile.setException(e);
+				if (logger.isDebugEnabled())
+					logger.debug("araqne logstorage: table backup failed", e);
+			} finally {
+				storageFile.setDone(true);
+
+				onCompleteFile(job, tableName, storageFile.getFileName(), storageFile.getLength());
+			}
+		}
+	}
+
+	private class RestoreTask implements Runnable {
+		private final StorageBackupJob job;
+		private final StorageFile storageFile;
+		private final StorageMediaFile mediaFile;
+
+		public RestoreTask(StorageBackupJob job, StorageFile storageFile, StorageMediaFile mediaFile) {
+			this.job = job;
+			this.storageFile = storageFile;
+			this.mediaFile = mediaFile;
+		}
+
+		@Override
+		public void run() {
+			String tableName = mediaFile.getTableName();
+			StorageTransferRequest tr = new StorageTransferRequest(storageFile, mediaFile);
+			try {
+				onBeginFile(job, tableName, mediaFile.getFileName(), mediaFile.getLength());
+
+				job.getRequest().getMedia().copyFromMedia(tr);
+			} catch (IOException e) {
+				mediaFile.setException(e);
+				if (logger.isDebugEnabled())
+					logger.debug("araqne logstorage: restore failed", e);
+			} finally {
+				mediaFile.setDone(true);
+
+				onCompleteFile(job, tableName, mediaFile.getFileName(), mediaFile.getLength());
+			}
+		}
+	}
+
+	/**
+	 * Transfers blocks which are not found in media, and replaces block
+	 * manifest. File is not read at all if length and last modified time are
+	 * not changed since last backup.
+	 * 
+	 * @return transferred block count, or -1 if file is not changed
+	 */
+	int copyBlocksToMedia(StorageBlockBackupMedia media, StorageFile storageFile, int blockSize) throws IOException {
+		File file = storageFile.getFile();
+		int tableId = storageFile.getTableId();
+		long length = storageFile.getLength();
+		long lastModified = file.lastModified();
+
+		StorageBlockManifest last = media.getManifest(tableId, file.getName());
+		if (last != null && last.getLength() == length && last.getLastModified() == lastModified
+				&& last.getBlockSize() == blockSize)
+			return -1;
+
+		StorageBlockManifest manifest = new StorageBlockManifest(file.getName(), length, lastModified, blockSize);
+		MessageDigest md = FileStorageBackupMedia.newDigest();
+		byte[] b = new byte[blockSize];
+		int transferred = 0;
+
+		FileInputStream is = null;
+		try {
+			is = new FileInputStream(file);
+			long remaining = length;
+			while (remaining > 0) {
+				int limit = (int) Math.min(b.length, remaining);
+				int len = 0;
+				while (len < limit) {
+					int n = is.read(b, len, limit - len);
+					if (n < 0)
+						throw new IOException("unexpected end of file: " + file.getAbsolutePath());
+					len += n;
+				}
+
+				md.update(b, 0, len);
+				String hash = FileStorageBackupMedia.toHex(md.digest());
+				if (!media.hasBlock(hash)) {
+					media.putBlock(hash, b, 0, len);
+					transferred++;
+				}
+
+				manifest.getHashes().add(hash);
+				remaining -= len;
+			}
+		} finally {
+			if (is != null) {
+				try {
+					is.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+
+		media.putManifest(tableId, manifest);
+
+		if (logger.isDebugEnabled())
+			logger.debug("araqne logstorage: backup [{}], transferred [{}] of [{}] blocks", new Object[] {
+					file.getAbsolutePath(), transferred, manifest.getHashes().size() });
+
+		return transferred;
+	}
+
+	/**
+	 * Registers running incremental backup job. Job should be registered
+	 * before it writes or reuses any block.
+	 */
+	void beginIncremental(StorageBackupJob job, long started) {
+		synchronized (incrementalJobs) {
+			incrementalJobs.put(job, started);
+		}
+	}
+
+	void endIncremental(StorageBackupJob job) {
+		synchronized (incrementalJobs) {
+			incrementalJobs.remove(job);
+		}
+	}
+
+	/**
+	 * Deletes blocks which are no longer referenced by manifests. Other
+	 * running job can write or reuse blocks before its manifest is written,
+	 * so blocks touched after the oldest running job began are kept, with one
+	 * minute margin for coarse file time resolution. Jobs cannot begin while
+	 * purging.
+	 * 
+	 * @return deleted block count
+	 */
+	int purgeBlocks(StorageBlockBackupMedia media) {
+		synchronized (incrementalJobs) {
+			long oldest = System.currentTimeMillis();
+			for (long started : incrementalJobs.values())
+				oldest = Math.min(oldest, started);
+
+			try {
+				int count = media.purgeBlocks(oldest - 60000);
+				if (count > 0)
+					logger.info("araqne logstorage: purged [{}] unreferenced backup blocks", count);
+				return count;
+			} catch (IOException e) {
+				logger.error("araqne logstorage: cannot purge unreferenced backup blocks", e);
+				return 0;
+			}
+		}
+	}
+
+	private ExecutorService newTransferExecutor(StorageBackupJob job, final String name) {
+		int threads = job.getRequest().getTransferThreads();
+		return new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private AtomicInteger counter = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, name + " Transfer " + counter.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+	}
+
+	/**
+	 * Runs file transfers concurrently, and waits until all transfers are
+	 * completed.
+	 */
+	private void runAll(ExecutorService executor, List<Runnable> tasks) throws InterruptedException {
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (Runnable task : tasks)
+			futures.add(executor.submit(task));
+
+		for (Future<?> f : futures) {
+			try {
+				f.get();
+			} catch (ExecutionException e) {
+				logger.error("araqne logstorage: file transfer failed", e.getCause());
+			}
+		}
+	}
+
+	// progress monitor is not thread-safe
+	private void onBeginFile(StorageBackupJob job, String tableName, String fileName, long length) {
+		StorageBackupProgressMonitor monitor = job.getRequest().getProgressMonitor();
+		if (monitor == null)
+			return;
+
+		synchronized (monitor) {
+			monitor.onBeginFile(job, tableName, fileName, length);
+		}
+	}
+
+	private void onCompleteFile(StorageBackupJob job, String tableName, String fileName, long length) {
+		StorageBackupProgressMonitor monitor = job.getRequest().getProgressMonitor();
+		if (monitor == null)
+			return;
+
+		synchronized (monitor) {
+			monitor.onCompleteFile(job, tableName, fileName, length);
+		}
+	}
+
+	private static int getBlockSize() {
+		String s = System.getProperty("araqne.logstorage.backup_block_size");
+		if (s == null)
+			return 4 * 1024 * 1024;
+
+		return Math.max(4096, Integer.parseInt(s));
+	}
+
 	private void generateReport(StorageBackupJob job) {
 		String type = job.getRequest().getType().toString().toLowerCase();
 
@@ -0,0 +1,367 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logstorage.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.araqne.logstorage.LogBlockSummary;
+import org.araqne.storage.api.FilePath;
+import org.araqne.storage.api.StorageInputStream;
+
+/**
+ * Per-block skip index of v3 tablet. Bloom filter contains string form and
+ * numeric value of configured fields, and min/max is recorded for numeric
+ * fields. Skip indexes are appended to .skp sidecar file in block flush order
+ * and matched to data block using data file pointer, so missing or stale
+ * entries only disable block skipping.
+ * 
+ * Record layout: record length (4), data fp (8), field count (2), fields
+ * (name, flags, min, max), bloom word count (4), bloom words (8 each).
+ * 
+ * @since 3.0.2
+ */
+public class BlockSkipIndex implements LogBlockSummary {
+	private static final int BITS_PER_KEY = 10;
+	private static final int HASH_COUNT = 7;
+
+	private static final int COMPLETE = 1;
+	private static final int NUMERIC = 2;
+	private static final int HAS_NUMBER = 4;
+	private static final int HAS_OTHER = 8;
+
+	private long dataFp;
+	private Map<String, FieldStats> fields;
+	private long[] bloom;
+
+	private BlockSkipIndex(Map<String, FieldStats> fields, long[] bloom) {
+		this.fields = fields;
+		this.bloom = bloom;
+	}
+
+	public static FilePath getSidecarPath(FilePath indexPath) {
+		String name = indexPath.getName();
+		if (name.endsWith(".idx"))
+			name = name.substring(0, name.length() - 4);
+
+		return indexPath.getAbsoluteFilePath().getParentFilePath().newFilePath(name + ".skp");
+	}
+
+	/**
+	 * @return skip indexes by data file pointer. empty if sidecar file does
+	 *         not exist
+	 */
+	public static Map<Long, BlockSkipIndex> load(FilePath path) throws IOException {
+		Map<Long, BlockSkipIndex> indexes = new HashMap<Long, BlockSkipIndex>();
+		if (!path.exists())
+			return indexes;
+
+		StorageInputStream is = path.newInputStream();
+		try {
+			long length = is.length();
+			long pos = 0;
+			while (pos + 4 <= length) {
+				int len = is.readInt();
+				if (len <= 0 || pos + 4 + len > length)
+					break;
+
+				byte[] b = new byte[len];
+				is.readFully(b);
+				pos += 4 + len;
+
+				// later entry wins, block can be rewritten after crash
+				BlockSkipIndex index = parse(b);
+				indexes.put(index.dataFp, index);
+			}
+		} finally {
+			is.close();
+		}
+
+		return indexes;
+	}
+
+	private static BlockSkipIndex parse(byte[] b) throws IOException {
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(b));
+		long dataFp = dis.readLong();
+		int fieldCount = dis.readShort();
+		Map<String, FieldStats> fields = new HashMap<String, FieldStats>();
+		for (int i = 0; i < fieldCount; i++) {
+			String name = dis.readUTF();
+			FieldStats s = new FieldStats();
+			s.flags = dis.readByte();
+			s.min = dis.readDouble();
+			s.max = dis.readDouble();
+			fields.put(name, s);
+		}
+
+		long[] bloom = new long[dis.readInt()];
+		for (int i = 0; i < bloom.length; i++)
+			bloom[i] = dis.readLong();
+
+		BlockSkipIndex index = new BlockSkipIndex(fields, bloom);
+		index.dataFp = dataFp;
+		return index;
+	}
+
+	/**
+	 * @return serialized record including length prefix
+	 */
+	public byte[] serialize(long dataFp) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(bos);
+		dos.writeInt(0);
+		dos.writeLong(dataFp);
+		dos.writeShort(fields.size());
+		for (String name : fields.keySet()) {
+			FieldStats s = fields.get(name);
+			dos.writeUTF(name);
+			dos.writeByte(s.flags);
+			dos.writeDouble(s.min);
+			dos.writeDouble(s.max);
+		}
+
+		dos.writeInt(bloom.length);
+		for (long l : bloom)
+			dos.writeLong(l);
+		dos.close();
+
+		byte[] b = bos.toByteArray();
+		LogFileWriterV3o.prepareInt(b.length - 4, b);
+		return b;
+	}
+
+	public long getDataFp() {
+		return dataFp;
+	}
+
+	@Override
+	public boolean isIndexed(String field) {
+		return fields.containsKey(field);
+	}
+
+	@Override
+	public boolean mightContainText(String field, String text) {
+		FieldStats s = fields.get(field);
+		if (s == null || (s.flags & HAS_OTHER) != 0)
+			return true;
+
+		return contains(textKey(field, text));
+	}
+
+	@Override
+	public boolean mightContainNumber(String field, Number number) {
+		FieldStats s = fields.get(field);
+		if (s == null || (s.flags & HAS_OTHER) != 0)
+			return true;
+
+		if ((s.flags & HAS_NUMBER) == 0)
+			return false;
+
+		return contains(numberKey(field, number.doubleValue()));
+	}
+
+	@Override
+	public boolean isComplete(String field) {
+		FieldStats s = fields.get(field);
+		return s != null && (s.flags & COMPLETE) != 0;
+	}
+
+	@Override
+	public boolean isNumeric(String field) {
+		FieldStats s = fields.get(field);
+		return s != null && (s.flags & NUMERIC) != 0;
+	}
+
+	@Override
+	public Double getMin(String field) {
+		FieldStats s = fields.get(field);
+		if (s == null || (s.flags & HAS_NUMBER) == 0)
+			return null;
+		return s.min;
+	}
+
+	@Override
+	public Double getMax(String field) {
+		FieldStats s = fields.get(field);
+		if (s == null || (s.flags & HAS_NUMBER) == 0)
+			return null;
+		return s.max;
+	}
+
+	private boolean contains(String key) {
+		long h = hash(key);
+		int h1 = (int) h;
+		int h2 = (int) (h >>> 32);
+		long bits = bloom.length * 64L;
+		for (int i = 0; i < HASH_COUNT; i++) {
+			long bit = ((h1 + i * h2) & 0x7fffffffL) % bits;
+			if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	private static void addKey(long[] bloom, String key) {
+		long h = hash(key);
+		int h1 = (int) h;
+		int h2 = (int) (h >>> 32);
+		long bits = bloom.length * 64L;
+		for (int i = 0; i < HASH_COUNT; i++) {
+			long bit = ((h1 + i * h2) & 0x7fffffffL) % bits;
+			bloom[(int) (bit >>> 6)] |= 1L << bit;
+		}
+	}
+
+	// 64bit FNV-1a with final avalanche
+	private static long hash(String s) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= 0x100000001b3L;
+		}
+
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private static String textKey(String field, String text) {
+		return field + "\0$" + text;
+	}
+
+	// integer and floating point values are compared as double
+	private static String numberKey(String field, double d) {
+		return field + "\0#" + Double.toString(d);
+	}
+
+	private static class FieldStats {
+		private int flags;
+		private double min = Double.POSITIVE_INFINITY;
+		private double max = Double.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * Collects field values of one block. NOT thread-safe.
+	 */
+	public static class Builder {
+		private final List<String> fieldNames;
+		private final Map<String, FieldBuilder> builders = new HashMap<String, FieldBuilder>();
+		private final Set<String> keys = new HashSet<String>();
+
+		public Builder(List<String> fieldNames) {
+			this.fieldNames = new ArrayList<String>(fieldNames);
+			for (String name : fieldNames)
+				builders.put(name, new FieldBuilder());
+		}
+
+		public void add(Map<String, Object> data) {
+			for (String name : fieldNames) {
+				FieldBuilder b = builders.get(name);
+				Object value = data == null ? null : data.get(name);
+				if (value == null) {
+					b.hasNull = true;
+					continue;
+				}
+
+				if (value instanceof Long || value instanceof Integer || value instanceof Short) {
+					long l = ((Number) value).longValue();
+					double d = (double) l;
+					if ((long) d == l) {
+						b.updateRange(d, d);
+					} else {
+						// rounded, widen range
+						b.updateRange(Math.nextAfter(d, Double.NEGATIVE_INFINITY), Math.nextUp(d));
+					}
+
+					keys.add(textKey(name, value.toString()));
+					keys.add(numberKey(name, d));
+				} else if (value instanceof Double || value instanceof Float) {
+					double d = ((Number) value).doubleValue();
+					// NaN is greater than any number in comparison
+					if (Double.isNaN(d))
+						b.hasOther = true;
+					else
+						b.updateRange(d, d);
+
+					keys.add(textKey(name, value.toString()));
+					keys.add(numberKey(name, d));
+				} else if (value instanceof String) {
+					b.hasText = true;
+					keys.add(textKey(name, (String) value));
+				} else {
+					// string form of other types is not indexed
+					b.hasOther = true;
+				}
+			}
+		}
+
+		public BlockSkipIndex build() {
+			Map<String, FieldStats> fields = new HashMap<String, FieldStats>();
+			for (String name : fieldNames) {
+				FieldBuilder b = builders.get(name);
+				FieldStats s = new FieldStats();
+				if (!b.hasNull)
+					s.flags |= COMPLETE;
+				if (!b.hasText && !b.hasOther)
+					s.flags |= NUMERIC;
+				if (b.hasOther)
+					s.flags |= HAS_OTHER;
+				if (b.hasNumber) {
+					s.flags |= HAS_NUMBER;
+					s.min = b.min;
+					s.max = b.max;
+				}
+				fields.put(name, s);
+			}
+
+			int words = Math.max(1, (keys.size() * BITS_PER_KEY + 63) / 64);
+			long[] bloom = new long[words];
+			for (String key : keys)
+				addKey(bloom, key);
+
+			return new BlockSkipIndex(fields, bloom);
+		}
+	}
+
+	private static class FieldBuilder {
+		private boolean hasNull;
+		private boolean hasText;
+		private boolean hasOther;
+		private boolean hasNumber;
+		private double min = Double.POSITIVE_INFINITY;
+		private double max = Double.NEGATIVE_INFINITY;
+
+		private void updateRange(double low, double high) {
+			hasNumber = true;
+			if (Double.compare(low, min) < 0)
+				min = low;
+			if (Double.compare(high, max) > 0)
+				max = high;
+		}
+	}
+}
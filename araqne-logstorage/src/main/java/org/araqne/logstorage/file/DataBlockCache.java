@@ -0,0 +1,235 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logstorage.file;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.araqne.logstorage.LogBlockCacheStatus;
+
+/**
+ * Process-wide cache of uncompressed v3 data blocks, keyed by data file path
+ * and block offset. Entries are weighted by uncompressed size and evicted in
+ * second-chance (clock) order. Cached blocks are already uncompressed and
+ * never modified afterwards, but readers still have to use their own buffer
+ * position (synchronize on block or duplicate data buffer).
+ *
+ * @since 3.0.2
+ */
+public class DataBlockCache {
+	// approximated per-entry overhead (key, entry, block header fields)
+	private static final int ENTRY_OVERHEAD = 256;
+
+	public static final long DEFAULT_CAPACITY = 64 * 1024 * 1024;
+
+	private static final DataBlockCache instance = new DataBlockCache(DEFAULT_CAPACITY);
+
+	private final ConcurrentHashMap<BlockKey, Entry> entries = new ConcurrentHashMap<BlockKey, Entry>();
+
+	// guarded by this
+	private final ArrayDeque<Entry> clock = new ArrayDeque<Entry>();
+	private long size;
+
+	private volatile long capacity;
+
+	// incremented for each invalidation, blocks loaded before invalidation
+	// should not be cached
+	private final AtomicLong generation = new AtomicLong();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public static DataBlockCache getInstance() {
+		return instance;
+	}
+
+	public DataBlockCache(long capacity) {
+		this.capacity = capacity;
+	}
+
+	public long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @param capacity
+	 *            max bytes of uncompressed blocks, zero or negative value
+	 *            disables cache
+	 */
+	public void setCapacity(long capacity) {
+		synchronized (this) {
+			this.capacity = capacity;
+			evict();
+		}
+	}
+
+	public boolean isEnabled() {
+		return capacity > 0;
+	}
+
+	public long getGeneration() {
+		return generation.get();
+	}
+
+	public DataBlockV3 get(String dataPath, long dataFp) {
+		if (!isEnabled())
+			return null;
+
+		Entry e = entries.get(new BlockKey(dataPath, dataFp));
+		if (e == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+
+		e.referenced = true;
+		hits.incrementAndGet();
+		return e.block;
+	}
+
+	/**
+	 * Add uncompressed block. Block is ignored if any invalidation happened
+	 * after the caller observed specified generation.
+	 */
+	public void put(String dataPath, long dataFp, DataBlockV3 block, long loadGeneration) {
+		if (block.isFixed() || block.getDataBuffer() == null)
+			return;
+
+		long weight = block.getOriginalSize() + block.getLogOffsetCount() * 4L + ENTRY_OVERHEAD;
+		if (weight > capacity)
+			return;
+
+		synchronized (this) {
+			if (generation.get() != loadGeneration)
+				return;
+
+			Entry e = new Entry(new BlockKey(dataPath, dataFp), block, weight);
+			Entry old = entries.put(e.key, e);
+			if (old != null) {
+				clock.remove(old);
+				size -= old.weight;
+			}
+
+			clock.add(e);
+			size += weight;
+			evict();
+		}
+	}
+
+	/**
+	 * Remove all blocks of the data file. Should be called when data file is
+	 * deleted, truncated or replaced.
+	 */
+	public void invalidate(String dataPath) {
+		synchronized (this) {
+			generation.incrementAndGet();
+
+			Iterator<Entry> it = clock.iterator();
+			while (it.hasNext()) {
+				Entry e = it.next();
+				if (!e.key.dataPath.equals(dataPath))
+					continue;
+
+				it.remove();
+				entries.remove(e.key);
+				size -= e.weight;
+			}
+		}
+	}
+
+	public void clear() {
+		synchronized (this) {
+			generation.incrementAndGet();
+			entries.clear();
+			clock.clear();
+			size = 0;
+		}
+	}
+
+	public LogBlockCacheStatus getStatus() {
+		LogBlockCacheStatus s = new LogBlockCacheStatus();
+		synchronized (this) {
+			s.setBlockCount(clock.size());
+			s.setSize(size);
+		}
+		s.setCapacity(capacity);
+		s.setHits(hits.get());
+		s.setMisses(misses.get());
+		s.setEvictions(evictions.get());
+		return s;
+	}
+
+	// should be called in synchronized block
+	private void evict() {
+		while (size > Math.max(capacity, 0)) {
+			Entry e = clock.poll();
+			if (e == null)
+				break;
+
+			// second chance
+			if (e.referenced && capacity > 0) {
+				e.referenced = false;
+				clock.add(e);
+				continue;
+			}
+
+			entries.remove(e.key);
+			size -= e.weight;
+			evictions.incrementAndGet();
+		}
+	}
+
+	private static class Entry {
+		private final BlockKey key;
+		private final DataBlockV3 block;
+		private final long weight;
+		private volatile boolean referenced;
+
+		public Entry(BlockKey key, DataBlockV3 block, long weight) {
+			this.key = key;
+			this.block = block;
+			this.weight = weight;
+		}
+	}
+
+	private static class BlockKey {
+		private final String dataPath;
+		private final long dataFp;
+
+		public BlockKey(String dataPath, long dataFp) {
+			this.dataPath = dataPath;
+			this.dataFp = dataFp;
+		}
+
+		@Override
+		public int hashCode() {
+			return dataPath.hashCode() * 31 + (int) (dataFp ^ (dataFp >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null || getClass() != obj.getClass())
+				return false;
+
+			BlockKey other = (BlockKey) obj;
+			return dataFp == other.dataFp && dataPath.equals(other.dataPath);
+		}
+	}
+}
@@ -23,12 +23,15 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.araqne.log.api.BatchLogParser;
 import org.araqne.log.api.LogParser;
+import org.araqne.log.api.LogParserBatch;
 import org.araqne.log.api.LogParserBugException;
 import org.araqne.log.api.LogParserBuilder;
 import org.araqne.log.api.LogParserInput;
 import org.araqne.log.api.LogParserOutput;
 import org.araqne.logstorage.Log;
+import org.araqne.logstorage.LogFilter;
 import org.araqne.logstorage.TableScanRequest;
 import org.araqne.logstorage.WrongTimeTypeException;
 import org.araqne.storage.api.FilePath;
@@ -59,6 +62,24 @@ public abstract class LogFileReader {
 
 	public abstract void close();
 
+	/**
+	 * Appends parsed logs which are accepted by the filter.
+	 * 
+	 * @param filter
+	 *            all logs are appended if null
+	 * @since 3.0.2
+	 */
+	public static void addFiltered(List<Log> target, List<Log> logs, LogFilter filter) {
+		if (filter == null) {
+			target.addAll(logs);
+			return;
+		}
+
+		for (Log log : logs)
+			if (filter.accept(log))
+				target.add(log);
+	}
+
 	public static List<Log> parse(String tableName, LogParser parser, Log log) throws LogParserBugException {
 		if (parser != null) {
 			if (parser != null && parser.getVersion() == 2) {
@@ -82,6 +103,147 @@ public abstract class LogFileReader {
 		}
 	}
 
+	/**
+	 * Parses logs using one batch parser call. Result is same with calling
+	 * parse() for each log, and unparsed log is appended for each parse
+	 * failure.
+	 * 
+	 * @param batch
+	 *            reusable buffer. If row reuse is enabled, parsed maps of
+	 *            result logs are reused by next call
+	 * @return first parse failure, or null
+	 * @since 3.0.2
+	 */
+	public static LogParserBugException parseBatch(String tableName, BatchLogParser parser, LogParserBatch batch,
+			List<Log> logs, List<Log> target, LogFilter filter) {
+		boolean v2 = parser.getVersion() == 2;
+
+		batch.clear();
+		for (Log log : logs) {
+			LogParserInput input = batch.addInput();
+			input.setDate(log.getDate());
+			input.setSource(log.getTableName());
+
+			if (v2) {
+				input.setData(log.getData());
+			} else {
+				// can be unmodifiableMap when it comes from memory buffer.
+				Map<String, Object> m = new HashMap<String, Object>(log.getData());
+				m.put("_time", log.getDate());
+				input.setData(m);
+			}
+		}
+
+		parser.parse(batch);
+
+		LogParserBugException firstError = null;
+		List<Log> parsed = new ArrayList<Log>(1);
+		for (int i = 0; i < logs.size(); i++) {
+			Log log = logs.get(i);
+			parsed.clear();
+
+			LogParserBugException e = null;
+			if (v2)
+				e = collectV2(batch, i, log, parsed);
+			else
+				e = collectV1(batch, i, log, parsed);
+
+			if (e != null) {
+				parsed.clear();
+				parsed.add(new Log(e.tableName, e.date, e.id, e.logMap));
+				if (firstError == null)
+					firstError = e;
+
+				addFiltered(target, parsed, filter);
+				continue;
+			}
+
+			// rows rejected by filter do not escape, reuse them
+			for (int j = 0; j < parsed.size(); j++) {
+				Log l = parsed.get(j);
+				if (filter == null || filter.accept(l))
+					target.add(l);
+				else
+					batch.releaseRow(i, j);
+			}
+		}
+
+		return firstError;
+	}
+
+	private static LogParserBugException collectV1(LogParserBatch batch, int i, Log log, List<Log> parsed) {
+		Object time = log.getDate();
+		Throwable failure = batch.getFailure(i);
+		if (failure == null && batch.getRowCount(i) == 0)
+			failure = new ParseException("log parse failed", -1);
+
+		if (failure instanceof WrongTimeTypeException)
+			throw (WrongTimeTypeException) failure;
+
+		if (failure == null) {
+			Map<String, Object> row = batch.getRow(i, 0);
+			Object hostTag = log.getData().get("_host");
+
+			row.put("_table", log.getTableName());
+			row.put("_id", log.getId());
+			if (hostTag != null)
+				row.put("_host", hostTag);
+
+			time = row.get("_time");
+			if (time == null) {
+				row.put("_time", log.getDate());
+				time = log.getDate();
+			} else if (!(time instanceof Date)) {
+				throw new WrongTimeTypeException(time);
+			}
+
+			parsed.add(new Log(log.getTableName(), (Date) time, log.getId(), row));
+			return null;
+		}
+
+		// can be unmodifiableMap when it comes from memory buffer.
+		Map<String, Object> m = new HashMap<String, Object>(log.getData());
+		m.put("_table", log.getTableName());
+		m.put("_id", log.getId());
+		m.put("_time", log.getDate());
+		return new LogParserBugException(failure, log.getTableName(), log.getId(), (Date) time, m);
+	}
+
+	private static LogParserBugException collectV2(LogParserBatch batch, int i, Log log, List<Log> parsed) {
+		Throwable failure = batch.getFailure(i);
+		if (failure == null) {
+			Object hostTag = log.getData().get("_host");
+			int count = batch.getRowCount(i);
+			for (int j = 0; j < count; j++) {
+				Map<String, Object> row = batch.getRow(i, j);
+				row.put("_table", log.getTableName());
+				row.put("_id", log.getId());
+				if (hostTag != null)
+					row.put("_host", hostTag);
+
+				Object time = row.get("_time");
+				if (time == null) {
+					row.put("_time", log.getDate());
+				} else if (!(time instanceof Date)) {
+					failure = new WrongTimeTypeException(time);
+					break;
+				}
+
+				parsed.add(new Log(log.getTableName(), log.getDate(), log.getDay(), log.getId(), row));
+			}
+		}
+
+		if (failure == null)
+			return null;
+
+		// NOTE: log can be unmodifiableMap when it comes from memory buffer.
+		HashMap<String, Object> row = new HashMap<String, Object>(log.getData());
+		row.put("_table", log.getTableName());
+		row.put("_id", log.getId());
+		row.put("_time", log.getDate());
+		return new LogParserBugException(failure, log.getTableName(), log.getId(), log.getDate(), row);
+	}
+
 	private static Log parseV1(LogParser parser, Log log) throws LogParserBugException {
 		Map<String, Object> m = null;
 		Object time = log.getDate();
@@ -31,6 +31,7 @@ import org.araqne.log.api.LogParser;
 import org.araqne.log.api.LogParserBugException;
 import org.araqne.log.api.LogParserBuilder;
 import org.araqne.logstorage.Log;
+import org.araqne.logstorage.LogFilter;
 import org.araqne.logstorage.LogMarshaler;
 import org.araqne.logstorage.LogTraverseCallback;
 import org.araqne.logstorage.TableScanRequest;
@@ -547,14 +548,15 @@ public class LogFileReaderV2 extends LogFileReader {
 			Long fromTime = (from == null) ? null : from.getTime();
 			Long toTime = (to == null) ? null : to.getTime();
 			if ((fromTime == null || data.endDate >= fromTime) && (toTime == null || data.startDate < toTime)) {
-				if (!readBlock(index, data, fromTime, toTime, minId, maxId, parser, callback, req.isAsc()))
+				if (!readBlock(index, data, fromTime, toTime, minId, maxId, parser, req.getFilter(), callback, req.isAsc()))
 					return;
 			}
 		}
 	}
 
 	private boolean readBlock(IndexBlockHeader index, DataBlockHeader data, Long from, Long to, long minId, long maxId,
-			LogParser parser, LogTraverseCallback callback, boolean asc) throws IOException, InterruptedException {
+			LogParser parser, LogFilter filter, LogTraverseCallback callback, boolean asc) throws IOException,
+			InterruptedException {
 		List<Integer> offsets = new ArrayList<Integer>();
 		boolean suppressBugAlert = false;
 
@@ -597,7 +599,7 @@ public class LogFileReaderV2 extends LogFileReader {
 				if (result == null)
 					continue;
 
-				logs.addAll(result);
+				addFiltered(logs, result, filter);
 			}
 		}
 
@@ -9,12 +9,23 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
+import org.araqne.log.api.BatchLogParser;
+import org.araqne.log.api.BatchLogParserAdapter;
 import org.araqne.log.api.LogParser;
+import org.araqne.log.api.LogParserBatch;
 import org.araqne.log.api.LogParserBugException;
 import org.araqne.log.api.LogParserBuilder;
 import org.araqne.logstorage.Log;
+import org.araqne.logstorage.LogBlockFilter;
+import org.araqne.logstorage.LogFilter;
 import org.araqne.logstorage.LogMarshaler;
 import org.araqne.logstorage.LogTraverseCallback;
 import org.araqne.logstorage.TableScanRequest;
@@ -27,8 +38,21 @@ public class LogFileReaderV3o extends LogFileReader {
 	private final Logger logger = LoggerFactory.getLogger(LogFileReaderV3o.class);
 	private static final int FILE_VERSION = 3;
 
+	// max decoding blocks in flight for each tablet traversal
+	private static final int MAX_PREFETCH_BLOCKS = 8;
+
+	// parse buffers of scan worker thread. only rows rejected by filter are
+	// reused, others are consumed after next block is parsed
+	private static final ThreadLocal<ParseBuffer> parseBuffers = new ThreadLocal<ParseBuffer>() {
+		@Override
+		protected ParseBuffer initialValue() {
+			return new ParseBuffer();
+		}
+	};
+
 	private FilePath indexPath;
 	private FilePath dataPath;
+	private String dataPathName;
 	private StorageInputStream indexStream;
 	private StorageInputStream dataStream;
 
@@ -44,14 +68,23 @@ public class LogFileReaderV3o extends LogFileReader {
 
 	private Date day;
 
+	private DataBlockCache blockCache;
+
+	private FilePath skipIndexPath;
+
+	// skip indexes by data fp, loaded at first filtered traverse
+	private Map<Long, BlockSkipIndex> skipIndexes;
+
 	public LogFileReaderV3o(LogReaderConfigV3o c) throws IOException, InvalidLogFileHeaderException {
-		// this.cache = c.cache;
+		this.blockCache = c.cache;
 		this.day = c.day;
+		this.skipIndexPath = c.skipIndexPath;
 
 		try {
 			this.tableName = c.tableName;
 			this.indexPath = c.indexPath;
 			this.dataPath = c.dataPath;
+			this.dataPathName = dataPath.getAbsolutePath();
 
 			loadIndexFile();
 			loadDataFile();
@@ -145,16 +178,19 @@ public class LogFileReaderV3o extends LogFileReader {
 		return "LogFileReaderV3 [tableName=" + tableName + ", day=" + day + "]";
 	}
 
-	private synchronized DataBlockV3 loadDataBlock(IndexBlockV3Header index, StorageInputStream dataStream) throws IOException {
+	private DataBlockV3Params newDataBlockParams(IndexBlockV3Header index, StorageInputStream dataStream) {
 		DataBlockV3Params p = new DataBlockV3Params();
 		p.indexHeader = index;
 		p.dataStream = dataStream;
 		p.dataPath = dataPath;
 		p.compressionMethod = compressionMethod;
+		return p;
+	}
 
+	private synchronized DataBlockV3 loadDataBlock(IndexBlockV3Header index, StorageInputStream dataStream) throws IOException {
 		// update local cache
 		if (cachedBlock == null || cachedBlock.getDataFp() != index.dataFp) {
-			cachedBlock = new DataBlockV3(p);
+			cachedBlock = readDataBlock(index, dataStream);
 		}
 
 		if (cachedBlock.isFixed())
@@ -164,6 +200,28 @@ public class LogFileReaderV3o extends LogFileReader {
 		return cachedBlock;
 	}
 
+	/**
+	 * Read data block from shared block cache or data file. Returned block can
+	 * be shared with other readers.
+	 */
+	private DataBlockV3 readDataBlock(IndexBlockV3Header index, StorageInputStream dataStream) throws IOException {
+		if (blockCache == null || !blockCache.isEnabled())
+			return new DataBlockV3(newDataBlockParams(index, dataStream));
+
+		DataBlockV3 block = blockCache.get(dataPathName, index.dataFp);
+		if (block != null)
+			return block;
+
+		long generation = blockCache.getGeneration();
+		block = new DataBlockV3(newDataBlockParams(index, dataStream));
+		if (!block.isFixed()) {
+			block.uncompress();
+			blockCache.put(dataPathName, index.dataFp, block, generation);
+		}
+
+		return block;
+	}
+
 	private class ReadBlockRequest {
 		IndexBlockV3Header header;
 		List<Long> ids;
@@ -690,7 +748,220 @@ public class LogFileReaderV3o extends LogFileReader {
 
 	@Override
 	public void traverse(TableScanRequest req) throws IOException, InterruptedException {
-		traverseNonParallel(req);
+		LogBlockFilter blockFilter = getBlockFilter(req);
+		Executor executor = req.getScanExecutor();
+		if (executor == null || req.isUseSerialScan() || indexBlockHeaders.size() < 2)
+			traverseNonParallel(req, blockFilter);
+		else
+			traverseParallel(req, executor, blockFilter);
+	}
+
+	private boolean isMatchedBlock(IndexBlockV3Header index, Long fromTime, Long toTime, long minId, long maxId) {
+		return (fromTime == null || index.maxTime >= fromTime) && (toTime == null || index.minTime < toTime)
+				&& (maxId < 0 || index.firstId <= maxId) && (minId < 0 || index.firstId + index.logCount > minId);
+	}
+
+	private LogBlockFilter getBlockFilter(TableScanRequest req) {
+		if (skipIndexPath == null || !(req.getFilter() instanceof LogBlockFilter))
+			return null;
+
+		// skip index is built from stored fields, parser can change them
+		LogParserBuilder builder = req.getParserBuilder();
+		if (builder != null && builder.build() != null)
+			return null;
+
+		return (LogBlockFilter) req.getFilter();
+	}
+
+	private boolean isSkippedBlock(IndexBlockV3Header index, LogBlockFilter blockFilter) {
+		if (blockFilter == null)
+			return false;
+
+		BlockSkipIndex skipIndex = getSkipIndexes().get(index.dataFp);
+		return skipIndex != null && !blockFilter.mayMatch(skipIndex);
+	}
+
+	private synchronized Map<Long, BlockSkipIndex> getSkipIndexes() {
+		if (skipIndexes == null) {
+			try {
+				skipIndexes = BlockSkipIndex.load(skipIndexPath);
+			} catch (Throwable t) {
+				logger.warn("araqne logstorage: cannot load skip index " + skipIndexPath.getAbsolutePath(), t);
+				skipIndexes = new HashMap<Long, BlockSkipIndex>();
+			}
+		}
+		return skipIndexes;
+	}
+
+	/**
+	 * Decompress and parse up to MAX_PREFETCH_BLOCKS blocks concurrently using
+	 * scan executor, and deliver parsed logs in same order as
+	 * traverseNonParallel() in caller thread.
+	 */
+	private void traverseParallel(TableScanRequest req, Executor executor, LogBlockFilter blockFilter) throws IOException,
+			InterruptedException {
+		Date from = req.getFrom();
+		Date to = req.getTo();
+		long minId = req.getMinId();
+		long maxId = req.getMaxId();
+		LogParserBuilder builder = req.getParserBuilder();
+		LogTraverseCallback callback = req.getTraverseCallback();
+
+		Long fromTime = (from == null) ? null : from.getTime();
+		Long toTime = (to == null) ? null : to.getTime();
+
+		List<IndexBlockV3Header> targets = new ArrayList<IndexBlockV3Header>();
+		for (int i = indexBlockHeaders.size() - 1; i >= 0; i--) {
+			IndexBlockV3Header index = indexBlockHeaders.get(i);
+			if (isMatchedBlock(index, fromTime, toTime, minId, maxId) && !isSkippedBlock(index, blockFilter))
+				targets.add(index);
+		}
+
+		LinkedList<BlockScanTask> pending = new LinkedList<BlockScanTask>();
+		int next = 0;
+		try {
+			while (next < targets.size() || !pending.isEmpty()) {
+				while (next < targets.size() && pending.size() < MAX_PREFETCH_BLOCKS) {
+					BlockScanTask task = new BlockScanTask(targets.get(next++), req);
+					pending.add(task);
+					try {
+						executor.execute(task);
+					} catch (RejectedExecutionException e) {
+						// caller thread will run it
+					}
+				}
+
+				LogParseResult parseResult = null;
+				try {
+					parseResult = pending.removeFirst().get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof IOException)
+						throw (IOException) cause;
+					if (cause instanceof RuntimeException)
+						throw (RuntimeException) cause;
+					throw new IllegalStateException(cause);
+				}
+
+				// fixed block
+				if (parseResult == null)
+					continue;
+
+				if (builder != null)
+					handleParseError(builder, parseResult);
+
+				callback.writeLogs(parseResult.result);
+				if (callback.isEof())
+					return;
+			}
+		} finally {
+			// running tasks still read data stream until they are finished
+			ScanTask.cancelAll(pending);
+		}
+	}
+
+	private class BlockScanTask extends ScanTask<LogParseResult> {
+		private IndexBlockV3Header index;
+		private TableScanRequest req;
+
+		public BlockScanTask(IndexBlockV3Header index, TableScanRequest req) {
+			this.index = index;
+			this.req = req;
+		}
+
+		@Override
+		protected LogParseResult execute() throws Exception {
+			Date from = req.getFrom();
+			Date to = req.getTo();
+			long minId = req.getMinId();
+			long maxId = req.getMaxId();
+			LogParserBuilder builder = req.getParserBuilder();
+			LogFilter filter = req.getFilter();
+
+			// do not use cachedBlock, blocks are decoded concurrently
+			DataBlockV3 block = readDataBlock(index, dataStream);
+			if (block.isFixed())
+				return null;
+
+			synchronized (block) {
+				block.uncompress();
+			}
+
+			LogParser parser = null;
+			if (builder != null)
+				parser = builder.build();
+
+			// parse whole block at once if parser exists
+			BatchLogParser batchParser = BatchLogParserAdapter.wrap(parser);
+			ParseBuffer buffer = batchParser != null ? parseBuffers.get() : null;
+			List<Log> raws = buffer != null ? buffer.raws : null;
+
+			// block can be shared, do not touch its buffer position
+			ByteBuffer dataBuffer = block.getDataBuffer().duplicate();
+			LogParseResult parseResult = new LogParseResult(block.getLogOffsetCount());
+
+			// reverse order
+			for (int j = block.getLogOffsetCount() - 1; j >= 0; j--) {
+				if (isCancelled())
+					break;
+
+				dataBuffer.position(block.getLogOffset(j));
+				long timestamp = dataBuffer.getLong();
+				long id = block.getMinId() + j;
+				int len = dataBuffer.getInt();
+
+				if (from != null && timestamp < from.getTime())
+					continue;
+				if (to != null && timestamp >= to.getTime())
+					continue;
+				if (minId >= 0 && id < minId)
+					break;
+				if (maxId >= 0 && id > maxId)
+					continue;
+
+				byte[] b = new byte[len];
+				dataBuffer.get(b);
+
+				LogRecord record = new LogRecord(new Date(timestamp), id, ByteBuffer.wrap(b));
+				if (batchParser != null) {
+					raws.add(LogMarshaler.convert(tableName, record));
+					continue;
+				}
+
+				try {
+					addFiltered(parseResult.result, parse(tableName, parser, LogMarshaler.convert(tableName, record)), filter);
+				} catch (LogParserBugException e) {
+					Log log = new Log(e.tableName, e.date, e.id, e.logMap);
+					if (filter == null || filter.accept(log))
+						parseResult.result.add(log);
+					if (parseResult.parseError == null)
+						parseResult.parseError = e;
+				}
+			}
+
+			if (buffer != null) {
+				try {
+					if (!raws.isEmpty())
+						parseResult.parseError = parseBatch(tableName, batchParser, buffer.batch, raws, parseResult.result,
+								filter);
+				} finally {
+					buffer.clear();
+				}
+			}
+
+			return parseResult;
+		}
+	}
+
+	private static class ParseBuffer {
+		private LogParserBatch batch = new LogParserBatch();
+		private ArrayList<Log> raws = new ArrayList<Log>();
+
+		// do not hold logs of last block in idle worker thread
+		public void clear() {
+			batch.clear();
+			raws.clear();
+		}
 	}
 
 	private void handleParseError(LogParserBuilder builder, LogParseResult parseResult) {
@@ -701,82 +972,107 @@ public class LogFileReaderV3o extends LogFileReader {
 		}
 	}
 
-	private void traverseNonParallel(TableScanRequest req) throws IOException, InterruptedException {
+	private void traverseNonParallel(TableScanRequest req, LogBlockFilter blockFilter) throws IOException, InterruptedException {
 		Date from = req.getFrom();
 		Date to = req.getTo();
 		long minId = req.getMinId();
 		long maxId = req.getMaxId();
 		LogParserBuilder builder = req.getParserBuilder();
 		LogTraverseCallback callback = req.getTraverseCallback();
+		LogFilter filter = req.getFilter();
 		
 		boolean suppressBugAlert = false;
 		LogParser parser = null;
 		if (builder != null)
 			parser = builder.build();
 
+		BatchLogParser batchParser = BatchLogParserAdapter.wrap(parser);
+		LogParserBatch batch = null;
+		if (batchParser != null) {
+			// parsed maps of previous block can be reused if callback does not
+			// keep them
+			batch = new LogParserBatch();
+			batch.setReuseRows(req.isReuseRows());
+		}
+		ArrayList<Log> raws = new ArrayList<Log>();
+
 		for (int i = indexBlockHeaders.size() - 1; i >= 0; i--) {
 			IndexBlockV3Header index = indexBlockHeaders.get(i);
 
 			Long fromTime = (from == null) ? null : from.getTime();
 			Long toTime = (to == null) ? null : to.getTime();
-			if ((fromTime == null || index.maxTime >= fromTime) && (toTime == null || index.minTime < toTime)
-					&& (maxId < 0 || index.firstId <= maxId) && (minId < 0 || index.firstId + index.logCount > minId)) {
+			if (isMatchedBlock(index, fromTime, toTime, minId, maxId) && !isSkippedBlock(index, blockFilter)) {
 				DataBlockV3 block = loadDataBlock(index, dataStream);
 				if (block == null)
 					continue;
 
-				try {
-					synchronized (block) {
-						// if block is compressed, uncompress block
-						block.uncompress();
-
-						ByteBuffer currentDataBuffer = block.getDataBuffer();
-
-						// reverse order
-						ArrayList<Log> logs = new ArrayList<Log>();
-						for (int j = block.getLogOffsetCount() - 1; j >= 0; j--) {
-							currentDataBuffer.position(block.getLogOffset(j));
-							long timestamp = currentDataBuffer.getLong();
-							long id = block.getMinId() + j;
-							int len = currentDataBuffer.getInt();
-
-							if (from != null && timestamp < fromTime)
-								continue;
-							if (to != null && timestamp >= toTime)
-								continue;
-							if (minId >= 0 && id < minId) // descending order by
-															// id
-								break;
-							if (maxId >= 0 && id > maxId)
-								continue;
-
-							// read record
-							byte[] b = new byte[len];
-							currentDataBuffer.get(b);
-
-							LogRecord record = new LogRecord(new Date(timestamp), id, ByteBuffer.wrap(b));
-							List<Log> result = null;
-							try {
-								result = parse(tableName, parser, LogMarshaler.convert(tableName, record));
-							} catch (LogParserBugException e) {
-								result = new ArrayList<Log>(1);
-								result.add(new Log(e.tableName, e.date, e.id, e.logMap));
-								if (!suppressBugAlert) {
-									logger.error("araqne logstorage: PARSER BUG! original log => table " + e.tableName + ", id "
-											+ e.id + ", data " + e.logMap, e.cause);
-									suppressBugAlert = true;
-								}
-							} finally {
-								if (result != null)
-									logs.addAll(result);
-							}
+				// hold block lock only while uncompressing, decoded block is
+				// immutable
+				synchronized (block) {
+					block.uncompress();
+				}
+
+				// block can be shared with other readers, do not touch its
+				// buffer position
+				ByteBuffer currentDataBuffer = block.getDataBuffer().duplicate();
+
+				// reverse order
+				ArrayList<Log> logs = new ArrayList<Log>();
+				for (int j = block.getLogOffsetCount() - 1; j >= 0; j--) {
+					currentDataBuffer.position(block.getLogOffset(j));
+					long timestamp = currentDataBuffer.getLong();
+					long id = block.getMinId() + j;
+					int len = currentDataBuffer.getInt();
+
+					if (from != null && timestamp < fromTime)
+						continue;
+					if (to != null && timestamp >= toTime)
+						continue;
+					if (minId >= 0 && id < minId) // descending order by id
+						break;
+					if (maxId >= 0 && id > maxId)
+						continue;
+
+					// read record
+					byte[] b = new byte[len];
+					currentDataBuffer.get(b);
+
+					LogRecord record = new LogRecord(new Date(timestamp), id, ByteBuffer.wrap(b));
+					if (batchParser != null) {
+						raws.add(LogMarshaler.convert(tableName, record));
+						continue;
+					}
+
+					List<Log> result = null;
+					try {
+						result = parse(tableName, parser, LogMarshaler.convert(tableName, record));
+					} catch (LogParserBugException e) {
+						result = new ArrayList<Log>(1);
+						result.add(new Log(e.tableName, e.date, e.id, e.logMap));
+						if (!suppressBugAlert) {
+							logger.error("araqne logstorage: PARSER BUG! original log => table " + e.tableName + ", id "
+									+ e.id + ", data " + e.logMap, e.cause);
+							suppressBugAlert = true;
 						}
-						callback.writeLogs(logs);
-						if (callback.isEof())
-							return;
+					} finally {
+						if (result != null)
+							addFiltered(logs, result, filter);
 					}
-				} finally {
 				}
+
+				if (batchParser != null && !raws.isEmpty()) {
+					LogParserBugException e = parseBatch(tableName, batchParser, batch, raws, logs, filter);
+					raws.clear();
+					if (e != null && !suppressBugAlert) {
+						logger.error("araqne logstorage: PARSER BUG! original log => table " + e.tableName + ", id "
+								+ e.id + ", data " + e.logMap, e.cause);
+						suppressBugAlert = true;
+					}
+				}
+
+				callback.writeLogs(logs);
+				if (callback.isEof())
+					return;
 			}
 		}
 	}
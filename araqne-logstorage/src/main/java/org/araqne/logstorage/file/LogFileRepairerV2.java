@@ -28,6 +28,7 @@ import java.util.zip.Inflater;
 
 import org.araqne.logstorage.LogFileFixReport;
 import org.araqne.logstorage.LogFileRepairer;
+import org.araqne.storage.localfile.MappedFileInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,11 +43,26 @@ public class LogFileRepairerV2 implements LogFileRepairer {
 
 	@Override
 	public LogFileFixReport quickFix(File indexPath, File dataPath) throws IOException {
-		return fix(indexPath, dataPath);
+		// mapped readers should not access truncated region
+		MappedFileInputStream.beginTruncate(indexPath);
+		try {
+			MappedFileInputStream.beginTruncate(dataPath);
+			try {
+				return repair(indexPath, dataPath);
+			} finally {
+				MappedFileInputStream.endTruncate(dataPath);
+			}
+		} finally {
+			MappedFileInputStream.endTruncate(indexPath);
+		}
 	}
 
 	@Override
 	public LogFileFixReport fix(File indexPath, File dataPath) throws IOException {
+		return quickFix(indexPath, dataPath);
+	}
+
+	private LogFileFixReport repair(File indexPath, File dataPath) throws IOException {
 		RandomAccessFile indexFile = null;
 		RandomAccessFile dataFile = null;
 
@@ -25,6 +25,7 @@ import java.util.List;
 import org.araqne.logstorage.LogFileFixReport;
 import org.araqne.logstorage.file.LogFileHeader;
 import org.araqne.logstorage.LogFileRepairer;
+import org.araqne.storage.localfile.MappedFileInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -264,6 +265,21 @@ public class LogFileRepairerV3o implements LogFileRepairer {
 	
 	@Override
 	public LogFileFixReport quickFix(File indexPath, File dataPath) throws IOException {
+		// mapped readers should not access truncated region
+		MappedFileInputStream.beginTruncate(indexPath);
+		try {
+			MappedFileInputStream.beginTruncate(dataPath);
+			try {
+				return repair(indexPath, dataPath);
+			} finally {
+				MappedFileInputStream.endTruncate(dataPath);
+			}
+		} finally {
+			MappedFileInputStream.endTruncate(indexPath);
+		}
+	}
+
+	private LogFileFixReport repair(File indexPath, File dataPath) throws IOException {
 		RandomAccessFile indexFile = null;
 		RandomAccessFile dataFile = null;
 		LogFileFixReport report = new LogFileFixReport();
@@ -323,6 +339,10 @@ public class LogFileRepairerV3o implements LogFileRepairer {
 				
 				dataFile.close();
 			}
+
+			// cached blocks may point truncated or regenerated area
+			if (report.isFixed())
+				DataBlockCache.getInstance().invalidate(dataPath.getAbsolutePath());
 		}		
 	}
 	
@@ -29,6 +29,11 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.felix.ipojo.annotations.Component;
@@ -59,8 +64,10 @@ public class LogFileServiceV3o implements Runnable, LogFileService, LogStatsList
 	private final Logger logger = LoggerFactory.getLogger(LogFileServiceV3o.class);
 	public static final String SLOT_COUNT = "slot_count";
 	public static final String FLUSH_COUNT = "flush_count";
+	public static final String COMPRESS_THREADS = "compress_threads";
 
 	private static final int DEFAULT_FLUSH_COUNT = 2000;
+	private static final int DEFAULT_SLOT_COUNT = 4;
 
 	@Requires
 	private LogFileServiceRegistry registry;
@@ -84,6 +91,9 @@ public class LogFileServiceV3o implements Runnable, LogFileService, LogStatsList
 	// for stats counting
 	private ConcurrentHashMap<String, LogTableStatus> loggers = new ConcurrentHashMap<String, LogTableStatus>();
 
+	// shared block compression pool for all v3 writers
+	private ThreadPoolExecutor flushExecutor;
+
 	public LogFileServiceV3o() {
 		super();
 	}
@@ -95,6 +105,7 @@ public class LogFileServiceV3o implements Runnable, LogFileService, LogStatsList
 	private static final String OPT_DATA_PATH = "dataPath";
 	private static final String OPT_COMPRESSION = "compression";
 	private static final String OPT_CALLBACK_SET = "callbackSet";
+	private static final String OPT_SKIP_INDEX = "skip_index";
 
 	public static class Option extends TreeMap<String, Object> {
 		private static final long serialVersionUID = 1L;
@@ -120,6 +131,23 @@ public class LogFileServiceV3o implements Runnable, LogFileService, LogStatsList
 		if (c != null)
 			configs.putAll((Map<String, String>) c.getDocument());
 
+		int threads = Runtime.getRuntime().availableProcessors();
+		if (configs.containsKey(COMPRESS_THREADS))
+			threads = Math.max(1, Integer.valueOf(configs.get(COMPRESS_THREADS)));
+
+		flushExecutor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private AtomicInteger counter = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "LogStorage V3 Compressor " + counter.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		flushExecutor.allowCoreThreadTimeOut(true);
+
 		registry.register(this);
 	}
 
@@ -154,6 +182,12 @@ public class LogFileServiceV3o implements Runnable, LogFileService, LogStatsList
 	public void stop() {
 		if (registry != null)
 			registry.unregister(this);
+
+		// pending blocks are written by closing writers
+		if (flushExecutor != null) {
+			flushExecutor.shutdown();
+			flushExecutor = null;
+		}
 	}
 
 	@Override
@@ -219,6 +253,12 @@ public class LogFileServiceV3o implements Runnable, LogFileService, LogStatsList
 		if (configs.containsKey(FLUSH_COUNT))
 			flushCount = Integer.valueOf(configs.get(FLUSH_COUNT));
 
+		int slotCount = DEFAULT_SLOT_COUNT;
+		if (configs.containsKey(SLOT_COUNT))
+			slotCount = Integer.valueOf(configs.get(SLOT_COUNT));
+
+		List<String> skipIndexFields = parseSkipIndexFields(getStorageConfigValue(storageConfig, OPT_SKIP_INDEX));
+
 		logger.debug("logpresso logstorage: new writer with flush count [{}]", flushCount);
 
 		try {
@@ -232,12 +272,32 @@ public class LogFileServiceV3o implements Runnable, LogFileService, LogStatsList
 			config.setDay(day);
 			config.setCallbackSet(callbackSet);
 			config.setListener(this);
+			config.setFlushExecutor(flushExecutor);
+			config.setSlotCount(slotCount);
+			config.setSkipIndexPath(BlockSkipIndex.getSidecarPath(indexPath));
+			config.setSkipIndexFields(skipIndexFields);
 			return new LogFileWriterV3o(config);
 		} catch (Throwable t) {
 			throw new IllegalStateException("cannot open writer v3: data file - " + dataPath.getAbsolutePath(), t);
 		}
 	}
 
+	private List<String> parseSkipIndexFields(String value) {
+		if (value == null)
+			return null;
+
+		List<String> fields = new ArrayList<String>();
+		for (String token : value.split(",")) {
+			String field = token.trim();
+			// _table, _id, _time are not stored in log data
+			if (field.isEmpty() || field.startsWith("_") || fields.contains(field))
+				continue;
+			fields.add(field);
+		}
+
+		return fields.isEmpty() ? null : fields;
+	}
+
 	private String getStorageConfigValue(StorageConfig storageConfig, String name) {
 		if (storageConfig == null)
 			return null;
@@ -281,6 +341,8 @@ public class LogFileServiceV3o implements Runnable, LogFileService, LogStatsList
 			c.dataPath = dataPath;
 			c.checkIntegrity = false;
 			c.day = day;
+			c.cache = DataBlockCache.getInstance();
+			c.skipIndexPath = BlockSkipIndex.getSidecarPath(indexPath);
 			return new LogFileReaderV3o(c);
 		} catch (Throwable t)
 		{
@@ -299,7 +361,15 @@ public class LogFileServiceV3o implements Runnable, LogFileService, LogStatsList
 		compression.setValidator(new EnumConfigValidator(new HashSet<String>(Arrays.asList("deflate", "snappy"))));
 		compression.setEnums("deflate:snappy");
 
-		return Arrays.asList(compression);
+		TableConfigSpec skipIndex = new TableConfigSpec();
+		skipIndex.setKey(OPT_SKIP_INDEX);
+		skipIndex.setDisplayNames(TableConfigSpec.locales("Skip Index Fields", "스킵 인덱스 필드"));
+		skipIndex.setDescriptions(TableConfigSpec.locales("comma separated field names for per-block bloom filter and min/max",
+				"블록별 블룸 필터 및 최소/최대값을 기록할 필드 이름 (쉼표로 구분)"));
+		skipIndex.setOptional(true);
+		skipIndex.setUpdatable(true);
+
+		return Arrays.asList(compression, skipIndex);
 	}
 
 	@Override
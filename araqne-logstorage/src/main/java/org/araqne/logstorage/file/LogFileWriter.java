@@ -59,6 +59,25 @@ public abstract class LogFileWriter {
 
 	public abstract List<List<Log>> getBuffers();
 
+	/**
+	 * @return true if raw blocks of specified log file type and compression
+	 *         method can be appended as is
+	 * @since 3.0.2
+	 */
+	public boolean canWriteRawBlock(String type, String compressionMethod) {
+		return false;
+	}
+
+	/**
+	 * Appends compressed data block after buffered logs. Block ids should be
+	 * renumbered by caller. Assumes lock is hold by OnlineWriter.
+	 * 
+	 * @since 3.0.2
+	 */
+	public void writeRawBlock(RawBlock block) throws IOException {
+		throw new UnsupportedOperationException("raw block is not supported by " + getClass().getName());
+	}
+
 	public abstract boolean isClosed();
 
 	/**
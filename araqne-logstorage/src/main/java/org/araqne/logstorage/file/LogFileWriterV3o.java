@@ -24,7 +24,12 @@ import java.util.Date;
 import java.util.List;
 import java.util.Set;
 import java.util.Timer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.araqne.codec.EncodingRule;
 import org.araqne.codec.FastEncodingRule;
@@ -80,6 +85,11 @@ public class LogFileWriterV3o extends LogFileWriter {
 
 	private StorageOutputStream indexOutputStream;
 	private StorageOutputStream dataOutputStream;
+
+	// per-block skip index sidecar, null if disabled
+	private StorageOutputStream skipOutputStream;
+	private List<String> skipIndexFields;
+
 	private long count;
 	private AtomicLong lastKey = new AtomicLong();
 	private long lastTime;
@@ -88,12 +98,28 @@ public class LogFileWriterV3o extends LogFileWriter {
 
 	private FilePath indexPath;
 	private FilePath dataPath;
+	private FilePath skipIndexPath;
 	private volatile Date lastFlush = new Date();
 
-	private List<Log> logBuffer;
+	private volatile List<Log> logBuffer;
 
 	private int flags;
 
+	// shared compression pool, null if flush is synchronous
+	private final Executor flushExecutor;
+	private final int slotCount;
+	private final Semaphore flushSlots;
+
+	// submitted blocks in serial number order, removed after written
+	private final ConcurrentLinkedQueue<ParaSlotItem> pendingSlots = new ConcurrentLinkedQueue<ParaSlotItem>();
+
+	// only one thread appends finished blocks to idx/dat streams
+	private final ReentrantLock sequencerLock = new ReentrantLock();
+
+	// first failure of async flush, rethrown by next write, flush, sync or
+	// close since the dropped block cannot be written again
+	private volatile Throwable asyncFailure;
+
 	private static class FlushResult {
 		public FlushResult(LogFlushCallbackArgs arg) {
 			this.args = arg;
@@ -129,10 +155,14 @@ public class LogFileWriterV3o extends LogFileWriter {
 		this.flushCount = config.getFlushCount();
 		this.indexPath = config.getIndexPath();
 		this.dataPath = config.getDataPath();
+		this.skipIndexPath = config.getSkipIndexPath();
 		this.listener = config.getListener();
 		this.tableName = config.getTableName();
 		this.day = config.getDay();
 		this.callbackSet = config.getCallbackSet();
+		this.slotCount = Math.max(1, config.getSlotCount());
+		this.flushExecutor = slotCount > 1 ? config.getFlushExecutor() : null;
+		this.flushSlots = new Semaphore(slotCount);
 		if (this.callbackSet != null) {
 			this.flushCallbacks = callbackSet.get(LogFlushCallback.class);
 			this.closeCallbacks = callbackSet.get(LogStorageEventListener.class);
@@ -229,6 +259,13 @@ public class LogFileWriterV3o extends LogFileWriter {
 			byte[] ext = dataFileHeader.getExtraData();
 			compressionMethod = new String(ext, 4, ext.length - 4);
 
+			List<String> fields = config.getSkipIndexFields();
+			if (skipIndexPath != null && fields != null && !fields.isEmpty()) {
+				// truncate stale sidecar of purged tablet
+				skipIndexFields = fields;
+				skipOutputStream = skipIndexPath.newOutputStream(indexExists);
+			}
+
 		} catch (Throwable t) {
 			ensureClose();
 			throw new IllegalStateException(t);
@@ -264,6 +301,8 @@ public class LogFileWriterV3o extends LogFileWriter {
 		if (closeCompleted)
 			throw new IllegalStateException("already closed.");
 
+		checkAsyncFailure();
+
 		// do not remove this condition (date.toString() takes many CPU time)
 		if (logger.isDebugEnabled())
 			logger.debug(
@@ -309,6 +348,8 @@ public class LogFileWriterV3o extends LogFileWriter {
 		if (closeCompleted)
 			throw new IllegalStateException("already closed.");
 
+		checkAsyncFailure();
+
 		Log firstLog = data.get(0);
 		Log lastLog = data.get(data.size() - 1);
 
@@ -333,11 +374,90 @@ public class LogFileWriterV3o extends LogFileWriter {
 		count += data.size();
 	}
 
+	@Override
+	public boolean canWriteRawBlock(String type, String compressionMethod) {
+		return "v3o".equals(type) && this.compressionMethod.trim().equals(compressionMethod.trim());
+	}
+
+	@Override
+	public void writeRawBlock(RawBlock block) throws IOException {
+		// assumes lock is hold by OnlineWriter.
+		if (closeCompleted)
+			throw new IllegalStateException("already closed.");
+
+		if (block.isEncrypted())
+			throw new IllegalArgumentException("encrypted block is not supported");
+
+		long minId = block.getMinId();
+		if (minId <= lastKey.get())
+			throw new IllegalArgumentException("invalid key: " + minId + ", last key was " + lastKey);
+
+		// buffered logs have lower ids, write them first
+		flush(false);
+		waitPendingSlots();
+
+		sequencerLock.lock();
+		try {
+			if (dataOutputStream == null || indexOutputStream == null)
+				throw new IOException("table already closed (may be dropped)");
+
+			long ipos = indexOutputStream.getPos();
+			long dpos = dataOutputStream.getPos();
+
+			byte[] dm = block.getData();
+			byte[] im = new byte[INDEX_HEADER_SIZE];
+			ByteBuffer bb = ByteBuffer.wrap(im);
+			bb.putLong(dpos);
+			bb.putLong(block.getMinTime());
+			bb.putLong(block.getMaxTime());
+			bb.putInt(block.getLogCount());
+
+			dataOutputStream.write(dm);
+			indexOutputStream.write(im);
+
+			if (callbackSet != null) {
+				for (BlockPairWriteCallback cb : callbackSet.get(BlockPairWriteCallback.class)) {
+					try {
+						cb.onWriteCompleted(new BlockPairWriteCallbackArgs("v3o", tableName, day,
+								(int) ((ipos - indexFileHeader.size()) / INDEX_HEADER_SIZE), ipos, im, dpos, dm));
+					} catch (Throwable t) {
+						logger.warn("BlockPairWriteCallback should not throw an exception", t);
+					}
+				}
+			}
+
+			if (listener != null) {
+				LogStats stats = new LogStats();
+				stats.setTableName(tableName);
+				stats.setLogCount(block.getLogCount());
+				stats.setBlockSize(dm.length);
+				stats.setOriginalDataSize(block.getOriginalSize());
+				stats.setCompressedDataSize(block.getCompressedSize());
+
+				listener.onWrite(stats);
+			}
+		} finally {
+			sequencerLock.unlock();
+		}
+
+		lastKey.set(block.getMaxId());
+		lastTime = (lastTime < block.getMaxTime()) ? block.getMaxTime() : lastTime;
+		count += block.getLogCount();
+	}
+
 	@Override
 	public List<Log> getBuffer() {
 		List<Log> captured = logBuffer;
 		int capturedLimit = captured.size();
 		List<Log> result = new ArrayList<Log>(capturedLimit);
+
+		// blocks which are not written yet should be visible to search.
+		// captured buffer can be enqueued concurrently, do not add it twice.
+		for (ParaSlotItem item : pendingSlots) {
+			if (item.logBuffer != captured)
+				result.addAll(item.logBuffer);
+		}
+
 		for (int i = 0; i < capturedLimit; ++i) {
 			result.add(captured.get(i));
 		}
@@ -368,6 +488,9 @@ public class LogFileWriterV3o extends LogFileWriter {
 		public byte[] signature;
 		public byte blockFlag = 0;
 
+		// written to sidecar file, null if disabled
+		public BlockSkipIndex skipIndex;
+
 		// non-physical
 		public int lengthBlockSize;
 		private ByteBuffer dataBuffer;
@@ -392,7 +515,11 @@ public class LogFileWriterV3o extends LogFileWriter {
 	public class ParaSlotItem implements ParaFlushable {
 		private final List<Log> logBuffer;
 		private LogFileSegment segment;
-		private boolean ready = false;
+		private volatile boolean ready = false;
+
+		// preprocess is finished (or failed) in compression pool
+		private volatile boolean processed = false;
+		private Throwable failure;
 		private Compression comp;
 		private final LogFileWriterV3o writer;
 		private int serialNumber;
@@ -503,6 +630,13 @@ public class LogFileWriterV3o extends LogFileWriter {
 			seg.minId = records[0].getId();
 			seg.maxId = records[records.length - 1].getId();
 
+			if (skipIndexFields != null) {
+				BlockSkipIndex.Builder builder = new BlockSkipIndex.Builder(skipIndexFields);
+				for (Log log : logBuffer)
+					builder.add(log.getData());
+				seg.skipIndex = builder.build();
+			}
+
 			return seg;
 		}
 
@@ -614,6 +748,15 @@ public class LogFileWriterV3o extends LogFileWriter {
 
 				indexOutputStream.write(imStream.toByteArray());
 
+				// sidecar entry is matched by data fp, skip index is optional
+				if (skipOutputStream != null && seg.skipIndex != null) {
+					try {
+						skipOutputStream.write(seg.skipIndex.serialize(dpos));
+					} catch (IOException e) {
+						logger.warn("araqne logstorage: cannot write skip index of " + LogFileWriterV3o.this, e);
+					}
+				}
+
 				// call blockpair callback
 				if (callbackSet != null) {
 					for (BlockPairWriteCallback cb : callbackSet.get(BlockPairWriteCallback.class)) {
@@ -663,10 +806,20 @@ public class LogFileWriterV3o extends LogFileWriter {
 		if (logger.isTraceEnabled())
 			logger.trace("araqne logstorage: flush idx [{}], dat [{}] files", indexPath, dataPath);
 
+		checkAsyncFailure();
+
 		// mark last flush
 		lastFlush = new Date();
 
-		if (logBuffer.size() != 0) {
+		if (logBuffer.size() != 0 && flushExecutor != null) {
+			flushAsync();
+
+			// sweep flush guarantees that all buffered logs are written
+			if (sweep) {
+				waitPendingSlots();
+				checkAsyncFailure();
+			}
+		} else if (logBuffer.size() != 0) {
 			final ParaSlotItem block = new ParaSlotItem(this, clearLogQueue());
 			invokeOnFlush(block);
 			block.preprocess();
@@ -683,6 +836,120 @@ public class LogFileWriterV3o extends LogFileWriter {
 		return true;
 	}
 
+	/**
+	 * Hand current buffer to compression pool. Blocks until one of slot_count
+	 * slots is available, so that ingestion gets back pressure when
+	 * compression cannot keep up.
+	 */
+	private void flushAsync() {
+		final ParaSlotItem block = new ParaSlotItem(this, logBuffer);
+		invokeOnFlush(block);
+
+		flushSlots.acquireUninterruptibly();
+
+		// enqueue before swapping buffer, getBuffer() should not miss logs
+		pendingSlots.add(block);
+		clearLogQueue();
+
+		SlotCompressor compressor = new SlotCompressor(block);
+		try {
+			flushExecutor.execute(compressor);
+		} catch (RejectedExecutionException e) {
+			// compression pool is stopped
+			compressor.run();
+		}
+	}
+
+	private class SlotCompressor implements Runnable {
+		private final ParaSlotItem block;
+
+		public SlotCompressor(ParaSlotItem block) {
+			this.block = block;
+		}
+
+		@Override
+		public void run() {
+			try {
+				block.preprocess();
+			} catch (Throwable t) {
+				block.failure = t;
+			} finally {
+				block.processed = true;
+			}
+
+			drainSlots();
+		}
+	}
+
+	/**
+	 * Append finished blocks in serial number order. Any thread can become
+	 * the sequencer, and a thread which fails to get sequencer lock leaves its
+	 * block to the current sequencer.
+	 */
+	private void drainSlots() {
+		while (true) {
+			ParaSlotItem head = pendingSlots.peek();
+			if (head == null || !head.processed)
+				return;
+
+			if (!sequencerLock.tryLock())
+				return;
+
+			try {
+				while ((head = pendingSlots.peek()) != null && head.processed) {
+					try {
+						writeSlot(head);
+					} finally {
+						pendingSlots.poll();
+						flushSlots.release();
+					}
+				}
+			} finally {
+				sequencerLock.unlock();
+			}
+		}
+	}
+
+	private void writeSlot(ParaSlotItem block) {
+		if (block.failure != null) {
+			logger.error("araqne logstorage: cannot preprocess flush block of " + this + ", " + block, block.failure);
+			if (asyncFailure == null)
+				asyncFailure = block.failure;
+			if (flushCallbackArgs != null)
+				invokeFlushCompletionCallback(newLogFlushCallbackArgs(block, block.failure));
+			return;
+		}
+
+		try {
+			block.flush();
+			if (flushCallbackArgs != null)
+				invokeFlushCompletionCallback(newLogFlushCallbackArgs(block.logBuffer));
+		} catch (Throwable t) {
+			logger.error("araqne logstorage: cannot write flush block of " + this + ", " + block, t);
+			if (asyncFailure == null)
+				asyncFailure = t;
+			if (flushCallbackArgs != null)
+				invokeFlushCompletionCallback(newLogFlushCallbackArgs(block, t));
+		}
+	}
+
+	private void checkAsyncFailure() throws IOException {
+		Throwable t = asyncFailure;
+		if (t != null)
+			throw new IOException("cannot write flush block of " + this, t);
+	}
+
+	/**
+	 * wait until all submitted blocks are written
+	 */
+	private void waitPendingSlots() {
+		if (flushExecutor == null)
+			return;
+
+		flushSlots.acquireUninterruptibly(slotCount);
+		flushSlots.release(slotCount);
+	}
+
 	private void invokeOnFlush(ParaSlotItem block) {
 		if (flushCallbacks != null)
 			for (LogFlushCallback callback : flushCallbacks) {
@@ -727,8 +994,21 @@ public class LogFileWriterV3o extends LogFileWriter {
 		if (closeCompleted)
 			return;
 
-		dataOutputStream.sync();
-		indexOutputStream.sync();
+		waitPendingSlots();
+		checkAsyncFailure();
+
+		sequencerLock.lock();
+		try {
+			if (dataOutputStream == null || indexOutputStream == null)
+				return;
+
+			dataOutputStream.sync();
+			indexOutputStream.sync();
+			if (skipOutputStream != null)
+				skipOutputStream.sync();
+		} finally {
+			sequencerLock.unlock();
+		}
 	}
 
 	static void prepareInt(int l, byte[] b) {
@@ -751,10 +1031,14 @@ public class LogFileWriterV3o extends LogFileWriter {
 			try {
 				logger.debug("{}: closing, lastKey: {}", this, lastKey);
 				flush(false);
-				ensureClose();
 			} catch (IOException e) {
 				logger.warn("IOException while last flush before closing. DATA MAY BE DROPPED.", e);
 			}
+
+			// close files even if async flush failed
+			waitPendingSlots();
+			ensureClose();
+			checkAsyncFailure();
 		}
 	}
 
@@ -777,6 +1061,14 @@ public class LogFileWriterV3o extends LogFileWriter {
 			}
 			dataOutputStream = null;
 		}
+		if (skipOutputStream != null) {
+			try {
+				skipOutputStream.close();
+			} catch (IOException e) {
+				logger.warn("exception while closing", e);
+			}
+			skipOutputStream = null;
+		}
 		if (timerForCloser != null)
 			timerForCloser.cancel();
 
@@ -813,6 +1105,11 @@ public class LogFileWriterV3o extends LogFileWriter {
 
 		result = dataPath.delete();
 		logger.debug("logpresso logstorage: delete [{}] file => {}", dataPath, result);
+
+		if (skipIndexPath != null && skipIndexPath.exists()) {
+			result = skipIndexPath.delete();
+			logger.debug("logpresso logstorage: delete [{}] file => {}", skipIndexPath, result);
+		}
 	}
 
 	@Override
@@ -25,4 +25,10 @@ public class LogReaderConfigV3o {
 	public FilePath dataPath;
 	public boolean checkIntegrity;
 	public Date day;
+
+	// shared uncompressed block cache, null if disabled
+	public DataBlockCache cache;
+
+	// per-block skip index sidecar, can be null or missing file
+	public FilePath skipIndexPath;
 }
@@ -16,6 +16,8 @@
 package org.araqne.logstorage.file;
 
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 import org.araqne.logstorage.CallbackSet;
 import org.araqne.storage.api.FilePath;
@@ -35,6 +37,10 @@ public class LogWriterConfigV3o {
 	private int level = 3;
 	private String compression = "deflater";
 	private CallbackSet callbackSet;
+	private Executor flushExecutor;
+	private int slotCount;
+	private FilePath skipIndexPath;
+	private List<String> skipIndexFields;
 
 	public String getTableName() {
 		return tableName;
@@ -109,4 +115,51 @@ public class LogWriterConfigV3o {
 	public CallbackSet getCallbackSet() {
 		return this.callbackSet;
 	}
+
+	/**
+	 * @return shared block compression pool, or null for synchronous flush
+	 */
+	public Executor getFlushExecutor() {
+		return flushExecutor;
+	}
+
+	public void setFlushExecutor(Executor flushExecutor) {
+		this.flushExecutor = flushExecutor;
+	}
+
+	/**
+	 * @return max in-flight blocks per writer. 1 or less means synchronous
+	 *         flush
+	 */
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	public void setSlotCount(int slotCount) {
+		this.slotCount = slotCount;
+	}
+
+	/**
+	 * @since 3.0.2
+	 */
+	public FilePath getSkipIndexPath() {
+		return skipIndexPath;
+	}
+
+	public void setSkipIndexPath(FilePath skipIndexPath) {
+		this.skipIndexPath = skipIndexPath;
+	}
+
+	/**
+	 * @return fields of per-block skip index, or null if skip index is
+	 *         disabled
+	 * @since 3.0.2
+	 */
+	public List<String> getSkipIndexFields() {
+		return skipIndexFields;
+	}
+
+	public void setSkipIndexFields(List<String> skipIndexFields) {
+		this.skipIndexFields = skipIndexFields;
+	}
 }
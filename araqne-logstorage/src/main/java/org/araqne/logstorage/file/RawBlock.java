@@ -0,0 +1,171 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logstorage.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.araqne.codec.EncodingRule;
+import org.araqne.logstorage.Log;
+
+/**
+ * Compressed v3o data block with its index entry. Log ids of a block are
+ * implicit (min id to max id), so a block can be appended to another tablet
+ * by patching min and max id only.
+ * 
+ * @since 3.0.2
+ */
+public class RawBlock {
+	// offsets in data block, including leading block length
+	private static final int FLAG_OFFSET = 5;
+	private static final int MIN_ID_OFFSET = 22;
+	private static final int MAX_ID_OFFSET = 30;
+	private static final int ORIGINAL_SIZE_OFFSET = 38;
+	private static final int COMPRESSED_SIZE_OFFSET = 42;
+	private static final int LENGTH_BLOCK_OFFSET = 46;
+	private static final int FIXED_HEADER_LENGTH = 50;
+
+	private long minTime;
+	private long maxTime;
+	private int logCount;
+	private byte[] data;
+
+	public RawBlock(long minTime, long maxTime, int logCount, byte[] data) {
+		if (data.length < FIXED_HEADER_LENGTH)
+			throw new IllegalArgumentException("invalid data block length: " + data.length);
+
+		this.minTime = minTime;
+		this.maxTime = maxTime;
+		this.logCount = logCount;
+		this.data = data;
+	}
+
+	public long getMinTime() {
+		return minTime;
+	}
+
+	public long getMaxTime() {
+		return maxTime;
+	}
+
+	public int getLogCount() {
+		return logCount;
+	}
+
+	/**
+	 * @return the data block bytes, starting with 4 bytes block length
+	 */
+	public byte[] getData() {
+		return data;
+	}
+
+	public byte getFlag() {
+		return data[FLAG_OFFSET];
+	}
+
+	public boolean isEncrypted() {
+		return (getFlag() & 0x80) == 0x80;
+	}
+
+	public boolean isFixed() {
+		return (getFlag() & 0x40) == 0x40;
+	}
+
+	public long getMinId() {
+		return ByteBuffer.wrap(data).getLong(MIN_ID_OFFSET);
+	}
+
+	public long getMaxId() {
+		return ByteBuffer.wrap(data).getLong(MAX_ID_OFFSET);
+	}
+
+	public int getOriginalSize() {
+		return ByteBuffer.wrap(data).getInt(ORIGINAL_SIZE_OFFSET);
+	}
+
+	public int getCompressedSize() {
+		return ByteBuffer.wrap(data).getInt(COMPRESSED_SIZE_OFFSET);
+	}
+
+	/**
+	 * Renumbers log ids of this block from the specified id.
+	 */
+	public void setMinId(long minId) {
+		ByteBuffer bb = ByteBuffer.wrap(data);
+		bb.putLong(MIN_ID_OFFSET, minId);
+		bb.putLong(MAX_ID_OFFSET, minId + logCount - 1);
+	}
+
+	/**
+	 * Decodes logs without id, for the target tablet which cannot accept
+	 * this block as is.
+	 * 
+	 * @param compressionMethod
+	 *            the compression method of source data file, null or empty
+	 *            if not compressed
+	 */
+	public List<Log> toLogs(String tableName, String compressionMethod) throws IOException {
+		if (isEncrypted())
+			throw new IOException("cannot decode encrypted block");
+
+		List<Log> logs = new ArrayList<Log>(logCount);
+		if (isFixed())
+			return logs;
+
+		ByteBuffer bb = ByteBuffer.wrap(data);
+		int originalSize = bb.getInt(ORIGINAL_SIZE_OFFSET);
+		int compressedSize = bb.getInt(COMPRESSED_SIZE_OFFSET);
+		int lengthBlockSize = bb.getInt(LENGTH_BLOCK_OFFSET);
+		int pos = FIXED_HEADER_LENGTH + lengthBlockSize;
+
+		ByteBuffer block = null;
+		boolean compressed = compressionMethod != null && compressionMethod.trim().length() > 0;
+		if (compressed && (getFlag() & 0x20) == 0) {
+			Compression compression = null;
+			if (compressionMethod.trim().equals("snappy"))
+				compression = new SnappyCompression();
+			else
+				compression = new DeflaterCompression();
+
+			try {
+				byte[] b = new byte[originalSize];
+				compression.uncompress(b, data, pos, compressedSize);
+				block = ByteBuffer.wrap(b);
+			} finally {
+				compression.close();
+			}
+		} else {
+			block = ByteBuffer.wrap(data, pos, compressedSize).slice();
+		}
+
+		for (int i = 0; i < logCount && block.remaining() > 0; i++) {
+			Date date = new Date(block.getLong());
+			int len = block.getInt();
+			ByteBuffer b = block.slice();
+			b.limit(len);
+			block.position(block.position() + len);
+
+			Map<String, Object> m = EncodingRule.decodeMap(b, null);
+			logs.add(new Log(tableName, date, m));
+		}
+
+		return logs;
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logstorage.file;
+
+import java.io.IOException;
+
+/**
+ * Reads compressed data blocks of a tablet in index order.
+ * 
+ * @since 3.0.2
+ */
+public interface RawBlockReader {
+	/**
+	 * @return the log file type, e.g. v3o
+	 */
+	String getType();
+
+	/**
+	 * @return the compression method of data file, empty if not compressed
+	 */
+	String getCompressionMethod();
+
+	/**
+	 * @return next block, or null if no more blocks
+	 */
+	RawBlock next() throws IOException;
+
+	void close();
+}
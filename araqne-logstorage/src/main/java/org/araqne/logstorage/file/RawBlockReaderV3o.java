@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logstorage.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.araqne.storage.api.FilePath;
+import org.araqne.storage.api.StorageInputStream;
+import org.araqne.storage.api.StorageUtil;
+
+/**
+ * Reads index entries and data blocks of v3o tablet as is. Index length is
+ * captured on open, so blocks which are appended later are not visible.
+ * 
+ * @since 3.0.2
+ */
+public class RawBlockReaderV3o implements RawBlockReader {
+	private static final short FILE_VERSION = 3;
+
+	private StorageInputStream indexStream;
+	private StorageInputStream dataStream;
+	private String compressionMethod;
+
+	private long indexPos;
+	private long indexLength;
+
+	public RawBlockReaderV3o(FilePath indexPath, FilePath dataPath) throws IOException {
+		try {
+			indexStream = indexPath.newInputStream();
+			LogFileHeader indexFileHeader = LogFileHeader.extractHeader(indexStream);
+			if (indexFileHeader.version() != FILE_VERSION)
+				throw new InvalidLogFileHeaderException("version not match, index file " + indexPath.getAbsolutePath());
+
+			indexPos = indexFileHeader.size();
+			indexLength = indexStream.length();
+
+			dataStream = dataPath.newInputStream();
+			LogFileHeader dataFileHeader = LogFileHeader.extractHeader(dataStream);
+			if (dataFileHeader.version() != FILE_VERSION)
+				throw new InvalidLogFileHeaderException("version not match, data file " + dataPath.getAbsolutePath());
+
+			byte[] ext = dataFileHeader.getExtraData();
+			compressionMethod = new String(ext, 4, ext.length - 4).trim();
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	@Override
+	public String getType() {
+		return "v3o";
+	}
+
+	@Override
+	public String getCompressionMethod() {
+		return compressionMethod;
+	}
+
+	@Override
+	public RawBlock next() throws IOException {
+		while (indexPos + IndexBlockV3Header.ITEM_SIZE <= indexLength) {
+			ByteBuffer bb = ByteBuffer.allocate(IndexBlockV3Header.ITEM_SIZE);
+			indexStream.seek(indexPos);
+			StorageUtil.readFully(indexStream, bb);
+			indexPos += IndexBlockV3Header.ITEM_SIZE;
+
+			IndexBlockV3Header header = new IndexBlockV3Header().unserialize(0, bb);
+			if (header.isReserved())
+				continue;
+
+			dataStream.seek(header.dataFp);
+			int length = dataStream.readInt();
+			byte[] data = new byte[length];
+			ByteBuffer block = ByteBuffer.wrap(data);
+			block.putInt(length);
+			dataStream.readBestEffort(block);
+			if (block.remaining() != 0)
+				throw new IOException("data block underflow at " + header.dataFp + ", expected " + length + ", read "
+						+ block.position());
+
+			return new RawBlock(header.minTime, header.maxTime, header.logCount, data);
+		}
+
+		return null;
+	}
+
+	@Override
+	public void close() {
+		if (indexStream != null) {
+			try {
+				indexStream.close();
+			} catch (Throwable t) {
+			}
+			indexStream = null;
+		}
+
+		if (dataStream != null) {
+			try {
+				dataStream.close();
+			} catch (Throwable t) {
+			}
+			dataStream = null;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.logstorage.file;
+
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Unit of work for parallel table scan. Scan tasks are submitted to the shared
+ * scan pool, but the consumer can claim and run a task in its own thread if no
+ * worker picked it up yet. Nested scans (tablet task waiting for its block
+ * tasks) therefore never deadlock on a saturated bounded pool.
+ *
+ * @since 3.0.2
+ */
+public abstract class ScanTask<T> implements Runnable {
+	private final AtomicBoolean claimed = new AtomicBoolean();
+	private final CountDownLatch done = new CountDownLatch(1);
+	private volatile boolean cancelled;
+	private T result;
+	private Throwable failure;
+
+	protected abstract T execute() throws Exception;
+
+	@Override
+	public final void run() {
+		if (!claimed.compareAndSet(false, true))
+			return;
+
+		try {
+			if (!cancelled)
+				result = execute();
+		} catch (Throwable t) {
+			failure = t;
+		} finally {
+			done.countDown();
+		}
+	}
+
+	/**
+	 * @return true if worker thread is running (or already ran) this task
+	 */
+	public boolean isClaimed() {
+		return claimed.get();
+	}
+
+	/**
+	 * claim task for caller thread.
+	 *
+	 * @return true if caller thread should execute this task by itself
+	 */
+	public boolean claim() {
+		if (!claimed.compareAndSet(false, true))
+			return false;
+
+		done.countDown();
+		return true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	public void cancel() {
+		cancelled = true;
+		if (claimed.compareAndSet(false, true))
+			done.countDown();
+	}
+
+	/**
+	 * Cancel tasks and wait until running tasks are finished. Tasks can read
+	 * shared resources (e.g. data file stream of reader), so caller should
+	 * call this before releasing them.
+	 */
+	public static void cancelAll(Collection<? extends ScanTask<?>> tasks) {
+		for (ScanTask<?> task : tasks)
+			task.cancel();
+
+		boolean interrupted = false;
+		for (ScanTask<?> task : tasks) {
+			while (true) {
+				try {
+					task.done.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Wait result. Runs the task in caller thread if it is not started yet.
+	 */
+	public T get() throws InterruptedException, ExecutionException {
+		run();
+		done.await();
+
+		if (failure != null)
+			throw new ExecutionException(failure);
+
+		return result;
+	}
+}
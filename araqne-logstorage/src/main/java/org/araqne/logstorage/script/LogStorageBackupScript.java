@@ -239,6 +239,12 @@ public class LogStorageBackupScript implements Script {
 
 		req.setTo(to);
 
+		context.print("Incremental? (y/N): ");
+		req.setIncremental(context.readLine().trim().equalsIgnoreCase("y"));
+
+		if (!configureTransferThreads(req))
+			return;
+
 		StorageBackupJob job = backupManager.prepare(req);
 		int tableCount = job.getStorageFiles().keySet().size();
 		context.println("Total " + tableCount + " tables");
@@ -296,6 +302,21 @@ public class LogStorageBackupScript implements Script {
 		req.setMedia(mediaFactory.newMedia(mediaConfigs));
 	}
 
+	private boolean configureTransferThreads(StorageBackupRequest req) throws InterruptedException {
+		context.print("Transfer threads (enter to 1): ");
+		String threads = context.readLine().trim();
+		if (threads.isEmpty())
+			return true;
+
+		try {
+			req.setTransferThreads(Integer.parseInt(threads));
+			return true;
+		} catch (NumberFormatException e) {
+			context.println("invalid number format");
+			return false;
+		}
+	}
+
 	public void restore(String[] args) throws InterruptedException, IOException {
 		StorageBackupRequest req = new StorageBackupRequest(StorageBackupType.RESTORE);
 		BackupProgressPrinter printer = new BackupProgressPrinter(context);
@@ -313,6 +334,9 @@ public class LogStorageBackupScript implements Script {
 			req.setTableNames(TableWildcardMatcher.apply(allTableNames, tableExpr));
 		}
 
+		if (!configureTransferThreads(req))
+			return;
+
 		StorageBackupJob job = backupManager.prepare(req);
 		int tableCount = job.getMediaFiles().keySet().size();
 		context.println("Total " + tableCount + " tables");
@@ -124,6 +124,22 @@ public class LogStorageScript implements Script {
 		context.println("triggered");
 	}
 
+	public void blockCacheStatus(String[] args) {
+		if (!(monitor instanceof LogBlockCacheMonitor)) {
+			context.println("block cache status is not supported");
+			return;
+		}
+
+		LogBlockCacheStatus s = ((LogBlockCacheMonitor) monitor).getBlockCacheStatus();
+		context.println("Block Cache Status");
+		context.println("--------------------");
+		context.println("capacity: " + s.getCapacity() + " bytes");
+		context.println("size: " + s.getSize() + " bytes (" + s.getBlockCount() + " blocks)");
+		context.println("hits: " + s.getHits());
+		context.println("misses: " + s.getMisses());
+		context.println("evictions: " + s.getEvictions());
+	}
+
 	@ScriptUsage(description = "set retention policy", arguments = { @ScriptArgument(name = "table name", type = "string", description = "table name") })
 	public void retention(String[] args) {
 		String tableName = args[0];
@@ -0,0 +1,197 @@
+package org.araqne.logstorage.engine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Random;
+
+import org.araqne.logstorage.backup.FileStorageBackupMedia;
+import org.araqne.logstorage.backup.StorageBackupJob;
+import org.araqne.logstorage.backup.StorageFile;
+import org.araqne.logstorage.backup.StorageMediaFile;
+import org.araqne.logstorage.backup.StorageTransferRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StorageBackupManagerImplTest {
+	private static final int BLOCK_SIZE = 4096;
+	private static final int TABLE_ID = 7;
+
+	private File root;
+	private File mediaDir;
+	private File dataFile;
+	private Random r = new Random(1);
+
+	@Before
+	public void setup() throws IOException {
+		root = File.createTempFile("backup", "");
+		root.delete();
+		mediaDir = new File(root, "media");
+		dataFile = new File(root, "data/" + TABLE_ID + "/2014-01-01.dat");
+		dataFile.getParentFile().mkdirs();
+
+		FileStorageBackupMedia media = new FileStorageBackupMedia(mediaDir);
+		media.putTableMetadata(TABLE_ID, "{\"table_name\":\"t\",\"metadata\":{\"_filetype\":\"v3p\"}}".getBytes("utf-8"));
+	}
+
+	@After
+	public void teardown() {
+		delete(root);
+	}
+
+	@Test
+	public void testIncrementalRoundTrip() throws IOException {
+		StorageBackupManagerImpl manager = new StorageBackupManagerImpl();
+		FileStorageBackupMedia media = new FileStorageBackupMedia(mediaDir);
+
+		append(dataFile, BLOCK_SIZE * 3 + 100);
+		assertEquals(4, manager.copyBlocksToMedia(media, new StorageFile("t", TABLE_ID, dataFile), BLOCK_SIZE));
+
+		// unchanged file is skipped without reading
+		assertEquals(-1, manager.copyBlocksToMedia(media, new StorageFile("t", TABLE_ID, dataFile), BLOCK_SIZE));
+
+		// appended data changes trailing block only
+		append(dataFile, 500);
+		assertEquals(1, manager.copyBlocksToMedia(media, new StorageFile("t", TABLE_ID, dataFile), BLOCK_SIZE));
+		assertArrayEquals(readAll(dataFile), restore());
+
+		// replaced trailing block is not referenced anymore
+		assertEquals(1, media.purgeBlocks(System.currentTimeMillis() + 60000));
+		assertEquals(0, media.purgeBlocks(System.currentTimeMillis() + 60000));
+		assertArrayEquals(readAll(dataFile), restore());
+	}
+
+	@Test
+	public void testFullCopyReplacesManifest() throws IOException {
+		StorageBackupManagerImpl manager = new StorageBackupManagerImpl();
+		FileStorageBackupMedia media = new FileStorageBackupMedia(mediaDir);
+		File fullCopy = new File(mediaDir, "table/" + TABLE_ID + "/" + dataFile.getName());
+		File manifest = new File(fullCopy.getAbsolutePath() + ".blocks");
+
+		append(dataFile, BLOCK_SIZE * 2);
+		manager.copyBlocksToMedia(media, new StorageFile("t", TABLE_ID, dataFile), BLOCK_SIZE);
+		assertTrue(manifest.exists());
+
+		// later full backup should win over stale manifest
+		append(dataFile, 100);
+		StorageFile storageFile = new StorageFile("t", TABLE_ID, dataFile);
+		StorageMediaFile mediaFile = new StorageMediaFile("t", dataFile.getName(), storageFile.getLength());
+		media.copyToMedia(new StorageTransferRequest(storageFile, mediaFile));
+		assertFalse(manifest.exists());
+		assertArrayEquals(readAll(dataFile), restore());
+
+		// and later incremental backup replaces full copy
+		append(dataFile, 100);
+		assertEquals(1, manager.copyBlocksToMedia(media, new StorageFile("t", TABLE_ID, dataFile), BLOCK_SIZE));
+		assertFalse(fullCopy.exists());
+		assertArrayEquals(readAll(dataFile), restore());
+	}
+
+	@Test
+	public void testOverlappingJobs() throws Exception {
+		StorageBackupManagerImpl manager = new StorageBackupManagerImpl();
+		FileStorageBackupMedia media = new FileStorageBackupMedia(mediaDir);
+		media.putTableMetadata(TABLE_ID + 1, "{\"table_name\":\"u\",\"metadata\":{}}".getBytes("utf-8"));
+		long now = System.currentTimeMillis();
+
+		// job b began 10 minutes ago, and wrote a block 5 minutes ago, but
+		// its manifest is not written yet
+		StorageBackupJob jobB = new StorageBackupJob();
+		manager.beginIncremental(jobB, now - 600000);
+		File otherFile = new File(root, "data/" + (TABLE_ID + 1) + "/2014-01-01.dat");
+		otherFile.getParentFile().mkdirs();
+		append(otherFile, BLOCK_SIZE);
+		byte[] b = readAll(otherFile);
+		File pending = putBlock(media, b, now - 300000);
+
+		// block of finished job which is not referenced anymore
+		File orphan = putBlock(media, new byte[] { 1, 2, 3 }, now - 1200000);
+
+		StorageBackupJob jobA = new StorageBackupJob();
+		manager.beginIncremental(jobA, now);
+		append(dataFile, BLOCK_SIZE * 2);
+		assertEquals(2, manager.copyBlocksToMedia(media, new StorageFile("t", TABLE_ID, dataFile), BLOCK_SIZE));
+
+		// job a should keep the block of running job b
+		assertEquals(1, manager.purgeBlocks(media));
+		assertTrue(pending.exists());
+		assertFalse(orphan.exists());
+		manager.endIncremental(jobA);
+
+		// job b reuses its block and writes manifest
+		assertEquals(0, manager.copyBlocksToMedia(media, new StorageFile("u", TABLE_ID + 1, otherFile), BLOCK_SIZE));
+		manager.endIncremental(jobB);
+
+		assertEquals(0, manager.purgeBlocks(media));
+		assertArrayEquals(b, restore("u", TABLE_ID + 1, otherFile));
+		assertArrayEquals(readAll(dataFile), restore());
+	}
+
+	private File putBlock(FileStorageBackupMedia media, byte[] b, long lastModified) throws IOException {
+		MessageDigest md = FileStorageBackupMedia.newDigest();
+		String hash = FileStorageBackupMedia.toHex(md.digest(b));
+		media.putBlock(hash, b, 0, b.length);
+
+		File f = new File(mediaDir, "blocks/" + hash.substring(0, 2) + "/" + hash);
+		f.setLastModified(lastModified);
+		return f;
+	}
+
+	private byte[] restore() throws IOException {
+		return restore("t", TABLE_ID, dataFile);
+	}
+
+	private byte[] restore(String tableName, int tableId, File dataFile) throws IOException {
+		FileStorageBackupMedia media = new FileStorageBackupMedia(mediaDir);
+		List<StorageMediaFile> files = media.getFiles(tableName);
+		assertEquals(1, files.size());
+		assertEquals(dataFile.length(), files.get(0).getLength());
+
+		File restored = new File(root, "restore/" + tableId + "/" + dataFile.getName());
+		restored.delete();
+		media.copyFromMedia(new StorageTransferRequest(new StorageFile(tableName, tableId, restored), files.get(0)));
+		return readAll(restored);
+	}
+
+	private void append(File f, int length) throws IOException {
+		byte[] b = new byte[length];
+		r.nextBytes(b);
+
+		FileOutputStream os = new FileOutputStream(f, true);
+		try {
+			os.write(b);
+		} finally {
+			os.close();
+		}
+	}
+
+	private static byte[] readAll(File f) throws IOException {
+		byte[] b = new byte[(int) f.length()];
+		FileInputStream is = new FileInputStream(f);
+		try {
+			int len = 0;
+			while (len < b.length)
+				len += is.read(b, len, b.length - len);
+			return b;
+		} finally {
+			is.close();
+		}
+	}
+
+	private static void delete(File f) {
+		File[] files = f.listFiles();
+		if (files != null)
+			for (File c : files)
+				delete(c);
+		f.delete();
+	}
+}
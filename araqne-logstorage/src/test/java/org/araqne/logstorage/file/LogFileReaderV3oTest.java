@@ -2,13 +2,28 @@ package org.araqne.logstorage.file;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.araqne.logstorage.Log;
+import org.araqne.logstorage.LogBlockCacheStatus;
+import org.araqne.logstorage.LogBlockFilter;
+import org.araqne.logstorage.LogBlockSummary;
 import org.araqne.logstorage.LogMarshaler;
+import org.araqne.logstorage.LogTraverseCallback;
+import org.araqne.logstorage.SimpleLogTraverseCallback;
+import org.araqne.logstorage.TableScanRequest;
 import org.araqne.logstorage.file.IndexBlockV3Header;
 import org.araqne.logstorage.file.LogRecord;
 import org.araqne.logstorage.file.LogRecordCursor;
@@ -110,4 +125,203 @@ public class LogFileReaderV3oTest {
 		indexFile.delete();
 		dataFile.delete();
 	}
+
+	@Test
+	public void parallelTraverseTest() throws Exception {
+		FilePath indexFile = new LocalFilePath("v3_para.idx");
+		FilePath dataFile = new LocalFilePath("v3_para.dat");
+
+		indexFile.delete();
+		dataFile.delete();
+
+		LogFileV3oTest.genLogFile(indexFile, dataFile);
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			List<Long> serialIds = traverseIds(indexFile, dataFile, null, 0);
+			List<Long> parallelIds = traverseIds(indexFile, dataFile, executor, 0);
+			assertEquals(900, serialIds.size());
+			assertEquals(serialIds, parallelIds);
+
+			// early eof
+			List<Long> limitedIds = traverseIds(indexFile, dataFile, executor, 250);
+			assertEquals(serialIds.subList(0, 250), limitedIds);
+		} finally {
+			executor.shutdown();
+			indexFile.delete();
+			dataFile.delete();
+		}
+	}
+
+	@Test
+	public void blockCacheTest() throws Exception {
+		FilePath indexFile = new LocalFilePath("v3_cache.idx");
+		FilePath dataFile = new LocalFilePath("v3_cache.dat");
+
+		indexFile.delete();
+		dataFile.delete();
+
+		LogFileV3oTest.genLogFile(indexFile, dataFile);
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		DataBlockCache cache = new DataBlockCache(DataBlockCache.DEFAULT_CAPACITY);
+		try {
+			List<Long> expected = traverseIds(indexFile, dataFile, null, 0, null);
+
+			// first scan fills cache
+			assertEquals(expected, traverseIds(indexFile, dataFile, null, 0, cache));
+			LogBlockCacheStatus s = cache.getStatus();
+			assertEquals(0, s.getHits());
+			assertTrue(s.getBlockCount() > 0);
+			long misses = s.getMisses();
+
+			// both serial and parallel scans hit cached blocks
+			assertEquals(expected, traverseIds(indexFile, dataFile, null, 0, cache));
+			assertEquals(expected, traverseIds(indexFile, dataFile, executor, 0, cache));
+			s = cache.getStatus();
+			assertEquals(misses, s.getMisses());
+			assertEquals(misses * 2, s.getHits());
+
+			cache.invalidate(dataFile.getAbsolutePath());
+			assertEquals(0, cache.getStatus().getBlockCount());
+			assertEquals(0, cache.getStatus().getSize());
+
+			// capacity smaller than single block
+			cache.setCapacity(1);
+			assertEquals(expected, traverseIds(indexFile, dataFile, null, 0, cache));
+			assertEquals(0, cache.getStatus().getBlockCount());
+		} finally {
+			executor.shutdown();
+			indexFile.delete();
+			dataFile.delete();
+		}
+	}
+
+	@Test
+	public void skipIndexTest() throws Exception {
+		FilePath indexFile = new LocalFilePath("v3_skip.idx");
+		FilePath dataFile = new LocalFilePath("v3_skip.dat");
+		FilePath skipFile = BlockSkipIndex.getSidecarPath(indexFile);
+
+		indexFile.delete();
+		dataFile.delete();
+		skipFile.delete();
+
+		LogWriterConfigV3o config = new LogWriterConfigV3o();
+		config.setTableName("lfwv3test");
+		config.setIndexPath(indexFile);
+		config.setDataPath(dataFile);
+		config.setFlushCount(100);
+		config.setCompression("deflate");
+		config.setSkipIndexPath(skipFile);
+		config.setSkipIndexFields(Arrays.asList("user", "port"));
+
+		LogFileWriterV3o writer = new LogFileWriterV3o(config);
+		try {
+			for (int i = 0; i < 1000; i++) {
+				Map<String, Object> m = new HashMap<String, Object>();
+				m.put("user", "user" + (i / 100));
+				m.put("port", i);
+				writer.write(new Log("lfwv3test", new Date(), i + 1, m));
+			}
+		} finally {
+			writer.close();
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Map<Long, BlockSkipIndex> indexes = BlockSkipIndex.load(skipFile);
+			assertEquals(10, indexes.size());
+			for (BlockSkipIndex index : indexes.values()) {
+				int block = (int) (index.getMax("port") / 100);
+				assertEquals(block * 100, index.getMin("port"), 0);
+				assertEquals(block * 100 + 99, index.getMax("port"), 0);
+				assertTrue(index.isNumeric("port"));
+				assertTrue(index.isComplete("user"));
+				assertTrue(!index.isNumeric("user"));
+				assertTrue(index.mightContainText("user", "user" + block));
+				assertTrue(index.mightContainNumber("port", (long) block * 100));
+				assertTrue(index.mightContainText("port", Integer.toString(block * 100)));
+				assertTrue(!index.isIndexed("src"));
+			}
+
+			for (ExecutorService e : new ExecutorService[] { null, executor }) {
+				UserFilter filter = new UserFilter("user3");
+				List<Long> ids = traverseIds(indexFile, dataFile, e, 0, null, filter);
+				assertEquals(100, ids.size());
+				assertEquals(400L, (long) ids.get(0));
+
+				// only blocks which might contain user3 are parsed
+				assertTrue(filter.calls.get() < 1000);
+			}
+		} finally {
+			executor.shutdown();
+			indexFile.delete();
+			dataFile.delete();
+			skipFile.delete();
+		}
+	}
+
+	private static class UserFilter implements LogBlockFilter {
+		private String user;
+		private AtomicInteger calls = new AtomicInteger();
+
+		public UserFilter(String user) {
+			this.user = user;
+		}
+
+		@Override
+		public boolean accept(Log log) {
+			calls.incrementAndGet();
+			return user.equals(log.getData().get("user"));
+		}
+
+		@Override
+		public boolean mayMatch(LogBlockSummary block) {
+			return block.mightContainText("user", user);
+		}
+	}
+
+	private List<Long> traverseIds(FilePath indexFile, FilePath dataFile, ExecutorService executor, long limit)
+			throws Exception {
+		return traverseIds(indexFile, dataFile, executor, limit, null);
+	}
+
+	private List<Long> traverseIds(FilePath indexFile, FilePath dataFile, ExecutorService executor, long limit,
+			DataBlockCache cache) throws Exception {
+		return traverseIds(indexFile, dataFile, executor, limit, cache, null);
+	}
+
+	private List<Long> traverseIds(FilePath indexFile, FilePath dataFile, ExecutorService executor, long limit,
+			DataBlockCache cache, LogBlockFilter filter) throws Exception {
+		final List<Long> ids = new ArrayList<Long>();
+		LogTraverseCallback.Sink sink = new LogTraverseCallback.Sink(0, limit) {
+			@Override
+			protected void processLogs(List<Log> logs) {
+				for (Log log : logs)
+					ids.add(log.getId());
+			}
+		};
+
+		LogReaderConfigV3o config = new LogReaderConfigV3o();
+		config.dataPath = dataFile;
+		config.indexPath = indexFile;
+		config.tableName = "lfwv3test";
+		config.cache = cache;
+		config.skipIndexPath = BlockSkipIndex.getSidecarPath(indexFile);
+
+		LogFileReaderV3o reader = null;
+		try {
+			reader = new LogFileReaderV3o(config);
+			TableScanRequest req = new TableScanRequest("lfwv3test", -1, -1, null, new SimpleLogTraverseCallback(sink));
+			req.setScanExecutor(executor);
+			req.setFilter(filter);
+			reader.traverse(req);
+		} finally {
+			if (reader != null)
+				reader.close();
+		}
+
+		return ids;
+	}
 }
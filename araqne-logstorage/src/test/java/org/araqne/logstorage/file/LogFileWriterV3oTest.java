@@ -1,13 +1,20 @@
 package org.araqne.logstorage.file;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -182,4 +189,245 @@ public class LogFileWriterV3oTest {
 		assertEquals(76, cmplcnt.get());
 
 	}
+
+	@Test
+	public void asyncFlushTest() throws InvalidLogFileHeaderException, IOException {
+		LogWriterConfigV3o config = new LogWriterConfigV3o();
+		config.setTableName("lfwv3test");
+		FilePath indexPath = new LocalFilePath("lfwv3test-async.idx");
+		config.setIndexPath(indexPath);
+		FilePath dataPath = new LocalFilePath("lfwv3test-async.dat");
+		config.setDataPath(dataPath);
+		config.setListener(null);
+		config.setFlushCount(200);
+		config.setCompression("deflate");
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		config.setFlushExecutor(executor);
+		config.setSlotCount(4);
+
+		final AtomicInteger cmplcnt = new AtomicInteger(0);
+		CallbackSet callbackSet = new CallbackSet();
+		callbackSet.get(LogFlushCallback.class).add(new LogFlushCallback() {
+			@Override
+			public void onFlushCompleted(LogFlushCallbackArgs args) {
+				cmplcnt.incrementAndGet();
+			}
+
+			@Override
+			public void onFlush(LogFlushCallbackArgs arg) {
+			}
+
+			@Override
+			public void onFlushException(LogFlushCallbackArgs arg, Throwable t) {
+			}
+		});
+		config.setCallbackSet(callbackSet);
+
+		indexPath.deleteOnExit();
+		dataPath.deleteOnExit();
+
+		LogFileWriterV3o writer = null;
+		try {
+			writer = new LogFileWriterV3o(config);
+			for (int i = 0; i < 15100; ++i) {
+				Map<String, Object> logdata = new HashMap<String, Object>();
+				logdata.put("line", "line" + i);
+				writer.write(new Log("lfwv3test", new Date(), i + 1, logdata));
+
+				// pending blocks should be visible through buffer without gap
+				if (i % 1000 == 949) {
+					List<Log> buffer = writer.getBuffer();
+					long firstId = buffer.get(0).getId();
+					assertEquals(0, (firstId - 1) % 200);
+					for (int j = 0; j < buffer.size(); j++)
+						assertEquals(firstId + j, buffer.get(j).getId());
+					assertEquals(i + 1, buffer.get(buffer.size() - 1).getId());
+				}
+			}
+		} finally {
+			if (writer != null)
+				writer.close();
+			executor.shutdown();
+		}
+
+		assertEquals(76, cmplcnt.get());
+
+		LogReaderConfigV3o readerConfig = new LogReaderConfigV3o();
+		readerConfig.dataPath = dataPath;
+		readerConfig.indexPath = indexPath;
+		readerConfig.tableName = "lfwv3test";
+
+		LogFileReaderV3o reader = null;
+		try {
+			reader = new LogFileReaderV3o(readerConfig);
+			LogRecordCursor cursor = reader.getCursor();
+			for (int i = 15100; i > 0; --i) {
+				Log converted = LogMarshaler.convert("lfwv3test", cursor.next());
+				assertEquals(i, converted.getId());
+				assertEquals("line" + (i - 1), converted.getData().get("line"));
+			}
+		} finally {
+			if (reader != null)
+				reader.close();
+		}
+	}
+
+	@Test
+	public void asyncFlushFailureTest() throws InvalidLogFileHeaderException, IOException {
+		LogWriterConfigV3o config = new LogWriterConfigV3o();
+		config.setTableName("lfwv3test");
+		FilePath indexPath = new LocalFilePath("lfwv3test-asyncfail.idx");
+		config.setIndexPath(indexPath);
+		FilePath dataPath = new LocalFilePath("lfwv3test-asyncfail.dat");
+		config.setDataPath(dataPath);
+		config.setListener(null);
+		config.setFlushCount(200);
+		config.setCompression("deflate");
+		config.setCallbackSet(null);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		config.setFlushExecutor(executor);
+		config.setSlotCount(4);
+
+		indexPath.deleteOnExit();
+		dataPath.deleteOnExit();
+
+		LogFileWriterV3o writer = null;
+		try {
+			writer = new LogFileWriterV3o(config);
+			for (int i = 0; i < 200; ++i) {
+				Map<String, Object> logdata = new HashMap<String, Object>();
+				// cannot be encoded, block preprocessing fails in flush pool
+				logdata.put("line", i == 100 ? new Object() : "line" + i);
+				writer.write(new Log("lfwv3test", new Date(), i + 1, logdata));
+			}
+
+			try {
+				writer.sync();
+				fail();
+			} catch (IOException e) {
+			}
+
+			try {
+				writer.write(new Log("lfwv3test", new Date(), 201, new HashMap<String, Object>()));
+				fail();
+			} catch (IOException e) {
+			}
+
+			try {
+				writer.close();
+				fail();
+			} catch (IOException e) {
+			}
+
+			assertTrue(writer.isClosed());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void rawBlockTest() throws InvalidLogFileHeaderException, IOException {
+		FilePath srcIndexPath = new LocalFilePath("lfwv3test-rawsrc.idx");
+		FilePath srcDataPath = new LocalFilePath("lfwv3test-rawsrc.dat");
+		FilePath dstIndexPath = new LocalFilePath("lfwv3test-rawdst.idx");
+		FilePath dstDataPath = new LocalFilePath("lfwv3test-rawdst.dat");
+		srcIndexPath.deleteOnExit();
+		srcDataPath.deleteOnExit();
+		dstIndexPath.deleteOnExit();
+		dstDataPath.deleteOnExit();
+
+		LogFileWriterV3o writer = null;
+		try {
+			writer = new LogFileWriterV3o(newRawBlockConfig(srcIndexPath, srcDataPath));
+			for (int i = 0; i < 1000; ++i)
+				writer.write(newRawBlockLog(i + 1, "src" + i));
+		} finally {
+			if (writer != null)
+				writer.close();
+		}
+
+		// splice source blocks between buffered and following logs
+		RawBlockReaderV3o rawReader = null;
+		try {
+			writer = new LogFileWriterV3o(newRawBlockConfig(dstIndexPath, dstDataPath));
+			for (int i = 0; i < 50; ++i)
+				writer.write(newRawBlockLog(i + 1, "dst" + i));
+
+			rawReader = new RawBlockReaderV3o(srcIndexPath, srcDataPath);
+			assertEquals("deflate", rawReader.getCompressionMethod());
+			assertTrue(writer.canWriteRawBlock("v3o", rawReader.getCompressionMethod()));
+			assertFalse(writer.canWriteRawBlock("v3o", "snappy"));
+
+			RawBlock block = null;
+			int blockCount = 0;
+			while ((block = rawReader.next()) != null) {
+				List<Log> logs = block.toLogs("lfwv3test", rawReader.getCompressionMethod());
+				assertEquals(100, logs.size());
+				assertEquals("src" + (blockCount * 100), logs.get(0).getData().get("line"));
+
+				block.setMinId(writer.getLastKey() + 1);
+				writer.writeRawBlock(block);
+				blockCount++;
+			}
+			assertNull(rawReader.next());
+			assertEquals(10, blockCount);
+			assertEquals(1050, writer.getLastKey());
+
+			for (int i = 0; i < 10; ++i)
+				writer.write(newRawBlockLog(1051 + i, "tail" + i));
+		} finally {
+			if (rawReader != null)
+				rawReader.close();
+			if (writer != null)
+				writer.close();
+		}
+
+		LogReaderConfigV3o readerConfig = new LogReaderConfigV3o();
+		readerConfig.dataPath = dstDataPath;
+		readerConfig.indexPath = dstIndexPath;
+		readerConfig.tableName = "lfwv3test";
+
+		LogFileReaderV3o reader = null;
+		try {
+			reader = new LogFileReaderV3o(readerConfig);
+			LogRecordCursor cursor = reader.getCursor(true);
+			for (int i = 1; i <= 1060; ++i) {
+				Log converted = LogMarshaler.convert("lfwv3test", cursor.next());
+				assertEquals(i, converted.getId());
+
+				String expected = null;
+				if (i <= 50)
+					expected = "dst" + (i - 1);
+				else if (i <= 1050)
+					expected = "src" + (i - 51);
+				else
+					expected = "tail" + (i - 1051);
+				assertEquals(expected, converted.getData().get("line"));
+			}
+			assertFalse(cursor.hasNext());
+		} finally {
+			if (reader != null)
+				reader.close();
+		}
+	}
+
+	private LogWriterConfigV3o newRawBlockConfig(FilePath indexPath, FilePath dataPath) {
+		LogWriterConfigV3o config = new LogWriterConfigV3o();
+		config.setTableName("lfwv3test");
+		config.setIndexPath(indexPath);
+		config.setDataPath(dataPath);
+		config.setListener(null);
+		config.setFlushCount(100);
+		config.setCompression("deflate");
+		config.setCallbackSet(null);
+		return config;
+	}
+
+	private Log newRawBlockLog(long id, String line) {
+		Map<String, Object> logdata = new HashMap<String, Object>();
+		logdata.put("line", line);
+		return new Log("lfwv3test", new Date(), id, logdata);
+	}
 }
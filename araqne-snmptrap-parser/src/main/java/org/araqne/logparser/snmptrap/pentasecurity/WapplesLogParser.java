@@ -16,16 +16,17 @@
 package org.araqne.logparser.snmptrap.pentasecurity;
 
 import java.net.InetAddress;
-import java.text.SimpleDateFormat;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.araqne.log.api.CompiledDateParser;
 import org.araqne.log.api.V1LogParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class WapplesLogParser extends V1LogParser {
 	private final Logger logger = LoggerFactory.getLogger(WapplesLogParser.class.getName());
+	private final CompiledDateParser dateFormat = new CompiledDateParser("yy/MM/dd HH:mm:ss");
 
 	// detect oids
 	private final static String DETECT_OID = "1.3.6.1.4.1.9772.1.2.0.1";
@@ -75,10 +76,9 @@ public class WapplesLogParser extends V1LogParser {
 
 		// detection log
 		try {
-			SimpleDateFormat dateFormat = new SimpleDateFormat("yy/MM/dd HH:mm:ss");
 			if (snmpTrapOid.equals("1.3.6.1.4.1.9772.1.2.0.1")) {
 				Map<String, Object> m = new HashMap<String, Object>();
-				m.put("date", dateFormat.parse((String) log.get(DETECT_TIME_OID)));
+				m.put("date", dateFormat.parseDate((String) log.get(DETECT_TIME_OID)));
 				m.put("type", "detect");
 				m.put("src", ((InetAddress) log.get(DETECT_SRC_OID)).getHostAddress());
 				m.put("dst", ((InetAddress) log.get(DETECT_DST_OID)).getHostAddress());
@@ -92,7 +92,7 @@ public class WapplesLogParser extends V1LogParser {
 			// audit log
 			else if (snmpTrapOid.equals("1.3.6.1.4.1.9772.1.2.0.2")) {
 				Map<String, Object> m = new HashMap<String, Object>();
-				m.put("date", dateFormat.parse((String) log.get(AUDIT_TIME_OID)));
+				m.put("date", dateFormat.parseDate((String) log.get(AUDIT_TIME_OID)));
 				m.put("type", "audit");
 				m.put("src", log.get(AUDIT_SRC_OID));
 				m.put("info", log.get(AUDIT_INFO_OID));
@@ -103,7 +103,7 @@ public class WapplesLogParser extends V1LogParser {
 			// wapples status
 			else if (snmpTrapOid.equals("1.3.6.1.4.1.9772.1.2.0.3")) {
 				Map<String, Object> m = new HashMap<String, Object>();
-				m.put("date", dateFormat.parse((String) log.get(STATUS_TIME_OID)));
+				m.put("date", dateFormat.parseDate((String) log.get(STATUS_TIME_OID)));
 				m.put("type", "status");
 				m.put("cpu_used", log.get(STATUS_CPU_USED_OID));
 				m.put("mem_used", log.get(STATUS_MEM_USED_OID));
@@ -113,8 +113,8 @@ public class WapplesLogParser extends V1LogParser {
 			else if (snmpTrapOid.equals("1.3.6.1.4.1.9772.1.2.0.4")) {
 				Map<String, Object> m = new HashMap<String, Object>();
 				m.put("type", "server_check");
-				m.put("begin_time", dateFormat.parse((String) log.get(CHECK_BEGIN_TIME_OID)));
-				m.put("end_time", dateFormat.parse((String) log.get(CHECK_END_TIME_OID)));
+				m.put("begin_time", dateFormat.parseDate((String) log.get(CHECK_BEGIN_TIME_OID)));
+				m.put("end_time", dateFormat.parseDate((String) log.get(CHECK_END_TIME_OID)));
 				m.put("server_ip", ((InetAddress) log.get(CHECK_SERVER_IP_OID)).getHostAddress());
 				m.put("server_port", log.get(CHECK_SERVER_PORT_OID));
 				m.put("status_code", log.get(CHECK_STATUS_CODE_OID));
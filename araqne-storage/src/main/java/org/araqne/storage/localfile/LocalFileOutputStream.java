@@ -109,7 +109,18 @@ public class LocalFileOutputStream extends StorageOutputStream {
 	}
 
 	public void setLength(long l) throws IOException {
-		target.setLength(l);
+		if (l >= target.length()) {
+			target.setLength(l);
+			return;
+		}
+
+		// mapped streams should not access truncated region
+		MappedFileInputStream.beginTruncate(path.getFile());
+		try {
+			target.setLength(l);
+		} finally {
+			MappedFileInputStream.endTruncate(path.getFile());
+		}
 	}
 
 	public void seek(long p) throws IOException {
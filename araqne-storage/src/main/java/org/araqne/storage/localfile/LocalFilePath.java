@@ -3,7 +3,9 @@ package org.araqne.storage.localfile;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import org.araqne.storage.api.FilePath;
 import org.araqne.storage.api.FilePathNameFilter;
@@ -18,6 +20,13 @@ public class LocalFilePath implements FilePath {
 
 	static final String PROTOCOL_NAME = "file";
 	static final String PROTOCOL_STRING = "file://";
+
+	// day tablet file name, e.g. 2014-01-23.idx
+	private static final Pattern TABLET_NAME = Pattern.compile("(\\d{4}-\\d{2}-\\d{2})\\.(idx|dat)");
+
+	// set -Daraqne.storage.mmap=false to disable mapped read
+	private static final boolean MMAP_ENABLED = !"false".equals(System.getProperty("araqne.storage.mmap"));
+
 	private final File path;
 
 	public LocalFilePath(File path) {
@@ -33,9 +42,40 @@ public class LocalFilePath implements FilePath {
 
 	@Override
 	public StorageInputStream newInputStream() throws IOException {
+		if (MMAP_ENABLED && isSealedTablet()) {
+			// file being truncated by repair is read without mapping
+			StorageInputStream is = MappedFileInputStream.open(this);
+			if (is != null)
+				return is;
+		}
 		return new LocalFileInputStream(this);
 	}
 
+	/**
+	 * Past day tablet which is not modified since today is considered as
+	 * sealed. Sealed tablet is read using memory mapping. Late logs can still
+	 * be appended to it, and mapped stream maps appended data on demand.
+	 */
+	private boolean isSealedTablet() {
+		String name = path.getName();
+		if (!TABLET_NAME.matcher(name).matches())
+			return false;
+
+		Calendar c = Calendar.getInstance();
+		c.set(Calendar.HOUR_OF_DAY, 0);
+		c.set(Calendar.MINUTE, 0);
+		c.set(Calendar.SECOND, 0);
+		c.set(Calendar.MILLISECOND, 0);
+		long today = c.getTimeInMillis();
+
+		String todayName = String.format("%tY-%<tm-%<td", c);
+		if (name.substring(0, 10).compareTo(todayName) >= 0)
+			return false;
+
+		long modified = path.lastModified();
+		return path.length() > 0 && modified != 0 && modified < today;
+	}
+
 	@Override
 	public StorageOutputStream newOutputStream(boolean append) throws IOException {
 		return new LocalFileOutputStream(this, append);
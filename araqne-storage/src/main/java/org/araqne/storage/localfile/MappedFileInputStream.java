@@ -0,0 +1,543 @@
+package org.araqne.storage.localfile;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.araqne.storage.api.FilePath;
+import org.araqne.storage.api.StorageInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read-only input stream backed by memory mapped file. File is mapped in 1GB
+ * chunks, so files larger than 2GB are also supported. If a read or length()
+ * goes beyond mapped length, file size is checked again and appended data is
+ * mapped, so late logs of an old day tablet are not missed. Not thread-safe,
+ * but close() can be called while another thread is reading.
+ * 
+ * Streams of the same file share one mapping. Mapping is unmapped shortly after
+ * the last stream is closed, so closed stream can finish in-flight read. Call
+ * {@link #beginTruncate(File)} before truncating a file, since access to
+ * truncated region of mapping crashes jvm.
+ *
+ * @since 0.0.8
+ */
+public class MappedFileInputStream extends StorageInputStream {
+	private static final Logger logger = LoggerFactory.getLogger(MappedFileInputStream.class);
+
+	static final int CHUNK_BITS = 30;
+	static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	// unmap delay after last close, reopen in this time reuses mapping
+	static final long UNMAP_DELAY = 1000;
+
+	// shared mappings and truncating file counts, guarded by mappings
+	private static final Map<File, Mapping> mappings = new HashMap<File, Mapping>();
+	private static final Map<File, Integer> truncatingFiles = new HashMap<File, Integer>();
+	private static Timer unmapTimer;
+
+	private static volatile Method cleanerMethod;
+	private static volatile Method cleanMethod;
+
+	private LocalFilePath path;
+	private final Mapping mapping;
+	private volatile boolean closed;
+	private long pos;
+
+	MappedFileInputStream(LocalFilePath path) throws IOException {
+		this(path, acquire(path.getFile()));
+	}
+
+	private MappedFileInputStream(LocalFilePath path, Mapping mapping) throws IOException {
+		if (mapping == null)
+			throw new IOException("file is being truncated: " + path.getAbsolutePath());
+
+		this.path = path;
+		this.mapping = mapping;
+	}
+
+	/**
+	 * @return mapped stream, or null if file is being truncated
+	 */
+	static MappedFileInputStream open(LocalFilePath path) throws IOException {
+		Mapping m = acquire(path.getFile());
+		if (m == null)
+			return null;
+		return new MappedFileInputStream(path, m);
+	}
+
+	/**
+	 * Waits until all mapped streams of the file are closed, and unmaps it. New
+	 * stream of the file is not mapped until {@link #endTruncate(File)} is
+	 * called. Caller should close its own streams of the file first.
+	 */
+	public static void beginTruncate(File file) throws IOException {
+		File key = file.getAbsoluteFile();
+		synchronized (mappings) {
+			Integer count = truncatingFiles.get(key);
+			truncatingFiles.put(key, count == null ? 1 : count + 1);
+
+			try {
+				while (true) {
+					Mapping m = mappings.get(key);
+					if (m == null)
+						return;
+
+					if (m.refs == 0 && System.currentTimeMillis() - m.released >= UNMAP_DELAY) {
+						mappings.remove(key);
+						m.unmap();
+						return;
+					}
+
+					mappings.wait(100);
+				}
+			} catch (InterruptedException e) {
+				endTruncate(file);
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while waiting mapped streams of " + key);
+			}
+		}
+	}
+
+	public static void endTruncate(File file) {
+		File key = file.getAbsoluteFile();
+		synchronized (mappings) {
+			Integer count = truncatingFiles.get(key);
+			if (count == null)
+				return;
+
+			if (count == 1)
+				truncatingFiles.remove(key);
+			else
+				truncatingFiles.put(key, count - 1);
+		}
+	}
+
+	static boolean isMapped(File file) {
+		synchronized (mappings) {
+			return mappings.containsKey(file.getAbsoluteFile());
+		}
+	}
+
+	private static Mapping acquire(File file) throws IOException {
+		if (!file.isFile())
+			throw new FileNotFoundException(file.getAbsolutePath());
+
+		File key = file.getAbsoluteFile();
+		Mapping m = null;
+		synchronized (mappings) {
+			if (truncatingFiles.containsKey(key))
+				return null;
+
+			m = mappings.get(key);
+			if (m == null) {
+				m = new Mapping(key);
+				mappings.put(key, m);
+			}
+			m.refs++;
+		}
+
+		try {
+			m.map(file.length());
+			return m;
+		} catch (IOException e) {
+			release(m);
+			throw e;
+		}
+	}
+
+	private static void release(final Mapping m) {
+		synchronized (mappings) {
+			m.refs--;
+			m.released = System.currentTimeMillis();
+			mappings.notifyAll();
+
+			if (m.refs > 0)
+				return;
+
+			if (unmapTimer == null)
+				unmapTimer = new Timer("Mapped File Unmapper", true);
+
+			unmapTimer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					synchronized (mappings) {
+						if (m.refs > 0 || mappings.get(m.file) != m)
+							return;
+
+						if (System.currentTimeMillis() - m.released < UNMAP_DELAY)
+							return;
+
+						mappings.remove(m.file);
+						m.unmap();
+						mappings.notifyAll();
+					}
+				}
+			}, UNMAP_DELAY);
+		}
+	}
+
+	@Override
+	public FilePath getPath() {
+		return path;
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+		}
+
+		// in-flight read can still use chunks until delayed unmap
+		release(mapping);
+	}
+
+	private static class Mapping {
+		private final File file;
+		private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+		private volatile long length;
+
+		// guarded by mappings
+		private int refs;
+		private long released;
+
+		public Mapping(File file) {
+			this.file = file;
+		}
+
+		/**
+		 * Maps appended region if file is larger than mapped length.
+		 */
+		private synchronized void map(long newLength) throws IOException {
+			if (newLength <= length)
+				return;
+
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				// mapping remains valid after channel is closed
+				FileChannel channel = raf.getChannel();
+				newLength = Math.min(newLength, channel.size());
+				if (newLength <= length)
+					return;
+
+				// replaced partial chunk can be used by other stream, it is
+				// released by gc
+				MappedByteBuffer[] old = chunks;
+				int count = (int) ((newLength + CHUNK_SIZE - 1) >>> CHUNK_BITS);
+				MappedByteBuffer[] c = new MappedByteBuffer[count];
+				for (int i = 0; i < count; i++) {
+					long offset = (long) i << CHUNK_BITS;
+					long size = Math.min(CHUNK_SIZE, newLength - offset);
+					if (i < old.length && old[i].capacity() == size)
+						c[i] = old[i];
+					else
+						c[i] = channel.map(MapMode.READ_ONLY, offset, size);
+				}
+
+				chunks = c;
+				length = newLength;
+			} finally {
+				raf.close();
+			}
+		}
+
+		private synchronized void unmap() {
+			MappedByteBuffer[] old = chunks;
+			chunks = new MappedByteBuffer[0];
+			length = 0;
+
+			for (MappedByteBuffer chunk : old)
+				clean(chunk);
+		}
+	}
+
+	// release mapping now instead of gc, otherwise address space and map count
+	// are exhausted by unreachable mappings
+	private static void clean(MappedByteBuffer buffer) {
+		try {
+			if (cleanerMethod == null) {
+				Method m = buffer.getClass().getMethod("cleaner");
+				m.setAccessible(true);
+				cleanerMethod = m;
+			}
+
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner == null)
+				return;
+
+			if (cleanMethod == null) {
+				Method m = cleaner.getClass().getMethod("clean");
+				m.setAccessible(true);
+				cleanMethod = m;
+			}
+			cleanMethod.invoke(cleaner);
+		} catch (Throwable t) {
+			logger.debug("araqne storage: cannot unmap buffer, mapping will be released by gc", t);
+		}
+	}
+
+	/**
+	 * @return true if n bytes can be read from current position
+	 */
+	private boolean hasRemaining(long n) throws IOException {
+		if (mapping.length - pos >= n)
+			return true;
+
+		checkOpen();
+		mapping.map(path.getFile().length());
+		return mapping.length - pos >= n;
+	}
+
+	private void checkOpen() throws IOException {
+		if (closed)
+			throw new IOException("stream closed: " + path.getAbsolutePath());
+	}
+
+	private MappedByteBuffer chunk(long p) throws IOException {
+		checkOpen();
+		return mapping.chunks[(int) (p >>> CHUNK_BITS)];
+	}
+
+	// returns true if n bytes can be read from single chunk
+	private boolean inChunk(int n) {
+		return (pos & CHUNK_MASK) + n <= CHUNK_SIZE;
+	}
+
+	private void ensureRemaining(int n) throws IOException {
+		if (!hasRemaining(n))
+			throw new EOFException();
+	}
+
+	@Override
+	public long length() throws IOException {
+		checkOpen();
+		mapping.map(path.getFile().length());
+		return mapping.length;
+	}
+
+	@Override
+	public void seek(long pos) throws IOException {
+		if (pos < 0)
+			throw new IOException("negative seek offset: " + pos);
+		this.pos = pos;
+	}
+
+	@Override
+	public long getPos() throws IOException {
+		return pos;
+	}
+
+	@Override
+	public int available() throws IOException {
+		hasRemaining(1);
+		long remain = mapping.length - pos;
+		if (remain < 0)
+			return 0;
+		return (remain > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) remain;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0 || !hasRemaining(1))
+			return 0;
+
+		long dest = Math.min(pos + n, mapping.length);
+		long skipped = dest - pos;
+		pos = dest;
+		return skipped;
+	}
+
+	@Override
+	public int skipBytes(int n) throws IOException {
+		return (int) skip(n);
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!hasRemaining(1))
+			return -1;
+
+		int b = chunk(pos).get((int) (pos & CHUNK_MASK)) & 0xff;
+		pos++;
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b) throws IOException {
+		return read(b, 0, b.length);
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (!hasRemaining(len) && pos >= mapping.length)
+			return -1;
+
+		int total = (int) Math.min(len, mapping.length - pos);
+		int remain = total;
+		while (remain > 0) {
+			ByteBuffer src = chunk(pos).duplicate();
+			int offset = (int) (pos & CHUNK_MASK);
+			int n = Math.min(remain, src.limit() - offset);
+			src.position(offset);
+			src.get(b, off, n);
+
+			off += n;
+			remain -= n;
+			pos += n;
+		}
+		return total;
+	}
+
+	@Override
+	public void readFully(byte[] b, int off, int len) throws IOException {
+		ensureRemaining(len);
+		read(b, off, len);
+	}
+
+	@Override
+	public int readBestEffort(ByteBuffer buf) throws IOException {
+		int total = 0;
+		hasRemaining(buf.remaining());
+		while (buf.remaining() > 0 && pos < mapping.length) {
+			ByteBuffer src = chunk(pos).duplicate();
+			int offset = (int) (pos & CHUNK_MASK);
+			int n = (int) Math.min(buf.remaining(), src.limit() - offset);
+			src.position(offset);
+			src.limit(offset + n);
+			buf.put(src);
+
+			total += n;
+			pos += n;
+		}
+		return total;
+	}
+
+	@Override
+	public boolean readBoolean() throws IOException {
+		return readByte() != 0;
+	}
+
+	@Override
+	public byte readByte() throws IOException {
+		int b = read();
+		if (b < 0)
+			throw new EOFException();
+		return (byte) b;
+	}
+
+	@Override
+	public int readUnsignedByte() throws IOException {
+		return readByte() & 0xff;
+	}
+
+	@Override
+	public short readShort() throws IOException {
+		ensureRemaining(2);
+		if (!inChunk(2))
+			return (short) ((readUnsignedByte() << 8) | readUnsignedByte());
+
+		short v = chunk(pos).getShort((int) (pos & CHUNK_MASK));
+		pos += 2;
+		return v;
+	}
+
+	@Override
+	public int readUnsignedShort() throws IOException {
+		return readShort() & 0xffff;
+	}
+
+	@Override
+	public char readChar() throws IOException {
+		return (char) readUnsignedShort();
+	}
+
+	@Override
+	public int readInt() throws IOException {
+		ensureRemaining(4);
+		if (!inChunk(4))
+			return (readUnsignedShort() << 16) | readUnsignedShort();
+
+		int v = chunk(pos).getInt((int) (pos & CHUNK_MASK));
+		pos += 4;
+		return v;
+	}
+
+	@Override
+	public long readLong() throws IOException {
+		ensureRemaining(8);
+		if (!inChunk(8))
+			return ((long) readInt() << 32) | (readInt() & 0xffffffffL);
+
+		long v = chunk(pos).getLong((int) (pos & CHUNK_MASK));
+		pos += 8;
+		return v;
+	}
+
+	@Override
+	public float readFloat() throws IOException {
+		return Float.intBitsToFloat(readInt());
+	}
+
+	@Override
+	public double readDouble() throws IOException {
+		return Double.longBitsToDouble(readLong());
+	}
+
+	@Override
+	public String readLine() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		int c = -1;
+		boolean eol = false;
+
+		while (!eol) {
+			switch (c = read()) {
+			case -1:
+			case '\n':
+				eol = true;
+				break;
+			case '\r':
+				eol = true;
+				long cur = pos;
+				if (read() != '\n')
+					pos = cur;
+				break;
+			default:
+				sb.append((char) c);
+				break;
+			}
+		}
+
+		if (c == -1 && sb.length() == 0)
+			return null;
+		return sb.toString();
+	}
+
+	@Override
+	public String readUTF() throws IOException {
+		return DataInputStream.readUTF(this);
+	}
+
+	@Override
+	public void sync() throws IOException {
+		// read-only mapping
+	}
+}
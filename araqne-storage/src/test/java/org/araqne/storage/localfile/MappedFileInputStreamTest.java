@@ -0,0 +1,199 @@
+package org.araqne.storage.localfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class MappedFileInputStreamTest {
+	@Test
+	public void testRead() throws IOException {
+		File f = newFile(1000);
+		MappedFileInputStream is = new MappedFileInputStream(new LocalFilePath(f));
+		try {
+			assertEquals(1000, is.length());
+			for (int i = 0; i < 250; i++)
+				assertEquals(i, is.readInt());
+			assertEquals(-1, is.read());
+		} finally {
+			is.close();
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testAppendedData() throws IOException {
+		File f = newFile(1000);
+		MappedFileInputStream is = new MappedFileInputStream(new LocalFilePath(f));
+		try {
+			is.seek(996);
+			assertEquals(249, is.readInt());
+
+			append(f, 250, 500);
+
+			// late logs of old day tablet should be visible
+			for (int i = 250; i < 500; i++)
+				assertEquals(i, is.readInt());
+			assertEquals(2000, is.length());
+			assertEquals(-1, is.read());
+		} finally {
+			is.close();
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testCloseWhileReading() throws Exception {
+		File f = newFile(1024 * 1024);
+		final MappedFileInputStream is = new MappedFileInputStream(new LocalFilePath(f));
+		final CountDownLatch started = new CountDownLatch(1);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				byte[] b = new byte[4096];
+				try {
+					while (true) {
+						is.seek(0);
+						while (is.read(b) > 0)
+							;
+						started.countDown();
+					}
+				} catch (IOException e) {
+					// expected, stream closed
+				} catch (Throwable t) {
+					failure.set(t);
+				} finally {
+					started.countDown();
+				}
+			}
+		};
+
+		try {
+			reader.start();
+			started.await();
+			is.close();
+			reader.join(10000);
+
+			assertTrue(!reader.isAlive());
+			assertNull(failure.get());
+
+			try {
+				is.seek(0);
+				is.readInt();
+				fail();
+			} catch (IOException e) {
+			}
+		} finally {
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testSharedMapping() throws Exception {
+		File f = newFile(1000);
+		MappedFileInputStream is1 = new MappedFileInputStream(new LocalFilePath(f));
+		MappedFileInputStream is2 = new MappedFileInputStream(new LocalFilePath(f));
+		try {
+			is1.close();
+			assertTrue(MappedFileInputStream.isMapped(f));
+			assertEquals(0, is2.readInt());
+
+			// unmapped after last close
+			is2.close();
+			Thread.sleep(MappedFileInputStream.UNMAP_DELAY + 500);
+			assertFalse(MappedFileInputStream.isMapped(f));
+		} finally {
+			is1.close();
+			is2.close();
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testTruncate() throws Exception {
+		final File f = newFile(4096);
+		final LocalFilePath path = new LocalFilePath(f);
+		MappedFileInputStream is = MappedFileInputStream.open(path);
+		final CountDownLatch truncated = new CountDownLatch(1);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		Thread repairer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					MappedFileInputStream.beginTruncate(f);
+					try {
+						RandomAccessFile raf = new RandomAccessFile(f, "rw");
+						try {
+							raf.setLength(1000);
+						} finally {
+							raf.close();
+						}
+						truncated.countDown();
+					} finally {
+						MappedFileInputStream.endTruncate(f);
+					}
+				} catch (Throwable t) {
+					failure.set(t);
+				}
+			}
+		};
+
+		try {
+			repairer.start();
+
+			// truncation waits for open stream, and new stream is not mapped
+			assertFalse(truncated.await(300, TimeUnit.MILLISECONDS));
+			assertNull(MappedFileInputStream.open(path));
+			assertEquals(4096, is.length());
+
+			is.close();
+			repairer.join(10000);
+			assertNull(failure.get());
+			assertEquals(0, truncated.getCount());
+			assertFalse(MappedFileInputStream.isMapped(f));
+
+			is = MappedFileInputStream.open(path);
+			assertEquals(1000, is.length());
+		} finally {
+			is.close();
+			f.delete();
+		}
+	}
+
+	private File newFile(int length) throws IOException {
+		File f = File.createTempFile("mapped", ".dat");
+		append(f, 0, length / 4);
+		return f;
+	}
+
+	private void append(File f, int begin, int end) throws IOException {
+		FileOutputStream os = new FileOutputStream(f, true);
+		try {
+			byte[] b = new byte[(end - begin) * 4];
+			for (int i = begin; i < end; i++) {
+				int p = (i - begin) * 4;
+				b[p] = (byte) (i >> 24);
+				b[p + 1] = (byte) (i >> 16);
+				b[p + 2] = (byte) (i >> 8);
+				b[p + 3] = (byte) i;
+			}
+			os.write(b);
+		} finally {
+			os.close();
+		}
+	}
+}
@@ -15,11 +15,11 @@
  */
 package org.araqne.logparser.syslog.juniper;
 
-import java.text.SimpleDateFormat;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 
+import org.araqne.log.api.CompiledDateParser;
 import org.araqne.log.api.V1LogParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,7 +34,7 @@ public class SslVpnLogParser extends V1LogParser {
 		String, Integer, Date
 	};
 
-	private  SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.ENGLISH);
+	private final CompiledDateParser format = new CompiledDateParser("yyyy-MM-dd HH:mm:ss", Locale.ENGLISH);
 
 	private static final String[] Keys = new String[] { "vendor_logtime", "hostname", "ip_user", "msg"};
 
@@ -81,7 +81,7 @@ public class SslVpnLogParser extends V1LogParser {
 					m.put("vendor", vendor);
 
 					String date = token.substring(token.indexOf(':') + 1).trim();
-					m.put("logtime", format.parse(date));
+					m.put("logtime", format.parseDate(date));
 
 				}else if(i == 2){
 					String ip = token.substring(token.indexOf('[') + 1, token.indexOf(']'));
@@ -94,7 +94,7 @@ public class SslVpnLogParser extends V1LogParser {
 					if (type == FieldType.Integer)
 						m.put(key, Integer.valueOf(token));
 					else if (type == FieldType.Date)
-						m.put(key, format.parse(token));
+						m.put(key, format.parseDate(token));
 					else
 						m.put(key, token);
 				}
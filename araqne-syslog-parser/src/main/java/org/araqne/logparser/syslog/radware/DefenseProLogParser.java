@@ -16,16 +16,17 @@
 package org.araqne.logparser.syslog.radware;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.araqne.log.api.CompiledDateParser;
 import org.araqne.log.api.V1LogParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class DefenseProLogParser extends V1LogParser {
 	private final Logger logger = LoggerFactory.getLogger(DefenseProLogParser.class.getName());
+	private final CompiledDateParser dateFormat = new CompiledDateParser("dd-MM-yyyy HH:mm:ss");
 
 	@Override
 	public Map<String, Object> parse(Map<String, Object> props) {
@@ -143,9 +144,8 @@ public class DefenseProLogParser extends V1LogParser {
 			offset = pos + 1;
 			String action = line.substring(offset);
 
-			SimpleDateFormat dateFormat = new SimpleDateFormat("dd-MM-yyyy HH:mm:ss");
 			try {
-				m.put("date", dateFormat.parse(date));
+				m.put("date", dateFormat.parseDate(date));
 			} catch (ParseException e) {
 			}
 
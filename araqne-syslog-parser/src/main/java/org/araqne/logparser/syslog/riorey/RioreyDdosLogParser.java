@@ -15,11 +15,11 @@
  */
 package org.araqne.logparser.syslog.riorey;
 
-import java.text.SimpleDateFormat;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.StringTokenizer;
 
+import org.araqne.log.api.CompiledDateParser;
 import org.araqne.log.api.V1LogParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,7 +31,7 @@ public class RioreyDdosLogParser extends V1LogParser {
 
 	private final Logger slog = LoggerFactory.getLogger(RioreyDdosLogParser.class);
 
-	private SimpleDateFormat format = new SimpleDateFormat("yyyy-M-d HH:mm:ss");
+	private final CompiledDateParser format = new CompiledDateParser("yyyy-M-d HH:mm:ss");
 
 	private enum FieldType {
 		String, Integer, Date
@@ -67,7 +67,7 @@ public class RioreyDdosLogParser extends V1LogParser {
 					if (type == FieldType.Integer)
 						m.put(key, Integer.valueOf(token));
 					else if (type == FieldType.Date)
-						m.put(key, format.parse(token));
+						m.put(key, format.parseDate(token));
 					else
 						m.put(key, token);
 				}
@@ -16,12 +16,12 @@
 package org.araqne.logparser.syslog.riorey;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Stack;
 import java.util.StringTokenizer;
 
+import org.araqne.log.api.CompiledDateParser;
 import org.araqne.log.api.V1LogParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,6 +32,7 @@ import org.slf4j.LoggerFactory;
 public class RioreySyslogParser extends V1LogParser {
 
 	private final Logger slog = LoggerFactory.getLogger(RioreySyslogParser.class);
+	private final CompiledDateParser format = new CompiledDateParser("yyyy-MM-dd HH:mm:ss ");
 
 	@Override
 	public Map<String, Object> parse(Map<String, Object> log) {
@@ -102,7 +103,6 @@ public class RioreySyslogParser extends V1LogParser {
 		String tmpStr = s.substring(b+13,c);
 
 		StringTokenizer tok = new StringTokenizer(tmpStr, " ");
-		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss ");
 
 		while (tok.hasMoreTokens()) {
 			String token = tok.nextToken();
@@ -113,7 +113,7 @@ public class RioreySyslogParser extends V1LogParser {
 			{
 				value = value.replace('T', ' ');
 				value = value.replace('Z', ' ');
-				m.put(key, format.parse(value));
+				m.put(key, format.parseDate(value));
 			}	
 			else 
 				m.put(key, value);
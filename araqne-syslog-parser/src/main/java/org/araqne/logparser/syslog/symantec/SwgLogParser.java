@@ -15,12 +15,12 @@
  */
 package org.araqne.logparser.syslog.symantec;
 
-import java.text.SimpleDateFormat;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.StringTokenizer;
 
+import org.araqne.log.api.CompiledDateParser;
 import org.araqne.log.api.V1LogParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,7 +36,7 @@ public class SwgLogParser extends V1LogParser {
 		String, Integer, Date
 	};
 
-	private SimpleDateFormat format = new SimpleDateFormat("MM/dd/yyyy HH:mm", Locale.ENGLISH);
+	private final CompiledDateParser format = new CompiledDateParser("MM/dd/yyyy HH:mm", Locale.ENGLISH);
 
 	private static final String[] Keys = new String[] { "timestamp", "hostname", "local_ip", "detection", "category", "class",
 			"severity", "action", "detection_type", "dst_ip", "dst_port", "hits", "domain", "req_url" };
@@ -92,7 +92,7 @@ public class SwgLogParser extends V1LogParser {
 				if (type == FieldType.Integer)
 					m.put(key, Integer.valueOf(token));
 				else if (type == FieldType.Date)
-					m.put(key, format.parse(token));
+					m.put(key, format.parseDate(token));
 				else
 					m.put(key, token);
 			}